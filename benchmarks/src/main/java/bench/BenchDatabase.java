@@ -0,0 +1,121 @@
+package bench;
+
+import db.ConnectionProfile;
+import db.DBConnection;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-memory H2 database standing in for the real server, seeded with
+ * synthetic tables, and configured as the editor's only connection profile.
+ * Result cache and query history are off so every run does the full work.
+ */
+final class BenchDatabase {
+    private static final AtomicInteger SEQ = new AtomicInteger();
+    // names overlap in their prefixes like a real schema does
+    private static final String[] WORDS = {"customer", "order", "created", "currency", "invoice", "item", "account",
+            "address", "country", "status", "product", "price", "payment", "shipment", "supplier", "category"};
+    private static final String[] SUFFIXES = {"id", "name", "code", "at", "amount", "type", "note", "ref"};
+
+    private BenchDatabase() {
+    }
+
+    /** Configures a fresh, empty database; extra overrides the benchmark defaults. */
+    static ConnectionProfile open(String name, Properties extra) throws IOException {
+        Path dir = Files.createTempDirectory("dbeditor-bench");
+        Properties p = new Properties();
+        p.setProperty("jdbc.url", "jdbc:h2:mem:" + name + SEQ.incrementAndGet() + ";DB_CLOSE_DELAY=-1");
+        p.setProperty("jdbc.driver", "org.h2.Driver");
+        p.setProperty("jdbc.user", "sa");
+        p.setProperty("cache.enabled", "false");
+        p.setProperty("history.enabled", "false");
+        p.setProperty("schema.cacheDir", dir.resolve("schema").toString());
+        p.setProperty("result.spillDir", dir.toString());
+        // fetch everything without waiting for the grid to scroll
+        p.setProperty("result.prefetchRows", String.valueOf(Integer.MAX_VALUE / 2));
+        p.setProperty("result.maxRows", "100000000");
+        p.setProperty("result.maxMemoryMb", "4096");
+        p.putAll(extra);
+        DBConnection.configure(p);
+        return DBConnection.active();
+    }
+
+    static ConnectionProfile open(String name) throws IOException {
+        return open(name, new Properties());
+    }
+
+    /** A table of rows rows: id plus columns - 1 integer, text, decimal and timestamp columns. */
+    static void createWide(ConnectionProfile profile, String table, int rows, int columns) throws SQLException {
+        StringBuilder ddl = new StringBuilder("CREATE TABLE ").append(table).append(" (id BIGINT PRIMARY KEY");
+        StringBuilder select = new StringBuilder("SELECT X");
+        for (int c = 1; c < columns; c++) {
+            switch (c % 4) {
+                case 0:
+                    ddl.append(", n").append(c).append(" INT");
+                    select.append(", MOD(X * ").append(c).append(", 100000)");
+                    break;
+                case 1:
+                    ddl.append(", s").append(c).append(" VARCHAR(40)");
+                    select.append(", 'name-").append(c).append("-' || X");
+                    break;
+                case 2:
+                    ddl.append(", d").append(c).append(" DECIMAL(12, 2)");
+                    select.append(", X * 1.25");
+                    break;
+                default:
+                    ddl.append(", t").append(c).append(" TIMESTAMP");
+                    select.append(", DATEADD('SECOND', X, TIMESTAMP '2024-01-01 00:00:00')");
+                    break;
+            }
+        }
+        ddl.append(')');
+        try (Connection conn = profile.getConnection(); Statement stmt = conn.createStatement()) {
+            stmt.execute(ddl.toString());
+            stmt.execute("INSERT INTO " + table + " " + select + " FROM SYSTEM_RANGE(1, " + rows + ")");
+        }
+    }
+
+    /** tables empty tables of columnsPerTable columns each, named by {@link #tableName} / {@link #columnName}. */
+    static void createSchema(ConnectionProfile profile, int tables, int columnsPerTable) throws SQLException {
+        try (Connection conn = profile.getConnection(); Statement stmt = conn.createStatement()) {
+            for (int t = 0; t < tables; t++) {
+                StringBuilder ddl = new StringBuilder("CREATE TABLE ").append(tableName(t)).append(" (");
+                for (int c = 0; c < columnsPerTable; c++) {
+                    if (c > 0) ddl.append(", ");
+                    ddl.append(columnName(t, c)).append(c % 3 == 0 ? " BIGINT" : " VARCHAR(64)");
+                }
+                stmt.execute(ddl.append(')').toString());
+            }
+        }
+    }
+
+    static String tableName(int table) {
+        return WORDS[table % WORDS.length] + "s_" + table;
+    }
+
+    /** Unique within a table; the same names recur across tables, as id / created_at do. */
+    static String columnName(int table, int column) {
+        String base = WORDS[(table + column / SUFFIXES.length) % WORDS.length] + "_"
+                + SUFFIXES[column % SUFFIXES.length];
+        int round = column / (WORDS.length * SUFFIXES.length);
+        return round == 0 ? base : base + round;
+    }
+
+    /** Bytes allocated so far by all live threads, including the query and loader threads. */
+    static long allocatedBytes() {
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long total = 0;
+        for (long bytes : mx.getThreadAllocatedBytes(mx.getAllThreadIds())) {
+            if (bytes > 0) total += bytes;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,136 @@
+package bench;
+
+import db.CompletionIndex;
+import db.DynamicSuggestions;
+import org.fife.ui.autocomplete.BasicCompletion;
+import org.fife.ui.autocomplete.Completion;
+import org.fife.ui.autocomplete.VariableCompletion;
+import org.fife.ui.rsyntaxtextarea.RSyntaxTextArea;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.swing.JTextField;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Completion latency per keystroke on large schemas. Each call is one
+ * keystroke of typing a column name: the provider reads the SQL context at
+ * the caret and looks the typed prefix up in the matching index. The
+ * completions are filled in the same shape the schema loader builds them.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g", "-Djava.awt.headless=true"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CompletionBenchmark {
+    private static final int COLUMNS_PER_TABLE = 50;
+    private static final String TYPED = "customer_na";
+
+    @Param({"10000", "100000", "500000"})
+    public int schemaColumns;
+
+    private DynamicSuggestions.CaseInsensitiveCompletionProvider provider;
+    private CompletionIndex allIndex;
+    private RSyntaxTextArea[] noTable;      // SELECT cu|
+    private RSyntaxTextArea[] fromTable;    // SELECT cu| FROM t
+    private RSyntaxTextArea[] qualified;    // SELECT o.cu| FROM t o
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        provider = DynamicSuggestions.buildProvider();
+        // before the schema is in, an empty prefix lists the keywords and functions
+        List<Completion> keywords = provider.getCompletions(new JTextField());
+        List<Completion> all = new ArrayList<>(keywords);
+        List<Completion> tables = new ArrayList<>();
+        Map<String, List<Completion>> columnsByTable = new HashMap<>();
+        Set<String> columnNames = new HashSet<>();
+        int tableCount = Math.max(1, schemaColumns / COLUMNS_PER_TABLE);
+        for (int t = 0; t < tableCount; t++) {
+            String table = BenchDatabase.tableName(t);
+            Completion tableCompletion = new BasicCompletion(provider, table);
+            tables.add(tableCompletion);
+            all.add(tableCompletion);
+            List<Completion> cols = new ArrayList<>(COLUMNS_PER_TABLE);
+            for (int c = 0; c < COLUMNS_PER_TABLE; c++) {
+                String column = BenchDatabase.columnName(t, c);
+                VariableCompletion bare = new VariableCompletion(provider, column, c % 3 == 0 ? "BIGINT" : "VARCHAR");
+                cols.add(bare);
+                all.add(new VariableCompletion(provider, table + "." + column, bare.getType()));
+                if (columnNames.add(column.toLowerCase(Locale.ROOT))) {
+                    all.add(bare);
+                }
+            }
+            columnsByTable.put(table.toLowerCase(Locale.ROOT), cols);
+        }
+        provider.setCompletions(keywords, tables, columnsByTable, all);
+        allIndex = new CompletionIndex(all);
+
+        String table = BenchDatabase.tableName(tableCount / 2);
+        noTable = keystrokes("SELECT ", "");
+        fromTable = keystrokes("SELECT ", " FROM " + table);
+        qualified = keystrokes("SELECT o.", " FROM " + table + " o");
+    }
+
+    /** One editor per keystroke of TYPED, caret right after the typed part. */
+    private static RSyntaxTextArea[] keystrokes(String before, String after) {
+        RSyntaxTextArea[] areas = new RSyntaxTextArea[TYPED.length()];
+        for (int i = 0; i < areas.length; i++) {
+            String typed = TYPED.substring(0, i + 1);
+            areas[i] = new RSyntaxTextArea(before + typed + after);
+            areas[i].setCaretPosition(before.length() + typed.length());
+        }
+        return areas;
+    }
+
+    /** Which keystroke a thread is at; it cycles through typing the name. */
+    @State(Scope.Thread)
+    public static class Keystroke {
+        int next;
+
+        int advance() {
+            int i = next;
+            next = (next + 1) % TYPED.length();
+            return i;
+        }
+    }
+
+    @Benchmark
+    public List<Completion> noTableContext(Keystroke k) {
+        return provider.getCompletions(noTable[k.advance()]);
+    }
+
+    @Benchmark
+    public List<Completion> fromTable(Keystroke k) {
+        return provider.getCompletions(fromTable[k.advance()]);
+    }
+
+    @Benchmark
+    public List<Completion> qualifiedColumn(Keystroke k) {
+        return provider.getCompletions(qualified[k.advance()]);
+    }
+
+    /** The index lookup alone, without reading the editor context. */
+    @Benchmark
+    public List<Completion> indexLookup(Keystroke k) {
+        return allIndex.lookup(TYPED.subSequence(0, k.advance() + 1), 500);
+    }
+}
@@ -0,0 +1,71 @@
+package bench;
+
+import db.ConnectionProfile;
+import db.DBConnection;
+import db.SchemaCatalog;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Metadata crawl behind the explorer and completion: re-reading the catalog
+ * list, the table list and every table's columns, as Refresh and the
+ * background schema refresh do.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g", "-Djava.awt.headless=true"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class MetadataBenchmark {
+    @Param({"100", "1000"})
+    public int tables;
+
+    @Param({"20"})
+    public int columnsPerTable;
+
+    private SchemaCatalog catalog;
+    private String current;
+    private String table;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        ConnectionProfile profile = BenchDatabase.open("metadata");
+        BenchDatabase.createSchema(profile, tables, columnsPerTable);
+        catalog = SchemaCatalog.forProfile(profile);
+        current = catalog.currentCatalog();
+        // columns that were looked at once are re-read on every refresh
+        catalog.tablesWithColumns(current);
+        table = catalog.tables(current).get(tables / 2).name;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        DBConnection.shutdown();
+    }
+
+    @Benchmark
+    public int refreshAll() throws Exception {
+        catalog.refreshAll();
+        return catalog.tablesWithColumns(current).size();
+    }
+
+    /** One table's columns, what Refresh on a table node in the explorer waits for. */
+    @Benchmark
+    public int refreshTable() throws Exception {
+        return catalog.refreshTable(current, table).size();
+    }
+}
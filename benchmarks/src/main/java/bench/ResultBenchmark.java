@@ -0,0 +1,99 @@
+package bench;
+
+import db.ConnectionProfile;
+import db.DBConnection;
+import db.QueryExecutor;
+import db.ResultTableModel;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Result materialisation: a query through {@link QueryExecutor} until every
+ * row is in the result model. Reports queries/s, rows/s ("rows") and
+ * bytes allocated per row by all threads ("bytesPerRow").
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g", "-Djava.awt.headless=true"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ResultBenchmark {
+    @Param({"10000", "100000"})
+    public int rows;
+
+    @Param({"8", "32"})
+    public int columns;
+
+    private ConnectionProfile profile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        profile = BenchDatabase.open("results");
+        BenchDatabase.createWide(profile, "wide", rows, columns);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        DBConnection.shutdown();
+    }
+
+    /** Rows fetched, reported per second. */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Rows {
+        public long rows;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            rows = 0;
+        }
+    }
+
+    /** Allocation over the iteration, reported per row fetched. */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Allocation {
+        long bytes;
+        long rows;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+            rows = 0;
+        }
+
+        public long bytesPerRow() {
+            return rows == 0 ? 0 : bytes / rows;
+        }
+    }
+
+    @Benchmark
+    public int materialise(Rows counter, Allocation allocation) throws Exception {
+        long before = BenchDatabase.allocatedBytes();
+        ResultTableModel model = QueryExecutor.submit(profile, "SELECT * FROM wide", Collections.emptyMap())
+                .result().get();
+        model.loaded().get();
+        int fetched = model.getRowCount();
+        allocation.bytes += BenchDatabase.allocatedBytes() - before;
+        model.getStore().close();
+        counter.rows += fetched;
+        allocation.rows += fetched;
+        return fetched;
+    }
+}
@@ -0,0 +1,105 @@
+package bench;
+
+import db.ConnectionProfile;
+import db.DBConnection;
+import db.QueryExecutor;
+import db.ResultTableModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Collections;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Table-model scroll access: the cell text the grid asks for when it paints
+ * one screen of rows, paging down and jumping to random rows of a loaded
+ * result held in memory or spilled to disk.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx3g", "-Djava.awt.headless=true"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ScrollBenchmark {
+    private static final int VISIBLE_ROWS = 40;
+    private static final int MAX_CELL_CHARS = 200;
+
+    @Param({"100000", "1000000"})
+    public int rows;
+
+    @Param({"16"})
+    public int columns;
+
+    @Param({"false", "true"})
+    public boolean spillToDisk;
+
+    private ConnectionProfile profile;
+    private ResultTableModel model;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Properties settings = new Properties();
+        settings.setProperty("result.spillToDisk", String.valueOf(spillToDisk));
+        settings.setProperty("result.spillThresholdMb", "1");
+        profile = BenchDatabase.open("scroll", settings);
+        BenchDatabase.createWide(profile, "wide", rows, columns);
+        model = QueryExecutor.submit(profile, "SELECT * FROM wide", Collections.emptyMap()).result().get();
+        model.loaded().get();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        model.getStore().close();
+        DBConnection.shutdown();
+    }
+
+    /** Where the viewport is; each thread scrolls on its own. */
+    @State(Scope.Thread)
+    public static class Viewport {
+        int top;
+        long seed = 42;
+
+        int nextRandom(int bound) {
+            // xorshift, cheap enough not to show up in the measurement
+            seed ^= seed << 13;
+            seed ^= seed >>> 7;
+            seed ^= seed << 17;
+            return (int) Math.floorMod(seed, (long) bound);
+        }
+    }
+
+    @Benchmark
+    public void pageDown(Viewport viewport, Blackhole bh) {
+        paint(viewport.top, bh);
+        viewport.top += VISIBLE_ROWS;
+        if (viewport.top + VISIBLE_ROWS > model.getRowCount()) viewport.top = 0;
+    }
+
+    @Benchmark
+    public void jump(Viewport viewport, Blackhole bh) {
+        paint(viewport.nextRandom(model.getRowCount() - VISIBLE_ROWS), bh);
+    }
+
+    private void paint(int top, Blackhole bh) {
+        int cols = model.getColumnCount();
+        for (int r = top; r < top + VISIBLE_ROWS; r++) {
+            for (int c = 0; c < cols; c++) {
+                bh.consume(model.getCellText(r, c, MAX_CELL_CHARS));
+            }
+        }
+    }
+}
@@ -18,6 +18,7 @@ public class Main {
             System.out.println("Could not load config.properties, using defaults.");
         }
         DBConnection.configure(cfg);
+        Runtime.getRuntime().addShutdownHook(new Thread(DBConnection::shutdown, "db-pool-shutdown"));
 
         SwingUtilities.invokeLater(() -> {
             try {
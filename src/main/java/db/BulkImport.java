@@ -0,0 +1,514 @@
+package db;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loads a CSV or JSON Lines file into a table. The file is parsed on one
+ * thread and handed in chunks of import.chunkRows to import.threads writers,
+ * each on its own pooled connection, that insert with multi-row prepared
+ * statements (import.rowsPerStatement rows each) sent as one JDBC batch and
+ * committed per chunk. A chunk the server refuses is retried row by row so
+ * that only the bad rows are rejected; rejected rows are listed, with their
+ * line and reason, in a .rejected.txt file next to the input.
+ * <p>
+ * On MySQL, CSV files go through LOAD DATA LOCAL INFILE instead when the
+ * server allows local_infile and the URL has allowLoadLocalInfile=true.
+ */
+public class BulkImport {
+    private static final List<String[]> END = new ArrayList<>();
+
+    private final ConnectionProfile profile;
+    private final Path file;
+    private final String catalog;
+    private final String table;
+    private final String[] targets;       // table column per file column, null to skip
+    private final QueryExecution<BulkImport> exec;
+    private final AtomicLong rejected = new AtomicLong();
+    private final long fileSize;
+    private volatile ImportReader.CountingInputStream counter;
+    private volatile Exception failure;   // first writer error
+    private volatile String method = "batched INSERT";
+    private BufferedWriter rejects;       // guarded by this
+    private Path rejectsFile;
+
+    private BulkImport(ConnectionProfile profile, Path file, String catalog, String table, String[] targets)
+            throws IOException {
+        this.profile = profile;
+        this.file = file;
+        this.catalog = catalog;
+        this.table = table;
+        this.targets = targets;
+        this.fileSize = Files.size(file);
+        this.exec = new QueryExecution<>("import " + file.getFileName() + " into " + table);
+    }
+
+    /** Column names in the file, read from its first line (CSV) or first object (JSON Lines). */
+    public static String[] readHeader(Path file) throws IOException {
+        try (ImportReader r = ImportReader.open(file)) {
+            return r.header();
+        }
+    }
+
+    /**
+     * Default mapping of file columns onto table columns: same name, ignoring
+     * case and underscores; unmatched file columns map to null (skipped).
+     */
+    public static String[] defaultMapping(String[] header, List<SchemaCatalog.ColumnInfo> columns) {
+        String[] targets = new String[header.length];
+        for (int i = 0; i < header.length; i++) {
+            String want = simplify(header[i]);
+            for (SchemaCatalog.ColumnInfo col : columns) {
+                if (simplify(col.name).equals(want)) {
+                    targets[i] = col.name;
+                    break;
+                }
+            }
+        }
+        return targets;
+    }
+
+    private static String simplify(String name) {
+        return name.trim().replace("_", "").replace(" ", "").toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Starts the import on the query executor. targets holds the table column
+     * for each file column in header order, or null to skip that column. The
+     * execution completes with this import once every writer has finished.
+     */
+    public static BulkImport start(Path file, String catalog, String table, String[] targets) throws IOException {
+        return start(DBConnection.active(), file, catalog, table, targets);
+    }
+
+    /** Imports through profile's pool; the writers each borrow their own connection. */
+    public static BulkImport start(ConnectionProfile profile, Path file, String catalog, String table,
+                                   String[] targets) throws IOException {
+        boolean any = false;
+        for (String t : targets) any |= t != null;
+        if (!any) throw new IllegalArgumentException("No file column is mapped to a table column");
+        BulkImport imp = new BulkImport(profile, file, catalog, table, targets);
+        QueryExecutor.EXECUTOR.execute(() -> {
+            try {
+                imp.run();
+                imp.exec.result().complete(imp);
+            } catch (Exception ex) {
+                imp.exec.result().completeExceptionally(imp.exec.isCancelled() && imp.failure == null
+                        ? imp.exec.cancelledException() : ex);
+            } finally {
+                imp.closeRejects();
+                ResultCache.invalidateTable(table);
+            }
+        });
+        return imp;
+    }
+
+    public QueryExecution<BulkImport> execution() {
+        return exec;
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /** File listing rejected rows, or null if none were rejected. */
+    public Path getRejectsFile() {
+        return rejectsFile;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    /** Rows, share of the file read, throughput and rejects so far. */
+    public String progressText() {
+        ImportReader.CountingInputStream c = counter;
+        long read = c == null ? 0 : c.count;
+        long rows = exec.rowsFetched();
+        double seconds = Math.max(exec.elapsedMillis(), 1) / 1000.0;
+        String text = String.format("%,d rows (%d%% of %s), %,.0f rows/s, %.1f MB/s", rows,
+                fileSize == 0 ? 100 : Math.min(100, read * 100 / fileSize), ColumnarResultStore.formatBytes(fileSize),
+                rows / seconds, read / seconds / (1024 * 1024));
+        long bad = rejected.get();
+        return bad > 0 ? text + ", " + bad + " rejected" : text;
+    }
+
+    private void run() throws Exception {
+        if (ImportReader.isCsv(file) && Settings.getBoolean("import.loadDataLocal", true)
+                && profile.getUrl().startsWith("jdbc:mysql:") && loadDataLocal()) {
+            return;
+        }
+        batched();
+    }
+
+    // ---- batched INSERT path ----
+
+    private void batched() throws Exception {
+        int threads = Math.max(1, Math.min(Settings.getInt("import.threads", 4), profile.getPoolMaxSize()));
+        int chunkRows = Math.max(1, Settings.getInt("import.chunkRows", 5000));
+        long maxRejects = Settings.getLong("import.maxRejects", 1000);
+        List<Integer> mapped = new ArrayList<>();
+        for (int i = 0; i < targets.length; i++) {
+            if (targets[i] != null) mapped.add(i);
+        }
+        int[] fileColumns = mapped.stream().mapToInt(Integer::intValue).toArray();
+        // MySQL allows 65535 placeholders per statement
+        int rowsPerStatement = Math.max(1, Math.min(Settings.getInt("import.rowsPerStatement", 500),
+                65535 / fileColumns.length));
+
+        BlockingQueue<List<String[]>> queue = new ArrayBlockingQueue<>(threads * 2);
+        List<CompletableFuture<Void>> writers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            writers.add(CompletableFuture.runAsync(() -> {
+                try {
+                    write(queue, fileColumns, rowsPerStatement);
+                } catch (SQLException | InterruptedException ex) {
+                    synchronized (this) {
+                        if (failure == null) failure = ex;   // stops the reader and the other writers
+                    }
+                }
+            }, QueryExecutor.EXECUTOR));
+        }
+
+        try (ImportReader r = ImportReader.open(file)) {
+            counter = r.counter;
+            List<String[]> chunk = new ArrayList<>(chunkRows);
+            while (!stopped()) {
+                String[] record;
+                try {
+                    record = r.next();
+                } catch (ImportReader.BadRecordException ex) {
+                    reject(r.recordLine(), ex.getMessage());
+                    checkRejects(maxRejects);
+                    continue;
+                }
+                if (record == null) break;
+                // keep the line number in an extra slot for reject reports
+                String[] row = new String[fileColumns.length + 1];
+                for (int i = 0; i < fileColumns.length; i++) row[i] = record[fileColumns[i]];
+                row[fileColumns.length] = Long.toString(r.recordLine());
+                chunk.add(row);
+                if (chunk.size() == chunkRows) {
+                    enqueue(queue, chunk);
+                    chunk = new ArrayList<>(chunkRows);
+                }
+            }
+            if (!chunk.isEmpty()) enqueue(queue, chunk);
+        } finally {
+            for (int t = 0; t < threads; t++) {
+                enqueue(queue, END);
+            }
+            CompletableFuture.allOf(writers.toArray(new CompletableFuture<?>[0])).join();
+        }
+        if (failure != null) throw failure;
+        if (exec.isCancelled()) throw exec.cancelledException();
+    }
+
+    private boolean stopped() {
+        return exec.isCancelled() || failure != null;
+    }
+
+    /** Waits for room in the queue; once stopped, pending chunks are dropped so END always fits. */
+    private void enqueue(BlockingQueue<List<String[]>> queue, List<String[]> item) throws InterruptedException {
+        while (!queue.offer(item, 100, TimeUnit.MILLISECONDS)) {
+            if (stopped()) {
+                if (item != END) return;
+                queue.clear();
+            }
+        }
+    }
+
+    private void checkRejects(long maxRejects) throws IOException {
+        if (maxRejects >= 0 && rejected.get() > maxRejects) {
+            throw new IOException("More than " + maxRejects + " rows rejected, see " + rejectsFile);
+        }
+    }
+
+    private void write(BlockingQueue<List<String[]>> queue, int[] fileColumns, int rowsPerStatement)
+            throws SQLException, InterruptedException {
+        long maxRejects = Settings.getLong("import.maxRejects", 1000);
+        try (Connection conn = profile.getConnection()) {
+            conn.setAutoCommit(false);
+            String quote = conn.getMetaData().getIdentifierQuoteString().trim();
+            String multiSql = insertSql(quote, rowsPerStatement);
+            while (true) {
+                List<String[]> chunk = queue.take();
+                if (chunk == END) return;
+                if (stopped()) continue;   // drain until END
+                try {
+                    insertChunk(conn, chunk, multiSql, quote, rowsPerStatement, fileColumns.length);
+                    conn.commit();
+                    exec.addRowsFetched(chunk.size());
+                } catch (SQLException ex) {
+                    conn.rollback();
+                    insertRowByRow(conn, chunk, quote, fileColumns.length, maxRejects);
+                }
+            }
+        }
+    }
+
+    private void insertChunk(Connection conn, List<String[]> chunk, String multiSql, String quote,
+                             int rowsPerStatement, int columns) throws SQLException {
+        int full = chunk.size() / rowsPerStatement * rowsPerStatement;
+        if (full > 0) {
+            try (PreparedStatement ps = conn.prepareStatement(multiSql)) {
+                for (int start = 0; start < full; start += rowsPerStatement) {
+                    bind(ps, chunk, start, rowsPerStatement, columns);
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+        }
+        int rest = chunk.size() - full;
+        if (rest > 0) {
+            try (PreparedStatement ps = conn.prepareStatement(insertSql(quote, rest))) {
+                bind(ps, chunk, full, rest, columns);
+                ps.executeUpdate();
+            }
+        }
+    }
+
+    /** Finds the bad rows of a refused chunk; the others are committed one by one. */
+    private void insertRowByRow(Connection conn, List<String[]> chunk, String quote, int columns, long maxRejects)
+            throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(insertSql(quote, 1))) {
+            for (int i = 0; i < chunk.size() && !stopped(); i++) {
+                bind(ps, chunk, i, 1, columns);
+                try {
+                    ps.executeUpdate();
+                    conn.commit();
+                    exec.addRowsFetched(1);
+                } catch (SQLException ex) {
+                    conn.rollback();
+                    reject(Long.parseLong(chunk.get(i)[columns]), ex.getMessage());
+                    if (maxRejects >= 0 && rejected.get() > maxRejects) {
+                        throw new SQLException("More than " + maxRejects + " rows rejected, see " + rejectsFile);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void bind(PreparedStatement ps, List<String[]> rows, int from, int count, int columns)
+            throws SQLException {
+        int p = 1;
+        for (int r = from; r < from + count; r++) {
+            String[] row = rows.get(r);
+            for (int c = 0; c < columns; c++) {
+                if (row[c] == null) {
+                    ps.setNull(p++, Types.NULL);
+                } else {
+                    ps.setString(p++, row[c]);
+                }
+            }
+        }
+    }
+
+    private String insertSql(String quote, int rows) {
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(qualifiedTable(quote)).append(" (");
+        int columns = 0;
+        for (String t : targets) {
+            if (t == null) continue;
+            if (columns++ > 0) sql.append(", ");
+            sql.append(quote(quote, t));
+        }
+        sql.append(") VALUES ");
+        StringBuilder tuple = new StringBuilder("(");
+        for (int c = 0; c < columns; c++) tuple.append(c == 0 ? "?" : ", ?");
+        tuple.append(')');
+        for (int r = 0; r < rows; r++) {
+            if (r > 0) sql.append(", ");
+            sql.append(tuple);
+        }
+        return sql.toString();
+    }
+
+    private String qualifiedTable(String quote) {
+        return (catalog == null ? "" : quote(quote, catalog) + ".") + quote(quote, table);
+    }
+
+    private static String quote(String quote, String name) {
+        return quote.isEmpty() ? name : quote + name.replace(quote, quote + quote) + quote;
+    }
+
+    // ---- MySQL LOAD DATA LOCAL INFILE path ----
+
+    /**
+     * Tries LOAD DATA LOCAL INFILE, feeding the parsed file through the
+     * driver's setLocalInfileInputStream so .gz files work, progress is
+     * counted and NULLs match the batched path.
+     * Returns false, having loaded nothing, when the server or driver does
+     * not allow it.
+     */
+    private boolean loadDataLocal() throws Exception {
+        try (Connection conn = profile.getConnection();
+             Statement stmt = conn.createStatement()) {
+            try (ResultSet rs = stmt.executeQuery("SELECT @@local_infile")) {
+                if (!rs.next() || rs.getInt(1) != 1) return false;
+            }
+            Method setStream;
+            Statement raw;
+            try {
+                raw = stmt.unwrap(Statement.class);
+                setStream = raw.getClass().getMethod("setLocalInfileInputStream", InputStream.class);
+            } catch (NoSuchMethodException ex) {
+                return false;
+            }
+            String quote = conn.getMetaData().getIdentifierQuoteString().trim();
+            List<Integer> mapped = new ArrayList<>();
+            StringBuilder columns = new StringBuilder();
+            for (int i = 0; i < targets.length; i++) {
+                if (targets[i] == null) continue;
+                mapped.add(i);
+                if (columns.length() > 0) columns.append(", ");
+                columns.append(quote(quote, targets[i]));
+            }
+            String sql = "LOAD DATA LOCAL INFILE 'import.csv' INTO TABLE " + qualifiedTable(quote)
+                    + " CHARACTER SET utf8mb4 FIELDS TERMINATED BY ',' OPTIONALLY ENCLOSED BY '\"' ESCAPED BY ''"
+                    + " LINES TERMINATED BY '\\n' (" + columns + ")";
+
+            try (ImportReader r = ImportReader.open(file);
+                 InputStream data = new LoadDataStream(r, mapped.stream().mapToInt(Integer::intValue).toArray(),
+                         Settings.getLong("import.maxRejects", 1000))) {
+                counter = r.counter;
+                setStream.invoke(raw, data);
+                exec.attach(stmt);
+                method = "LOAD DATA LOCAL INFILE";
+                long rows;
+                try {
+                    rows = stmt.executeLargeUpdate(sql);
+                } catch (SQLException ex) {
+                    String msg = String.valueOf(ex.getMessage()).toLowerCase(Locale.ROOT);
+                    if (!exec.isCancelled() && msg.contains("local") && msg.contains("disabled")) {
+                        method = "batched INSERT";
+                        return false;   // allowLoadLocalInfile is off in the driver
+                    }
+                    throw ex;
+                }
+                exec.addRowsFetched(rows);
+                // rows the server skipped or truncated are reported as warnings
+                try (ResultSet rs = stmt.executeQuery("SHOW WARNINGS")) {
+                    while (rs.next()) {
+                        rejected.incrementAndGet();
+                        writeReject(rs.getString("Message"));
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The file as LOAD DATA should read it, parsed by the same reader as the
+     * batched path: only the mapped columns, every value quoted and NULL as
+     * the bare word NULL, so an empty quoted field stays an empty string.
+     */
+    private final class LoadDataStream extends InputStream {
+        private final ImportReader reader;
+        private final int[] columns;
+        private final long maxRejects;
+        private final StringBuilder text = new StringBuilder();
+        private byte[] buf = new byte[0];
+        private int pos;
+
+        LoadDataStream(ImportReader reader, int[] columns, long maxRejects) {
+            this.reader = reader;
+            this.columns = columns;
+            this.maxRejects = maxRejects;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (pos == buf.length && !fill()) return -1;
+            int n = Math.min(len, buf.length - pos);
+            System.arraycopy(buf, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        /** Encodes the next 64 KB or so of records; false at the end of the file. */
+        private boolean fill() throws IOException {
+            text.setLength(0);
+            while (text.length() < 1 << 16) {
+                if (exec.isCancelled()) throw new IOException("Import cancelled");
+                String[] record;
+                try {
+                    record = reader.next();
+                } catch (ImportReader.BadRecordException ex) {
+                    reject(reader.recordLine(), ex.getMessage());
+                    checkRejects(maxRejects);
+                    continue;
+                }
+                if (record == null) break;
+                for (int i = 0; i < columns.length; i++) {
+                    if (i > 0) text.append(',');
+                    String value = record[columns[i]];
+                    if (value == null) {
+                        text.append("NULL");
+                    } else {
+                        text.append('"').append(value.replace("\"", "\"\"")).append('"');
+                    }
+                }
+                text.append('\n');
+            }
+            buf = text.toString().getBytes(StandardCharsets.UTF_8);
+            pos = 0;
+            return buf.length > 0;
+        }
+    }
+
+    // ---- rejected rows ----
+
+    private synchronized void reject(long line, String reason) {
+        rejected.incrementAndGet();
+        writeReject("line " + line + ": " + reason);
+    }
+
+    private synchronized void writeReject(String text) {
+        try {
+            if (rejects == null) {
+                rejectsFile = Paths.get(file.toString() + ".rejected.txt");
+                rejects = Files.newBufferedWriter(rejectsFile, StandardCharsets.UTF_8);
+            }
+            rejects.write(text);
+            rejects.newLine();
+        } catch (IOException ex) {
+            System.err.println("Could not write rejected row: " + ex.getMessage());
+        }
+    }
+
+    private synchronized void closeRejects() {
+        if (rejects == null) return;
+        try {
+            rejects.close();
+        } catch (IOException ex) {
+            System.err.println("Could not close " + rejectsFile + ": " + ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package db;
+
+import java.math.BigDecimal;
+
+/**
+ * Display text of result values for the grid: one line, at most maxChars
+ * characters plus a size note, so a cell never lays out more text than it
+ * can show. Binary values are shown as a hex prefix.
+ */
+public class CellFormat {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /** Text for value, or null for SQL NULL. */
+    public static String text(Object value, int maxChars) {
+        if (value == null) return null;
+        if (value instanceof String) return text((String) value, maxChars);
+        if (value instanceof byte[]) return hex((byte[]) value, maxChars);
+        if (value instanceof BigDecimal) return text(((BigDecimal) value).toPlainString(), maxChars);
+        return text(value.toString(), maxChars);
+    }
+
+    static String text(String s, int maxChars) {
+        int n = s.length();
+        int shown = Math.min(n, maxChars);
+        boolean plain = true;
+        for (int i = 0; i < shown && plain; i++) {
+            plain = s.charAt(i) >= ' ';
+        }
+        if (plain && n <= maxChars) return s;
+        return n > maxChars ? truncated(s.substring(0, shown), String.format("%,d chars", n)) : oneLine(s, n);
+    }
+
+    /** s[0, length) with line breaks and tabs made visible, so a cell stays on one line. */
+    private static String oneLine(String s, int length) {
+        StringBuilder sb = new StringBuilder(length + 16);
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c == '\n') {
+                sb.append('\u21B5');   // return symbol
+            } else if (c < ' ') {
+                sb.append(' ');
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /** head with a note such as "12,034 chars" on what was cut off. */
+    static String truncated(String head, String fullSize) {
+        return oneLine(head, head.length()) + "\u2026 (" + fullSize + ")";
+    }
+
+    static String hex(byte[] bytes, int maxChars) {
+        return hex(bytes, bytes.length, maxChars);
+    }
+
+    /** Hex of the first bytes of a value that is length bytes long. */
+    static String hex(byte[] prefix, long length, int maxChars) {
+        int shown = (int) Math.min(Math.min(prefix.length, length), Math.max(1, (maxChars - 2) / 2));
+        StringBuilder sb = new StringBuilder(2 + shown * 2 + 24).append("0x");
+        for (int i = 0; i < shown; i++) {
+            sb.append(HEX[(prefix[i] >> 4) & 0xF]).append(HEX[prefix[i] & 0xF]);
+        }
+        if (shown < length) sb.append("\u2026 (").append(String.format("%,d", length)).append(" bytes)");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,395 @@
+package db;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Column-oriented result storage. Integer, bigint and floating point columns
+ * live in primitive chunks with a null bitmap, strings are dictionary encoded
+ * while their cardinality stays low, and everything else is kept as the
+ * driver's objects. Chunks are never reallocated, so readers can safely run
+ * alongside the appending query thread.
+ */
+public class ColumnarResultStore implements ResultStore {
+    static final int CHUNK_SHIFT = 12;
+    static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final String[] names;
+    private final Column[] columns;
+    private volatile int rowCount;
+
+    public ColumnarResultStore(ResultSetMetaData meta) throws SQLException {
+        int cols = meta.getColumnCount();
+        names = new String[cols];
+        columns = new Column[cols];
+        for (int i = 1; i <= cols; i++) {
+            names[i - 1] = meta.getColumnLabel(i);
+            columns[i - 1] = Column.forType(meta.getColumnType(i), meta.isSigned(i));
+        }
+    }
+
+    @Override
+    public int getColumnCount() {
+        return columns.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return names[column];
+    }
+
+    @Override
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public Object getValue(int row, int column) {
+        return columns[column].get(row);
+    }
+
+    Column column(int column) {
+        return columns[column];
+    }
+
+    @Override
+    public void appendRow(ResultSet rs) throws SQLException {
+        int row = rowCount;
+        for (int i = 0; i < columns.length; i++) {
+            columns[i].append(row, rs, i + 1);
+        }
+        rowCount = row + 1;
+    }
+
+    @Override
+    public long memoryBytes() {
+        long total = 0;
+        for (Column c : columns) {
+            total += c.memoryBytes();
+        }
+        return total;
+    }
+
+    @Override
+    public String describeMemory() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) sb.append(", ");
+            sb.append(names[i]).append(' ').append(columns[i].describe())
+              .append(' ').append(formatBytes(columns[i].memoryBytes()));
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public void close() {
+        // heap only; nothing to release
+    }
+
+    public static String formatBytes(long bytes) {
+        if (bytes < 1024) return bytes + " B";
+        if (bytes < 1024 * 1024) return String.format("%.1f KB", bytes / 1024.0);
+        if (bytes < 1024L * 1024 * 1024) return String.format("%.1f MB", bytes / (1024.0 * 1024));
+        return String.format("%.2f GB", bytes / (1024.0 * 1024 * 1024));
+    }
+
+    /** Rough heap cost of a value returned by ResultSet.getObject. */
+    static long estimateSize(Object v) {
+        if (v == null) return 0;
+        if (v instanceof String) return 40 + 2L * ((String) v).length();
+        if (v instanceof byte[]) return 16 + ((byte[]) v).length;
+        if (v instanceof Integer || v instanceof Short || v instanceof Byte || v instanceof Boolean) return 16;
+        if (v instanceof Long || v instanceof Double || v instanceof Float) return 24;
+        return 48;
+    }
+
+    abstract static class Column {
+        private long[][] nulls = new long[8][];
+
+        static Column forType(int sqlType, boolean signed) {
+            switch (sqlType) {
+                case Types.TINYINT:
+                case Types.SMALLINT:
+                    return new IntColumn();
+                case Types.INTEGER:
+                    return signed ? new IntColumn() : new LongColumn();
+                case Types.BIGINT:
+                    return signed ? new LongColumn() : new ObjectColumn();
+                case Types.FLOAT:
+                case Types.DOUBLE:
+                    return new DoubleColumn();
+                case Types.CHAR:
+                case Types.VARCHAR:
+                case Types.NCHAR:
+                case Types.NVARCHAR:
+                case Types.LONGVARCHAR:
+                case Types.LONGNVARCHAR:
+                    return new StringColumn();
+                default:
+                    return new ObjectColumn();
+            }
+        }
+
+        abstract void append(int row, ResultSet rs, int index) throws SQLException;
+
+        abstract Object get(int row);
+
+        abstract long memoryBytes();
+
+        abstract String describe();
+
+        boolean isNull(int row) {
+            int chunk = row >>> CHUNK_SHIFT;
+            long[] bits = (chunk < nulls.length) ? nulls[chunk] : null;
+            return bits != null && (bits[(row & CHUNK_MASK) >>> 6] & (1L << row)) != 0;
+        }
+
+        void markNull(int row) {
+            int chunk = row >>> CHUNK_SHIFT;
+            nulls = grow(nulls, chunk);
+            if (nulls[chunk] == null) nulls[chunk] = new long[CHUNK_SIZE / 64];
+            nulls[chunk][(row & CHUNK_MASK) >>> 6] |= 1L << row;
+        }
+
+        long nullBitmapBytes() {
+            long n = 16 + 4L * nulls.length;
+            for (long[] b : nulls) {
+                if (b != null) n += 16 + 8L * b.length;
+            }
+            return n;
+        }
+
+        static <T> T[] grow(T[] dir, int chunk) {
+            return chunk < dir.length ? dir : Arrays.copyOf(dir, Math.max(dir.length * 2, chunk + 1));
+        }
+    }
+
+    static final class IntColumn extends Column {
+        private int[][] chunks = new int[8][];
+        private int allocated;
+
+        @Override
+        void append(int row, ResultSet rs, int index) throws SQLException {
+            int v = rs.getInt(index);
+            if (rs.wasNull()) markNull(row);
+            int chunk = row >>> CHUNK_SHIFT;
+            chunks = grow(chunks, chunk);
+            if (chunks[chunk] == null) {
+                chunks[chunk] = new int[CHUNK_SIZE];
+                allocated++;
+            }
+            chunks[chunk][row & CHUNK_MASK] = v;
+        }
+
+        int getInt(int row) {
+            return chunks[row >>> CHUNK_SHIFT][row & CHUNK_MASK];
+        }
+
+        @Override
+        Object get(int row) {
+            return isNull(row) ? null : getInt(row);
+        }
+
+        @Override
+        long memoryBytes() {
+            return allocated * (16L + 4L * CHUNK_SIZE) + nullBitmapBytes();
+        }
+
+        @Override
+        String describe() {
+            return "int";
+        }
+    }
+
+    static final class LongColumn extends Column {
+        private long[][] chunks = new long[8][];
+        private int allocated;
+
+        @Override
+        void append(int row, ResultSet rs, int index) throws SQLException {
+            long v = rs.getLong(index);
+            if (rs.wasNull()) markNull(row);
+            int chunk = row >>> CHUNK_SHIFT;
+            chunks = grow(chunks, chunk);
+            if (chunks[chunk] == null) {
+                chunks[chunk] = new long[CHUNK_SIZE];
+                allocated++;
+            }
+            chunks[chunk][row & CHUNK_MASK] = v;
+        }
+
+        long getLong(int row) {
+            return chunks[row >>> CHUNK_SHIFT][row & CHUNK_MASK];
+        }
+
+        @Override
+        Object get(int row) {
+            return isNull(row) ? null : getLong(row);
+        }
+
+        @Override
+        long memoryBytes() {
+            return allocated * (16L + 8L * CHUNK_SIZE) + nullBitmapBytes();
+        }
+
+        @Override
+        String describe() {
+            return "long";
+        }
+    }
+
+    static final class DoubleColumn extends Column {
+        private double[][] chunks = new double[8][];
+        private int allocated;
+
+        @Override
+        void append(int row, ResultSet rs, int index) throws SQLException {
+            double v = rs.getDouble(index);
+            if (rs.wasNull()) markNull(row);
+            int chunk = row >>> CHUNK_SHIFT;
+            chunks = grow(chunks, chunk);
+            if (chunks[chunk] == null) {
+                chunks[chunk] = new double[CHUNK_SIZE];
+                allocated++;
+            }
+            chunks[chunk][row & CHUNK_MASK] = v;
+        }
+
+        double getDouble(int row) {
+            return chunks[row >>> CHUNK_SHIFT][row & CHUNK_MASK];
+        }
+
+        @Override
+        Object get(int row) {
+            return isNull(row) ? null : getDouble(row);
+        }
+
+        @Override
+        long memoryBytes() {
+            return allocated * (16L + 8L * CHUNK_SIZE) + nullBitmapBytes();
+        }
+
+        @Override
+        String describe() {
+            return "double";
+        }
+    }
+
+    /**
+     * Strings are stored as int codes into a dictionary until the column turns
+     * out to be high-cardinality; later chunks then hold the strings directly.
+     */
+    static final class StringColumn extends Column {
+        private static final int MAX_DICTIONARY = 1 << 16;
+
+        private Object[] chunks = new Object[8];   // int[] codes or String[] values
+        private final Map<String, Integer> codes = new HashMap<>();
+        private String[] dictionary = new String[64];
+        private boolean encoding = true;
+        private long dictionaryBytes;
+        private long plainBytes;
+        private int codeChunks;
+        private int plainChunks;
+
+        @Override
+        void append(int row, ResultSet rs, int index) throws SQLException {
+            String v = rs.getString(index);
+            int chunk = row >>> CHUNK_SHIFT;
+            chunks = grow(chunks, chunk);
+            if (chunks[chunk] == null) {
+                // decide per chunk; rows already encoded keep their codes
+                if (encoding && (codes.size() > MAX_DICTIONARY || (row > 0 && codes.size() > row / 2))) {
+                    encoding = false;
+                }
+                if (encoding) {
+                    chunks[chunk] = new int[CHUNK_SIZE];
+                    codeChunks++;
+                } else {
+                    chunks[chunk] = new String[CHUNK_SIZE];
+                    plainChunks++;
+                }
+            }
+            Object c = chunks[chunk];
+            if (c instanceof int[]) {
+                ((int[]) c)[row & CHUNK_MASK] = (v == null) ? -1 : code(v);
+            } else {
+                ((String[]) c)[row & CHUNK_MASK] = v;
+                plainBytes += estimateSize(v);
+            }
+        }
+
+        private int code(String v) {
+            Integer code = codes.get(v);
+            if (code == null) {
+                code = codes.size();
+                if (code == dictionary.length) dictionary = Arrays.copyOf(dictionary, code * 2);
+                dictionary[code] = v;
+                codes.put(v, code);
+                dictionaryBytes += estimateSize(v) + 48;   // string plus hash map entry
+            }
+            return code;
+        }
+
+        @Override
+        Object get(int row) {
+            Object c = chunks[row >>> CHUNK_SHIFT];
+            if (c instanceof int[]) {
+                int code = ((int[]) c)[row & CHUNK_MASK];
+                return code < 0 ? null : dictionary[code];
+            }
+            return ((String[]) c)[row & CHUNK_MASK];
+        }
+
+        @Override
+        long memoryBytes() {
+            return (codeChunks + plainChunks) * (16L + 4L * CHUNK_SIZE)
+                    + 16 + 4L * dictionary.length + dictionaryBytes + plainBytes;
+        }
+
+        @Override
+        String describe() {
+            if (plainChunks == 0) return "string(dict " + codes.size() + ")";
+            return codeChunks == 0 ? "string" : "string(dict " + codes.size() + ", then plain)";
+        }
+    }
+
+    static final class ObjectColumn extends Column {
+        private Object[][] chunks = new Object[8][];
+        private int allocated;
+        private long valueBytes;
+
+        @Override
+        void append(int row, ResultSet rs, int index) throws SQLException {
+            Object v = rs.getObject(index);
+            int chunk = row >>> CHUNK_SHIFT;
+            chunks = grow(chunks, chunk);
+            if (chunks[chunk] == null) {
+                chunks[chunk] = new Object[CHUNK_SIZE];
+                allocated++;
+            }
+            chunks[chunk][row & CHUNK_MASK] = v;
+            valueBytes += estimateSize(v);
+        }
+
+        @Override
+        Object get(int row) {
+            return chunks[row >>> CHUNK_SHIFT][row & CHUNK_MASK];
+        }
+
+        @Override
+        long memoryBytes() {
+            return allocated * (16L + 4L * CHUNK_SIZE) + valueBytes;
+        }
+
+        @Override
+        String describe() {
+            return "object";
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package db;
+
+import org.fife.ui.autocomplete.Completion;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Immutable completion index for large schemas. Input texts are case-folded
+ * once at build time and kept sorted, so a keystroke is two binary searches
+ * for the prefix range plus a copy of at most {@code limit} hits; nothing is
+ * allocated per candidate. Camel-hump / underscore initials ("oi" for
+ * order_items, "ci" for customerId) are indexed the same way as a fallback.
+ */
+public class CompletionIndex {
+    public static final CompletionIndex EMPTY = new CompletionIndex(Collections.emptyList());
+
+    private static final int LATENCY_SAMPLES = 512;
+    private static final AtomicLongArray latencies = new AtomicLongArray(LATENCY_SAMPLES);
+    private static final AtomicLong lookups = new AtomicLong();
+    private static final AtomicLong slowLookups = new AtomicLong();
+    private static final LongAccumulator maxLatency = new LongAccumulator(Math::max, 0);
+
+    private final String[] keys;             // folded input texts, sorted
+    private final Completion[] items;
+    private final String[] initials;         // folded initials, sorted
+    private final Completion[] initialItems;
+    private final long budgetNanos;          // completion.latencyBudgetMs when the index was built
+
+    public CompletionIndex(List<Completion> completions) {
+        budgetNanos = Settings.getLong("completion.latencyBudgetMs", 5) * 1_000_000;
+        List<Entry> byKey = new ArrayList<>(completions.size());
+        List<Entry> byInitials = new ArrayList<>();
+        for (Completion c : completions) {
+            String text = c.getInputText();
+            if (text == null) continue;
+            byKey.add(new Entry(text.toLowerCase(Locale.ROOT), c));
+            String init = initialsOf(text);
+            if (init.length() >= 2) byInitials.add(new Entry(init, c));
+        }
+        Comparator<Entry> order = Comparator.comparing(e -> e.key);
+        byKey.sort(order);
+        byInitials.sort(order);
+        keys = new String[byKey.size()];
+        items = new Completion[byKey.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = byKey.get(i).key;
+            items[i] = byKey.get(i).completion;
+        }
+        initials = new String[byInitials.size()];
+        initialItems = new Completion[byInitials.size()];
+        for (int i = 0; i < initials.length; i++) {
+            initials[i] = byInitials.get(i).key;
+            initialItems[i] = byInitials.get(i).completion;
+        }
+    }
+
+    public int size() {
+        return keys.length;
+    }
+
+    /** Prefix matches first, then initials matches, at most limit in total. */
+    public List<Completion> lookup(CharSequence typed, int limit) {
+        List<Completion> result = new ArrayList<>(Math.min(limit, 64));
+        lookupInto(typed, limit, result);
+        return result;
+    }
+
+    /** Like {@link #lookup}, appending to out until it holds limit entries. */
+    public void lookupInto(CharSequence typed, int limit, List<Completion> out) {
+        long start = System.nanoTime();
+        if (typed == null) typed = "";
+        int lo = lowerBound(keys, typed);
+        int hi = upperBound(keys, typed, lo);
+        int n = Math.max(0, Math.min(hi - lo, limit - out.size()));
+        out.addAll(Arrays.asList(items).subList(lo, lo + n));
+
+        if (out.size() < limit && typed.length() >= 2) {
+            int ilo = lowerBound(initials, typed);
+            int ihi = upperBound(initials, typed, ilo);
+            for (int i = ilo; i < ihi && out.size() < limit; i++) {
+                Completion c = initialItems[i];
+                // already listed when its input text starts with what was typed
+                if (comparePrefix(c.getInputText(), typed, true) != 0) {
+                    out.add(c);
+                }
+            }
+        }
+        recordLatency(System.nanoTime() - start);
+    }
+
+    /** First index whose key is not below the typed prefix. */
+    private static int lowerBound(String[] keys, CharSequence typed) {
+        int lo = 0, hi = keys.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (comparePrefix(keys[mid], typed, false) < 0) lo = mid + 1; else hi = mid;
+        }
+        return lo;
+    }
+
+    /** First index at or after from whose key no longer starts with the typed prefix. */
+    private static int upperBound(String[] keys, CharSequence typed, int from) {
+        int lo = from, hi = keys.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (comparePrefix(keys[mid], typed, false) <= 0) lo = mid + 1; else hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Compares key with the typed text folded char by char; 0 means key starts
+     * with it. Keys in the index are already folded.
+     */
+    private static int comparePrefix(String key, CharSequence typed, boolean foldKey) {
+        int n = Math.min(key.length(), typed.length());
+        for (int i = 0; i < n; i++) {
+            char k = key.charAt(i);
+            if (foldKey) k = Character.toLowerCase(k);
+            char t = Character.toLowerCase(typed.charAt(i));
+            if (k != t) return k - t;
+        }
+        return key.length() < typed.length() ? -1 : 0;
+    }
+
+    /** "order_items" and "orderItems" both give "oi"; "orders.created_at" gives "oca". */
+    static String initialsOf(String text) {
+        StringBuilder sb = new StringBuilder(4);
+        boolean boundary = true;
+        char prev = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '_' || c == '.' || c == ' ' || c == '(') {
+                boundary = true;
+            } else if (Character.isLetterOrDigit(c)) {
+                if (boundary || (Character.isUpperCase(c) && Character.isLowerCase(prev))) {
+                    sb.append(Character.toLowerCase(c));
+                }
+                boundary = false;
+            }
+            prev = c;
+        }
+        return sb.toString();
+    }
+
+    private void recordLatency(long nanos) {
+        latencies.set((int) (lookups.getAndIncrement() % LATENCY_SAMPLES), nanos);
+        maxLatency.accumulate(nanos);
+        if (nanos > budgetNanos) slowLookups.incrementAndGet();
+    }
+
+    /** Lookups that took longer than completion.latencyBudgetMs. */
+    public static long slowLookups() {
+        return slowLookups.get();
+    }
+
+    /** Lookup count, p50/p95/max latency over the most recent lookups, and how many were slow. */
+    public static String latencyReport() {
+        long count = lookups.get();
+        int n = (int) Math.min(count, LATENCY_SAMPLES);
+        if (n == 0) return "no completion lookups yet";
+        long[] sorted = new long[n];
+        for (int i = 0; i < n; i++) sorted[i] = latencies.get(i);
+        Arrays.sort(sorted);
+        return String.format("%,d lookups, p50 %.0f us, p95 %.0f us, max %.0f us, %,d over budget",
+                count, sorted[n / 2] / 1e3, sorted[(int) (n * 0.95)] / 1e3, maxLatency.get() / 1e3, slowLookups.get());
+    }
+
+    private static final class Entry {
+        final String key;
+        final Completion completion;
+
+        Entry(String key, Completion completion) {
+            this.key = key;
+            this.completion = completion;
+        }
+    }
+}
@@ -0,0 +1,742 @@
+package db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded JDBC connection pool. Callers get a proxy whose close() hands the
+ * physical connection back to the pool instead of closing it, so existing
+ * try-with-resources code keeps working unchanged.
+ * <p>
+ * Each physical connection also keeps an LRU cache of prepared statements
+ * keyed by their exact SQL (pool.statementCacheSize). prepareStatement(sql)
+ * hands out a cached statement when one is free, and closing it puts it back,
+ * so repeated runs skip the server-side parse and plan.
+ * <p>
+ * Sessions ({@link #openSession()}) are connections kept outside the pool for
+ * one editor tab each, so their state survives between statements.
+ */
+public class ConnectionPool implements AutoCloseable {
+    private final String url;
+    private final String user;
+    private final String password;
+
+    private final int minSize;
+    private final int maxSize;
+    private final long borrowTimeoutMs;
+    private final boolean validateOnBorrow;
+    private final int validationTimeoutSeconds;
+    private final long validationIntervalMs;
+    private final long idleTimeoutMs;
+    private final long leakThresholdMs;
+    private final int statementCacheSize;
+    private final long sessionIdleTimeoutMs;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final Deque<PooledConnection> idle = new ArrayDeque<>();
+    private final Set<PooledConnection> borrowed = ConcurrentHashMap.newKeySet();
+    private final Set<Session> sessions = ConcurrentHashMap.newKeySet();
+    private int total;
+    private boolean closed;
+
+    private final ScheduledExecutorService housekeeper;
+
+    // statistics
+    private final AtomicLong borrows = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong leaks = new AtomicLong();
+    private final AtomicLong statementHits = new AtomicLong();
+    private final AtomicLong statementMisses = new AtomicLong();
+
+    public ConnectionPool(String url, String user, String password, Properties p) {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.maxSize = Math.max(1, Settings.getInt(p, "pool.maxSize", 8));
+        this.minSize = Math.max(0, Math.min(maxSize, Settings.getInt(p, "pool.minSize", 1)));
+        this.borrowTimeoutMs = Settings.getLong(p, "pool.borrowTimeoutMs", 30_000);
+        this.validateOnBorrow = Settings.getBoolean(p, "pool.validateOnBorrow", true);
+        this.validationTimeoutSeconds = Settings.getInt(p, "pool.validationTimeoutSeconds", 2);
+        this.validationIntervalMs = Settings.getLong(p, "pool.validationIntervalMs", 1_000);
+        this.idleTimeoutMs = Settings.getLong(p, "pool.idleTimeoutMs", 600_000);
+        this.leakThresholdMs = Settings.getLong(p, "pool.leakDetectionThresholdMs", 60_000);
+        this.statementCacheSize = Math.max(0, Settings.getInt(p, "pool.statementCacheSize", 64));
+        this.sessionIdleTimeoutMs = Settings.getLong(p, "session.idleTimeoutMs", 1_800_000);
+
+        housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "db-pool-housekeeper");
+            t.setDaemon(true);
+            return t;
+        });
+        // warm up to minSize in the background so startup never waits on the network
+        housekeeper.execute(this::fillToMinimum);
+        housekeeper.scheduleWithFixedDelay(this::housekeep, 5, 5, TimeUnit.SECONDS);
+    }
+
+    /** Borrows a connection, waiting up to pool.borrowTimeoutMs when the pool is exhausted. */
+    public Connection borrow() throws SQLException {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(borrowTimeoutMs);
+        while (true) {
+            PooledConnection pc = null;
+            boolean create = false;
+            lock.lock();
+            try {
+                while (true) {
+                    if (closed) throw new SQLException("Connection pool is closed");
+                    pc = idle.pollFirst();
+                    if (pc != null) break;
+                    if (total < maxSize) {
+                        total++;
+                        create = true;
+                        break;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        throw new SQLException("Timed out after " + borrowTimeoutMs
+                                + " ms waiting for a pooled connection (" + maxSize + " in use)");
+                    }
+                    try {
+                        available.awaitNanos(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new SQLException("Interrupted while waiting for a pooled connection", e);
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            if (create) {
+                try {
+                    pc = new PooledConnection(openPhysical(), null);
+                } catch (SQLException | RuntimeException e) {
+                    discarded();
+                    throw e;
+                }
+            } else if (!isUsable(pc)) {
+                closeQuietly(pc);
+                discarded();
+                continue;
+            } else {
+                hits.incrementAndGet();
+            }
+            recordWait(System.nanoTime() - start);
+            return pc.lease(true);
+        }
+    }
+
+    private boolean isUsable(PooledConnection pc) {
+        if (!validateOnBorrow) return true;
+        // a connection handed back moments ago is almost certainly still alive
+        if (System.currentTimeMillis() - pc.lastReturned < validationIntervalMs) return true;
+        try {
+            return pc.physical.isValid(validationTimeoutSeconds);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private Connection openPhysical() throws SQLException {
+        if (user == null || user.isEmpty()) {
+            return DriverManager.getConnection(url);
+        } else {
+            return DriverManager.getConnection(url, user, password);
+        }
+    }
+
+    private void recordWait(long nanos) {
+        borrows.incrementAndGet();
+        waitNanos.addAndGet(nanos);
+        maxWaitNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    private void release(PooledConnection pc) {
+        borrowed.remove(pc);
+        boolean keep = reset(pc);
+        lock.lock();
+        try {
+            keep &= !closed;
+            if (keep) {
+                pc.lastReturned = System.currentTimeMillis();
+                idle.addFirst(pc);
+            } else {
+                total--;
+            }
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+        if (!keep) closeQuietly(pc);
+    }
+
+    /** Undoes session changes a borrower may have made so the next borrower starts clean. */
+    private boolean reset(PooledConnection pc) {
+        Connection c = pc.physical;
+        try {
+            if (c.isClosed()) return false;
+            pc.statements.reclaim();
+            if (!c.getAutoCommit()) {
+                c.rollback();
+                c.setAutoCommit(true);
+            }
+            if (c.isReadOnly()) c.setReadOnly(false);
+            String catalog = c.getCatalog();
+            if (pc.initialCatalog != null && !pc.initialCatalog.equals(catalog)) {
+                c.setCatalog(pc.initialCatalog);
+            }
+            c.clearWarnings();
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void discarded() {
+        lock.lock();
+        try {
+            total--;
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void fillToMinimum() {
+        while (true) {
+            lock.lock();
+            try {
+                if (closed || total >= minSize) return;
+                total++;
+            } finally {
+                lock.unlock();
+            }
+            try {
+                PooledConnection pc = new PooledConnection(openPhysical(), null);
+                pc.lastReturned = System.currentTimeMillis();
+                lock.lock();
+                try {
+                    idle.addLast(pc);
+                    available.signal();
+                } finally {
+                    lock.unlock();
+                }
+            } catch (SQLException e) {
+                discarded();
+                System.err.println("Pool warm-up failed: " + e.getMessage());
+                return;
+            }
+        }
+    }
+
+    private void housekeep() {
+        long now = System.currentTimeMillis();
+
+        // idle eviction, never below minSize
+        List<PooledConnection> evicted = new ArrayList<>();
+        lock.lock();
+        try {
+            while (total > minSize && !idle.isEmpty()
+                    && idleTimeoutMs > 0 && now - idle.peekLast().lastReturned > idleTimeoutMs) {
+                evicted.add(idle.pollLast());
+                total--;
+            }
+        } finally {
+            lock.unlock();
+        }
+        evicted.forEach(this::closeQuietly);
+        for (Session session : sessions) {
+            session.closeIfIdle(now);
+        }
+
+        // leak detection: report each long-held connection once
+        if (leakThresholdMs > 0) {
+            for (PooledConnection pc : borrowed) {
+                Lease lease = pc.lease;
+                if (lease != null && !lease.leakReported && now - lease.borrowedAt > leakThresholdMs) {
+                    lease.leakReported = true;
+                    leaks.incrementAndGet();
+                    System.err.println("Possible connection leak: held for " + (now - lease.borrowedAt)
+                            + " ms by thread " + lease.threadName);
+                    lease.borrowSite.printStackTrace();
+                }
+            }
+        }
+
+        fillToMinimum();
+    }
+
+    private void closeQuietly(PooledConnection pc) {
+        try {
+            pc.physical.close();
+        } catch (SQLException ignored) {}
+    }
+
+    public String statusText() {
+        long n = borrows.get();
+        int active = borrowed.size();
+        int size;
+        lock.lock();
+        try {
+            size = total;
+        } finally {
+            lock.unlock();
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append("Pool ").append(active).append('/').append(size).append(" (max ").append(maxSize).append(')');
+        if (n > 0) {
+            sb.append(" | hit ").append(Math.round(hits.get() * 100.0 / n)).append('%');
+            sb.append(" | wait avg ").append(String.format("%.1f", waitNanos.get() / 1e6 / n))
+              .append(" ms, max ").append(String.format("%.1f", maxWaitNanos.get() / 1e6)).append(" ms");
+        }
+        long stmtHits = statementHits.get();
+        long stmtTotal = stmtHits + statementMisses.get();
+        if (stmtTotal > 0) {
+            sb.append(" | stmt cache ").append(Math.round(stmtHits * 100.0 / stmtTotal)).append("% (")
+              .append(stmtHits).append(" hits, ").append(stmtTotal - stmtHits).append(" misses)");
+        }
+        if (leaks.get() > 0) sb.append(" | leaks ").append(leaks.get());
+        int openSessions = 0;
+        for (Session session : sessions) {
+            if (session.isOpen()) openSessions++;
+        }
+        if (openSessions > 0) sb.append(" | sessions ").append(openSessions);
+        return sb.toString();
+    }
+
+    @Override
+    public void close() {
+        List<PooledConnection> toClose;
+        lock.lock();
+        try {
+            closed = true;
+            toClose = new ArrayList<>(idle);
+            total -= idle.size();
+            idle.clear();
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        housekeeper.shutdownNow();
+        toClose.forEach(this::closeQuietly);
+        for (Session session : sessions) {
+            session.close();
+        }
+    }
+
+    /**
+     * Opens a session: one connection kept outside the pool (and not counted
+     * against pool.maxSize) whose state - current database, temp tables, an
+     * open transaction - carries over between statements, because nothing is
+     * reset when it is handed back. The connection is opened on first use,
+     * closed after session.idleTimeoutMs unused, and reopened on the next use.
+     */
+    public Session openSession() {
+        Session session = new Session();
+        sessions.add(session);
+        return session;
+    }
+
+    /** A long-lived connection for one editor tab; one statement at a time. */
+    public final class Session implements ConnectionSource, AutoCloseable {
+        private PooledConnection pc;     // guarded by this; null until used and after an idle close
+        private boolean inUse;           // guarded by this
+        private boolean sessionClosed;   // guarded by this
+        private volatile long lastUsed = System.currentTimeMillis();
+        private volatile boolean transactionOpen;
+        private volatile boolean stateChanged;
+        private volatile String lastClose;
+        String name = url;
+
+        @Override
+        public synchronized Connection getConnection() throws SQLException {
+            if (sessionClosed || closed) throw new SQLException("Session is closed");
+            if (inUse) throw new SQLException("The session is busy with another statement");
+            if (pc != null && !isUsable(pc)) {
+                System.err.println("Session connection was lost; reconnecting (session state is reset)");
+                closeQuietly(pc);
+                pc = null;
+            }
+            if (pc == null) {
+                pc = new PooledConnection(openPhysical(), this);
+                transactionOpen = false;
+                stateChanged = false;
+                lastClose = null;
+            }
+            inUse = true;
+            lastUsed = System.currentTimeMillis();
+            return pc.lease(false);
+        }
+
+        @Override
+        public String getUrl() {
+            return url;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        public synchronized boolean isOpen() {
+            return pc != null;
+        }
+
+        /** True while statements run in the session have begun a transaction they have not ended. */
+        public boolean isTransactionOpen() {
+            return transactionOpen;
+        }
+
+        void setTransactionOpen(boolean open) {
+            transactionOpen = open;
+        }
+
+        /** True once USE, SET or a temporary table may have made results differ from a fresh connection. */
+        boolean isStateChanged() {
+            return stateChanged;
+        }
+
+        void markStateChanged() {
+            stateChanged = true;
+        }
+
+        /** Why the session's last connection was closed, or null. */
+        public String getLastClose() {
+            return lastClose;
+        }
+
+        private synchronized void released() {
+            inUse = false;
+            lastUsed = System.currentTimeMillis();
+            if (pc != null) {
+                pc.lastReturned = lastUsed;
+                pc.statements.reclaim();
+            }
+        }
+
+        private synchronized void closeIfIdle(long now) {
+            if (pc == null || inUse || sessionIdleTimeoutMs <= 0 || now - lastUsed <= sessionIdleTimeoutMs) return;
+            boolean rolledBack = rollbackOpenTransaction();
+            closeQuietly(pc);
+            pc = null;
+            lastClose = "closed after " + (sessionIdleTimeoutMs >= 60_000
+                    ? sessionIdleTimeoutMs / 60_000 + " min" : sessionIdleTimeoutMs / 1000 + " s") + " idle"
+                    + (rolledBack ? ", open transaction rolled back" : "");
+            System.err.println("Session on " + url + " " + lastClose);
+        }
+
+        private boolean rollbackOpenTransaction() {
+            boolean open = transactionOpen;
+            try {
+                if (open || !pc.physical.getAutoCommit()) {
+                    pc.physical.rollback();
+                    open = true;
+                }
+            } catch (SQLException ignored) {
+                // closing the connection ends the transaction anyway
+            }
+            transactionOpen = false;
+            return open;
+        }
+
+        /** Closes the session's connection, rolling back anything uncommitted. */
+        @Override
+        public synchronized void close() {
+            sessionClosed = true;
+            sessions.remove(this);
+            if (pc != null) {
+                rollbackOpenTransaction();
+                closeQuietly(pc);
+                pc = null;
+            }
+        }
+    }
+
+    private static class Lease {
+        final long borrowedAt = System.currentTimeMillis();
+        final String threadName = Thread.currentThread().getName();
+        final Throwable borrowSite;
+        volatile boolean leakReported;
+
+        Lease(boolean captureSite) {
+            borrowSite = captureSite ? new Throwable("Connection borrowed here") : null;
+        }
+    }
+
+    private class PooledConnection implements InvocationHandler {
+        final Connection physical;
+        final Session session;   // null for pooled connections
+        final String initialCatalog;
+        final StatementCache statements = new StatementCache(this);
+        volatile long lastReturned;
+        volatile Lease lease;
+        private volatile Connection proxy;
+
+        PooledConnection(Connection physical, Session session) throws SQLException {
+            this.physical = physical;
+            this.session = session;
+            this.initialCatalog = physical.getCatalog();
+        }
+
+        Connection lease(boolean track) {
+            lease = new Lease(track && leakThresholdMs > 0);
+            if (track) borrowed.add(this);
+            proxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, this);
+            return proxy;
+        }
+
+        @Override
+        public Object invoke(Object p, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            boolean active = (p == proxy);
+            switch (name) {
+                case "close":
+                    synchronized (this) {
+                        if (p != proxy) return null;
+                        proxy = null;
+                        lease = null;
+                    }
+                    if (session != null) {
+                        session.released();
+                    } else {
+                        release(this);
+                    }
+                    return null;
+                case "isClosed":
+                    return !active || physical.isClosed();
+                case "equals":
+                    return p == args[0];
+                case "hashCode":
+                    return System.identityHashCode(p);
+                case "toString":
+                    return "Pooled[" + physical + "]";
+                case "prepareStatement":
+                    if (active && args.length == 1 && statementCacheSize > 0) {
+                        return statements.prepare((String) args[0]);
+                    }
+                    // other overloads are not cached, but wrapped like createStatement and prepareCall
+                case "createStatement":
+                case "prepareCall":
+                    if (!active) throw new SQLException("Connection is closed (returned to pool)");
+                    try {
+                        return statements.track((Statement) method.invoke(physical, args), method.getReturnType());
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                default:
+                    if (!active) throw new SQLException("Connection is closed (returned to pool)");
+                    try {
+                        return method.invoke(physical, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+            }
+        }
+    }
+
+    /**
+     * LRU of prepared statements on one physical connection, plus the
+     * uncached statements open on it, which are closed when it is released.
+     */
+    private class StatementCache {
+        private final PooledConnection owner;
+        private final LinkedHashMap<String, CachedStatement> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private final Set<OpenStatement> open = ConcurrentHashMap.newKeySet();
+
+        StatementCache(PooledConnection owner) {
+            this.owner = owner;
+        }
+
+        synchronized PreparedStatement prepare(String sql) throws SQLException {
+            // the exact text, as JDBC caches do: normalize drops '#' to end of line, PostgreSQL's XOR
+            CachedStatement cached = entries.get(sql);
+            if (cached != null && !cached.inUse) {
+                statementHits.incrementAndGet();
+                return cached.lease();
+            }
+            statementMisses.incrementAndGet();
+            PreparedStatement ps = owner.physical.prepareStatement(sql);
+            if (cached != null) {
+                // the same SQL is already open on this connection; hand out a private copy
+                return (PreparedStatement) track(ps, PreparedStatement.class);
+            }
+            cached = new CachedStatement(this, ps);
+            entries.put(sql, cached);
+            Iterator<CachedStatement> eldest = entries.values().iterator();
+            while (entries.size() > statementCacheSize && eldest.hasNext()) {
+                CachedStatement e = eldest.next();
+                eldest.remove();
+                e.evicted = true;
+                if (!e.inUse) e.closePhysical();
+            }
+            return cached.lease();
+        }
+
+        synchronized void giveBack(CachedStatement cs) {
+            try {
+                // a result left open would keep a server-side cursor alive
+                ResultSet rs = cs.physical.getResultSet();
+                if (rs != null) rs.close();
+                cs.physical.clearParameters();
+                cs.physical.clearWarnings();
+            } catch (SQLException e) {
+                cs.evicted = true;
+                entries.values().remove(cs);
+            }
+            cs.inUse = false;
+            if (cs.evicted) cs.closePhysical();
+        }
+
+        /** Wraps an uncached statement so getConnection() returns the pooled connection, not the physical one. */
+        Object track(Statement physical, Class<?> type) {
+            OpenStatement os = new OpenStatement(this, physical);
+            open.add(os);
+            return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, os);
+        }
+
+        /** Takes back statements the borrower forgot to close. */
+        synchronized void reclaim() {
+            for (CachedStatement cs : new ArrayList<>(entries.values())) {
+                if (cs.inUse) cs.forceReturn();
+            }
+            for (OpenStatement os : new ArrayList<>(open)) {
+                os.close();
+            }
+        }
+    }
+
+    /** A statement that is not cached; closing it closes the physical statement. */
+    private static class OpenStatement implements InvocationHandler {
+        final StatementCache cache;
+        final Statement physical;
+        private volatile boolean closed;
+
+        OpenStatement(StatementCache cache, Statement physical) {
+            this.cache = cache;
+            this.physical = physical;
+        }
+
+        void close() {
+            closed = true;
+            cache.open.remove(this);
+            try {
+                physical.close();
+            } catch (SQLException ignored) {}
+        }
+
+        @Override
+        public Object invoke(Object p, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    close();
+                    return null;
+                case "isClosed":
+                    return closed || physical.isClosed();
+                case "getConnection":
+                    return cache.owner.proxy;
+                case "equals":
+                    return p == args[0];
+                case "hashCode":
+                    return System.identityHashCode(p);
+                case "toString":
+                    return "Open[" + physical + "]";
+                default:
+                    if (closed) throw new SQLException("Statement is closed");
+                    try {
+                        return method.invoke(physical, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+            }
+        }
+    }
+
+    private static class CachedStatement implements InvocationHandler {
+        final StatementCache cache;
+        final PreparedStatement physical;
+        boolean inUse;          // guarded by cache
+        boolean evicted;        // guarded by cache
+        private volatile PreparedStatement proxy;
+
+        CachedStatement(StatementCache cache, PreparedStatement physical) {
+            this.cache = cache;
+            this.physical = physical;
+        }
+
+        PreparedStatement lease() {
+            inUse = true;
+            proxy = (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class}, this);
+            return proxy;
+        }
+
+        void forceReturn() {
+            proxy = null;
+            cache.giveBack(this);
+        }
+
+        void closePhysical() {
+            try {
+                physical.close();
+            } catch (SQLException ignored) {}
+        }
+
+        @Override
+        public Object invoke(Object p, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    synchronized (this) {
+                        if (p != proxy) return null;
+                        proxy = null;
+                    }
+                    cache.giveBack(this);
+                    return null;
+                case "isClosed":
+                    return p != proxy || physical.isClosed();
+                case "getConnection":
+                    return cache.owner.proxy;
+                case "equals":
+                    return p == args[0];
+                case "hashCode":
+                    return System.identityHashCode(p);
+                case "toString":
+                    return "Cached[" + physical + "]";
+                default:
+                    if (p != proxy) throw new SQLException("Statement is closed");
+                    try {
+                        return method.invoke(physical, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+            }
+        }
+    }
+}
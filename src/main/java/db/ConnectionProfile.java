@@ -0,0 +1,121 @@
+package db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Properties;
+
+/**
+ * A named database from config.properties: jdbc.* for the default profile,
+ * profile.&lt;name&gt;.url / driver / user / password for the ones listed in
+ * profiles=. Each profile has its own {@link ConnectionPool}, opened on first
+ * use; profile.&lt;name&gt;.pool.* and .session.* keys override the global
+ * pool.* and session.* settings for it.
+ */
+public class ConnectionProfile implements ConnectionSource {
+    private final String name;
+    private final String url;
+    private final String driver;
+    private final String user;
+    private final String password;
+    private final Properties settings;
+    private ConnectionPool pool;
+    private boolean driverLoaded;
+    private boolean closed;
+
+    ConnectionProfile(String name, String url, String driver, String user, String password, Properties settings) {
+        this.name = name;
+        this.url = url;
+        this.driver = driver;
+        this.user = user;
+        this.password = password;
+        this.settings = settings;
+    }
+
+    /** Reads profile name from p, falling back to the default profile's driver and credentials. */
+    static ConnectionProfile fromSettings(String name, Properties p, ConnectionProfile defaults) {
+        String prefix = "profile." + name + ".";
+        Properties settings = new Properties();
+        settings.putAll(p);
+        for (String key : p.stringPropertyNames()) {
+            if (key.startsWith(prefix + "pool.") || key.startsWith(prefix + "session.")) {
+                settings.setProperty(key.substring(prefix.length()), p.getProperty(key));
+            }
+        }
+        String url = p.getProperty(prefix + "url", "").trim();
+        if (url.isEmpty()) {
+            System.err.println("Profile " + name + " has no " + prefix + "url; skipping it");
+            return null;
+        }
+        return new ConnectionProfile(name, url,
+                p.getProperty(prefix + "driver", defaults.driver).trim(),
+                p.getProperty(prefix + "user", defaults.user),
+                p.getProperty(prefix + "password", defaults.password),
+                settings);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getUrl() {
+        return url;
+    }
+
+    /** Borrows a pooled connection, opening the pool on first use. */
+    @Override
+    public Connection getConnection() throws SQLException {
+        return pool().borrow();
+    }
+
+    /** A new session on this profile; its connection is opened on first use. */
+    public ConnectionPool.Session openSession() throws SQLException {
+        ConnectionPool.Session session = pool().openSession();
+        session.name = name;
+        return session;
+    }
+
+    /** pool.maxSize for this profile, with its profile.&lt;name&gt;.pool.maxSize override applied. */
+    public int getPoolMaxSize() {
+        return Math.max(1, Settings.getInt(settings, "pool.maxSize", 8));
+    }
+
+    public synchronized boolean isOpen() {
+        return pool != null;
+    }
+
+    public synchronized String statusText() {
+        return pool == null ? "not connected" : pool.statusText();
+    }
+
+    synchronized ConnectionPool pool() throws SQLException {
+        if (closed) throw new SQLException("Profile " + name + " is closed");
+        if (pool == null) {
+            if (!driverLoaded) {
+                driverLoaded = true;
+                try {
+                    Class.forName(driver);
+                } catch (ClassNotFoundException e) {
+                    System.err.println("Driver class not found: " + driver + ". Make sure the JDBC driver is on the classpath.");
+                }
+            }
+            pool = new ConnectionPool(url, user, password, settings);
+        }
+        return pool;
+    }
+
+    /** Closes the pool and every session opened on it. */
+    public synchronized void close() {
+        closed = true;
+        if (pool != null) {
+            pool.close();
+            pool = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
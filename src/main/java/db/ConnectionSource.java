@@ -0,0 +1,19 @@
+package db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Where a piece of work gets its connection: a profile's pool, or a tab's
+ * session connection. Closing the connection hands it back.
+ */
+public interface ConnectionSource {
+
+    Connection getConnection() throws SQLException;
+
+    /** JDBC URL of the database, for cache keys and dialect checks. */
+    String getUrl();
+
+    /** Profile name, for the query history. */
+    String getName();
+}
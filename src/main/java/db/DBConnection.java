@@ -1,33 +1,89 @@
 package db;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
+/**
+ * The connection profiles from config.properties and the active one, which
+ * the explorer and auto-completion follow. Work started from an editor tab
+ * takes the tab's profile or session explicitly instead.
+ */
 public class DBConnection {
     private static String url = "jdbc:sqlite:sample.db";
     private static String driver = "org.sqlite.JDBC";
     private static String user = "";
     private static String password = "";
+    private static final Map<String, ConnectionProfile> profiles = new LinkedHashMap<>();
+    private static volatile ConnectionProfile active;
 
-    public static void configure(Properties p) {
+    public static synchronized void configure(Properties p) {
+        Settings.load(p);
         url = p.getProperty("jdbc.url", url);
         driver = p.getProperty("jdbc.driver", driver);
         user = p.getProperty("jdbc.user", user);
         password = p.getProperty("jdbc.password", password);
-        try {
-            Class.forName(driver);
-        } catch (ClassNotFoundException e) {
-            System.err.println("Driver class not found: " + driver + ". Make sure the JDBC driver is on the classpath.");
+        closeProfiles();
+        ConnectionProfile defaults = new ConnectionProfile(Settings.get("jdbc.profileName", "default"),
+                url, driver, user, password, p);
+        profiles.put(defaults.getName(), defaults);
+        for (String name : Settings.get("profiles", "").split(",")) {
+            name = name.trim();
+            if (name.isEmpty() || profiles.containsKey(name)) continue;
+            ConnectionProfile profile = ConnectionProfile.fromSettings(name, p, defaults);
+            if (profile != null) profiles.put(name, profile);
         }
+        active = defaults;
     }
 
+    public static synchronized List<ConnectionProfile> profiles() {
+        return new ArrayList<>(profiles.values());
+    }
+
+    /** The profile the explorer and auto-completion currently show. */
+    public static ConnectionProfile active() {
+        ConnectionProfile p = active;
+        if (p == null) {
+            synchronized (DBConnection.class) {
+                if (active == null) {
+                    configure(Settings.all());
+                }
+                p = active;
+            }
+        }
+        return p;
+    }
+
+    public static void setActive(ConnectionProfile profile) {
+        active = profile;
+    }
+
+    /** Borrows a pooled connection of the active profile; closing it returns it to the pool. */
     public static Connection getConnection() throws SQLException {
-        if (user == null || user.isEmpty()) {
-            return DriverManager.getConnection(url);
-        } else {
-            return DriverManager.getConnection(url, user, password);
+        return active().getConnection();
+    }
+
+    public static String getUrl() {
+        return active().getUrl();
+    }
+
+    public static String poolStatus() {
+        return active().statusText();
+    }
+
+    public static synchronized void shutdown() {
+        closeProfiles();
+        active = null;
+    }
+
+    private static void closeProfiles() {
+        for (ConnectionProfile profile : profiles.values()) {
+            profile.close();
         }
+        profiles.clear();
     }
 }
@@ -0,0 +1,796 @@
+package db;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares the rows of two tables or two queries, on the same or different
+ * profiles. Both sides are read ordered by key - the primary key from
+ * DatabaseMetaData unless key columns are given - and merge-joined as they
+ * stream, so memory stays flat however many rows there are. Rows only on
+ * the right are ADDED, rows only on the left REMOVED, and rows whose other
+ * columns differ CHANGED.
+ * <p>
+ * Chunked mode, for large tables with a single-column key, cuts the key
+ * range into chunks of diff.chunkRows, checksums each chunk on both sides
+ * with up to diff.parallelism workers (fewer if the pools are smaller), and
+ * merge-compares only the chunks whose checksums differ. Where both sides
+ * are MySQL / MariaDB or both PostgreSQL the checksum is computed by the
+ * database, otherwise the chunk's rows are hashed as they stream in.
+ */
+public class DataDiff {
+    private static final int PROGRESS_EVERY = 256;   // rows between progress updates / cancel checks
+    private static final int MAX_CELL_CHARS = 200;
+
+    public enum Change { ADDED, REMOVED, CHANGED }
+
+    /** One side of a diff: a table or a query on a connection source. */
+    public static final class Side {
+        public final ConnectionSource source;
+        /** Table name, possibly qualified; null for a query. */
+        public final String table;
+        /** The query; null for a table. */
+        public final String sql;
+
+        private Side(ConnectionSource source, String table, String sql) {
+            this.source = source;
+            this.table = table;
+            this.sql = sql;
+        }
+
+        public static Side table(ConnectionSource source, String table) {
+            return new Side(source, table.trim(), null);
+        }
+
+        public static Side query(ConnectionSource source, String sql) {
+            return new Side(source, null, sql.trim());
+        }
+
+        @Override
+        public String toString() {
+            return (table != null ? table : "query") + " on " + source.getName();
+        }
+    }
+
+    private final Side left;
+    private final Side right;
+    private final List<String> keyColumns;   // given by the user, or empty for the primary key
+    private final boolean chunked;
+    private final QueryExecution<DataDiff> exec;
+    private final DiffResultModel model;
+    private volatile long compared;
+    private volatile long added;
+    private volatile long removed;
+    private volatile long changed;
+    private volatile int chunks;
+    private final AtomicInteger chunksChecked = new AtomicInteger();
+    private final AtomicInteger chunksDiffering = new AtomicInteger();
+    private volatile String note = "";
+    private volatile boolean stopping;   // a checksum worker failed; the others finish their chunk and stop
+
+    private DataDiff(Side left, Side right, List<String> keyColumns, boolean chunked) {
+        this.left = left;
+        this.right = right;
+        this.keyColumns = keyColumns;
+        this.chunked = chunked;
+        this.exec = new QueryExecution<>(describe(left, right));
+        this.model = new DiffResultModel(Math.max(1, Settings.getInt("diff.maxRows", 10_000)));
+    }
+
+    /**
+     * Starts the diff on the executor thread. Differences appear in the
+     * model while it runs; the execution completes with this diff at the end.
+     */
+    public static DataDiff start(Side left, Side right, List<String> keyColumns, boolean chunked) {
+        DataDiff diff = new DataDiff(left, right, keyColumns, chunked);
+        QueryExecutor.EXECUTOR.execute(() -> {
+            try {
+                diff.run();
+                diff.exec.finished();
+                diff.model.publish();
+                diff.exec.result().complete(diff);
+                QueryHistory.record("diff", left.source, diff.exec.getSql(), diff.exec, null);
+            } catch (SQLException | RuntimeException ex) {
+                diff.exec.finished();
+                diff.model.publish();
+                QueryHistory.record("diff", left.source, diff.exec.getSql(), diff.exec, ex);
+                diff.exec.result().completeExceptionally(diff.exec.isCancelled() ? diff.exec.cancelledException() : ex);
+            }
+        });
+        return diff;
+    }
+
+    private static String describe(Side left, Side right) {
+        if (left.sql == null && right.sql == null) return "-- compare " + left + " with " + right;
+        return "-- compare " + left + " with " + right + "\n" + (left.sql != null ? left.sql : left.table) + ";\n"
+                + (right.sql != null ? right.sql : right.table) + ";";
+    }
+
+    public QueryExecution<DataDiff> execution() {
+        return exec;
+    }
+
+    public DiffResultModel getModel() {
+        return model;
+    }
+
+    public long getAdded() {
+        return added;
+    }
+
+    public long getRemoved() {
+        return removed;
+    }
+
+    public long getChanged() {
+        return changed;
+    }
+
+    public boolean isChunked() {
+        return chunked;
+    }
+
+    /** Rows compared and differences so far, e.g. for the status bar. */
+    public String progressText() {
+        String text = String.format("%,d rows compared: %,d added, %,d removed, %,d changed",
+                compared, added, removed, changed);
+        if (chunks > 0) {
+            text += String.format("; %,d of %,d chunks checksummed, %,d differ", chunksChecked.get(), chunks,
+                    chunksDiffering.get());
+        }
+        long listed = Math.min(added + removed + changed, model.getMaxRows());
+        if (added + removed + changed > listed) text += String.format(" (first %,d listed)", listed);
+        return text + note;
+    }
+
+    private void run() throws SQLException {
+        // both sides are read at once; from one pool that takes two of its connections
+        if (left.source == right.source && poolMaxSize(left.source) < 2) {
+            throw new SQLException("Comparing on one profile needs two connections at once; set profile."
+                    + left.source.getName() + ".pool.maxSize (or pool.maxSize) to 2 or more.");
+        }
+        List<String> keys = new ArrayList<>();
+        boolean quoteKeys = keyColumns.isEmpty();
+        keys.addAll(quoteKeys ? primaryKey(left) : keyColumns);
+        if (keys.isEmpty()) {
+            throw new SQLException("No primary key found for " + left + "; enter the key columns to compare by.");
+        }
+        if (!chunked) {
+            merge(keys, quoteKeys, null, null);
+            return;
+        }
+        if (left.table == null || right.table == null) {
+            throw new SQLException("Chunked mode compares two tables, not queries.");
+        }
+        if (keys.size() != 1) {
+            throw new SQLException("Chunked mode needs a single-column key; " + left.table + " is keyed by " + keys + ".");
+        }
+        runChunked(keys.get(0), quoteKeys);
+    }
+
+    // ---- keys ----
+
+    /** Primary key columns of the side's table, or of the one table its query reads; empty if unknown. */
+    private static List<String> primaryKey(Side side) throws SQLException {
+        String table = side.table;
+        if (table == null) {
+            Set<String> tables = SqlScript.tableNames(side.sql);
+            if (tables.size() != 1) return new ArrayList<>();
+            table = tables.iterator().next();
+        }
+        String[] parts = unquote(table).split("\\.");
+        String name = parts[parts.length - 1];
+        String qualifier = parts.length > 1 ? parts[parts.length - 2] : null;
+        try (Connection conn = side.source.getConnection()) {
+            DatabaseMetaData meta = conn.getMetaData();
+            List<String[]> scopes = new ArrayList<>();   // {catalog, schema}
+            if (qualifier != null) {
+                scopes.add(new String[]{qualifier, null});
+                scopes.add(new String[]{null, qualifier});
+            } else {
+                scopes.add(new String[]{conn.getCatalog(), currentSchema(conn)});
+                scopes.add(new String[]{conn.getCatalog(), null});
+            }
+            for (String[] scope : scopes) {
+                for (String candidate : new String[]{name, name.toUpperCase(Locale.ROOT), name.toLowerCase(Locale.ROOT)}) {
+                    Map<Short, String> columns = new TreeMap<>();
+                    try (ResultSet rs = meta.getPrimaryKeys(scope[0], scope[1], candidate)) {
+                        while (rs.next()) {
+                            columns.put(rs.getShort("KEY_SEQ"), rs.getString("COLUMN_NAME"));
+                        }
+                    }
+                    if (!columns.isEmpty()) return new ArrayList<>(columns.values());
+                }
+            }
+        }
+        return new ArrayList<>();
+    }
+
+    private static String currentSchema(Connection conn) {
+        try {
+            return conn.getSchema();
+        } catch (SQLException | AbstractMethodError ex) {
+            return null;   // pre-JDBC 4.1 drivers
+        }
+    }
+
+    private static String unquote(String name) {
+        return name.replace("`", "").replace("\"", "").replace("[", "").replace("]", "");
+    }
+
+    /** Key columns for an ORDER BY or WHERE; names from the metadata are quoted, typed ones used as given. */
+    private static String keyList(List<String> keys, boolean quote, Connection conn) throws SQLException {
+        String q = quote ? conn.getMetaData().getIdentifierQuoteString().trim() : "";
+        StringBuilder sb = new StringBuilder();
+        for (String key : keys) {
+            if (sb.length() > 0) sb.append(", ");
+            sb.append(q).append(key).append(q);
+        }
+        return sb.toString();
+    }
+
+    /** The side's rows ordered by key, optionally in key range [lo, hi) with lo / hi null for open ends. */
+    private static String orderedSql(Side side, String keys, String key, Object lo, Object hi) {
+        StringBuilder sb = new StringBuilder("SELECT * FROM ");
+        if (side.table != null) {
+            sb.append(side.table);
+        } else {
+            sb.append('(').append(side.sql.replaceAll(";\\s*$", "")).append(") diff_rows");
+        }
+        appendRange(sb, key, lo, hi);
+        return sb.append(" ORDER BY ").append(keys).toString();
+    }
+
+    private static void appendRange(StringBuilder sb, String key, Object lo, Object hi) {
+        if (lo != null) sb.append(" WHERE ").append(key).append(" >= ?");
+        if (hi != null) sb.append(lo != null ? " AND " : " WHERE ").append(key).append(" < ?");
+    }
+
+    private static void bindRange(PreparedStatement stmt, Object lo, Object hi) throws SQLException {
+        int i = 1;
+        if (lo != null) stmt.setObject(i++, lo);
+        if (hi != null) stmt.setObject(i, hi);
+    }
+
+    // ---- merge ----
+
+    /** Merge-joins both sides in key order, within [lo, hi) of the single key column in chunked mode. */
+    private void merge(List<String> keys, boolean quoteKeys, Object lo, Object hi) throws SQLException {
+        int fetchSize = Math.max(1, Settings.getInt("diff.fetchSize", 10_000));
+        try (Connection lc = left.source.getConnection();
+             Connection rc = right.source.getConnection()) {
+            exec.connected();
+            String leftKeys = keyList(keys, quoteKeys, lc);
+            String rightKeys = keyList(keys, quoteKeys, rc);
+            try (PreparedStatement ls = lc.prepareStatement(orderedSql(left, leftKeys, leftKeys, lo, hi));
+                 PreparedStatement rs = rc.prepareStatement(orderedSql(right, rightKeys, rightKeys, lo, hi))) {
+                exec.attachAlso(ls);
+                exec.attachAlso(rs);
+                try {
+                    // with useCursorFetch=true MySQL reads this many rows per round trip instead of buffering the result
+                    ls.setFetchSize(fetchSize);
+                    rs.setFetchSize(fetchSize);
+                    bindRange(ls, lo, hi);
+                    bindRange(rs, lo, hi);
+                    // both sides run at once; the right one is opened while the left one starts streaming
+                    CompletableFuture<ResultSet> rightRows = CompletableFuture.supplyAsync(() -> {
+                        try {
+                            return rs.executeQuery();
+                        } catch (SQLException ex) {
+                            throw new CompletionException(ex);
+                        }
+                    }, QueryExecutor.EXECUTOR);
+                    try (ResultSet l = ls.executeQuery();
+                         ResultSet r = join(rightRows)) {
+                        exec.firstRow();
+                        merge(l, r, new Columns(l.getMetaData(), r.getMetaData(), keys));
+                    } finally {
+                        // the right query may still be running if the left one failed
+                        rightRows.thenAccept(DataDiff::closeQuietly);
+                    }
+                } finally {
+                    exec.detach(ls);
+                    exec.detach(rs);
+                }
+            }
+        }
+    }
+
+    private static ResultSet join(CompletableFuture<ResultSet> future) throws SQLException {
+        try {
+            return future.join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof SQLException) throw (SQLException) ex.getCause();
+            throw ex;
+        }
+    }
+
+    private static void closeQuietly(ResultSet rs) {
+        try {
+            rs.close();
+        } catch (SQLException ignored) {
+            // already closed with its statement
+        }
+    }
+
+    private void merge(ResultSet l, ResultSet r, Columns cols) throws SQLException {
+        boolean hasLeft = l.next();
+        boolean hasRight = r.next();
+        Object[] leftKey = hasLeft ? key(l, cols.leftKeys) : null;
+        Object[] rightKey = hasRight ? key(r, cols.rightKeys) : null;
+        int pending = 0;
+        while (hasLeft || hasRight) {
+            int c = !hasLeft ? 1 : !hasRight ? -1 : compareKeys(leftKey, rightKey);
+            if (c < 0) {
+                removed++;
+                model.add(Change.REMOVED, keyText(leftKey), "", rowText(l, cols.left, cols.names), null);
+            } else if (c > 0) {
+                added++;
+                model.add(Change.ADDED, keyText(rightKey), "", null, rowText(r, cols.right, cols.names));
+            } else {
+                compareRow(l, r, cols, leftKey);
+            }
+            if (c <= 0) {
+                hasLeft = l.next();
+                leftKey = hasLeft ? nextKey(l, cols.leftKeys, leftKey, "left") : null;
+            }
+            if (c >= 0) {
+                hasRight = r.next();
+                rightKey = hasRight ? nextKey(r, cols.rightKeys, rightKey, "right") : null;
+            }
+            compared++;
+            if (++pending == PROGRESS_EVERY) {
+                exec.addRowsFetched(pending);
+                pending = 0;
+                if (exec.isCancelled()) throw exec.cancelledException();
+            }
+        }
+        exec.addRowsFetched(pending);
+    }
+
+    private void compareRow(ResultSet l, ResultSet r, Columns cols, Object[] key) throws SQLException {
+        StringBuilder names = null;
+        StringBuilder leftValues = null;
+        StringBuilder rightValues = null;
+        for (int i = 0; i < cols.names.length; i++) {
+            Object a = read(l, cols.left[i]);
+            Object b = read(r, cols.right[i]);
+            if (same(a, b)) continue;
+            if (names == null) {
+                names = new StringBuilder();
+                leftValues = new StringBuilder();
+                rightValues = new StringBuilder();
+            } else {
+                names.append(", ");
+                leftValues.append(", ");
+                rightValues.append(", ");
+            }
+            names.append(cols.names[i]);
+            leftValues.append(cellText(a));
+            rightValues.append(cellText(b));
+        }
+        if (names != null) {
+            changed++;
+            model.add(Change.CHANGED, keyText(key), names.toString(), leftValues.toString(), rightValues.toString());
+        }
+    }
+
+    /** The next row's key, checked to come after the previous one as the merge needs. */
+    private static Object[] nextKey(ResultSet rs, int[] keyColumns, Object[] previous, String side) throws SQLException {
+        Object[] key = key(rs, keyColumns);
+        if (compareKeys(key, previous) < 0) {
+            throw new SQLException("The " + side + " rows are not in the order this diff compares keys in ("
+                    + keyText(previous) + " before " + keyText(key) + "). The database probably sorts the key with a"
+                    + " case-insensitive or locale collation; compare by a numeric key, or a binary collation.");
+        }
+        return key;
+    }
+
+    private static Object[] key(ResultSet rs, int[] keyColumns) throws SQLException {
+        Object[] key = new Object[keyColumns.length];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = read(rs, keyColumns[i]);
+        }
+        return key;
+    }
+
+    /** Which columns are keys and which are compared, matched by name on both sides. */
+    private final class Columns {
+        final int[] leftKeys;
+        final int[] rightKeys;
+        final int[] left;       // compared non-key columns
+        final int[] right;
+        final String[] names;
+
+        Columns(ResultSetMetaData lm, ResultSetMetaData rm, List<String> keys) throws SQLException {
+            Map<String, Integer> rightIndex = new TreeMap<>();
+            for (int c = 1; c <= rm.getColumnCount(); c++) {
+                rightIndex.putIfAbsent(rm.getColumnLabel(c).toLowerCase(Locale.ROOT), c);
+            }
+            leftKeys = new int[keys.size()];
+            rightKeys = new int[keys.size()];
+            for (int k = 0; k < keys.size(); k++) {
+                String key = unquote(keys.get(k)).toLowerCase(Locale.ROOT);
+                key = key.substring(key.lastIndexOf('.') + 1);
+                leftKeys[k] = indexOf(lm, key, "left");
+                Integer r = rightIndex.get(key);
+                if (r == null) throw new SQLException("Key column " + keys.get(k) + " is not in the right rows.");
+                rightKeys[k] = r;
+            }
+            List<Integer> l = new ArrayList<>();
+            List<Integer> rr = new ArrayList<>();
+            List<String> n = new ArrayList<>();
+            List<String> leftOnly = new ArrayList<>();
+            for (int c = 1; c <= lm.getColumnCount(); c++) {
+                String label = lm.getColumnLabel(c);
+                Integer r = rightIndex.remove(label.toLowerCase(Locale.ROOT));
+                if (r == null) {
+                    leftOnly.add(label);
+                } else if (!contains(leftKeys, c)) {
+                    l.add(c);
+                    rr.add(r);
+                    n.add(label);
+                }
+            }
+            left = l.stream().mapToInt(Integer::intValue).toArray();
+            right = rr.stream().mapToInt(Integer::intValue).toArray();
+            names = n.toArray(new String[0]);
+            StringBuilder sb = new StringBuilder();
+            if (!leftOnly.isEmpty()) sb.append("; only on the left, not compared: ").append(String.join(", ", leftOnly));
+            if (!rightIndex.isEmpty()) sb.append("; only on the right, not compared: ").append(String.join(", ", rightIndex.keySet()));
+            note = sb.toString();
+        }
+
+        private int indexOf(ResultSetMetaData meta, String label, String side) throws SQLException {
+            for (int c = 1; c <= meta.getColumnCount(); c++) {
+                if (meta.getColumnLabel(c).equalsIgnoreCase(label)) return c;
+            }
+            throw new SQLException("Key column " + label + " is not in the " + side + " rows.");
+        }
+    }
+
+    private static boolean contains(int[] values, int value) {
+        for (int v : values) {
+            if (v == value) return true;
+        }
+        return false;
+    }
+
+    // ---- values ----
+
+    /** The column's value in a form comparable across drivers. */
+    private static Object read(ResultSet rs, int column) throws SQLException {
+        Object v = rs.getObject(column);
+        if (v instanceof Clob) {
+            Clob clob = (Clob) v;
+            return clob.getSubString(1, (int) Math.min(Integer.MAX_VALUE, clob.length()));
+        }
+        if (v instanceof Blob) {
+            Blob blob = (Blob) v;
+            return blob.getBytes(1, (int) Math.min(Integer.MAX_VALUE, blob.length()));
+        }
+        if (v instanceof java.sql.Timestamp) return ((java.sql.Timestamp) v).toLocalDateTime();
+        if (v instanceof java.sql.Date) return ((java.sql.Date) v).toLocalDate();
+        if (v instanceof java.sql.Time) return ((java.sql.Time) v).toLocalTime();
+        return v;
+    }
+
+    static boolean same(Object a, Object b) {
+        if (a == null || b == null) return a == b;
+        if (a instanceof Number && b instanceof Number) return decimal(a).compareTo(decimal(b)) == 0;
+        if (a instanceof byte[] && b instanceof byte[]) return Arrays.equals((byte[]) a, (byte[]) b);
+        // MySQL's TINYINT(1) against a real BOOLEAN
+        if (a instanceof Boolean && b instanceof Number) return (Boolean) a == (decimal(b).signum() != 0);
+        if (b instanceof Boolean && a instanceof Number) return (Boolean) b == (decimal(a).signum() != 0);
+        return a.equals(b) || a.toString().equals(b.toString());
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static int compareKeys(Object[] a, Object[] b) {
+        for (int i = 0; i < a.length; i++) {
+            Object x = a[i];
+            Object y = b[i];
+            int c;
+            if (x == null || y == null) {
+                c = x == null ? (y == null ? 0 : -1) : 1;
+            } else if (x instanceof Number && y instanceof Number) {
+                c = decimal(x).compareTo(decimal(y));
+            } else if (x.getClass() == y.getClass() && x instanceof Comparable) {
+                c = ((Comparable) x).compareTo(y);
+            } else {
+                c = x.toString().compareTo(y.toString());
+            }
+            if (c != 0) return c;
+        }
+        return 0;
+    }
+
+    private static BigDecimal decimal(Object n) {
+        if (n instanceof BigDecimal) return (BigDecimal) n;
+        if (n instanceof BigInteger) return new BigDecimal((BigInteger) n);
+        if (n instanceof Double || n instanceof Float) {
+            double d = ((Number) n).doubleValue();
+            return Double.isFinite(d) ? new BigDecimal(Double.toString(d)) : BigDecimal.valueOf(Long.MAX_VALUE);
+        }
+        return BigDecimal.valueOf(((Number) n).longValue());
+    }
+
+    private static String cellText(Object v) {
+        String text = CellFormat.text(v, MAX_CELL_CHARS);
+        return text == null ? "NULL" : text;
+    }
+
+    private static String keyText(Object[] key) {
+        StringBuilder sb = new StringBuilder();
+        for (Object k : key) {
+            if (sb.length() > 0) sb.append(", ");
+            sb.append(cellText(k));
+        }
+        return sb.toString();
+    }
+
+    private static String rowText(ResultSet rs, int[] columns, String[] names) throws SQLException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < columns.length && sb.length() < MAX_CELL_CHARS * 2; i++) {
+            if (sb.length() > 0) sb.append(", ");
+            sb.append(names[i]).append('=').append(cellText(read(rs, columns[i])));
+        }
+        return sb.toString();
+    }
+
+    // ---- chunked mode ----
+
+    private void runChunked(String key, boolean quoteKey) throws SQLException {
+        int chunkRows = Math.max(100, Settings.getInt("diff.chunkRows", 50_000));
+        List<Object> bounds = new ArrayList<>();
+        Columns cols;
+        String[] leftColumns;
+        String[] rightColumns;
+        boolean inDatabase;
+        try (Connection lc = left.source.getConnection();
+             Connection rc = right.source.getConnection()) {
+            exec.connected();
+            String leftKey = keyList(List.of(key), quoteKey, lc);
+            // every chunkRows-th key of the left side starts a chunk; only the key column is read
+            try (PreparedStatement stmt = lc.prepareStatement("SELECT " + leftKey + " FROM " + left.table
+                    + " ORDER BY " + leftKey)) {
+                exec.attach(stmt);
+                stmt.setFetchSize(Math.max(1, Settings.getInt("diff.fetchSize", 10_000)));
+                try (ResultSet rs = stmt.executeQuery()) {
+                    long row = 0;
+                    while (rs.next()) {
+                        if (row > 0 && row % chunkRows == 0) bounds.add(read(rs, 1));
+                        row++;
+                        if (row % PROGRESS_EVERY == 0 && exec.isCancelled()) throw exec.cancelledException();
+                    }
+                }
+            }
+            exec.firstRow();
+            cols = columns(lc, rc, key);
+            leftColumns = columnNames(lc, left, cols.leftKeys, cols.left);
+            rightColumns = columnNames(rc, right, cols.rightKeys, cols.right);
+            ExplainPlan.Dialect dialect = ExplainPlan.dialectOf(left.source.getUrl());
+            inDatabase = dialect == ExplainPlan.dialectOf(right.source.getUrl())
+                    && (dialect == ExplainPlan.Dialect.MYSQL || dialect == ExplainPlan.Dialect.POSTGRES);
+        }
+
+        int count = bounds.size() + 1;
+        chunks = count;
+        boolean[] differs = new boolean[count];
+        AtomicInteger next = new AtomicInteger();
+        int workers = Math.min(Math.min(count, Math.max(1, Settings.getInt("diff.parallelism", 4))), maxWorkers());
+        List<CompletableFuture<Void>> running = new ArrayList<>();
+        for (int w = 0; w < workers; w++) {
+            running.add(CompletableFuture.runAsync(() -> {
+                try {
+                    checksumChunks(key, quoteKey, bounds, next, differs, leftColumns, rightColumns, inDatabase);
+                } catch (SQLException | RuntimeException ex) {
+                    stopping = true;
+                    throw new CompletionException(ex);
+                }
+            }, QueryExecutor.EXECUTOR));
+        }
+        try {
+            CompletableFuture.allOf(running.toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof SQLException) throw (SQLException) ex.getCause();
+            throw ex;
+        }
+
+        // drill down into the chunks that differ, in key order
+        for (int i = 0; i < count; i++) {
+            if (!differs[i]) continue;
+            merge(List.of(key), quoteKey, i == 0 ? null : bounds.get(i - 1), i == count - 1 ? null : bounds.get(i));
+        }
+    }
+
+    /**
+     * Workers the pools can serve at once: each holds a connection on both
+     * sides, two from one pool when both sides use the same profile.
+     */
+    private int maxWorkers() {
+        if (left.source == right.source) return Math.max(1, poolMaxSize(left.source) / 2);
+        return Math.max(1, Math.min(poolMaxSize(left.source), poolMaxSize(right.source)));
+    }
+
+    private static int poolMaxSize(ConnectionSource source) {
+        return source instanceof ConnectionProfile ? ((ConnectionProfile) source).getPoolMaxSize() : Integer.MAX_VALUE;
+    }
+
+    /** Column mapping from both tables' metadata, without reading rows. */
+    private Columns columns(Connection lc, Connection rc, String key) throws SQLException {
+        try (PreparedStatement ls = lc.prepareStatement("SELECT * FROM " + left.table + " WHERE 1 = 0");
+             PreparedStatement rs = rc.prepareStatement("SELECT * FROM " + right.table + " WHERE 1 = 0");
+             ResultSet l = ls.executeQuery();
+             ResultSet r = rs.executeQuery()) {
+            return new Columns(l.getMetaData(), r.getMetaData(), List.of(key));
+        }
+    }
+
+    /** Quoted names of the key and compared columns, in the order they are checksummed. */
+    private static String[] columnNames(Connection conn, Side side, int[] keys, int[] compared) throws SQLException {
+        String q = conn.getMetaData().getIdentifierQuoteString().trim();
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT * FROM " + side.table + " WHERE 1 = 0");
+             ResultSet rs = stmt.executeQuery()) {
+            ResultSetMetaData meta = rs.getMetaData();
+            String[] names = new String[keys.length + compared.length];
+            for (int i = 0; i < keys.length; i++) names[i] = q + meta.getColumnName(keys[i]) + q;
+            for (int i = 0; i < compared.length; i++) names[keys.length + i] = q + meta.getColumnName(compared[i]) + q;
+            return names;
+        }
+    }
+
+    /** One worker: takes chunks until none are left and marks those whose checksums differ. */
+    private void checksumChunks(String key, boolean quoteKey, List<Object> bounds, AtomicInteger next,
+                                boolean[] differs, String[] leftColumns, String[] rightColumns,
+                                boolean inDatabase) throws SQLException {
+        int count = bounds.size() + 1;
+        try (Connection lc = left.source.getConnection();
+             Connection rc = right.source.getConnection()) {
+            String leftKey = keyList(List.of(key), quoteKey, lc);
+            String rightKey = keyList(List.of(key), quoteKey, rc);
+            for (int i = next.getAndIncrement(); i < count && !stopping; i = next.getAndIncrement()) {
+                if (exec.isCancelled()) throw exec.cancelledException();
+                Object lo = i == 0 ? null : bounds.get(i - 1);
+                Object hi = i == count - 1 ? null : bounds.get(i);
+                Checksum l = checksum(lc, left, leftKey, leftColumns, lo, hi, inDatabase);
+                Checksum r = checksum(rc, right, rightKey, rightColumns, lo, hi, inDatabase);
+                if (!l.equals(r)) {
+                    differs[i] = true;   // read after the workers are joined
+                    chunksDiffering.incrementAndGet();
+                }
+                chunksChecked.incrementAndGet();
+                exec.addRowsFetched(l.rows);
+            }
+        }
+    }
+
+    private Checksum checksum(Connection conn, Side side, String key, String[] columns, Object lo, Object hi,
+                              boolean inDatabase) throws SQLException {
+        String sql = inDatabase ? checksumSql(ExplainPlan.dialectOf(side.source.getUrl()), side, key, columns, lo, hi)
+                : hashSql(side, key, columns, lo, hi);
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            exec.attachAlso(stmt);
+            try {
+                bindRange(stmt, lo, hi);
+                if (!inDatabase) stmt.setFetchSize(Math.max(1, Settings.getInt("diff.fetchSize", 10_000)));
+                try (ResultSet rs = stmt.executeQuery()) {
+                    return inDatabase ? databaseChecksum(rs) : hashRows(rs, columns.length);
+                }
+            } finally {
+                exec.detach(stmt);
+            }
+        }
+    }
+
+    /** COUNT and an order-independent sum of per-row hashes, computed by the database. */
+    private static String checksumSql(ExplainPlan.Dialect dialect, Side side, String key, String[] columns,
+                                      Object lo, Object hi) {
+        String cols = String.join(", ", columns);
+        StringBuilder sb = new StringBuilder("SELECT COUNT(*), ");
+        if (dialect == ExplainPlan.Dialect.MYSQL) {
+            // CONCAT_WS skips NULLs, so the NULL flags go in as well
+            StringBuilder nulls = new StringBuilder();
+            for (String c : columns) {
+                if (nulls.length() > 0) nulls.append(", ");
+                nulls.append("ISNULL(").append(c).append(')');
+            }
+            sb.append("COALESCE(SUM(CRC32(CONCAT_WS('|', ").append(cols).append(", CONCAT(").append(nulls)
+                    .append(")))), 0)");
+        } else {
+            sb.append("COALESCE(SUM(('x' || SUBSTR(MD5(ROW(").append(cols).append(")::text), 1, 15))::bit(60)::bigint), 0)");
+        }
+        sb.append(" FROM ").append(side.table);
+        appendRange(sb, key, lo, hi);
+        return sb.toString();
+    }
+
+    private static String hashSql(Side side, String key, String[] columns, Object lo, Object hi) {
+        StringBuilder sb = new StringBuilder("SELECT ").append(String.join(", ", columns)).append(" FROM ").append(side.table);
+        appendRange(sb, key, lo, hi);
+        return sb.append(" ORDER BY ").append(key).toString();
+    }
+
+    private static Checksum databaseChecksum(ResultSet rs) throws SQLException {
+        rs.next();
+        return new Checksum(rs.getLong(1), rs.getString(2));
+    }
+
+    /** Streams the chunk in key order through MD5, with values in the same form {@link #same} compares. */
+    private Checksum hashRows(ResultSet rs, int columns) throws SQLException {
+        MessageDigest md5;
+        try {
+            md5 = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+        long rows = 0;
+        while (rs.next()) {
+            for (int c = 1; c <= columns; c++) {
+                Object v = read(rs, c);
+                if (v == null) {
+                    md5.update((byte) 0);
+                } else if (v instanceof byte[]) {
+                    md5.update((byte) 1);
+                    md5.update((byte[]) v);
+                } else {
+                    String text;
+                    if (v instanceof Number) {
+                        text = decimal(v).stripTrailingZeros().toPlainString();
+                    } else if (v instanceof Boolean) {
+                        text = (Boolean) v ? "1" : "0";
+                    } else {
+                        text = v.toString();
+                    }
+                    md5.update((byte) 2);
+                    md5.update(text.getBytes(StandardCharsets.UTF_8));
+                }
+                md5.update((byte) 0x1F);
+            }
+            rows++;
+            if (rows % PROGRESS_EVERY == 0 && exec.isCancelled()) throw exec.cancelledException();
+        }
+        return new Checksum(rows, new BigInteger(1, md5.digest()).toString(16));
+    }
+
+    private static final class Checksum {
+        final long rows;
+        final String hash;
+
+        Checksum(long rows, String hash) {
+            this.rows = rows;
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Checksum && ((Checksum) o).rows == rows && String.valueOf(((Checksum) o).hash).equals(String.valueOf(hash));
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(rows);
+        }
+    }
+}
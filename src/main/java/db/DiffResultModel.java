@@ -0,0 +1,94 @@
+package db;
+
+import javax.swing.SwingUtilities;
+import javax.swing.table.AbstractTableModel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One row per difference found by a {@link DataDiff}, up to diff.maxRows;
+ * the diff keeps counting past that. Filled by the diff thread in chunks;
+ * the row list the table sees only changes on the EDT.
+ */
+public class DiffResultModel extends AbstractTableModel {
+    private static final String[] COLUMNS = {"Change", "Key", "Columns", "Left", "Right"};
+
+    private final List<Entry> rows = new ArrayList<>();        // EDT only
+    private List<Entry> pending = new ArrayList<>();            // diff thread only
+    private long lastPublish = System.nanoTime();               // diff thread only
+    private final int maxRows;
+    private int kept;                                           // diff thread only
+
+    DiffResultModel(int maxRows) {
+        this.maxRows = maxRows;
+    }
+
+    @Override
+    public int getRowCount() {
+        return rows.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMNS[column];
+    }
+
+    @Override
+    public Object getValueAt(int rowIndex, int columnIndex) {
+        Entry e = rows.get(rowIndex);
+        switch (columnIndex) {
+            case 0: return e.change;
+            case 1: return e.key;
+            case 2: return e.columns;
+            case 3: return e.left;
+            default: return e.right;
+        }
+    }
+
+    public int getMaxRows() {
+        return maxRows;
+    }
+
+    /** False once diff.maxRows differences are listed; later ones are only counted. */
+    boolean add(DataDiff.Change change, String key, String columns, String left, String right) {
+        if (kept >= maxRows) return false;
+        kept++;
+        pending.add(new Entry(change, key, columns, left, right));
+        if (pending.size() >= 500 || System.nanoTime() - lastPublish > 200_000_000L) publish();
+        return true;
+    }
+
+    /** Hands the rows collected so far to the EDT. */
+    void publish() {
+        if (pending.isEmpty()) return;
+        List<Entry> chunk = pending;
+        pending = new ArrayList<>();
+        lastPublish = System.nanoTime();
+        SwingUtilities.invokeLater(() -> {
+            int first = rows.size();
+            rows.addAll(chunk);
+            fireTableRowsInserted(first, rows.size() - 1);
+        });
+    }
+
+    private static final class Entry {
+        final DataDiff.Change change;
+        final String key;
+        final String columns;
+        final String left;
+        final String right;
+
+        Entry(DataDiff.Change change, String key, String columns, String left, String right) {
+            this.change = change;
+            this.key = key;
+            this.columns = columns;
+            this.left = left;
+            this.right = right;
+        }
+    }
+}
@@ -4,44 +4,136 @@ import org.fife.ui.autocomplete.*;
 import org.fife.ui.rsyntaxtextarea.RSyntaxTextArea;
 
 import javax.swing.*;
+import javax.swing.text.BadLocationException;
 import javax.swing.text.JTextComponent;
-import java.sql.*;
+import java.sql.SQLException;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class DynamicSuggestions {
+    private static final ExecutorService LOADER = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "completion-loader");
+        t.setDaemon(true);
+        return t;
+    });
 
     public static class CaseInsensitiveCompletionProvider extends DefaultCompletionProvider {
-        
+        private volatile Indexes indexes = Indexes.EMPTY;
+        private volatile List<Completion> keywords = Collections.emptyList();
+        private volatile String loadStatus = "Completions: keywords only";
+        private volatile SchemaCatalog catalog;   // null follows the active profile
+        private final AtomicBoolean reloadQueued = new AtomicBoolean();
+
+        /** Short progress text for the status bar, safe to poll from any thread. */
+        public String getLoadStatus() {
+            long slow = CompletionIndex.slowLookups();
+            return slow == 0 ? loadStatus : String.format("%s, %,d slow lookups", loadStatus, slow);
+        }
+
+        /**
+         * Swaps in a new set of completions; safe from any thread. The base
+         * class list only backs parameter assistance, so it holds just the
+         * keywords and functions and is filled once on creation.
+         */
+        public void setCompletions(List<Completion> keywords, List<Completion> tables,
+                                   Map<String, List<Completion>> columnsByTable, List<Completion> all) {
+            indexes = new Indexes(keywords, tables, columnsByTable, all);
+        }
+
         @Override
         public List<Completion> getCompletions(JTextComponent comp) {
-            List<Completion> completions = super.getCompletions(comp);
-            List<Completion> filtered = new ArrayList<>();
-            
-            String text = getAlreadyEnteredText(comp);
-            if (text == null) {
-                return completions;
+            // the indexes are already ordered; skip the base class re-sort of every hit
+            String typed = getAlreadyEnteredText(comp);
+            int limit = Settings.getInt("completion.maxResults", 500);
+            Indexes idx = indexes;
+            if (!(comp instanceof RSyntaxTextArea)) {
+                return idx.all.lookup(typed, limit);
             }
-            String lowerText = text.toLowerCase();
-            
-            for (Completion completion : completions) {
-                String inputText = completion.getInputText();
-                if (inputText != null && inputText.toLowerCase().startsWith(lowerText)) {
-                    filtered.add(completion);
-                }
+            SqlContext ctx = SqlContext.at((RSyntaxTextArea) comp, comp.getCaretPosition());
+            List<Completion> result = new ArrayList<>();
+            switch (ctx.kind) {
+                case TABLE:
+                    idx.tables.lookupInto(typed, limit, result);
+                    break;
+                case COLUMN:
+                    if (ctx.qualifier != null) {
+                        // alias.col or table.col: only that table's columns
+                        SqlContext.TableRef ref = ctx.resolve(ctx.qualifier);
+                        idx.columns(ref != null ? ref.table : ctx.qualifier).lookupInto(typed, limit, result);
+                        break;
+                    }
+                    if (ctx.tables.isEmpty()) {
+                        idx.all.lookupInto(typed, limit, result);
+                        break;
+                    }
+                    Set<String> seen = new HashSet<>();
+                    for (SqlContext.TableRef ref : ctx.tables) {
+                        if (!seen.add(ref.table.toLowerCase(Locale.ROOT))) continue;
+                        idx.columns(ref.table).lookupInto(typed, limit, result);
+                    }
+                    idx.keywords.lookupInto(typed, limit, result);
+                    break;
+                default:
+                    idx.all.lookupInto(typed, limit, result);
+                    break;
             }
-            
-            return filtered;
+            return result;
         }
 
         @Override
         public boolean isAutoActivateOkay(JTextComponent comp) {
             String text = getAlreadyEnteredText(comp);
-            return text != null && text.length() >= 1; // trigger after 1+ chars (so 2 letters work)
+            if (text != null && text.length() >= 1) return true; // trigger after 1+ chars (so 2 letters work)
+            // and right after "alias."
+            int caret = comp.getCaretPosition();
+            try {
+                return caret > 0 && comp.getText(caret - 1, 1).charAt(0) == '.';
+            } catch (BadLocationException e) {
+                return false;
+            }
+        }
+    }
+
+    /** One immutable set of indexes, swapped in whole so lookups never see a half-built state. */
+    private static final class Indexes {
+        static final Indexes EMPTY = new Indexes(Collections.emptyList(), Collections.emptyList(),
+                Collections.emptyMap(), Collections.emptyList());
+
+        final CompletionIndex keywords;
+        final CompletionIndex tables;
+        final CompletionIndex all;
+        private final Map<String, List<Completion>> columnsByTable;
+        // per-table column indexes are built on first use; most tables are never referenced
+        private final Map<String, CompletionIndex> columnIndexes = new ConcurrentHashMap<>();
+
+        Indexes(List<Completion> keywords, List<Completion> tables,
+                Map<String, List<Completion>> columnsByTable, List<Completion> all) {
+            this.keywords = new CompletionIndex(keywords);
+            this.tables = new CompletionIndex(tables);
+            this.all = new CompletionIndex(all);
+            this.columnsByTable = columnsByTable;
+        }
+
+        CompletionIndex columns(String table) {
+            String key = table.toLowerCase(Locale.ROOT);
+            List<Completion> cols = columnsByTable.get(key);
+            if (cols == null) return CompletionIndex.EMPTY;
+            return columnIndexes.computeIfAbsent(key, k -> new CompletionIndex(cols));
         }
     }
 
-    public static DefaultCompletionProvider buildProvider() {
+    /** A provider with keyword and function completions only; it never touches the database. */
+    public static CaseInsensitiveCompletionProvider buildProvider() {
         CaseInsensitiveCompletionProvider provider = new CaseInsensitiveCompletionProvider();
 
         // Add basic SQL keywords and functions
@@ -52,8 +144,9 @@ public class DynamicSuggestions {
             "IS", "NULL", "NOT", "AND", "OR", "COUNT", "SUM", "AVG", "MAX", "MIN", "DISTINCT"
         };
 
+        List<Completion> keywordCompletions = new ArrayList<>();
         for (String keyword : keywords) {
-            provider.addCompletion(new BasicCompletion(provider, keyword));
+            keywordCompletions.add(new BasicCompletion(provider, keyword));
         }
 
         // Add function completions
@@ -62,37 +155,87 @@ public class DynamicSuggestions {
         };
 
         for (String function : functions) {
-            provider.addCompletion(new FunctionCompletion(provider, function, "function"));
+            keywordCompletions.add(new FunctionCompletion(provider, function, "function"));
         }
 
-        // Try to add DB-specific metadata
-        try (Connection conn = DBConnection.getConnection()) {
-            DatabaseMetaData meta = conn.getMetaData();
-            ResultSet tables = meta.getTables(null, null, "%", new String[]{"TABLE","VIEW"});
-            while (tables.next()) {
-                String table = tables.getString("TABLE_NAME");
-                provider.addCompletion(new BasicCompletion(provider, table));
-
-                // columns
-                ResultSet cols = meta.getColumns(null, null, table, "%");
-                while (cols.next()) {
-                    String col = cols.getString("COLUMN_NAME");
-                    String type = cols.getString("TYPE_NAME");
-                    provider.addCompletion(new VariableCompletion(provider, table + "." + col, type));
-                    provider.addCompletion(new VariableCompletion(provider, col, type));
+        provider.keywords = keywordCompletions;
+        provider.addCompletions(keywordCompletions);
+        provider.setCompletions(keywordCompletions, Collections.emptyList(), Collections.emptyMap(), keywordCompletions);
+        return provider;
+    }
+
+    /**
+     * Loads table and column completions from the shared schema catalog on the
+     * loader thread and swaps them into the provider in one step. Requests that
+     * arrive while a load is queued are folded into it.
+     */
+    public static void loadSchemaAsync(CaseInsensitiveCompletionProvider provider) {
+        if (!provider.reloadQueued.compareAndSet(false, true)) {
+            return;
+        }
+        LOADER.execute(() -> {
+            provider.reloadQueued.set(false);
+            loadSchema(provider);
+        });
+    }
+
+    private static void loadSchema(CaseInsensitiveCompletionProvider provider) {
+        long start = System.nanoTime();
+        List<Completion> keywordCompletions = provider.keywords;
+        List<Completion> all = new ArrayList<>(keywordCompletions);
+        List<Completion> tables = new ArrayList<>();
+        Map<String, List<Completion>> columnsByTable = new HashMap<>();
+
+        // DB-specific metadata from the shared schema catalog
+        try {
+            provider.loadStatus = "Completions: loading schema...";
+            SchemaCatalog catalog = provider.catalog != null ? provider.catalog : SchemaCatalog.get();
+            List<SchemaCatalog.TableInfo> infos = catalog.tablesWithColumns(catalog.currentCatalog());
+            Set<String> columnNames = new HashSet<>();
+            int done = 0;
+            for (SchemaCatalog.TableInfo table : infos) {
+                if (++done % 1000 == 0) {
+                    provider.loadStatus = String.format("Completions: indexing %,d/%,d tables...", done, infos.size());
+                }
+                Completion tableCompletion = new BasicCompletion(provider, table.name);
+                tables.add(tableCompletion);
+                all.add(tableCompletion);
+
+                // columns; a bare name shared by many tables is offered once
+                List<Completion> cols = new ArrayList<>(table.columns.size());
+                for (SchemaCatalog.ColumnInfo col : table.columns) {
+                    VariableCompletion bare = new VariableCompletion(provider, col.name, col.typeName);
+                    cols.add(bare);
+                    all.add(new VariableCompletion(provider, table.name + "." + col.name, col.typeName));
+                    if (columnNames.add(col.name.toLowerCase(Locale.ROOT))) {
+                        all.add(bare);
+                    }
                 }
-                cols.close();
+                columnsByTable.put(table.name.toLowerCase(Locale.ROOT), cols);
             }
-            tables.close();
         } catch (SQLException ex) {
             System.err.println("Could not load DB metadata: " + ex.getMessage());
+            provider.loadStatus = "Completions: keywords only (" + ex.getMessage() + ")";
+            return;
         }
 
-        return provider;
+        provider.setCompletions(keywordCompletions, tables, columnsByTable, all);
+        provider.loadStatus = String.format("Completions: %,d tables, %,d items in %,d ms",
+                tables.size(), all.size(), (System.nanoTime() - start) / 1_000_000);
     }
 
+    /**
+     * Installs keyword completion immediately and fills in schema completions
+     * once they are loaded, so opening the editor never waits on the database.
+     */
     public static AutoCompletion install(RSyntaxTextArea textArea) {
-        DefaultCompletionProvider provider = buildProvider();
+        return install(textArea, DBConnection.active());
+    }
+
+    /** Completes against the schema of profile, e.g. the one of the editor's tab. */
+    public static AutoCompletion install(RSyntaxTextArea textArea, ConnectionProfile profile) {
+        CaseInsensitiveCompletionProvider provider = buildProvider();
+        provider.catalog = SchemaCatalog.forProfile(profile);
         AutoCompletion ac = new AutoCompletion(provider);
 
         // Configure auto-completion settings for automatic triggering
@@ -100,6 +243,7 @@ public class DynamicSuggestions {
         ac.setShowDescWindow(true);
         ac.setAutoActivationEnabled(true);
         ac.setAutoActivationDelay(120); // slightly higher delay for reliable popup
+        provider.setAutoActivationRules(true, ".");
 
         // Set manual trigger key (Ctrl+Space) as backup
         ac.setTriggerKey(KeyStroke.getKeyStroke("control SPACE"));
@@ -107,6 +251,12 @@ public class DynamicSuggestions {
         // Install the auto-completion
         ac.install(textArea);
 
+        // Schema completions arrive later; reload when a background refresh changes the schema
+        loadSchemaAsync(provider);
+        SchemaCatalog catalog = provider.catalog;
+        catalog.addListener(changed -> loadSchemaAsync(provider));
+        catalog.refreshInBackground();
+
         System.out.println("Case-insensitive auto-completion installed (2+ letters)");
         return ac;
     }
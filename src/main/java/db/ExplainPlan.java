@@ -0,0 +1,545 @@
+package db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Execution plan of one statement as a tree, with estimated rows, cost,
+ * chosen index and full-scan warnings. MySQL / MariaDB plans come from
+ * EXPLAIN FORMAT=JSON, PostgreSQL from EXPLAIN (FORMAT JSON), SQLite from
+ * EXPLAIN QUERY PLAN; other databases get plain EXPLAIN, one node per line.
+ * Plans are cached per connection and exact SQL text (explain.cacheSize), so
+ * two versions of a query can be compared side by side.
+ */
+public class ExplainPlan {
+    public enum Dialect { MYSQL, POSTGRES, SQLITE, GENERIC }
+
+    private static final Map<String, ExplainPlan> CACHE = new LinkedHashMap<>(16, 0.75f, true);
+
+    public final String profile;
+    public final String url;
+    public final String sql;
+    public final Dialect dialect;
+    public final Node root;
+    public final String raw;          // the plan as the database returned it
+    public final long createdAt = System.currentTimeMillis();
+    public final long tookMs;
+
+    /** One operation of the plan. Estimates are null when the database does not give them. */
+    public static final class Node {
+        public final String label;
+        public String table;
+        public String access;
+        public String index;
+        public Double rows;
+        public Double cost;
+        public boolean fullScan;
+        public final List<String> details = new ArrayList<>();
+        public final List<Node> children = new ArrayList<>();
+
+        Node(String label) {
+            this.label = label;
+        }
+
+        /** One-line summary, e.g. "orders  ALL  ~120,000 rows  cost 1,234.5  (full scan)". */
+        public String summary() {
+            StringBuilder sb = new StringBuilder(label);
+            if (table != null && !(" " + label + " ").contains(" " + table + " ")) sb.append(' ').append(table);
+            if (access != null) sb.append("  ").append(access);
+            if (index != null) sb.append("  key ").append(index);
+            if (rows != null) sb.append(String.format("  ~%,.0f rows", rows));
+            if (cost != null) sb.append(String.format("  cost %,.1f", cost));
+            if (fullScan) sb.append("  (full scan)");
+            return sb.toString();
+        }
+    }
+
+    private ExplainPlan(String profile, String url, String sql, Dialect dialect, Node root, String raw, long tookMs) {
+        this.profile = profile;
+        this.url = url;
+        this.sql = sql;
+        this.dialect = dialect;
+        this.root = root;
+        this.raw = raw;
+        this.tookMs = tookMs;
+    }
+
+    public static Dialect dialectOf(String url) {
+        if (url.startsWith("jdbc:mysql:") || url.startsWith("jdbc:mariadb:")) return Dialect.MYSQL;
+        if (url.startsWith("jdbc:postgresql:")) return Dialect.POSTGRES;
+        if (url.startsWith("jdbc:sqlite:")) return Dialect.SQLITE;
+        return Dialect.GENERIC;
+    }
+
+    /** Statements EXPLAIN accepts; EXPLAIN never runs them. */
+    public static boolean isExplainable(String sql) {
+        switch (SqlScript.firstWord(sql)) {
+            case "SELECT":
+            case "WITH":
+            case "INSERT":
+            case "UPDATE":
+            case "DELETE":
+            case "REPLACE":
+            case "TABLE":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /** Table nodes read in full, for the warning line. */
+    public List<Node> fullScans() {
+        List<Node> out = new ArrayList<>();
+        collectFullScans(root, out);
+        return out;
+    }
+
+    private static void collectFullScans(Node n, List<Node> out) {
+        if (n.fullScan) out.add(n);
+        for (Node c : n.children) collectFullScans(c, out);
+    }
+
+    // ---- cache ----
+
+    // the exact text, as ResultCache keys it: normalize drops '#' to end of line, which is PostgreSQL's XOR
+    private static String cacheKey(String url, String sql) {
+        return url + '\u0000' + sql;
+    }
+
+    /** The cached plan of sql on url, or null. */
+    public static synchronized ExplainPlan cached(String url, String sql) {
+        return CACHE.get(cacheKey(url, sql));
+    }
+
+    /** Cached plans of url, newest first, e.g. to compare against. */
+    public static synchronized List<ExplainPlan> cachedPlans(String url) {
+        List<ExplainPlan> plans = new ArrayList<>();
+        for (ExplainPlan p : CACHE.values()) {
+            if (p.url.equals(url)) plans.add(p);
+        }
+        plans.sort((a, b) -> Long.compare(b.createdAt, a.createdAt));
+        return plans;
+    }
+
+    private static synchronized void put(ExplainPlan plan) {
+        CACHE.put(cacheKey(plan.url, plan.sql), plan);
+        int max = Math.max(1, Settings.getInt("explain.cacheSize", 100));
+        while (CACHE.size() > max) {
+            CACHE.remove(CACHE.keySet().iterator().next());
+        }
+    }
+
+    // ---- running EXPLAIN ----
+
+    /** Explains sql on the executor thread, binding placeholders from values; the plan is cached. */
+    public static QueryExecution<ExplainPlan> explain(ConnectionSource source, String sql, Map<String, Object> values) {
+        QueryExecution<ExplainPlan> exec = new QueryExecution<>(sql);
+        QueryExecutor.EXECUTOR.execute(() -> {
+            try {
+                ExplainPlan plan = run(source, sql, values, exec);
+                put(plan);
+                exec.finished();
+                exec.result().complete(plan);
+            } catch (SQLException ex) {
+                exec.finished();
+                exec.result().completeExceptionally(exec.isCancelled() ? exec.cancelledException() : ex);
+            } catch (RuntimeException ex) {
+                exec.finished();
+                exec.result().completeExceptionally(ex);
+            }
+        });
+        return exec;
+    }
+
+    private static ExplainPlan run(ConnectionSource source, String sql, Map<String, Object> values,
+                                   QueryExecution<ExplainPlan> exec) throws SQLException {
+        Dialect dialect = dialectOf(source.getUrl());
+        SqlParameters params = SqlParameters.parse(sql);
+        String prefix;
+        switch (dialect) {
+            case MYSQL:
+                prefix = "EXPLAIN FORMAT=JSON ";
+                break;
+            case POSTGRES:
+                prefix = "EXPLAIN (FORMAT JSON) ";
+                break;
+            case SQLITE:
+                prefix = "EXPLAIN QUERY PLAN ";
+                break;
+            default:
+                prefix = "EXPLAIN ";
+                break;
+        }
+        List<String[]> rows = new ArrayList<>();
+        try (Connection conn = source.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(prefix + params.jdbcSql)) {
+            exec.connected();
+            exec.attach(stmt);
+            params.bind(stmt, values);
+            try (ResultSet rs = stmt.executeQuery()) {
+                exec.firstRow();
+                ResultSetMetaData meta = rs.getMetaData();
+                int columns = meta.getColumnCount();
+                String[] header = new String[columns];
+                for (int c = 0; c < columns; c++) header[c] = meta.getColumnLabel(c + 1);
+                rows.add(header);
+                while (rs.next()) {
+                    String[] row = new String[columns];
+                    for (int c = 0; c < columns; c++) row[c] = rs.getString(c + 1);
+                    rows.add(row);
+                    exec.rowFetched();
+                }
+            }
+        }
+        Node root;
+        String raw;
+        switch (dialect) {
+            case MYSQL:
+            case POSTGRES: {
+                raw = rows.size() > 1 ? rows.get(1)[0] : "";
+                Object json = Json.parse(raw);
+                root = dialect == Dialect.MYSQL ? mysqlTree(json) : postgresTree(json);
+                break;
+            }
+            case SQLITE:
+                raw = joinRows(rows);
+                root = sqliteTree(rows);
+                break;
+            default:
+                raw = joinRows(rows);
+                root = textTree(rows);
+                break;
+        }
+        return new ExplainPlan(source.getName(), source.getUrl(), sql, dialect, root, raw, exec.elapsedMillis());
+    }
+
+    private static String joinRows(List<String[]> rows) {
+        StringBuilder sb = new StringBuilder();
+        for (String[] row : rows) {
+            sb.append(String.join(" | ", row)).append('\n');
+        }
+        return sb.toString();
+    }
+
+    // ---- MySQL / MariaDB EXPLAIN FORMAT=JSON ----
+
+    @SuppressWarnings("unchecked")
+    private static Node mysqlTree(Object json) {
+        Node root = new Node("query");
+        if (json instanceof Map) {
+            Map<String, Object> top = (Map<String, Object>) json;
+            Object block = top.getOrDefault("query_block", top);
+            mysqlChildren((Map<String, Object>) block, root);
+        }
+        return root;
+    }
+
+    /** Walks one JSON object: scalars become details, tables and operations become children. */
+    @SuppressWarnings("unchecked")
+    private static void mysqlChildren(Map<String, Object> obj, Node parent) {
+        for (Map.Entry<String, Object> e : obj.entrySet()) {
+            String key = e.getKey();
+            Object v = e.getValue();
+            if ("table".equals(key) && v instanceof Map) {
+                parent.children.add(mysqlTable((Map<String, Object>) v));
+            } else if ("cost_info".equals(key) && v instanceof Map) {
+                Map<String, Object> cost = (Map<String, Object>) v;
+                Double c = number(cost.get("query_cost"));
+                if (c != null) parent.cost = c;
+            } else if (v instanceof Map) {
+                Node op = new Node(key.replace('_', ' '));
+                mysqlChildren((Map<String, Object>) v, op);
+                parent.children.add(op);
+            } else if (v instanceof List) {
+                Node group = new Node(key.replace('_', ' '));
+                for (Object item : (List<Object>) v) {
+                    if (item instanceof Map) mysqlChildren((Map<String, Object>) item, group);
+                }
+                if (group.children.size() > 0) {
+                    parent.children.add(group);   // e.g. nested_loop: [{table}, {table}]
+                } else {
+                    parent.details.add(key + ": " + v);
+                }
+            } else if (!"select_id".equals(key)) {
+                parent.details.add(key + ": " + v);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Node mysqlTable(Map<String, Object> t) {
+        Node n = new Node("table");
+        n.table = string(t.get("table_name"));
+        n.access = string(t.get("access_type"));
+        n.index = string(t.get("key"));
+        n.rows = number(t.getOrDefault("rows_examined_per_scan", t.get("rows")));
+        Object costInfo = t.get("cost_info");
+        if (costInfo instanceof Map) {
+            Map<String, Object> c = (Map<String, Object>) costInfo;
+            n.cost = number(c.getOrDefault("prefix_cost", c.get("read_cost")));
+        } else {
+            n.cost = number(t.get("cost"));
+        }
+        // ALL reads the whole table, index the whole index
+        n.fullScan = "ALL".equals(n.access) || "index".equals(n.access);
+        for (Map.Entry<String, Object> e : t.entrySet()) {
+            Object v = e.getValue();
+            switch (e.getKey()) {
+                case "table_name":
+                case "access_type":
+                case "key":
+                case "rows_examined_per_scan":
+                case "rows":
+                case "cost_info":
+                    break;
+                default:
+                    if (v instanceof Map) {
+                        Node sub = new Node(e.getKey().replace('_', ' '));
+                        mysqlChildren((Map<String, Object>) v, sub);
+                        n.children.add(sub);
+                    } else if (v instanceof List && !((List<Object>) v).isEmpty()
+                            && ((List<Object>) v).get(0) instanceof Map) {
+                        Node sub = new Node(e.getKey().replace('_', ' '));
+                        for (Object item : (List<Object>) v) {
+                            if (item instanceof Map) mysqlChildren((Map<String, Object>) item, sub);
+                        }
+                        n.children.add(sub);
+                    } else {
+                        n.details.add(e.getKey() + ": " + v);
+                    }
+            }
+        }
+        return n;
+    }
+
+    // ---- PostgreSQL EXPLAIN (FORMAT JSON) ----
+
+    @SuppressWarnings("unchecked")
+    private static Node postgresTree(Object json) {
+        Object first = json instanceof List && !((List<Object>) json).isEmpty() ? ((List<Object>) json).get(0) : json;
+        if (first instanceof Map && ((Map<String, Object>) first).get("Plan") instanceof Map) {
+            return postgresNode((Map<String, Object>) ((Map<String, Object>) first).get("Plan"));
+        }
+        return new Node("plan");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Node postgresNode(Map<String, Object> p) {
+        Node n = new Node(String.valueOf(p.get("Node Type")));
+        n.table = string(p.get("Relation Name"));
+        n.index = string(p.get("Index Name"));
+        n.rows = number(p.get("Plan Rows"));
+        n.cost = number(p.get("Total Cost"));
+        n.fullScan = "Seq Scan".equals(p.get("Node Type"));
+        for (Map.Entry<String, Object> e : p.entrySet()) {
+            switch (e.getKey()) {
+                case "Plans":
+                    for (Object child : (List<Object>) e.getValue()) {
+                        if (child instanceof Map) n.children.add(postgresNode((Map<String, Object>) child));
+                    }
+                    break;
+                case "Node Type":
+                case "Relation Name":
+                case "Index Name":
+                case "Plan Rows":
+                case "Total Cost":
+                    break;
+                default:
+                    n.details.add(e.getKey() + ": " + e.getValue());
+            }
+        }
+        return n;
+    }
+
+    // ---- SQLite EXPLAIN QUERY PLAN: id, parent, notused, detail ----
+
+    private static Node sqliteTree(List<String[]> rows) {
+        Node root = new Node("query");
+        Map<String, Node> byId = new HashMap<>();
+        for (int i = 1; i < rows.size(); i++) {
+            String[] r = rows.get(i);
+            String detail = r[r.length - 1];
+            Node n = new Node(detail);
+            String upper = detail.toUpperCase(Locale.ROOT);
+            int using = upper.indexOf(" USING ");
+            if (upper.startsWith("SCAN ") || upper.startsWith("SEARCH ")) {
+                String rest = detail.substring(upper.indexOf(' ') + 1);
+                n.table = (using > 0 ? detail.substring(upper.indexOf(' ') + 1, using) : rest).trim();
+                n.access = upper.startsWith("SCAN ") ? "scan" : "search";
+            }
+            int index = upper.indexOf("INDEX ");
+            if (index >= 0) n.index = detail.substring(index + 6).split("\\s+")[0];
+            // SCAN t is a full table scan; SCAN t USING (COVERING) INDEX reads a whole index
+            n.fullScan = upper.startsWith("SCAN ");
+            byId.put(r[0], n);
+            Node parent = r.length > 1 ? byId.get(r[1]) : null;
+            (parent != null ? parent : root).children.add(n);
+        }
+        return root;
+    }
+
+    // ---- anything else: one node per line of the plan text ----
+
+    private static Node textTree(List<String[]> rows) {
+        Node root = new Node("plan");
+        for (int i = 1; i < rows.size(); i++) {
+            for (String cell : rows.get(i)) {
+                if (cell == null) continue;
+                for (String line : cell.split("\\R")) {
+                    if (line.trim().isEmpty()) continue;
+                    Node n = new Node(line.trim());
+                    String lower = line.toLowerCase(Locale.ROOT);
+                    // H2 tableScan, Oracle TABLE ACCESS FULL, PostgreSQL text Seq Scan
+                    n.fullScan = lower.contains("tablescan") || lower.contains("table access full")
+                            || lower.contains("seq scan") || lower.contains("full scan");
+                    root.children.add(n);
+                }
+            }
+        }
+        return root;
+    }
+
+    private static String string(Object v) {
+        return v == null ? null : String.valueOf(v);
+    }
+
+    private static Double number(Object v) {
+        if (v instanceof Number) return ((Number) v).doubleValue();
+        if (v instanceof String) {
+            try {
+                return Double.parseDouble((String) v);
+            } catch (NumberFormatException ex) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /** Minimal JSON reader for plan documents: objects keep key order, numbers are doubles. */
+    static final class Json {
+        private final String text;
+        private int p;
+
+        private Json(String text) {
+            this.text = text;
+        }
+
+        static Object parse(String text) throws SQLException {
+            Json json = new Json(text == null ? "" : text);
+            try {
+                json.space();
+                return json.value();
+            } catch (RuntimeException ex) {
+                throw new SQLException("Could not read the plan JSON at offset " + json.p + ": " + ex.getMessage());
+            }
+        }
+
+        private Object value() {
+            char c = text.charAt(p);
+            switch (c) {
+                case '{': {
+                    p++;
+                    Map<String, Object> map = new LinkedHashMap<>();
+                    space();
+                    if (text.charAt(p) == '}') {
+                        p++;
+                        return map;
+                    }
+                    while (true) {
+                        space();
+                        String key = string();
+                        space();
+                        expect(':');
+                        space();
+                        map.put(key, value());
+                        space();
+                        if (text.charAt(p++) == '}') return map;
+                    }
+                }
+                case '[': {
+                    p++;
+                    List<Object> list = new ArrayList<>();
+                    space();
+                    if (text.charAt(p) == ']') {
+                        p++;
+                        return list;
+                    }
+                    while (true) {
+                        space();
+                        list.add(value());
+                        space();
+                        if (text.charAt(p++) == ']') return list;
+                    }
+                }
+                case '"':
+                    return string();
+                default: {
+                    int start = p;
+                    while (p < text.length() && ",}] \t\r\n".indexOf(text.charAt(p)) < 0) p++;
+                    String word = text.substring(start, p);
+                    if (word.equals("null")) return null;
+                    if (word.equals("true")) return Boolean.TRUE;
+                    if (word.equals("false")) return Boolean.FALSE;
+                    return Double.parseDouble(word);
+                }
+            }
+        }
+
+        private String string() {
+            expect('"');
+            StringBuilder sb = new StringBuilder();
+            while (true) {
+                char c = text.charAt(p++);
+                if (c == '"') return sb.toString();
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                char e = text.charAt(p++);
+                switch (e) {
+                    case 'n': sb.append('\n'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'u':
+                        sb.append((char) Integer.parseInt(text.substring(p, p + 4), 16));
+                        p += 4;
+                        break;
+                    default: sb.append(e);
+                }
+            }
+        }
+
+        private void expect(char c) {
+            if (text.charAt(p) != c) throw new IllegalStateException("expected " + c);
+            p++;
+        }
+
+        private void space() {
+            while (p < text.length() && Character.isWhitespace(text.charAt(p))) p++;
+        }
+    }
+
+    /** The details of n and its subtree as indented text, for copying. */
+    public static String describe(Node n) {
+        StringBuilder sb = new StringBuilder();
+        describe(n, 0, sb);
+        return sb.toString();
+    }
+
+    private static void describe(Node n, int depth, StringBuilder sb) {
+        sb.append(String.join("", Collections.nCopies(depth, "  "))).append(n.summary()).append('\n');
+        for (Node c : n.children) describe(c, depth + 1, sb);
+    }
+}
@@ -0,0 +1,195 @@
+package db;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Byte sink for exports: values are encoded straight into one reused buffer
+ * (numbers as ASCII digits, text as UTF-8) and the buffer is written to a
+ * FileChannel, or through gzip, whenever it fills up. Memory use is the
+ * buffer, whatever the size of the export.
+ */
+class ExportSink implements AutoCloseable {
+    private static final byte[] DIGIT_ONES = new byte[100];
+    private static final byte[] DIGIT_TENS = new byte[100];
+    static {
+        for (int i = 0; i < 100; i++) {
+            DIGIT_ONES[i] = (byte) ('0' + i % 10);
+            DIGIT_TENS[i] = (byte) ('0' + i / 10);
+        }
+    }
+
+    private final FileChannel channel;
+    private final OutputStream gzip;
+    private final ByteBuffer buffer;
+    private long written;          // uncompressed bytes flushed so far
+
+    /** gzipLevel is a Deflater level (1 fastest .. 9 smallest), or -1 for no compression. */
+    ExportSink(Path target, int gzipLevel, int bufferBytes) throws IOException {
+        channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        if (gzipLevel < 0) {
+            gzip = null;
+        } else {
+            gzip = new GZIPOutputStream(Channels.newOutputStream(channel), 1 << 16) {
+                {
+                    def.setLevel(Math.min(9, gzipLevel));
+                }
+            };
+        }
+        buffer = ByteBuffer.allocate(bufferBytes).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /** Uncompressed bytes produced so far, including what is still buffered. */
+    long bytes() {
+        return written + buffer.position();
+    }
+
+    void ensure(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) flush();
+    }
+
+    void put(byte b) throws IOException {
+        if (!buffer.hasRemaining()) flush();
+        buffer.put(b);
+    }
+
+    void put(byte[] bytes) throws IOException {
+        put(bytes, 0, bytes.length);
+    }
+
+    void put(byte[] bytes, int off, int len) throws IOException {
+        while (len > 0) {
+            if (!buffer.hasRemaining()) flush();
+            int n = Math.min(len, buffer.remaining());
+            buffer.put(bytes, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    void putIntLE(int v) throws IOException {
+        ensure(4);
+        buffer.putInt(v);
+    }
+
+    void putLongLE(long v) throws IOException {
+        ensure(8);
+        buffer.putLong(v);
+    }
+
+    /** Decimal digits of v without going through a String. */
+    void putDecimal(long v) throws IOException {
+        ensure(20);
+        if (v == Long.MIN_VALUE) {
+            putAscii("-9223372036854775808");
+            return;
+        }
+        if (v < 0) {
+            buffer.put((byte) '-');
+            v = -v;
+        }
+        int start = buffer.position();
+        do {
+            int r = (int) (v % 100);
+            v /= 100;
+            buffer.put(DIGIT_ONES[r]);
+            if (v > 0 || r >= 10) buffer.put(DIGIT_TENS[r]);
+        } while (v > 0);
+        // digits were written least significant first
+        int end = buffer.position() - 1;
+        for (int i = start; i < end; i++, end--) {
+            byte t = buffer.get(i);
+            buffer.put(i, buffer.get(end));
+            buffer.put(end, t);
+        }
+    }
+
+    void putAscii(String s) throws IOException {
+        int n = s.length();
+        ensure(Math.min(n, buffer.capacity()));
+        for (int i = 0; i < n; i++) {
+            put((byte) s.charAt(i));
+        }
+    }
+
+    /** One UTF-16 char (or a surrogate pair starting at s[i]) as UTF-8; returns chars consumed. */
+    int putUtf8(CharSequence s, int i) throws IOException {
+        char c = s.charAt(i);
+        ensure(4);
+        if (c < 0x80) {
+            buffer.put((byte) c);
+        } else if (c < 0x800) {
+            buffer.put((byte) (0xC0 | (c >> 6)));
+            buffer.put((byte) (0x80 | (c & 0x3F)));
+        } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+            int cp = Character.toCodePoint(c, s.charAt(i + 1));
+            buffer.put((byte) (0xF0 | (cp >> 18)));
+            buffer.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+            buffer.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+            buffer.put((byte) (0x80 | (cp & 0x3F)));
+            return 2;
+        } else {
+            buffer.put((byte) (0xE0 | (c >> 12)));
+            buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+            buffer.put((byte) (0x80 | (c & 0x3F)));
+        }
+        return 1;
+    }
+
+    void putUtf8(CharSequence s) throws IOException {
+        for (int i = 0, n = s.length(); i < n; ) {
+            i += putUtf8(s, i);
+        }
+    }
+
+    /** Bytes s takes as UTF-8, so a length prefix can be written before it. */
+    static int utf8Length(CharSequence s) {
+        int n = s.length();
+        int bytes = n;
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                if (c < 0x800) {
+                    bytes++;
+                } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    bytes += 2;   // 4 bytes for 2 chars
+                    i++;
+                } else {
+                    bytes += 2;
+                }
+            }
+        }
+        return bytes;
+    }
+
+    void flush() throws IOException {
+        buffer.flip();
+        written += buffer.remaining();
+        if (gzip != null) {
+            gzip.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        } else {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+            if (gzip != null) gzip.close();
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,375 @@
+package db;
+
+import java.io.BufferedReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Streaming reader for import files: .csv (RFC 4180, first line is the
+ * header) or .jsonl (one flat JSON object per line, header taken from the
+ * first object's keys), optionally gzipped. Records are read one at a time;
+ * nothing but the current record is kept.
+ */
+abstract class ImportReader implements AutoCloseable {
+    /** Thrown for a record that cannot be parsed; the reader can go on with the next one. */
+    static final class BadRecordException extends IOException {
+        BadRecordException(String message) {
+            super(message);
+        }
+    }
+
+    final CountingInputStream counter;
+    protected final Reader in;
+    protected long line = 1;          // line the next record starts on
+    protected long recordLine;        // line the last record started on
+    protected String[] header;
+
+    protected ImportReader(Path file) throws IOException {
+        counter = new CountingInputStream(Files.newInputStream(file));
+        in = new InputStreamReader(decompress(file, counter), StandardCharsets.UTF_8);
+    }
+
+    /** The file's bytes, gunzipped for .gz files. */
+    static InputStream decompress(Path file, InputStream in) throws IOException {
+        return file.getFileName().toString().toLowerCase().endsWith(".gz") ? new GZIPInputStream(in, 1 << 16) : in;
+    }
+
+    static ImportReader open(Path file) throws IOException {
+        String name = file.getFileName().toString().toLowerCase();
+        if (name.endsWith(".gz")) name = name.substring(0, name.length() - 3);
+        if (name.endsWith(".jsonl") || name.endsWith(".json") || name.endsWith(".ndjson")) {
+            return new JsonLines(file);
+        }
+        return new Csv(file);
+    }
+
+    static boolean isCsv(Path file) {
+        String name = file.getFileName().toString().toLowerCase();
+        return name.endsWith(".csv") || name.endsWith(".csv.gz");
+    }
+
+    String[] header() {
+        return header;
+    }
+
+    /** Next record with one value per header column (null for NULL), or null at the end. */
+    abstract String[] next() throws IOException;
+
+    long recordLine() {
+        return recordLine;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /** Counts file bytes consumed (compressed bytes for .gz), for progress. */
+    static final class CountingInputStream extends FilterInputStream {
+        volatile long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) count += n;
+            return n;
+        }
+    }
+
+    /** Comma separated, "quoted" fields may hold commas, doubled quotes and newlines; empty unquoted fields are NULL. */
+    static final class Csv extends ImportReader {
+        private final char[] buf = new char[1 << 16];
+        private int pos;
+        private int limit;
+        private final List<String> fields = new ArrayList<>();
+        private final StringBuilder field = new StringBuilder();
+
+        Csv(Path file) throws IOException {
+            super(file);
+            int c = peek();
+            if (c == '\uFEFF') pos++;
+            String[] names = readRecord();
+            if (names == null) throw new IOException("File is empty");
+            header = names;
+        }
+
+        @Override
+        String[] next() throws IOException {
+            String[] record = readRecord();
+            // empty lines are not records
+            while (record != null && record.length == 1 && record[0] == null && header.length > 1) {
+                record = readRecord();
+            }
+            if (record != null && record.length != header.length) {
+                throw new BadRecordException("expected " + header.length + " fields, found " + record.length);
+            }
+            return record;
+        }
+
+        private int peek() throws IOException {
+            if (pos == limit) {
+                limit = in.read(buf, 0, buf.length);
+                pos = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    return -1;
+                }
+            }
+            return buf[pos];
+        }
+
+        private String[] readRecord() throws IOException {
+            if (peek() < 0) return null;
+            recordLine = line;
+            fields.clear();
+            while (true) {
+                field.setLength(0);
+                boolean quoted = false;
+                int c = peek();
+                if (c == '"') {
+                    quoted = true;
+                    pos++;
+                    while (true) {
+                        c = peek();
+                        if (c < 0) throw new BadRecordException("unterminated quoted field");
+                        pos++;
+                        if (c == '"') {
+                            if (peek() == '"') {
+                                field.append('"');
+                                pos++;
+                            } else {
+                                break;
+                            }
+                        } else {
+                            if (c == '\n') line++;
+                            field.append((char) c);
+                        }
+                    }
+                    c = peek();
+                }
+                // unquoted text, or anything trailing a closing quote
+                while (c >= 0 && c != ',' && c != '\n' && c != '\r') {
+                    field.append((char) c);
+                    pos++;
+                    c = peek();
+                }
+                fields.add(!quoted && field.length() == 0 ? null : field.toString());
+                if (c == ',') {
+                    pos++;
+                    continue;
+                }
+                if (c == '\r') {
+                    pos++;
+                    if (peek() == '\n') pos++;
+                } else if (c == '\n') {
+                    pos++;
+                }
+                line++;
+                return fields.toArray(new String[0]);
+            }
+        }
+    }
+
+    /**
+     * One object per line. Strings, numbers and null map directly; booleans
+     * become 1 / 0 and nested objects or arrays are passed on as JSON text.
+     * Keys missing from the first object are ignored.
+     */
+    static final class JsonLines extends ImportReader {
+        private final BufferedReader lines;
+        private final Map<String, Integer> index = new HashMap<>();
+        private String[] pending;
+        private String text;
+        private int p;
+
+        JsonLines(Path file) throws IOException {
+            super(file);
+            lines = new BufferedReader(in, 1 << 16);
+            List<String> keys = new ArrayList<>();
+            List<String> values = new ArrayList<>();
+            String l;
+            while ((l = lines.readLine()) != null) {
+                recordLine = line++;
+                if (l.trim().isEmpty()) continue;
+                parseObject(l, keys, values);
+                break;
+            }
+            if (keys.isEmpty()) throw new IOException("File is empty");
+            header = keys.toArray(new String[0]);
+            for (int i = 0; i < header.length; i++) index.put(header[i], i);
+            pending = values.toArray(new String[0]);
+        }
+
+        @Override
+        String[] next() throws IOException {
+            if (pending != null) {
+                String[] first = pending;
+                pending = null;
+                return first;
+            }
+            List<String> keys = new ArrayList<>();
+            List<String> values = new ArrayList<>();
+            String l;
+            while ((l = lines.readLine()) != null) {
+                recordLine = line++;
+                if (l.trim().isEmpty()) continue;
+                parseObject(l, keys, values);
+                String[] record = new String[header.length];
+                for (int i = 0; i < keys.size(); i++) {
+                    Integer at = index.get(keys.get(i));
+                    if (at != null) record[at] = values.get(i);
+                }
+                return record;
+            }
+            return null;
+        }
+
+        private void parseObject(String l, List<String> keys, List<String> values) throws BadRecordException {
+            text = l;
+            p = 0;
+            skipSpace();
+            expect('{');
+            skipSpace();
+            if (peekChar() == '}') return;
+            while (true) {
+                skipSpace();
+                keys.add(string());
+                skipSpace();
+                expect(':');
+                skipSpace();
+                values.add(value());
+                skipSpace();
+                char c = take();
+                if (c == '}') return;
+                if (c != ',') throw bad("expected , or }");
+            }
+        }
+
+        private String value() throws BadRecordException {
+            char c = peekChar();
+            if (c == '"') return string();
+            if (c == '{' || c == '[') {
+                int start = p;
+                skipNested();
+                return text.substring(start, p);
+            }
+            int start = p;
+            while (p < text.length() && ",}] \t".indexOf(text.charAt(p)) < 0) p++;
+            String word = text.substring(start, p);
+            switch (word) {
+                case "null":
+                    return null;
+                case "true":
+                    return "1";
+                case "false":
+                    return "0";
+                default:
+                    if (word.isEmpty()) throw bad("missing value");
+                    return word;
+            }
+        }
+
+        private void skipNested() throws BadRecordException {
+            int depth = 0;
+            while (p < text.length()) {
+                char c = text.charAt(p);
+                if (c == '"') {
+                    string();
+                    continue;
+                }
+                p++;
+                if (c == '{' || c == '[') depth++;
+                if ((c == '}' || c == ']') && --depth == 0) return;
+            }
+            throw bad("unterminated object or array");
+        }
+
+        private String string() throws BadRecordException {
+            expect('"');
+            StringBuilder sb = null;
+            int start = p;
+            while (p < text.length()) {
+                char c = text.charAt(p);
+                if (c == '"') {
+                    String s = sb == null ? text.substring(start, p) : sb.append(text, start, p).toString();
+                    p++;
+                    return s;
+                }
+                if (c == '\\') {
+                    if (sb == null) sb = new StringBuilder();
+                    sb.append(text, start, p);
+                    if (p + 1 >= text.length()) break;
+                    char e = text.charAt(p + 1);
+                    p += 2;
+                    switch (e) {
+                        case 'n': sb.append('\n'); break;
+                        case 't': sb.append('\t'); break;
+                        case 'r': sb.append('\r'); break;
+                        case 'b': sb.append('\b'); break;
+                        case 'f': sb.append('\f'); break;
+                        case 'u':
+                            if (p + 4 > text.length()) throw bad("bad \\u escape");
+                            try {
+                                sb.append((char) Integer.parseInt(text.substring(p, p + 4), 16));
+                            } catch (NumberFormatException ex) {
+                                throw bad("bad \\u escape");
+                            }
+                            p += 4;
+                            break;
+                        default: sb.append(e); break;
+                    }
+                    start = p;
+                } else {
+                    p++;
+                }
+            }
+            throw bad("unterminated string");
+        }
+
+        private void skipSpace() {
+            while (p < text.length() && Character.isWhitespace(text.charAt(p))) p++;
+        }
+
+        private char peekChar() throws BadRecordException {
+            if (p >= text.length()) throw bad("unexpected end of line");
+            return text.charAt(p);
+        }
+
+        private char take() throws BadRecordException {
+            char c = peekChar();
+            p++;
+            return c;
+        }
+
+        private void expect(char c) throws BadRecordException {
+            if (peekChar() != c) throw bad("expected " + c);
+            p++;
+        }
+
+        private BadRecordException bad(String what) {
+            return new BadRecordException("invalid JSON at column " + (p + 1) + ": " + what);
+        }
+    }
+}
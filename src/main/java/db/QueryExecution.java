@@ -0,0 +1,179 @@
+package db;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Handle for a query running on the executor thread. The UI polls it for
+ * elapsed time and fetched rows, and calls {@link #cancel()} to stop it.
+ * The runner also records where the time went - getting a connection, the
+ * first row, fetching, building the result - for the status bar and
+ * {@link QueryHistory}.
+ */
+public class QueryExecution<T> {
+    private final String sql;
+    private final long startNanos = System.nanoTime();
+    private final AtomicLong rowsFetched = new AtomicLong();
+    private final CompletableFuture<T> result = new CompletableFuture<>();
+    private volatile Statement statement;
+    private final Set<Statement> others = ConcurrentHashMap.newKeySet();   // e.g. both sides of a diff
+    private volatile boolean cancelled;
+    private volatile long connectNanos = -1;    // from start
+    private volatile long firstRowNanos = -1;   // from start
+    private volatile long fetchNanos;
+    private volatile long buildNanos;
+    private volatile long waitNanos;
+    private volatile long bytes;
+    private volatile long endNanos;
+
+    QueryExecution(String sql) {
+        this.sql = sql;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    /** Completes on the executor thread; hop to the EDT before touching Swing. */
+    public CompletableFuture<T> result() {
+        return result;
+    }
+
+    public long elapsedMillis() {
+        long end = endNanos;
+        return ((end != 0 ? end : System.nanoTime()) - startNanos) / 1_000_000;
+    }
+
+    /** Time to borrow or open the connection, or -1 if none was needed. */
+    public long getConnectMillis() {
+        return connectNanos < 0 ? -1 : connectNanos / 1_000_000;
+    }
+
+    /** Time from start until the database answered with the first row (or no rows), or -1. */
+    public long getFirstRowMillis() {
+        return firstRowNanos < 0 ? -1 : firstRowNanos / 1_000_000;
+    }
+
+    /** Time spent in ResultSet.next, i.e. waiting on the driver and the network. */
+    public long getFetchMillis() {
+        return fetchNanos / 1_000_000;
+    }
+
+    /** Client-side time spent turning rows into the result store (or export file). */
+    public long getBuildMillis() {
+        return buildNanos / 1_000_000;
+    }
+
+    /** Time the fetch was paused waiting for the user to scroll. */
+    public long getWaitMillis() {
+        return waitNanos / 1_000_000;
+    }
+
+    /** Elapsed time without the scroll pauses. */
+    public long activeMillis() {
+        return Math.max(0, elapsedMillis() - getWaitMillis());
+    }
+
+    /** Size of the fetched data as stored or written, in bytes. */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /** e.g. "connect 2 ms, first row 40 ms, fetch 310 ms, build 95 ms". */
+    public String timingText() {
+        StringBuilder sb = new StringBuilder();
+        if (connectNanos >= 0) sb.append("connect ").append(getConnectMillis()).append(" ms");
+        if (firstRowNanos >= 0) sb.append(", first row ").append(getFirstRowMillis()).append(" ms");
+        if (fetchNanos > 0 || buildNanos > 0) {
+            sb.append(", fetch ").append(getFetchMillis()).append(" ms, build ").append(getBuildMillis()).append(" ms");
+        }
+        if (waitNanos > 0) sb.append(", paused ").append(getWaitMillis()).append(" ms");
+        return sb.toString();
+    }
+
+    public long rowsFetched() {
+        return rowsFetched.get();
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public boolean isDone() {
+        return result.isDone();
+    }
+
+    /** Asks the driver to abort the running statement; safe to call from any thread. */
+    public void cancel() {
+        cancelled = true;
+        Statement s = statement;
+        if (s != null) {
+            try {
+                s.cancel();
+            } catch (SQLException e) {
+                System.err.println("Cancel failed: " + e.getMessage());
+            }
+        }
+        for (Statement other : others) {
+            try {
+                other.cancel();
+            } catch (SQLException e) {
+                System.err.println("Cancel failed: " + e.getMessage());
+            }
+        }
+    }
+
+    void attach(Statement s) throws SQLException {
+        statement = s;
+        // cancel() may have run before the statement existed
+        if (cancelled) throw cancelledException();
+    }
+
+    /** Like attach, for runs with several statements open at once; detach when it closes. */
+    void attachAlso(Statement s) throws SQLException {
+        others.add(s);
+        if (cancelled) throw cancelledException();
+    }
+
+    void detach(Statement s) {
+        others.remove(s);
+    }
+
+    void rowFetched() throws SQLException {
+        rowsFetched.incrementAndGet();
+        if (cancelled) throw cancelledException();
+    }
+
+    void addRowsFetched(long rows) {
+        rowsFetched.addAndGet(rows);
+    }
+
+    void connected() {
+        connectNanos = System.nanoTime() - startNanos;
+    }
+
+    void firstRow() {
+        if (firstRowNanos < 0) firstRowNanos = System.nanoTime() - startNanos;
+    }
+
+    /** Fetch, build and scroll-wait totals, set once by the fetching thread. */
+    void timing(long fetchNanos, long buildNanos, long waitNanos, long bytes) {
+        this.fetchNanos = fetchNanos;
+        this.buildNanos = buildNanos;
+        this.waitNanos = waitNanos;
+        this.bytes = bytes;
+    }
+
+    /** Stops the clock; elapsedMillis stays fixed from here on. */
+    void finished() {
+        if (endNanos == 0) endNanos = System.nanoTime();
+    }
+
+    SQLException cancelledException() {
+        return new SQLException("Query cancelled after " + elapsedMillis() + " ms");
+    }
+}
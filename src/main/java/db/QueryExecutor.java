@@ -1,30 +1,107 @@
 package db;
 
-import javax.swing.table.DefaultTableModel;
 import java.sql.*;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class QueryExecutor {
-    public static DefaultTableModel executeQuery(String sql) throws SQLException {
-        try (Connection conn = DBConnection.getConnection();
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
+    // Java 11 target: plain daemon threads stand in for virtual threads
+    private static final AtomicInteger THREAD_IDS = new AtomicInteger();
+    static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "query-" + THREAD_IDS.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    });
 
-            ResultSetMetaData meta = rs.getMetaData();
-            int cols = meta.getColumnCount();
-            DefaultTableModel model = new DefaultTableModel();
-            // column names
-            for (int i = 1; i <= cols; i++) {
-                model.addColumn(meta.getColumnLabel(i));
+    /**
+     * Runs the query on the executor thread; never blocks the caller. The
+     * result future completes with the first page, while the model keeps
+     * streaming until {@link ResultTableModel#loaded()} completes.
+     */
+    public static QueryExecution<ResultTableModel> submit(String sql) {
+        return submit(sql, Collections.emptyMap());
+    }
+
+    /**
+     * Like {@link #submit(String)}, binding :name and ? placeholders from
+     * values (positional ones under "1", "2", ...).
+     */
+    public static QueryExecution<ResultTableModel> submit(String sql, Map<String, Object> values) {
+        return submit(DBConnection.active(), sql, values);
+    }
+
+    /** Runs on a connection from source: a profile's pool or an editor tab's session. */
+    public static QueryExecution<ResultTableModel> submit(ConnectionSource source, String sql,
+                                                         Map<String, Object> values) {
+        QueryExecution<ResultTableModel> exec = new QueryExecution<>(sql);
+        // a session that switched database or set variables may answer differently from the cache
+        boolean sessionState = source instanceof ConnectionPool.Session
+                && ((ConnectionPool.Session) source).isStateChanged();
+        String cacheKey = sessionState ? null : ResultCache.keyFor(source.getUrl(), sql, values);
+        if (cacheKey != null) {
+            ResultCache.Entry cached = ResultCache.get(cacheKey);
+            if (cached != null) {
+                exec.addRowsFetched(cached.store.getRowCount());
+                exec.result().complete(ResultTableModel.fromCache(cached.store, cached.createdAt));
+                QueryHistory.record("cache", source, sql, exec, null);
+                return exec;
             }
-            // rows
-            while (rs.next()) {
-                Object[] row = new Object[cols];
-                for (int i = 1; i <= cols; i++) {
-                    row[i-1] = rs.getObject(i);
+        }
+        EXECUTOR.execute(() -> {
+            try {
+                stream(source, sql, values, exec, cacheKey);
+                QueryHistory.record("query", source, sql, exec, null);
+            } catch (SQLException ex) {
+                exec.finished();
+                exec.result().completeExceptionally(exec.isCancelled() ? exec.cancelledException() : ex);
+                QueryHistory.record("query", source, sql, exec, ex);
+            } catch (RuntimeException ex) {
+                exec.finished();
+                exec.result().completeExceptionally(ex);
+                QueryHistory.record("query", source, sql, exec, ex);
+            }
+        });
+        return exec;
+    }
+
+    private static void stream(ConnectionSource source, String sql, Map<String, Object> values,
+                               QueryExecution<ResultTableModel> exec, String cacheKey) throws SQLException {
+        SqlParameters params = SqlParameters.parse(sql);
+        // prepared even without parameters, so re-runs hit the connection's statement cache
+        try (Connection conn = source.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(params.jdbcSql)) {
+            exec.connected();
+            exec.attach(stmt);
+            params.bind(stmt, values);
+            int timeout = Settings.getInt("query.timeoutSeconds", 0);
+            if (timeout > 0) {
+                stmt.setQueryTimeout(timeout);
+            }
+            // only honoured by MySQL with useCursorFetch=true on the URL
+            stmt.setFetchSize(Math.max(1, Settings.getInt("query.fetchSize", 500)));
+            try (ResultSet rs = stmt.executeQuery()) {
+                ResultTableModel model = new ResultTableModel(newStore(rs.getMetaData()));
+                try {
+                    model.fill(rs, exec);
+                } catch (SQLException | RuntimeException ex) {
+                    // failed or cancelled before the first page reached the grid: nobody else will close it
+                    if (exec.result().getNow(null) != model) model.getStore().close();
+                    throw ex;
+                }
+                if (cacheKey != null && model.getStopReason() == null) {
+                    ResultCache.put(cacheKey, sql, model.getStore());
                 }
-                model.addRow(row);
             }
-            return model;
         }
     }
+
+    static ResultStore newStore(ResultSetMetaData meta) throws SQLException {
+        if (Settings.getBoolean("result.spillToDisk", false)) {
+            return new SpillingResultStore(meta);
+        }
+        return new ColumnarResultStore(meta);
+    }
 }
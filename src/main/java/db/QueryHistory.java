@@ -0,0 +1,309 @@
+package db;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+
+/**
+ * Append-only log of every query, script and export run, with its latency
+ * breakdown, kept as JSON Lines in history.file. The file is read once, on
+ * the history thread, and the newest history.maxEntries runs stay in memory
+ * for search and per-query percentiles. Recording never blocks the query
+ * thread.
+ */
+public class QueryHistory {
+    private static final Pattern LITERAL = Pattern.compile("'(?:[^']|'')*'|\\b\\d+(?:\\.\\d+)?\\b");
+    private static final Pattern IN_LIST = Pattern.compile("(?i)\\bIN\\s*\\(\\s*\\?(?:\\s*,\\s*\\?)+\\s*\\)");
+    private static final String[] FIELDS = {"time", "kind", "profile", "status", "totalMs", "connectMs", "firstRowMs",
+            "fetchMs", "buildMs", "waitMs", "rows", "bytes", "truncated", "error", "sql"};
+    private static final ExecutorService WRITER = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "query-history");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // history thread only
+    private static final Deque<Entry> entries = new ArrayDeque<>();
+    private static boolean loaded;
+
+    /** One run. Times are in milliseconds; -1 where a phase did not happen. */
+    public static final class Entry {
+        public final long time;
+        public final String kind;       // query, cache, script, export or diff
+        public final String profile;
+        public final String status;     // ok, error or cancelled
+        public final long totalMs;
+        public final long connectMs;
+        public final long firstRowMs;
+        public final long fetchMs;
+        public final long buildMs;
+        public final long waitMs;
+        public final long rows;
+        public final long bytes;
+        public final boolean truncated; // sql was cut to history.maxSqlChars
+        public final String error;
+        public final String sql;
+        private String fingerprint;
+
+        Entry(long time, String kind, String profile, String status, long totalMs, long connectMs, long firstRowMs,
+              long fetchMs, long buildMs, long waitMs, long rows, long bytes, boolean truncated, String error,
+              String sql) {
+            this.time = time;
+            this.kind = kind;
+            this.profile = profile;
+            this.status = status;
+            this.totalMs = totalMs;
+            this.connectMs = connectMs;
+            this.firstRowMs = firstRowMs;
+            this.fetchMs = fetchMs;
+            this.buildMs = buildMs;
+            this.waitMs = waitMs;
+            this.rows = rows;
+            this.bytes = bytes;
+            this.truncated = truncated;
+            this.error = error;
+            this.sql = sql;
+        }
+
+        /** Run time without scroll pauses, what the percentiles are taken over. */
+        public long activeMs() {
+            return Math.max(0, totalMs - Math.max(0, waitMs));
+        }
+
+        public String fingerprint() {
+            if (fingerprint == null) fingerprint = QueryHistory.fingerprint(sql);
+            return fingerprint;
+        }
+    }
+
+    /** Latency percentiles of one normalized query. */
+    public static final class Stats {
+        public final String fingerprint;
+        public final Entry latest;
+        public final int runs;
+        public final long p50;
+        public final long p95;
+        public final long max;
+        /** The latest run is slower than p95 and twice p50 of the runs before it (5+ runs). */
+        public final boolean regressed;
+
+        Stats(String fingerprint, Entry latest, int runs, long p50, long p95, long max, boolean regressed) {
+            this.fingerprint = fingerprint;
+            this.latest = latest;
+            this.runs = runs;
+            this.p50 = p50;
+            this.p95 = p95;
+            this.max = max;
+            this.regressed = regressed;
+        }
+    }
+
+    public static boolean isEnabled() {
+        return Settings.getBoolean("history.enabled", true);
+    }
+
+    /** Records a finished run; error is null for success. Safe from any thread. */
+    static void record(String kind, ConnectionSource source, String sql, QueryExecution<?> exec, Throwable error) {
+        if (!isEnabled()) return;
+        exec.finished();
+        int maxChars = Math.max(1000, Settings.getInt("history.maxSqlChars", 20_000));
+        boolean truncated = sql.length() > maxChars;
+        String status = error == null ? "ok" : exec.isCancelled() ? "cancelled" : "error";
+        Entry e = new Entry(System.currentTimeMillis(), kind, source.getName(), status, exec.elapsedMillis(),
+                exec.getConnectMillis(), exec.getFirstRowMillis(), exec.getFetchMillis(), exec.getBuildMillis(),
+                exec.getWaitMillis(), exec.rowsFetched(), exec.getBytes(), truncated,
+                error == null || exec.isCancelled() ? null : String.valueOf(error.getMessage()),
+                truncated ? sql.substring(0, maxChars) : sql);
+        WRITER.execute(() -> {
+            ensureLoaded();
+            add(e);
+            append(e);
+        });
+    }
+
+    /** Snapshot of the runs in memory, oldest first. */
+    public static CompletableFuture<List<Entry>> entries() {
+        return CompletableFuture.supplyAsync(() -> {
+            ensureLoaded();
+            return new ArrayList<>(entries);
+        }, WRITER);
+    }
+
+    /** Runs whose SQL, profile, kind or status contain every word of text, newest first. */
+    public static List<Entry> search(List<Entry> all, String text) {
+        String[] words = text.trim().toLowerCase(Locale.ROOT).split("\\s+");
+        List<Entry> hits = new ArrayList<>();
+        for (int i = all.size() - 1; i >= 0; i--) {
+            Entry e = all.get(i);
+            String haystack = null;
+            boolean match = true;
+            for (String w : words) {
+                if (w.isEmpty()) continue;
+                if (haystack == null) {
+                    haystack = (e.sql + ' ' + e.profile + ' ' + e.kind + ' ' + e.status).toLowerCase(Locale.ROOT);
+                }
+                if (!haystack.contains(w)) {
+                    match = false;
+                    break;
+                }
+            }
+            if (match) hits.add(e);
+        }
+        return hits;
+    }
+
+    /** p50/p95 per normalized query over its successful database runs, slowest p95 first. */
+    public static List<Stats> stats(List<Entry> all) {
+        Map<String, List<Entry>> byQuery = new LinkedHashMap<>();
+        for (Entry e : all) {
+            if ("query".equals(e.kind) && "ok".equals(e.status)) {
+                byQuery.computeIfAbsent(e.profile + '\u0000' + e.fingerprint(), k -> new ArrayList<>()).add(e);
+            }
+        }
+        List<Stats> stats = new ArrayList<>();
+        for (List<Entry> runs : byQuery.values()) {
+            long[] times = new long[runs.size()];
+            for (int i = 0; i < times.length; i++) times[i] = runs.get(i).activeMs();
+            Entry latest = runs.get(runs.size() - 1);
+            boolean regressed = false;
+            if (times.length >= 5) {
+                long[] before = Arrays.copyOf(times, times.length - 1);
+                Arrays.sort(before);
+                long last = times[times.length - 1];
+                regressed = last > percentile(before, 95) && last >= 2 * percentile(before, 50);
+            }
+            Arrays.sort(times);
+            stats.add(new Stats(latest.fingerprint(), latest, times.length, percentile(times, 50),
+                    percentile(times, 95), times[times.length - 1], regressed));
+        }
+        stats.sort((a, b) -> Long.compare(b.p95, a.p95));
+        return stats;
+    }
+
+    /** Nearest-rank percentile of sorted values. */
+    static long percentile(long[] sorted, int p) {
+        int rank = (int) Math.ceil(p / 100.0 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+    }
+
+    /** The query with whitespace, comments and literals normalized, so runs with different values group together. */
+    public static String fingerprint(String sql) {
+        String s = LITERAL.matcher(SqlScript.normalize(sql)).replaceAll("?");
+        return IN_LIST.matcher(s).replaceAll("IN (?, ...)");
+    }
+
+    private static void add(Entry e) {
+        entries.addLast(e);
+        int max = Math.max(100, Settings.getInt("history.maxEntries", 5000));
+        while (entries.size() > max) entries.removeFirst();
+    }
+
+    private static Path file() {
+        return Paths.get(Settings.get("history.file",
+                Paths.get(System.getProperty("user.home"), ".dbeditor", "history.jsonl").toString()));
+    }
+
+    private static void ensureLoaded() {
+        if (loaded) return;
+        loaded = true;
+        Path file = file();
+        try {
+            if (!Files.exists(file) || Files.size(file) == 0) return;
+        } catch (IOException ex) {
+            return;
+        }
+        try (ImportReader.JsonLines in = new ImportReader.JsonLines(file)) {
+            Map<String, Integer> at = new LinkedHashMap<>();
+            String[] header = in.header();
+            for (int i = 0; i < header.length; i++) at.put(header[i], i);
+            while (true) {
+                String[] r;
+                try {
+                    r = in.next();
+                } catch (ImportReader.BadRecordException ex) {
+                    continue;   // e.g. a line cut short by a crash
+                }
+                if (r == null) break;
+                String sql = text(r, at, "sql");
+                if (sql == null) continue;
+                add(new Entry(number(r, at, "time"), text(r, at, "kind"), text(r, at, "profile"),
+                        text(r, at, "status"), number(r, at, "totalMs"), number(r, at, "connectMs"),
+                        number(r, at, "firstRowMs"), number(r, at, "fetchMs"), number(r, at, "buildMs"),
+                        number(r, at, "waitMs"), number(r, at, "rows"), number(r, at, "bytes"),
+                        "1".equals(text(r, at, "truncated")), text(r, at, "error"), sql));
+            }
+        } catch (IOException ex) {
+            System.err.println("Could not read query history " + file + ": " + ex.getMessage());
+        }
+        // a line cut short by a crash must not swallow the next record
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            if (raf.length() > 0) {
+                raf.seek(raf.length() - 1);
+                if (raf.read() != '\n') raf.write('\n');
+            }
+        } catch (IOException ex) {
+            System.err.println("Could not repair query history " + file + ": " + ex.getMessage());
+        }
+    }
+
+    private static String text(String[] record, Map<String, Integer> at, String field) {
+        Integer i = at.get(field);
+        return i == null ? null : record[i];
+    }
+
+    private static long number(String[] record, Map<String, Integer> at, String field) {
+        String v = text(record, at, field);
+        if (v == null) return -1;
+        try {
+            return Long.parseLong(v);
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    private static void append(Entry e) {
+        Object[] values = {e.time, e.kind, e.profile, e.status, e.totalMs, e.connectMs, e.firstRowMs, e.fetchMs,
+                e.buildMs, e.waitMs, e.rows, e.bytes, e.truncated, e.error, e.sql};
+        StringBuilder sb = new StringBuilder(e.sql.length() + 256).append('{');
+        for (int i = 0; i < FIELDS.length; i++) {
+            if (i > 0) sb.append(',');
+            sb.append('"').append(FIELDS[i]).append("\":");
+            Object v = values[i];
+            if (v == null) {
+                sb.append("null");
+            } else if (v instanceof String) {
+                ResultExport.JsonLinesWriter.appendJsonString((String) v, sb);
+            } else {
+                sb.append(v);
+            }
+        }
+        sb.append("}\n");
+        Path file = file();
+        try {
+            if (file.getParent() != null) Files.createDirectories(file.getParent());
+            try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                out.write(sb.toString());
+            }
+        } catch (IOException ex) {
+            System.err.println("Could not append to query history " + file + ": " + ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package db;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Opt-in client-side cache of complete SELECT results (cache.enabled). Keys
+ * are the connection URL, exact SQL text and bound values; entries are
+ * evicted least recently used once cache.maxMb of estimated heap is used,
+ * and expire after cache.ttlSeconds. A query can carry its own TTL in a
+ * "cache ttl=300" block comment, or opt out with a "nocache" one. DML and
+ * DDL run from the editor drop every entry that reads one of the tables they
+ * touch; statements whose tables cannot be determined drop everything.
+ */
+public class ResultCache {
+    private static final Pattern TTL_HINT = Pattern.compile("/\\*\\s*cache\\s+ttl\\s*=\\s*(\\d+)\\s*\\*/",
+            Pattern.CASE_INSENSITIVE);
+    private static final Pattern NO_CACHE_HINT = Pattern.compile("/\\*\\s*nocache\\s*\\*/", Pattern.CASE_INSENSITIVE);
+    private static final Pattern UNCACHEABLE = Pattern.compile(
+            "\\b(FOR\\s+UPDATE|FOR\\s+SHARE|LOCK\\s+IN\\s+SHARE\\s+MODE|INTO|RAND|UUID|SLEEP|GET_LOCK)\\b",
+            Pattern.CASE_INSENSITIVE);
+
+    private static final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private static long totalBytes;
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    public static boolean isEnabled() {
+        return Settings.getBoolean("cache.enabled", false);
+    }
+
+    /** Cache key for a query, or null when the query must not be cached. */
+    static String keyFor(String url, String sql, Map<String, Object> values) {
+        if (!isEnabled() || NO_CACHE_HINT.matcher(sql).find()) return null;
+        String first = SqlScript.firstWord(sql);
+        if (!first.equals("SELECT") && !first.equals("WITH") && !first.equals("VALUES") && !first.equals("TABLE")) {
+            return null;
+        }
+        if (UNCACHEABLE.matcher(sql).find()) return null;
+        // the exact text: normalize drops '#' to end of line, which is PostgreSQL's XOR
+        StringBuilder key = new StringBuilder(sql.length() + 64);
+        key.append(url).append('\n').append(sql);
+        // sorted, and typed so 1 and '1' differ
+        for (Map.Entry<String, Object> e : new TreeMap<>(values).entrySet()) {
+            Object v = e.getValue();
+            key.append('\n').append(e.getKey()).append('=')
+               .append(v == null ? "null" : v.getClass().getSimpleName() + ":" + v);
+        }
+        return key.toString();
+    }
+
+    /** The cached entry for key, or null if absent or expired. */
+    static synchronized Entry get(String key) {
+        Entry e = entries.get(key);
+        if (e != null && System.currentTimeMillis() >= e.expiresAt) {
+            remove(key);
+            e = null;
+        }
+        if (e == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return e;
+    }
+
+    /** Keeps a completely read result; only heap stores are kept, and only if they fit. */
+    static void put(String key, String sql, ResultStore store) {
+        if (!(store instanceof ColumnarResultStore)) return;
+        long maxBytes = Settings.getLong("cache.maxMb", 64) * 1024 * 1024;
+        long bytes = store.memoryBytes();
+        if (bytes > maxBytes) return;
+        long ttlSeconds = Settings.getLong("cache.ttlSeconds", 60);
+        Matcher m = TTL_HINT.matcher(sql);
+        if (m.find()) ttlSeconds = Long.parseLong(m.group(1));
+        if (ttlSeconds <= 0) return;
+        Set<String> tables = SqlScript.tableNames(sql);
+        long now = System.currentTimeMillis();
+        Entry entry = new Entry(store, tables, bytes, now, now + ttlSeconds * 1000);
+
+        synchronized (ResultCache.class) {
+            remove(key);
+            entries.put(key, entry);
+            totalBytes += bytes;
+            Iterator<Entry> eldest = entries.values().iterator();
+            while (totalBytes > maxBytes && eldest.hasNext()) {
+                Entry e = eldest.next();
+                eldest.remove();
+                totalBytes -= e.bytes;
+            }
+        }
+    }
+
+    /**
+     * Called for every statement run that is not a query. Drops entries that
+     * read any table it names, or everything if it names none.
+     */
+    public static void invalidate(String sql) {
+        synchronized (ResultCache.class) {
+            if (entries.isEmpty()) return;
+        }
+        Set<String> tables = SqlScript.tableNames(sql);
+        if (tables.isEmpty()) {
+            clear();
+            return;
+        }
+        invalidateTables(tables);
+    }
+
+    /** Drops entries that read table, e.g. after an import into it. */
+    public static void invalidateTable(String table) {
+        invalidateTables(Collections.singleton(table.toLowerCase(Locale.ROOT)));
+    }
+
+    /** tables are lower case, as SqlScript.tableNames returns them. */
+    private static synchronized void invalidateTables(Set<String> tables) {
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            Entry e = it.next();
+            if (e.tables.isEmpty() || !Collections.disjoint(e.tables, tables)) {
+                it.remove();
+                totalBytes -= e.bytes;
+            }
+        }
+    }
+
+    public static synchronized void clear() {
+        entries.clear();
+        totalBytes = 0;
+    }
+
+    public static synchronized String statusText() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return "Cache " + entries.size() + " results, " + ColumnarResultStore.formatBytes(totalBytes)
+                + (total > 0 ? ", hit " + Math.round(h * 100.0 / total) + "%" : "");
+    }
+
+    private static void remove(String key) {
+        Entry old = entries.remove(key);
+        if (old != null) totalBytes -= old.bytes;
+    }
+
+    static final class Entry {
+        final ResultStore store;
+        final Set<String> tables;
+        final long bytes;
+        final long createdAt;
+        final long expiresAt;
+
+        Entry(ResultStore store, Set<String> tables, long bytes, long createdAt, long expiresAt) {
+            this.store = store;
+            this.tables = tables;
+            this.bytes = bytes;
+            this.createdAt = createdAt;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,621 @@
+package db;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streams a query straight to a file without keeping rows: the ResultSet is
+ * read with export.fetchSize and every value is encoded by a per-column
+ * encoder chosen from the column type, into an {@link ExportSink}. Formats
+ * are picked from the file name: .csv, .jsonl, or .dbcol (columnar row
+ * groups, see {@link ColumnarWriter}); a trailing .gz adds gzip.
+ */
+public class ResultExport {
+    private static final int PROGRESS_EVERY = 256;   // rows between progress updates / cancel checks
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    public enum Format {
+        CSV(".csv"), JSONL(".jsonl"), COLUMNAR(".dbcol");
+
+        public final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        /** Format for a file name such as rows.csv or rows.jsonl.gz, or null. */
+        public static Format forFile(String name) {
+            String n = name.toLowerCase();
+            if (n.endsWith(".gz")) n = n.substring(0, n.length() - 3);
+            for (Format f : values()) {
+                if (n.endsWith(f.extension)) return f;
+            }
+            return null;
+        }
+    }
+
+    // value kinds, each with its own encoder
+    enum Kind { LONG, DOUBLE, DECIMAL, BOOLEAN, TEXT, BINARY }
+
+    private final Path target;
+    private final Format format;
+    private final boolean gzip;
+    private final QueryExecution<ResultExport> exec;
+    private final ConnectionSource source;
+    private volatile long bytes;       // uncompressed bytes encoded so far
+    private volatile long fileBytes;   // size on disk once finished
+
+    private ResultExport(ConnectionSource source, String sql, Path target, Format format, boolean gzip) {
+        this.source = source;
+        this.target = target;
+        this.format = format;
+        this.gzip = gzip;
+        this.exec = new QueryExecution<>(sql);
+    }
+
+    /**
+     * Starts exporting on the executor thread. The execution completes with
+     * this export once the file is closed; a failed or cancelled export
+     * deletes the partial file.
+     */
+    public static ResultExport start(String sql, Map<String, Object> values, Path target) {
+        return start(DBConnection.active(), sql, values, target);
+    }
+
+    /** Exports on a connection from source, so a tab's session state applies to the query. */
+    public static ResultExport start(ConnectionSource source, String sql, Map<String, Object> values, Path target) {
+        String name = target.getFileName().toString();
+        Format format = Format.forFile(name);
+        if (format == null) {
+            throw new IllegalArgumentException("Unknown export format: " + name);
+        }
+        ResultExport export = new ResultExport(source, sql, target, format, name.toLowerCase().endsWith(".gz"));
+        QueryExecutor.EXECUTOR.execute(() -> {
+            try {
+                export.run(values);
+                export.exec.finished();
+                export.exec.result().complete(export);
+                QueryHistory.record("export", source, sql, export.exec, null);
+            } catch (SQLException | IOException | RuntimeException ex) {
+                export.exec.finished();
+                QueryHistory.record("export", source, sql, export.exec, ex);
+                try {
+                    Files.deleteIfExists(target);
+                } catch (IOException e) {
+                    System.err.println("Could not delete partial export " + target + ": " + e.getMessage());
+                }
+                export.exec.result().completeExceptionally(export.exec.isCancelled()
+                        ? export.exec.cancelledException() : ex);
+            }
+        });
+        return export;
+    }
+
+    public QueryExecution<ResultExport> execution() {
+        return exec;
+    }
+
+    public Path getTarget() {
+        return target;
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getFileBytes() {
+        return fileBytes;
+    }
+
+    /** Rows, size and throughput so far, e.g. for the status bar. */
+    public String progressText() {
+        long rows = exec.rowsFetched();
+        double seconds = Math.max(exec.elapsedMillis(), 1) / 1000.0;
+        return String.format("%,d rows, %s, %,.0f rows/s, %.1f MB/s", rows, ColumnarResultStore.formatBytes(bytes),
+                rows / seconds, bytes / seconds / (1024 * 1024));
+    }
+
+    private void run(Map<String, Object> values) throws SQLException, IOException {
+        SqlParameters params = SqlParameters.parse(exec.getSql());
+        int bufferBytes = Math.max(64, Settings.getInt("export.bufferKb", 1024)) * 1024;
+        int gzipLevel = gzip ? Settings.getInt("export.gzipLevel", 1) : -1;
+        try (Connection conn = source.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(params.jdbcSql)) {
+            exec.connected();
+            exec.attach(stmt);
+            params.bind(stmt, values);
+            int timeout = Settings.getInt("query.timeoutSeconds", 0);
+            if (timeout > 0) {
+                stmt.setQueryTimeout(timeout);
+            }
+            // with useCursorFetch=true MySQL reads this many rows per round trip instead of buffering the result
+            stmt.setFetchSize(Math.max(1, Settings.getInt("export.fetchSize", 10000)));
+            try (ResultSet rs = stmt.executeQuery();
+                 ExportSink sink = new ExportSink(target, gzipLevel, bufferBytes)) {
+                ResultSetMetaData meta = rs.getMetaData();
+                int columns = meta.getColumnCount();
+                String[] names = new String[columns];
+                Kind[] kinds = new Kind[columns];
+                for (int c = 0; c < columns; c++) {
+                    names[c] = meta.getColumnLabel(c + 1);
+                    kinds[c] = kindOf(meta.getColumnType(c + 1));
+                }
+                RowWriter writer;
+                switch (format) {
+                    case CSV:
+                        writer = new CsvWriter(sink, names, kinds);
+                        break;
+                    case JSONL:
+                        writer = new JsonLinesWriter(sink, names, kinds);
+                        break;
+                    default:
+                        writer = new ColumnarWriter(sink, names, kinds);
+                        break;
+                }
+                int pending = 0;
+                long rows = 0;
+                long fetchNanos = 0;
+                long writeNanos = 0;
+                try {
+                    // past the first rows only every 64th is timed, and scaled up; a clock read
+                    // per row would cost more than encoding it
+                    while (true) {
+                        int weight = rows < 4096 ? 1 : (rows & 63) == 0 ? 64 : 0;
+                        long t0 = weight > 0 ? System.nanoTime() : 0;
+                        boolean more = rs.next();
+                        if (rows == 0) exec.firstRow();
+                        if (!more) break;
+                        long t1 = weight > 0 ? System.nanoTime() : 0;
+                        writer.row(rs);
+                        if (weight > 0) {
+                            fetchNanos += (t1 - t0) * weight;
+                            writeNanos += (System.nanoTime() - t1) * weight;
+                        }
+                        rows++;
+                        if (++pending == PROGRESS_EVERY) {
+                            progress(sink, pending);
+                            pending = 0;
+                        }
+                    }
+                    writer.finish();
+                    progress(sink, pending);
+                } finally {
+                    exec.timing(fetchNanos, writeNanos, 0, sink.bytes());
+                }
+            }
+        }
+        fileBytes = Files.size(target);
+    }
+
+    private void progress(ExportSink sink, int rows) throws SQLException {
+        exec.addRowsFetched(rows);
+        bytes = sink.bytes();
+        if (exec.isCancelled()) throw exec.cancelledException();
+    }
+
+    static Kind kindOf(int sqlType) {
+        switch (sqlType) {
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+            case Types.BIGINT:
+                return Kind.LONG;
+            case Types.REAL:
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                return Kind.DOUBLE;
+            case Types.NUMERIC:
+            case Types.DECIMAL:
+                return Kind.DECIMAL;
+            case Types.BIT:
+            case Types.BOOLEAN:
+                return Kind.BOOLEAN;
+            case Types.BINARY:
+            case Types.VARBINARY:
+            case Types.LONGVARBINARY:
+            case Types.BLOB:
+                return Kind.BINARY;
+            default:
+                // character, temporal and anything else use the driver's text form
+                return Kind.TEXT;
+        }
+    }
+
+    /** Encodes one column value of the current row. */
+    interface ColumnEncoder {
+        void write(ResultSet rs, int column, ExportSink out) throws SQLException, IOException;
+    }
+
+    abstract static class RowWriter {
+        abstract void row(ResultSet rs) throws SQLException, IOException;
+
+        void finish() throws IOException {
+        }
+    }
+
+    /** RFC 4180: comma separated, quoted only when needed, NULL as an empty field. */
+    static final class CsvWriter extends RowWriter {
+        private final ExportSink out;
+        private final ColumnEncoder[] encoders;
+
+        CsvWriter(ExportSink out, String[] names, Kind[] kinds) throws IOException {
+            this.out = out;
+            encoders = new ColumnEncoder[kinds.length];
+            for (int c = 0; c < kinds.length; c++) {
+                if (c > 0) out.put((byte) ',');
+                text(names[c], out);
+                encoders[c] = encoder(kinds[c]);
+            }
+            out.put((byte) '\n');
+        }
+
+        private static ColumnEncoder encoder(Kind kind) {
+            switch (kind) {
+                case LONG:
+                    return (rs, c, out) -> {
+                        long v = rs.getLong(c);
+                        if (!rs.wasNull()) out.putDecimal(v);
+                    };
+                case DOUBLE:
+                    return (rs, c, out) -> {
+                        double v = rs.getDouble(c);
+                        if (!rs.wasNull()) out.putAscii(Double.toString(v));
+                    };
+                case DECIMAL:
+                    return (rs, c, out) -> {
+                        BigDecimal v = rs.getBigDecimal(c);
+                        if (v != null) out.putAscii(v.toPlainString());
+                    };
+                case BOOLEAN:
+                    return (rs, c, out) -> {
+                        boolean v = rs.getBoolean(c);
+                        if (!rs.wasNull()) out.putAscii(v ? "true" : "false");
+                    };
+                case BINARY:
+                    return (rs, c, out) -> {
+                        byte[] v = rs.getBytes(c);
+                        if (v != null) hex(v, out);
+                    };
+                default:
+                    return (rs, c, out) -> {
+                        String v = rs.getString(c);
+                        if (v != null) text(v, out);
+                    };
+            }
+        }
+
+        private static void hex(byte[] v, ExportSink out) throws IOException {
+            out.putAscii("0x");
+            for (byte b : v) {
+                out.put(HEX[(b >> 4) & 0xF]);
+                out.put(HEX[b & 0xF]);
+            }
+        }
+
+        private static void text(String s, ExportSink out) throws IOException {
+            boolean quote = false;
+            for (int i = 0, n = s.length(); i < n && !quote; i++) {
+                char ch = s.charAt(i);
+                quote = ch == ',' || ch == '"' || ch == '\n' || ch == '\r';
+            }
+            if (!quote) {
+                out.putUtf8(s);
+                return;
+            }
+            out.put((byte) '"');
+            for (int i = 0, n = s.length(); i < n; ) {
+                if (s.charAt(i) == '"') out.put((byte) '"');
+                i += out.putUtf8(s, i);
+            }
+            out.put((byte) '"');
+        }
+
+        @Override
+        void row(ResultSet rs) throws SQLException, IOException {
+            for (int c = 0; c < encoders.length; c++) {
+                if (c > 0) out.put((byte) ',');
+                encoders[c].write(rs, c + 1, out);
+            }
+            out.put((byte) '\n');
+        }
+    }
+
+    /** One JSON object per line; binary values as base64 strings, NaN and infinities as null. */
+    static final class JsonLinesWriter extends RowWriter {
+        private final ExportSink out;
+        private final byte[][] keys;   // pre-encoded {"name": and ,"name":
+        private final ColumnEncoder[] encoders;
+
+        JsonLinesWriter(ExportSink out, String[] names, Kind[] kinds) throws IOException {
+            this.out = out;
+            keys = new byte[names.length][];
+            encoders = new ColumnEncoder[kinds.length];
+            for (int c = 0; c < names.length; c++) {
+                StringBuilder key = new StringBuilder(c == 0 ? "{" : ",");
+                appendJsonString(names[c], key);
+                keys[c] = key.append(':').toString().getBytes(StandardCharsets.UTF_8);
+                encoders[c] = encoder(kinds[c]);
+            }
+        }
+
+        private static ColumnEncoder encoder(Kind kind) {
+            switch (kind) {
+                case LONG:
+                    return (rs, c, out) -> {
+                        long v = rs.getLong(c);
+                        if (rs.wasNull()) {
+                            out.putAscii("null");
+                        } else {
+                            out.putDecimal(v);
+                        }
+                    };
+                case DOUBLE:
+                    return (rs, c, out) -> {
+                        double v = rs.getDouble(c);
+                        out.putAscii(rs.wasNull() || Double.isNaN(v) || Double.isInfinite(v)
+                                ? "null" : Double.toString(v));
+                    };
+                case DECIMAL:
+                    return (rs, c, out) -> {
+                        BigDecimal v = rs.getBigDecimal(c);
+                        out.putAscii(v == null ? "null" : v.toPlainString());
+                    };
+                case BOOLEAN:
+                    return (rs, c, out) -> {
+                        boolean v = rs.getBoolean(c);
+                        out.putAscii(rs.wasNull() ? "null" : v ? "true" : "false");
+                    };
+                case BINARY:
+                    return (rs, c, out) -> {
+                        byte[] v = rs.getBytes(c);
+                        if (v == null) {
+                            out.putAscii("null");
+                        } else {
+                            out.put((byte) '"');
+                            out.put(Base64.getEncoder().encode(v));
+                            out.put((byte) '"');
+                        }
+                    };
+                default:
+                    return (rs, c, out) -> {
+                        String v = rs.getString(c);
+                        if (v == null) {
+                            out.putAscii("null");
+                        } else {
+                            string(v, out);
+                        }
+                    };
+            }
+        }
+
+        private static void string(String s, ExportSink out) throws IOException {
+            out.put((byte) '"');
+            for (int i = 0, n = s.length(); i < n; ) {
+                char ch = s.charAt(i);
+                if (ch == '"' || ch == '\\') {
+                    out.put((byte) '\\');
+                    out.put((byte) ch);
+                    i++;
+                } else if (ch < 0x20) {
+                    out.putAscii("\\u00");
+                    out.put(HEX[ch >> 4]);
+                    out.put(HEX[ch & 0xF]);
+                    i++;
+                } else {
+                    i += out.putUtf8(s, i);
+                }
+            }
+            out.put((byte) '"');
+        }
+
+        static void appendJsonString(String s, StringBuilder sb) {
+            sb.append('"');
+            for (int i = 0; i < s.length(); i++) {
+                char ch = s.charAt(i);
+                if (ch == '"' || ch == '\\') {
+                    sb.append('\\').append(ch);
+                } else if (ch < 0x20) {
+                    sb.append(String.format("\\u%04x", (int) ch));
+                } else {
+                    sb.append(ch);
+                }
+            }
+            sb.append('"');
+        }
+
+        @Override
+        void row(ResultSet rs) throws SQLException, IOException {
+            for (int c = 0; c < encoders.length; c++) {
+                out.put(keys[c]);
+                encoders[c].write(rs, c + 1, out);
+            }
+            if (encoders.length == 0) out.put((byte) '{');
+            out.put((byte) '}');
+            out.put((byte) '\n');
+        }
+    }
+
+    /**
+     * Parquet-like layout, little endian throughout:
+     * <pre>
+     *   "DBCOL1"
+     *   row group*   one chunk per column: null bitmap (1 bit per row, set = null),
+     *                then the non-null values: LONG/DOUBLE 8 bytes, BOOLEAN 1 byte,
+     *                DECIMAL/TEXT int32 length + UTF-8, BINARY int32 length + bytes
+     *   footer       int32 columns, per column (int32 name length, UTF-8 name, byte kind);
+     *                int32 groups, per group (int32 rows, per column int64 chunk offset)
+     *   int32 footer length, "DBCOL1"
+     * </pre>
+     * Offsets count uncompressed bytes, so a .dbcol.gz file is read after
+     * gunzipping it. Rows are buffered column-wise for one group only: at most
+     * export.rowGroupRows rows or export.rowGroupMb of values.
+     */
+    static final class ColumnarWriter extends RowWriter {
+        static final byte[] MAGIC = "DBCOL1".getBytes(StandardCharsets.US_ASCII);
+
+        private final ExportSink out;
+        private final String[] names;
+        private final Kind[] kinds;
+        private final int maxRows;
+        private final long maxBytes;
+        private final boolean[][] nulls;
+        private final long[][] longs;      // LONG, BOOLEAN (0/1), DOUBLE (raw bits)
+        private final Object[][] objects;  // DECIMAL, TEXT (String), BINARY (byte[])
+        private int rows;
+        private long groupBytes;
+        private final List<long[]> groupOffsets = new ArrayList<>();
+        private final List<Integer> groupRows = new ArrayList<>();
+
+        ColumnarWriter(ExportSink out, String[] names, Kind[] kinds) throws IOException {
+            this.out = out;
+            this.names = names;
+            this.kinds = kinds;
+            maxRows = Math.max(1, Settings.getInt("export.rowGroupRows", 65536));
+            maxBytes = Math.max(1, Settings.getLong("export.rowGroupMb", 32)) * 1024 * 1024;
+            int columns = kinds.length;
+            nulls = new boolean[columns][maxRows];
+            longs = new long[columns][];
+            objects = new Object[columns][];
+            for (int c = 0; c < columns; c++) {
+                if (kinds[c] == Kind.LONG || kinds[c] == Kind.DOUBLE || kinds[c] == Kind.BOOLEAN) {
+                    longs[c] = new long[maxRows];
+                } else {
+                    objects[c] = new Object[maxRows];
+                }
+            }
+            out.put(MAGIC);
+        }
+
+        @Override
+        void row(ResultSet rs) throws SQLException, IOException {
+            for (int c = 0; c < kinds.length; c++) {
+                int col = c + 1;
+                switch (kinds[c]) {
+                    case LONG:
+                        longs[c][rows] = rs.getLong(col);
+                        nulls[c][rows] = rs.wasNull();
+                        groupBytes += 8;
+                        break;
+                    case DOUBLE:
+                        longs[c][rows] = Double.doubleToRawLongBits(rs.getDouble(col));
+                        nulls[c][rows] = rs.wasNull();
+                        groupBytes += 8;
+                        break;
+                    case BOOLEAN:
+                        longs[c][rows] = rs.getBoolean(col) ? 1 : 0;
+                        nulls[c][rows] = rs.wasNull();
+                        groupBytes += 1;
+                        break;
+                    case BINARY: {
+                        byte[] v = rs.getBytes(col);
+                        objects[c][rows] = v;
+                        nulls[c][rows] = v == null;
+                        groupBytes += v == null ? 0 : 4 + v.length;
+                        break;
+                    }
+                    case DECIMAL: {
+                        BigDecimal v = rs.getBigDecimal(col);
+                        String s = v == null ? null : v.toPlainString();
+                        objects[c][rows] = s;
+                        nulls[c][rows] = s == null;
+                        groupBytes += s == null ? 0 : 4 + s.length();
+                        break;
+                    }
+                    default: {
+                        String v = rs.getString(col);
+                        objects[c][rows] = v;
+                        nulls[c][rows] = v == null;
+                        groupBytes += v == null ? 0 : 4 + 2L * v.length();
+                        break;
+                    }
+                }
+            }
+            if (++rows == maxRows || groupBytes >= maxBytes) {
+                writeGroup();
+            }
+        }
+
+        private void writeGroup() throws IOException {
+            long[] offsets = new long[kinds.length];
+            byte[] bitmap = new byte[(rows + 7) / 8];
+            for (int c = 0; c < kinds.length; c++) {
+                offsets[c] = out.bytes();
+                boolean[] isNull = nulls[c];
+                Arrays.fill(bitmap, (byte) 0);
+                for (int r = 0; r < rows; r++) {
+                    if (isNull[r]) bitmap[r >> 3] |= (byte) (1 << (r & 7));
+                }
+                out.put(bitmap);
+                for (int r = 0; r < rows; r++) {
+                    if (isNull[r]) continue;
+                    switch (kinds[c]) {
+                        case LONG:
+                        case DOUBLE:
+                            out.putLongLE(longs[c][r]);
+                            break;
+                        case BOOLEAN:
+                            out.put((byte) longs[c][r]);
+                            break;
+                        case BINARY: {
+                            byte[] v = (byte[]) objects[c][r];
+                            out.putIntLE(v.length);
+                            out.put(v);
+                            break;
+                        }
+                        default: {
+                            String v = (String) objects[c][r];
+                            out.putIntLE(ExportSink.utf8Length(v));
+                            out.putUtf8(v);
+                            break;
+                        }
+                    }
+                }
+                if (objects[c] != null) Arrays.fill(objects[c], 0, rows, null);
+            }
+            groupOffsets.add(offsets);
+            groupRows.add(rows);
+            rows = 0;
+            groupBytes = 0;
+        }
+
+        @Override
+        void finish() throws IOException {
+            if (rows > 0) writeGroup();
+            long footerStart = out.bytes();
+            out.putIntLE(kinds.length);
+            for (int c = 0; c < kinds.length; c++) {
+                byte[] name = names[c].getBytes(StandardCharsets.UTF_8);
+                out.putIntLE(name.length);
+                out.put(name);
+                out.put((byte) kinds[c].ordinal());
+            }
+            out.putIntLE(groupRows.size());
+            for (int g = 0; g < groupRows.size(); g++) {
+                out.putIntLE(groupRows.get(g));
+                for (long offset : groupOffsets.get(g)) {
+                    out.putLongLE(offset);
+                }
+            }
+            out.putIntLE((int) (out.bytes() - footerStart));
+            out.put(MAGIC);
+        }
+    }
+}
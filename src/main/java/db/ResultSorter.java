@@ -0,0 +1,671 @@
+package db;
+
+import javax.swing.RowSorter;
+import javax.swing.SortOrder;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.OptionalInt;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Sorting, quick filter and find for a {@link ResultTableModel}, computed off
+ * the EDT. Rows are never moved: a background job builds a view-to-model
+ * index permutation and the EDT only swaps it in. Sort keys are copied into
+ * primitive arrays per type (long, double, String) and the permutation is
+ * sorted with a fork/join merge sort. Every new sort, filter or find
+ * supersedes the running one, which stops at its next check.
+ *
+ * <p>While a result is still streaming, rows that arrive after a sort are
+ * added by a re-sort at most every half second and once fetching stops.
+ */
+public class ResultSorter extends RowSorter<ResultTableModel> {
+    private static final int MAX_SORT_KEYS = 3;
+    private static final int SEQUENTIAL_THRESHOLD = 8192;
+
+    private final ResultTableModel model;
+    private final Timer refreshTimer;
+    private final AtomicInteger generation = new AtomicInteger();
+    private final AtomicInteger findGeneration = new AtomicInteger();
+    private List<SortKey> sortKeys = Collections.emptyList();
+    private String filter = "";
+    private int[] viewToModel;   // null while the view is the model order
+    private int[] modelToView;
+    private int coveredRows;     // model rows the current or pending permutation covers
+    private boolean disposed;
+    private Consumer<String> statusListener = s -> { };
+
+    public ResultSorter(ResultTableModel model) {
+        this.model = model;
+        refreshTimer = new Timer(500, e -> refreshIfBehind());
+        refreshTimer.setRepeats(false);
+        model.loaded().whenComplete((v, err) -> SwingUtilities.invokeLater(this::refreshIfBehind));
+    }
+
+    /** Receives progress and outcome messages, on the EDT. */
+    public void setStatusListener(Consumer<String> listener) {
+        this.statusListener = listener;
+    }
+
+    /**
+     * Shows only rows where every whitespace-separated word of text occurs
+     * (ignoring case) in some column. An empty text shows all rows.
+     */
+    public void setFilter(String text) {
+        String f = text == null ? "" : text.trim();
+        if (f.equals(filter)) return;
+        filter = f;
+        refresh();
+    }
+
+    public String getFilter() {
+        return filter;
+    }
+
+    /** Stops background work for good; called when the table drops this sorter. */
+    public void dispose() {
+        disposed = true;
+        refreshTimer.stop();
+        generation.incrementAndGet();
+        findGeneration.incrementAndGet();
+    }
+
+    @Override
+    public ResultTableModel getModel() {
+        return model;
+    }
+
+    /** Ascending, descending, unsorted; another column becomes the primary key and keeps the others as tie-breakers. */
+    @Override
+    public void toggleSortOrder(int column) {
+        List<SortKey> keys = new ArrayList<>(sortKeys);
+        int i = 0;
+        while (i < keys.size() && keys.get(i).getColumn() != column) i++;
+        if (i == 0 && !keys.isEmpty()) {
+            if (keys.get(0).getSortOrder() == SortOrder.ASCENDING) {
+                keys.set(0, new SortKey(column, SortOrder.DESCENDING));
+            } else {
+                keys.remove(0);
+            }
+        } else {
+            if (i < keys.size()) keys.remove(i);
+            keys.add(0, new SortKey(column, SortOrder.ASCENDING));
+            if (keys.size() > MAX_SORT_KEYS) keys = keys.subList(0, MAX_SORT_KEYS);
+        }
+        setSortKeys(keys);
+    }
+
+    @Override
+    public void setSortKeys(List<? extends SortKey> keys) {
+        List<SortKey> copy = new ArrayList<>();
+        if (keys != null) {
+            for (SortKey k : keys) {
+                if (k.getColumn() < 0 || k.getColumn() >= model.getColumnCount()) {
+                    throw new IllegalArgumentException("Invalid sort key column " + k.getColumn());
+                }
+                if (k.getSortOrder() != SortOrder.UNSORTED) copy.add(k);
+            }
+        }
+        if (copy.equals(sortKeys)) return;
+        sortKeys = Collections.unmodifiableList(copy);
+        fireSortOrderChanged();
+        refresh();
+    }
+
+    @Override
+    public List<? extends SortKey> getSortKeys() {
+        return sortKeys;
+    }
+
+    @Override
+    public int convertRowIndexToModel(int index) {
+        if (viewToModel == null) {
+            if (index < 0 || index >= model.getRowCount()) throw new IndexOutOfBoundsException("Invalid index " + index);
+            return index;
+        }
+        return viewToModel[index];
+    }
+
+    @Override
+    public int convertRowIndexToView(int index) {
+        if (modelToView == null) {
+            return (index < 0 || index >= model.getRowCount()) ? -1 : index;
+        }
+        return (index < 0 || index >= modelToView.length) ? -1 : modelToView[index];
+    }
+
+    @Override
+    public int getViewRowCount() {
+        return viewToModel == null ? model.getRowCount() : viewToModel.length;
+    }
+
+    @Override
+    public int getModelRowCount() {
+        return model.getRowCount();
+    }
+
+    @Override
+    public void modelStructureChanged() {
+        generation.incrementAndGet();
+        refreshTimer.stop();
+        boolean hadKeys = !sortKeys.isEmpty();
+        sortKeys = Collections.emptyList();
+        filter = "";
+        viewToModel = null;
+        modelToView = null;
+        if (hadKeys) fireSortOrderChanged();
+    }
+
+    @Override
+    public void allRowsChanged() {
+        if (isActive()) refresh();
+    }
+
+    @Override
+    public void rowsInserted(int firstRow, int endRow) {
+        // streamed pages: place them with the next periodic re-sort
+        if (isActive() && !refreshTimer.isRunning()) refreshTimer.start();
+    }
+
+    @Override
+    public void rowsDeleted(int firstRow, int endRow) {
+        if (isActive()) refresh();
+    }
+
+    @Override
+    public void rowsUpdated(int firstRow, int endRow) {
+        // result values never change
+    }
+
+    @Override
+    public void rowsUpdated(int firstRow, int endRow, int column) {
+    }
+
+    private boolean isActive() {
+        return !sortKeys.isEmpty() || !filter.isEmpty();
+    }
+
+    private void refreshIfBehind() {
+        if (isActive() && coveredRows < model.getRowCount()) refresh();
+    }
+
+    /** Starts a background sort/filter of the rows loaded so far, replacing any running one. */
+    private void refresh() {
+        refreshTimer.stop();
+        if (disposed) return;
+        int gen = generation.incrementAndGet();
+        if (!isActive()) {
+            int[] previous = currentOrder();
+            viewToModel = null;
+            modelToView = null;
+            fireRowSorterChanged(previous);
+            return;
+        }
+        int rows = model.getRowCount();
+        coveredRows = rows;
+        List<SortKey> keys = sortKeys;
+        String text = filter;
+        ResultStore store = model.getStore();
+        if (rows > 50_000) {
+            statusListener.accept(String.format("%s %,d rows...", text.isEmpty() ? "Sorting" : "Filtering", rows));
+        }
+        long start = System.nanoTime();
+        QueryExecutor.EXECUTOR.execute(() -> {
+            BooleanSupplier cancelled = () -> generation.get() != gen;
+            try {
+                int[] order = order(store, rows, keys, text, cancelled);
+                int[] inverse = new int[rows];
+                Arrays.fill(inverse, -1);
+                for (int i = 0; i < order.length; i++) {
+                    inverse[order[i]] = i;
+                }
+                long millis = (System.nanoTime() - start) / 1_000_000;
+                SwingUtilities.invokeLater(() -> {
+                    if (generation.get() != gen) return;
+                    int[] previous = currentOrder();
+                    viewToModel = order;
+                    modelToView = inverse;
+                    fireRowSorterChanged(previous);
+                    statusListener.accept(describe(order.length, rows, keys, text, millis));
+                });
+            } catch (CancellationException ignored) {
+                // superseded by a newer sort or filter
+            } catch (RuntimeException | OutOfMemoryError ex) {
+                System.err.println("Sorting results failed: " + ex);
+                SwingUtilities.invokeLater(() -> statusListener.accept("Sort failed: " + ex.getMessage()));
+            }
+        });
+    }
+
+    private int[] currentOrder() {
+        if (viewToModel != null) return viewToModel;
+        int[] identity = new int[model.getRowCount()];
+        Arrays.setAll(identity, i -> i);
+        return identity;
+    }
+
+    private String describe(int shown, int rows, List<SortKey> keys, String text, long millis) {
+        StringBuilder sb = new StringBuilder();
+        if (!text.isEmpty()) {
+            sb.append(String.format("%,d of %,d rows match \"%s\"", shown, rows, text));
+        } else {
+            sb.append(String.format("%,d rows", rows));
+        }
+        if (!keys.isEmpty()) {
+            sb.append(" sorted by ");
+            for (int i = 0; i < keys.size(); i++) {
+                if (i > 0) sb.append(", ");
+                sb.append(model.getColumnName(keys.get(i).getColumn()));
+                if (keys.get(i).getSortOrder() == SortOrder.DESCENDING) sb.append(" desc");
+            }
+        }
+        if (model.isLoading()) sb.append(" (loaded so far)");
+        return sb.append(String.format(" - %,d ms", millis)).toString();
+    }
+
+    /**
+     * Looks for text (ignoring case) in the rows after fromViewRow, wrapping
+     * around, and passes {view row, model column} of the first matching cell
+     * to onResult on the EDT, or null when nothing matches. A newer call
+     * cancels a search still running.
+     */
+    public void find(String text, int fromViewRow, Consumer<int[]> onResult) {
+        int gen = findGeneration.incrementAndGet();
+        String needle = text == null ? "" : text.trim().toLowerCase(Locale.ROOT);
+        int count = getViewRowCount();
+        if (needle.isEmpty() || count == 0) {
+            onResult.accept(null);
+            return;
+        }
+        int[] order = viewToModel;
+        ResultStore store = model.getStore();
+        int first = Math.floorMod(fromViewRow + 1, count);
+        QueryExecutor.EXECUTOR.execute(() -> {
+            BooleanSupplier cancelled = () -> findGeneration.get() != gen;
+            try {
+                // ordered parallel search: findFirst keeps the hit nearest to the start
+                OptionalInt hit = IntStream.range(0, count).parallel().filter(i -> {
+                    if ((i & 255) == 0 && cancelled.getAsBoolean()) throw new CancellationException();
+                    int view = (first + i) % count;
+                    return matchColumn(store.getRow(order == null ? view : order[view]), needle) >= 0;
+                }).findFirst();
+                int[] result = null;
+                if (hit.isPresent()) {
+                    int view = (first + hit.getAsInt()) % count;
+                    result = new int[]{view, matchColumn(store.getRow(order == null ? view : order[view]), needle)};
+                }
+                int[] found = result;
+                SwingUtilities.invokeLater(() -> {
+                    if (findGeneration.get() == gen) onResult.accept(found);
+                });
+            } catch (CancellationException ignored) {
+                // superseded by a newer search
+            }
+        });
+    }
+
+    /**
+     * View-to-model order of the first rows of store: the rows matching
+     * filter, sorted by keys (stable, so ties keep the model order).
+     */
+    static int[] order(ResultStore store, int rows, List<SortKey> keys, String filter,
+                       BooleanSupplier cancelled) {
+        int[] index;
+        if (filter.isEmpty()) {
+            index = new int[rows];
+            Arrays.setAll(index, i -> i);
+        } else {
+            String[] terms = filter.toLowerCase(Locale.ROOT).split("\\s+");
+            index = IntStream.range(0, rows).parallel().filter(row -> {
+                if ((row & 1023) == 0 && cancelled.getAsBoolean()) throw new CancellationException();
+                return matches(store.getRow(row), terms);
+            }).toArray();
+        }
+        if (keys.isEmpty() || index.length < 2) {
+            return index;
+        }
+
+        // keys are extracted per position in index, so a narrow filter reads only its rows
+        Key[] sortBy = new Key[keys.size()];
+        for (int k = 0; k < sortBy.length; k++) {
+            sortBy[k] = extract(store, keys.get(k).getColumn(), index, cancelled);
+            sortBy[k].descending = keys.get(k).getSortOrder() == SortOrder.DESCENDING;
+        }
+        PositionComparator cmp = sortBy.length == 1 ? single(sortBy[0]) : (a, b) -> {
+            for (Key key : sortBy) {
+                int c = key.compare(a, b);
+                if (c != 0) return key.descending ? -c : c;
+            }
+            return Integer.compare(a, b);
+        };
+        int[] positions = new int[index.length];
+        Arrays.setAll(positions, i -> i);
+        ForkJoinPool.commonPool().invoke(new SortTask(positions, new int[positions.length], 0,
+                positions.length, cmp, cancelled));
+        int[] order = new int[index.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = index[positions[i]];
+        }
+        return order;
+    }
+
+    private static PositionComparator single(Key key) {
+        if (key.descending) {
+            return (a, b) -> {
+                int c = key.compare(b, a);
+                return c != 0 ? c : Integer.compare(a, b);
+            };
+        }
+        return (a, b) -> {
+            int c = key.compare(a, b);
+            return c != 0 ? c : Integer.compare(a, b);
+        };
+    }
+
+    // ---- matching ----
+
+    static boolean matches(Object[] values, String[] terms) {
+        for (String term : terms) {
+            if (matchColumn(values, term) < 0) return false;
+        }
+        return true;
+    }
+
+    /** First column whose text contains needle (already lower case), or -1. */
+    static int matchColumn(Object[] values, String needle) {
+        for (int c = 0; c < values.length; c++) {
+            String text = searchText(values[c]);
+            if (text != null && containsIgnoreCase(text, needle)) return c;
+        }
+        return -1;
+    }
+
+    private static String searchText(Object value) {
+        if (value == null || value instanceof byte[]) return null;
+        if (value instanceof String) return (String) value;
+        if (value instanceof BigDecimal) return ((BigDecimal) value).toPlainString();
+        return value.toString();
+    }
+
+    private static boolean containsIgnoreCase(String text, String needle) {
+        int n = needle.length();
+        char first = needle.charAt(0);
+        for (int i = 0, last = text.length() - n; i <= last; i++) {
+            char c = text.charAt(i);
+            if ((c == first || Character.toLowerCase(c) == first) && text.regionMatches(true, i, needle, 0, n)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // ---- sort keys ----
+
+    /** Copies column values for the rows in index into the narrowest key type that holds them. */
+    private static Key extract(ResultStore store, int column, int[] index, BooleanSupplier cancelled) {
+        ColumnarResultStore heap = null;
+        int heapRows = 0;
+        if (store instanceof ColumnarResultStore) {
+            heap = (ColumnarResultStore) store;
+            heapRows = Integer.MAX_VALUE;
+        } else if (store instanceof SpillingResultStore) {
+            heap = ((SpillingResultStore) store).heap();
+            heapRows = ((SpillingResultStore) store).heapRows();
+        }
+        ColumnarResultStore.Column typed = heap == null ? null : heap.column(column);
+        int n = index.length;
+        int inHeap = heapRows;
+        boolean[] nulls = new boolean[n];
+
+        if (typed instanceof ColumnarResultStore.IntColumn || typed instanceof ColumnarResultStore.LongColumn) {
+            long[] v = new long[n];
+            ColumnarResultStore.IntColumn ints = typed instanceof ColumnarResultStore.IntColumn
+                    ? (ColumnarResultStore.IntColumn) typed : null;
+            ColumnarResultStore.LongColumn longs = ints == null ? (ColumnarResultStore.LongColumn) typed : null;
+            parallelFor(n, cancelled, i -> {
+                int row = index[i];
+                if (row < inHeap) {
+                    if (typed.isNull(row)) nulls[i] = true;
+                    else v[i] = ints != null ? ints.getInt(row) : longs.getLong(row);
+                } else {
+                    Object o = store.getRow(row)[column];
+                    if (o == null) nulls[i] = true;
+                    else v[i] = ((Number) o).longValue();
+                }
+            });
+            return new LongKey(v, nulls);
+        }
+        if (typed instanceof ColumnarResultStore.DoubleColumn) {
+            double[] v = new double[n];
+            ColumnarResultStore.DoubleColumn doubles = (ColumnarResultStore.DoubleColumn) typed;
+            parallelFor(n, cancelled, i -> {
+                int row = index[i];
+                if (row < inHeap) {
+                    if (doubles.isNull(row)) nulls[i] = true;
+                    else v[i] = doubles.getDouble(row);
+                } else {
+                    Object o = store.getRow(row)[column];
+                    if (o == null) nulls[i] = true;
+                    else v[i] = ((Number) o).doubleValue();
+                }
+            });
+            return new DoubleKey(v, nulls);
+        }
+
+        // anything else: read the values, then pick a key by what they turned out to be
+        Object[] values = new Object[n];
+        ColumnarResultStore h = heap;
+        parallelFor(n, cancelled, i -> {
+            int row = index[i];
+            values[i] = row < inHeap ? h.getValue(row, column) : store.getRow(row)[column];
+        });
+        boolean strings = true;
+        boolean integral = true;
+        boolean floating = true;
+        for (int i = 0; i < n; i++) {
+            Object o = values[i];
+            if (o == null) {
+                nulls[i] = true;
+                continue;
+            }
+            strings &= o instanceof String;
+            integral &= o instanceof Long || o instanceof Integer || o instanceof Short || o instanceof Byte;
+            floating &= o instanceof Double || o instanceof Float;
+        }
+        if (integral) {
+            long[] v = new long[n];
+            for (int i = 0; i < n; i++) {
+                if (!nulls[i]) v[i] = ((Number) values[i]).longValue();
+            }
+            return new LongKey(v, nulls);
+        }
+        if (floating) {
+            double[] v = new double[n];
+            for (int i = 0; i < n; i++) {
+                if (!nulls[i]) v[i] = ((Number) values[i]).doubleValue();
+            }
+            return new DoubleKey(v, nulls);
+        }
+        if (strings) {
+            String[] v = new String[n];
+            for (int i = 0; i < n; i++) {
+                v[i] = (String) values[i];
+            }
+            return new TextKey(v, nulls);
+        }
+        return new ObjectKey(values, nulls);
+    }
+
+    private static void parallelFor(int n, BooleanSupplier cancelled, IntConsumer body) {
+        IntStream.range(0, n).parallel().forEach(i -> {
+            if ((i & 1023) == 0 && cancelled.getAsBoolean()) throw new CancellationException();
+            body.accept(i);
+        });
+    }
+
+    private interface PositionComparator {
+        int compare(int a, int b);
+    }
+
+    /** One sort column, indexed by position; NULLs sort first. */
+    private abstract static class Key {
+        final boolean[] nulls;
+        boolean descending;
+
+        Key(boolean[] nulls) {
+            this.nulls = nulls;
+        }
+
+        final int compare(int a, int b) {
+            boolean na = nulls[a];
+            boolean nb = nulls[b];
+            if (na || nb) return na == nb ? 0 : na ? -1 : 1;
+            return compareValues(a, b);
+        }
+
+        abstract int compareValues(int a, int b);
+    }
+
+    private static final class LongKey extends Key {
+        private final long[] values;
+
+        LongKey(long[] values, boolean[] nulls) {
+            super(nulls);
+            this.values = values;
+        }
+
+        @Override
+        int compareValues(int a, int b) {
+            return Long.compare(values[a], values[b]);
+        }
+    }
+
+    private static final class DoubleKey extends Key {
+        private final double[] values;
+
+        DoubleKey(double[] values, boolean[] nulls) {
+            super(nulls);
+            this.values = values;
+        }
+
+        @Override
+        int compareValues(int a, int b) {
+            return Double.compare(values[a], values[b]);
+        }
+    }
+
+    private static final class TextKey extends Key {
+        private final String[] values;
+
+        TextKey(String[] values, boolean[] nulls) {
+            super(nulls);
+            this.values = values;
+        }
+
+        @Override
+        int compareValues(int a, int b) {
+            return values[a].compareTo(values[b]);
+        }
+    }
+
+    /** Decimals, dates and mixed columns: natural order within a type, display text across types. */
+    private static final class ObjectKey extends Key {
+        private final Object[] values;
+
+        ObjectKey(Object[] values, boolean[] nulls) {
+            super(nulls);
+            this.values = values;
+        }
+
+        @Override
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        int compareValues(int a, int b) {
+            Object x = values[a];
+            Object y = values[b];
+            if (x instanceof Comparable && x.getClass() == y.getClass()) {
+                return ((Comparable) x).compareTo(y);
+            }
+            if (x instanceof byte[] && y instanceof byte[]) {
+                return Arrays.compareUnsigned((byte[]) x, (byte[]) y);
+            }
+            return String.valueOf(x).compareTo(String.valueOf(y));
+        }
+    }
+
+    /** Stable merge sort of positions; halves above the threshold are sorted in parallel. */
+    private static final class SortTask extends RecursiveAction {
+        private final int[] a;
+        private final int[] tmp;
+        private final int lo;
+        private final int hi;
+        private final PositionComparator cmp;
+        private final BooleanSupplier cancelled;
+
+        SortTask(int[] a, int[] tmp, int lo, int hi, PositionComparator cmp, BooleanSupplier cancelled) {
+            this.a = a;
+            this.tmp = tmp;
+            this.lo = lo;
+            this.hi = hi;
+            this.cmp = cmp;
+            this.cancelled = cancelled;
+        }
+
+        @Override
+        protected void compute() {
+            if (cancelled.getAsBoolean()) throw new CancellationException();
+            if (hi - lo <= SEQUENTIAL_THRESHOLD) {
+                mergeSort(a, tmp, lo, hi, cmp);
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new SortTask(a, tmp, lo, mid, cmp, cancelled), new SortTask(a, tmp, mid, hi, cmp, cancelled));
+            if (cancelled.getAsBoolean()) throw new CancellationException();
+            merge(a, tmp, lo, mid, hi, cmp);
+        }
+    }
+
+    private static void mergeSort(int[] a, int[] tmp, int lo, int hi, PositionComparator cmp) {
+        if (hi - lo <= 24) {
+            for (int i = lo + 1; i < hi; i++) {
+                int v = a[i];
+                int j = i - 1;
+                while (j >= lo && cmp.compare(a[j], v) > 0) {
+                    a[j + 1] = a[j];
+                    j--;
+                }
+                a[j + 1] = v;
+            }
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        mergeSort(a, tmp, lo, mid, cmp);
+        mergeSort(a, tmp, mid, hi, cmp);
+        merge(a, tmp, lo, mid, hi, cmp);
+    }
+
+    private static void merge(int[] a, int[] tmp, int lo, int mid, int hi, PositionComparator cmp) {
+        if (cmp.compare(a[mid - 1], a[mid]) <= 0) return;   // already in order
+        System.arraycopy(a, lo, tmp, lo, mid - lo);
+        int i = lo;
+        int j = mid;
+        int k = lo;
+        while (i < mid && j < hi) {
+            a[k++] = cmp.compare(a[j], tmp[i]) < 0 ? a[j++] : tmp[i++];
+        }
+        while (i < mid) {
+            a[k++] = tmp[i++];
+        }
+    }
+}
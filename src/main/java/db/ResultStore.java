@@ -0,0 +1,56 @@
+package db;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Storage behind {@link ResultTableModel}, either fully on the heap
+ * ({@link ColumnarResultStore}) or spilling to disk ({@link SpillingResultStore}).
+ * A single query thread appends rows; any thread may read rows below a row
+ * count it has already observed.
+ */
+public interface ResultStore extends AutoCloseable {
+
+    int getColumnCount();
+
+    String getColumnName(int column);
+
+    /** Rows appended so far. */
+    int getRowCount();
+
+    Object getValue(int row, int column);
+
+    /**
+     * Display text of a cell, cut to maxChars (see {@link CellFormat}); null
+     * for NULL. Stores that keep values off-heap read only the part shown.
+     */
+    default String getCellText(int row, int column, int maxChars) {
+        return CellFormat.text(getValue(row, column), maxChars);
+    }
+
+    /** All values of a row, for scans over every column; the array must not be modified. */
+    default Object[] getRow(int row) {
+        Object[] values = new Object[getColumnCount()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = getValue(row, i);
+        }
+        return values;
+    }
+
+    /** Copies the current row of rs into the store. */
+    void appendRow(ResultSet rs) throws SQLException;
+
+    /** Heap this result currently costs, in bytes. */
+    long memoryBytes();
+
+    /** Bytes written to spill files, if the store spills. */
+    default long diskBytes() {
+        return 0;
+    }
+
+    /** Human readable per-column cost breakdown. */
+    String describeMemory();
+
+    @Override
+    void close();
+}
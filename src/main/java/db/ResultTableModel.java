@@ -0,0 +1,236 @@
+package db;
+
+import javax.swing.SwingUtilities;
+import javax.swing.table.AbstractTableModel;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Thin table model over a {@link ResultStore} that is filled page by page from
+ * an open ResultSet. The query thread fetches ahead of the last row the table
+ * has painted and pauses once it is result.prefetchRows ahead; scrolling
+ * further resumes it. The row count seen by the table only grows on the EDT,
+ * together with the matching rowsInserted event.
+ */
+public class ResultTableModel extends AbstractTableModel {
+    private final ResultStore store;
+    private final CompletableFuture<Void> loaded = new CompletableFuture<>();
+    private int visibleRows;   // EDT only
+
+    private final int pageSize;
+    private final int prefetchRows;
+    private final int maxRows;
+    private final long maxBytes;
+    private final long maxDiskBytes;
+
+    private final Object demandLock = new Object();
+    private volatile int demand;
+    private volatile boolean waitingForScroll;
+    private volatile String stopReason;
+    private long cachedAt = -1;
+
+    public ResultTableModel(ResultStore store) {
+        this.store = store;
+        pageSize = Math.max(1, Settings.getInt("query.fetchSize", 500));
+        prefetchRows = Math.max(pageSize, Settings.getInt("result.prefetchRows", 10_000));
+        maxRows = Math.max(1, Settings.getInt("result.maxRows", 1_000_000));
+        maxBytes = Settings.getLong("result.maxMemoryMb", 256) * 1024 * 1024;
+        maxDiskBytes = Settings.getLong("result.maxDiskMb", 8192) * 1024 * 1024;
+        demand = prefetchRows;
+    }
+
+    /** A model over a complete result served from {@link ResultCache}. */
+    static ResultTableModel fromCache(ResultStore store, long cachedAt) {
+        ResultTableModel model = new ResultTableModel(store);
+        model.cachedAt = cachedAt;
+        model.publish(store.getRowCount());
+        model.loaded.complete(null);
+        return model;
+    }
+
+    @Override
+    public int getRowCount() {
+        return visibleRows;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return store.getColumnCount();
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return store.getColumnName(column);
+    }
+
+    @Override
+    public Object getValueAt(int rowIndex, int columnIndex) {
+        touch(rowIndex);
+        return store.getValue(rowIndex, columnIndex);
+    }
+
+    /** What the grid paints: the cell's display text, without reading more of a long value than is shown. */
+    public String getCellText(int rowIndex, int columnIndex, int maxChars) {
+        touch(rowIndex);
+        return store.getCellText(rowIndex, columnIndex, maxChars);
+    }
+
+    private void touch(int rowIndex) {
+        // the table only asks for painted rows, so this tracks the scroll position
+        if (rowIndex + prefetchRows > demand) {
+            requestRows(rowIndex + prefetchRows);
+        }
+    }
+
+    private void requestRows(int upTo) {
+        synchronized (demandLock) {
+            if (upTo > demand) {
+                demand = upTo;
+                demandLock.notifyAll();
+            }
+        }
+    }
+
+    public ResultStore getStore() {
+        return store;
+    }
+
+    /** Completes when fetching stops: end of data, a limit, cancellation or an error. */
+    public CompletableFuture<Void> loaded() {
+        return loaded;
+    }
+
+    public boolean isLoading() {
+        return !loaded.isDone();
+    }
+
+    /** True while the fetcher is paused waiting for the user to scroll further. */
+    public boolean isWaitingForScroll() {
+        return waitingForScroll;
+    }
+
+    /** Why fetching stopped before the end of the result, or null if it was read completely. */
+    public String getStopReason() {
+        return stopReason;
+    }
+
+    public boolean isFromCache() {
+        return cachedAt >= 0;
+    }
+
+    /** When the cached result was read from the database, or -1 for a live result. */
+    public long getCachedAt() {
+        return cachedAt;
+    }
+
+    public long getMemoryBytes() {
+        return store.memoryBytes();
+    }
+
+    /**
+     * Streams rows from rs on the calling (query) thread. The execution's
+     * result future is completed with this model as soon as the first page
+     * is on its way to the EDT.
+     */
+    void fill(ResultSet rs, QueryExecution<ResultTableModel> exec) throws SQLException {
+        int fetched = 0;
+        int published = 0;
+        long bytes = 0;
+        long lastFlush = System.nanoTime();
+        long fetchNanos = 0;
+        long buildNanos = 0;
+        long waitNanos = 0;
+        try {
+            while (true) {
+                if (fetched >= demand) {
+                    publish(fetched);
+                    published = fetched;
+                    exec.result().complete(this);
+                    long waitStart = System.nanoTime();
+                    try {
+                        awaitDemand(fetched, exec);
+                    } finally {
+                        waitNanos += System.nanoTime() - waitStart;
+                    }
+                }
+                if (fetched >= maxRows) {
+                    stopReason = "row limit of " + maxRows + " reached";
+                    break;
+                }
+                if ((fetched & 63) == 0) {
+                    bytes = store.memoryBytes();
+                }
+                if (bytes >= maxBytes) {
+                    stopReason = "memory limit of " + (maxBytes >> 20) + " MB reached";
+                    break;
+                }
+                if (store.diskBytes() >= maxDiskBytes) {
+                    stopReason = "disk limit of " + (maxDiskBytes >> 20) + " MB reached";
+                    break;
+                }
+                long t0 = System.nanoTime();
+                boolean more = rs.next();
+                long t1 = System.nanoTime();
+                fetchNanos += t1 - t0;
+                if (fetched == 0) exec.firstRow();
+                if (!more) {
+                    break;
+                }
+                store.appendRow(rs);
+                buildNanos += System.nanoTime() - t1;
+                fetched++;
+                exec.rowFetched();
+
+                // publish full pages, and partial ones when rows trickle in slowly
+                if (fetched - published >= pageSize
+                        || ((fetched & 63) == 0 && System.nanoTime() - lastFlush > 200_000_000L)) {
+                    publish(fetched);
+                    published = fetched;
+                    lastFlush = System.nanoTime();
+                    exec.result().complete(this);
+                }
+            }
+            publish(fetched);
+            exec.timing(fetchNanos, buildNanos, waitNanos, store.memoryBytes() + store.diskBytes());
+            exec.finished();
+            exec.result().complete(this);
+            loaded.complete(null);
+        } catch (SQLException ex) {
+            exec.timing(fetchNanos, buildNanos, waitNanos, store.memoryBytes() + store.diskBytes());
+            exec.finished();
+            SQLException err = exec.isCancelled() ? exec.cancelledException() : ex;
+            publish(store.getRowCount());
+            stopReason = err.getMessage();
+            loaded.completeExceptionally(err);
+            throw err;
+        }
+    }
+
+    private void awaitDemand(int fetched, QueryExecution<?> exec) throws SQLException {
+        synchronized (demandLock) {
+            waitingForScroll = true;
+            try {
+                while (fetched >= demand) {
+                    if (exec.isCancelled()) throw exec.cancelledException();
+                    demandLock.wait(250);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting to fetch more rows", e);
+            } finally {
+                waitingForScroll = false;
+            }
+        }
+    }
+
+    private void publish(int rows) {
+        SwingUtilities.invokeLater(() -> {
+            if (rows > visibleRows) {
+                int first = visibleRows;
+                visibleRows = rows;
+                fireTableRowsInserted(first, rows - 1);
+            }
+        });
+    }
+}
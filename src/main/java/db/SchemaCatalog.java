@@ -0,0 +1,485 @@
+package db;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * In-process schema metadata shared by the explorer and auto-completion,
+ * keyed by connection URL. A snapshot on disk lets a restart show the tree
+ * and completions before the database answers; a background refresh then
+ * re-reads only what changed. All loading methods block, so call them off
+ * the EDT.
+ */
+public class SchemaCatalog {
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final Map<String, SchemaCatalog> INSTANCES = new HashMap<>();
+    private static final ScheduledExecutorService BACKGROUND = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "schema-catalog");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final String url;
+    private final ConnectionProfile profile;
+    private final Path snapshotFile;
+    private final List<Consumer<String>> listeners = new CopyOnWriteArrayList<>();
+    private final Map<String, Map<String, TableInfo>> tablesByCatalog = new ConcurrentHashMap<>();
+    private volatile List<String> catalogs;
+    private volatile String productLabel;
+    private volatile String currentCatalog;
+    private volatile boolean saveScheduled;
+    private volatile boolean refreshStarted;
+
+    /** The catalog of the active profile. */
+    public static SchemaCatalog get() {
+        return forProfile(DBConnection.active());
+    }
+
+    public static synchronized SchemaCatalog forProfile(ConnectionProfile profile) {
+        return INSTANCES.computeIfAbsent(profile.getUrl(), url -> new SchemaCatalog(profile));
+    }
+
+    private SchemaCatalog(ConnectionProfile profile) {
+        this.url = profile.getUrl();
+        this.profile = profile;
+        Path dir = Paths.get(Settings.get("schema.cacheDir",
+                Paths.get(System.getProperty("user.home"), ".dbeditor", "schema").toString()));
+        snapshotFile = dir.resolve(Integer.toHexString(url.hashCode()) + ".bin.gz");
+        loadSnapshot();
+    }
+
+    /** Called with the catalog whose tables changed, or null when the catalog list changed. */
+    public void addListener(Consumer<String> listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Consumer<String> listener) {
+        listeners.remove(listener);
+    }
+
+    private void fireChanged(String catalog) {
+        for (Consumer<String> l : listeners) {
+            l.accept(catalog);
+        }
+    }
+
+    /** Starts the one-off incremental refresh of everything cached so far. */
+    public void refreshInBackground() {
+        if (refreshStarted) return;
+        refreshStarted = true;
+        BACKGROUND.execute(() -> {
+            try {
+                refreshAll();
+            } catch (SQLException e) {
+                System.err.println("Schema refresh failed: " + e.getMessage());
+            }
+        });
+        long interval = Settings.getLong("schema.refreshIntervalSeconds", 0);
+        if (interval > 0) {
+            BACKGROUND.scheduleWithFixedDelay(() -> {
+                try {
+                    refreshAll();
+                } catch (SQLException e) {
+                    System.err.println("Schema refresh failed: " + e.getMessage());
+                }
+            }, interval, interval, TimeUnit.SECONDS);
+        }
+    }
+
+    public void refreshAll() throws SQLException {
+        refreshCatalogs();
+        for (String catalog : new ArrayList<>(tablesByCatalog.keySet())) {
+            refresh(fromKey(catalog));
+        }
+    }
+
+    public String getProductLabel() {
+        return productLabel;
+    }
+
+    /** Catalog the connection starts in, or null when the driver has none. */
+    public String currentCatalog() throws SQLException {
+        if (catalogs == null) refreshCatalogs();
+        return currentCatalog;
+    }
+
+    public List<String> catalogs() throws SQLException {
+        List<String> c = catalogs;
+        return (c != null) ? c : refreshCatalogs();
+    }
+
+    public List<String> refreshCatalogs() throws SQLException {
+        List<String> list = new ArrayList<>();
+        try (Connection conn = profile.getConnection()) {
+            DatabaseMetaData meta = conn.getMetaData();
+            productLabel = Objects.toString(meta.getDatabaseProductName(), "Database")
+                    + " (" + Objects.toString(meta.getURL(), "") + ")";
+            currentCatalog = conn.getCatalog();
+            try (ResultSet rs = meta.getCatalogs()) {
+                while (rs.next()) {
+                    list.add(rs.getString(1));
+                }
+            }
+        }
+        List<String> old = catalogs;
+        catalogs = Collections.unmodifiableList(list);
+        if (!list.equals(old)) {
+            scheduleSave();
+            if (old != null) fireChanged(null);
+        }
+        return catalogs;
+    }
+
+    public List<TableInfo> tables(String catalog) throws SQLException {
+        Map<String, TableInfo> tables = tablesByCatalog.get(key(catalog));
+        if (tables == null) {
+            refresh(catalog);
+            tables = tablesByCatalog.get(key(catalog));
+        }
+        return new ArrayList<>(tables.values());
+    }
+
+    public List<ColumnInfo> columns(String catalog, String table) throws SQLException {
+        TableInfo info = find(catalog, table);
+        if (info != null && info.columns != null) {
+            return info.columns;
+        }
+        return refreshTable(catalog, table);
+    }
+
+    /** Every table of the catalog with columns, loading missing columns in one bulk call. */
+    public List<TableInfo> tablesWithColumns(String catalog) throws SQLException {
+        List<TableInfo> tables = tables(catalog);
+        List<String> missing = new ArrayList<>();
+        for (TableInfo t : tables) {
+            if (t.columns == null) missing.add(t.name);
+        }
+        if (!missing.isEmpty()) {
+            try (Connection conn = profile.getConnection()) {
+                loadColumns(conn, catalog, missing);
+            }
+            scheduleSave();
+            tables = tables(catalog);
+        }
+        return tables;
+    }
+
+    /**
+     * Re-reads the table list of a catalog. Where the database exposes change
+     * times, only tables that changed since the last read get their columns
+     * fetched again; elsewhere cached columns are reloaded in bulk.
+     */
+    public void refresh(String catalog) throws SQLException {
+        Map<String, TableInfo> old = tablesByCatalog.get(key(catalog));
+        List<String> stale = new ArrayList<>();
+        try (Connection conn = profile.getConnection()) {
+            DatabaseMetaData meta = conn.getMetaData();
+            Map<String, TableInfo> listed = listWithChangeTimes(conn, catalog);
+            if (listed == null) {
+                listed = new LinkedHashMap<>();
+                try (ResultSet rs = meta.getTables(catalog, null, "%", new String[]{"TABLE", "VIEW"})) {
+                    while (rs.next()) {
+                        String name = rs.getString("TABLE_NAME");
+                        listed.put(name, new TableInfo(catalog, name, rs.getString("TABLE_TYPE"), 0, null));
+                    }
+                }
+            }
+            Map<String, TableInfo> tables = listed;
+            // merged into the current map, so columns loaded meanwhile are kept for tables that still exist
+            tablesByCatalog.compute(key(catalog), (k, current) -> {
+                stale.clear();
+                Map<String, TableInfo> fresh = new LinkedHashMap<>();
+                for (TableInfo t : tables.values()) {
+                    TableInfo prev = (current != null) ? current.get(t.name) : null;
+                    if (prev != null && prev.columns != null) {
+                        fresh.put(t.name, t.withColumns(prev.columns));
+                        // only re-read columns that someone has looked at before, and may have changed
+                        if (t.changeTime == 0 || prev.changeTime != t.changeTime) stale.add(t.name);
+                    } else {
+                        fresh.put(t.name, t);
+                    }
+                }
+                return fresh;
+            });
+            if (!stale.isEmpty()) {
+                loadColumns(conn, catalog, stale);
+            }
+        }
+        scheduleSave();
+        if (old != null && !sameTables(old, tablesByCatalog.get(key(catalog)))) {
+            fireChanged(catalog);
+        }
+    }
+
+    public List<ColumnInfo> refreshTable(String catalog, String table) throws SQLException {
+        // a table not listed yet may be new; one the database dropped stays out
+        if (find(catalog, table) == null) {
+            refresh(catalog);
+            if (find(catalog, table) == null) return Collections.emptyList();
+        }
+        try (Connection conn = profile.getConnection()) {
+            loadColumns(conn, catalog, Collections.singletonList(table));
+        }
+        scheduleSave();
+        TableInfo info = find(catalog, table);
+        return (info != null && info.columns != null) ? info.columns : Collections.emptyList();
+    }
+
+    private TableInfo find(String catalog, String table) {
+        Map<String, TableInfo> tables = tablesByCatalog.get(key(catalog));
+        return (tables != null) ? tables.get(table) : null;
+    }
+
+    /** MySQL/MariaDB only: table list with create/update times from INFORMATION_SCHEMA. */
+    private Map<String, TableInfo> listWithChangeTimes(Connection conn, String catalog) throws SQLException {
+        String product = conn.getMetaData().getDatabaseProductName();
+        if (catalog == null || product == null
+                || !(product.contains("MySQL") || product.contains("MariaDB"))) {
+            return null;
+        }
+        Map<String, TableInfo> listed = new LinkedHashMap<>();
+        String sql = "SELECT TABLE_NAME, TABLE_TYPE, CREATE_TIME, UPDATE_TIME "
+                + "FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_SCHEMA = ? ORDER BY TABLE_NAME";
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, catalog);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    String name = rs.getString(1);
+                    String type = "VIEW".equals(rs.getString(2)) ? "VIEW" : "TABLE";
+                    long changed = Math.max(millis(rs.getTimestamp(3)), millis(rs.getTimestamp(4)));
+                    listed.put(name, new TableInfo(catalog, name, type, changed, null));
+                }
+            }
+        }
+        return listed;
+    }
+
+    private static long millis(Timestamp t) {
+        return (t == null) ? 0 : t.getTime();
+    }
+
+    /** Per-table calls for a handful of tables, one catalog-wide call otherwise. */
+    private void loadColumns(Connection conn, String catalog, List<String> tables) throws SQLException {
+        DatabaseMetaData meta = conn.getMetaData();
+        Map<String, List<ColumnInfo>> found = new HashMap<>();
+        for (String t : tables) {
+            found.put(t, new ArrayList<>());
+        }
+        if (tables.size() <= 8) {
+            for (String t : tables) {
+                try (ResultSet rs = meta.getColumns(catalog, null, t, "%")) {
+                    collectColumns(rs, found);
+                }
+            }
+        } else {
+            try (ResultSet rs = meta.getColumns(catalog, null, "%", "%")) {
+                collectColumns(rs, found);
+            }
+        }
+        // merged into whatever map is current; tables a refresh dropped meanwhile stay dropped
+        tablesByCatalog.computeIfPresent(key(catalog), (k, current) -> {
+            Map<String, TableInfo> updated = new LinkedHashMap<>(current);
+            for (Map.Entry<String, List<ColumnInfo>> e : found.entrySet()) {
+                TableInfo prev = updated.get(e.getKey());
+                if (prev != null) updated.put(e.getKey(), prev.withColumns(Collections.unmodifiableList(e.getValue())));
+            }
+            return updated;
+        });
+    }
+
+    private static void collectColumns(ResultSet rs, Map<String, List<ColumnInfo>> found) throws SQLException {
+        while (rs.next()) {
+            // the table name is a pattern, so keep only exact matches
+            List<ColumnInfo> cols = found.get(rs.getString("TABLE_NAME"));
+            if (cols != null) {
+                cols.add(new ColumnInfo(rs.getString("COLUMN_NAME"), rs.getString("TYPE_NAME")));
+            }
+        }
+    }
+
+    private static boolean sameTables(Map<String, TableInfo> a, Map<String, TableInfo> b) {
+        if (!a.keySet().equals(b.keySet())) return false;
+        for (TableInfo t : a.values()) {
+            if (!Objects.equals(t.columns, b.get(t.name).columns)) return false;
+        }
+        return true;
+    }
+
+    private static String key(String catalog) {
+        return (catalog == null) ? "" : catalog;
+    }
+
+    private static String fromKey(String key) {
+        return key.isEmpty() ? null : key;
+    }
+
+    // --- on-disk snapshot ---
+
+    private void scheduleSave() {
+        if (saveScheduled) return;
+        saveScheduled = true;
+        BACKGROUND.schedule(() -> {
+            saveScheduled = false;
+            saveSnapshot();
+        }, 2, TimeUnit.SECONDS);
+    }
+
+    private void saveSnapshot() {
+        try {
+            Files.createDirectories(snapshotFile.getParent());
+            Path tmp = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new GZIPOutputStream(Files.newOutputStream(tmp))))) {
+                out.writeInt(SNAPSHOT_VERSION);
+                out.writeUTF(url);
+                out.writeUTF(Objects.toString(productLabel, ""));
+                out.writeUTF(Objects.toString(currentCatalog, ""));
+                List<String> cats = catalogs;
+                out.writeInt(cats == null ? -1 : cats.size());
+                if (cats != null) {
+                    for (String c : cats) out.writeUTF(c);
+                }
+                out.writeInt(tablesByCatalog.size());
+                for (Map.Entry<String, Map<String, TableInfo>> e : tablesByCatalog.entrySet()) {
+                    out.writeUTF(e.getKey());
+                    out.writeInt(e.getValue().size());
+                    for (TableInfo t : e.getValue().values()) {
+                        out.writeUTF(t.name);
+                        out.writeUTF(Objects.toString(t.type, "TABLE"));
+                        out.writeLong(t.changeTime);
+                        out.writeInt(t.columns == null ? -1 : t.columns.size());
+                        if (t.columns != null) {
+                            for (ColumnInfo c : t.columns) {
+                                out.writeUTF(c.name);
+                                out.writeUTF(Objects.toString(c.typeName, ""));
+                            }
+                        }
+                    }
+                }
+            }
+            Files.move(tmp, snapshotFile, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            System.err.println("Could not save schema snapshot: " + e.getMessage());
+        }
+    }
+
+    private void loadSnapshot() {
+        if (!Files.exists(snapshotFile)) return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(Files.newInputStream(snapshotFile))))) {
+            if (in.readInt() != SNAPSHOT_VERSION || !url.equals(in.readUTF())) return;
+            productLabel = emptyToNull(in.readUTF());
+            currentCatalog = emptyToNull(in.readUTF());
+            int n = in.readInt();
+            if (n >= 0) {
+                List<String> cats = new ArrayList<>(n);
+                for (int i = 0; i < n; i++) cats.add(in.readUTF());
+                catalogs = Collections.unmodifiableList(cats);
+            }
+            int catalogCount = in.readInt();
+            for (int i = 0; i < catalogCount; i++) {
+                String catalogKey = in.readUTF();
+                String catalog = fromKey(catalogKey);
+                int tableCount = in.readInt();
+                Map<String, TableInfo> tables = new LinkedHashMap<>();
+                for (int j = 0; j < tableCount; j++) {
+                    String name = in.readUTF();
+                    String type = in.readUTF();
+                    long changed = in.readLong();
+                    int colCount = in.readInt();
+                    List<ColumnInfo> cols = null;
+                    if (colCount >= 0) {
+                        cols = new ArrayList<>(colCount);
+                        for (int k = 0; k < colCount; k++) {
+                            cols.add(new ColumnInfo(in.readUTF(), emptyToNull(in.readUTF())));
+                        }
+                        cols = Collections.unmodifiableList(cols);
+                    }
+                    tables.put(name, new TableInfo(catalog, name, type, changed, cols));
+                }
+                tablesByCatalog.put(catalogKey, tables);
+            }
+        } catch (IOException e) {
+            System.err.println("Ignoring unreadable schema snapshot " + snapshotFile + ": " + e.getMessage());
+            catalogs = null;
+            tablesByCatalog.clear();
+        }
+    }
+
+    private static String emptyToNull(String s) {
+        return s.isEmpty() ? null : s;
+    }
+
+    /** Immutable description of one table or view. */
+    public static final class TableInfo {
+        public final String catalog;
+        public final String name;
+        public final String type;
+        /** Last create/update time reported by the server, 0 when unknown. */
+        public final long changeTime;
+        /** Columns in ordinal order, or null when not loaded yet. */
+        public final List<ColumnInfo> columns;
+
+        TableInfo(String catalog, String name, String type, long changeTime, List<ColumnInfo> columns) {
+            this.catalog = catalog;
+            this.name = name;
+            this.type = type;
+            this.changeTime = changeTime;
+            this.columns = columns;
+        }
+
+        TableInfo withColumns(List<ColumnInfo> cols) {
+            return new TableInfo(catalog, name, type, changeTime, cols);
+        }
+    }
+
+    public static final class ColumnInfo {
+        public final String name;
+        public final String typeName;
+
+        ColumnInfo(String name, String typeName) {
+            this.name = name;
+            this.typeName = typeName;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ColumnInfo)) return false;
+            ColumnInfo c = (ColumnInfo) o;
+            return name.equals(c.name) && Objects.equals(typeName, c.typeName);
+        }
+
+        @Override
+        public int hashCode() {
+            return name.hashCode();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package db;
+
+import javax.swing.SwingUtilities;
+import javax.swing.table.AbstractTableModel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * One row per executed statement of a script: where it is, what it did and
+ * how long it took. Filled by the script thread in chunks; the row list the
+ * table sees only changes on the EDT.
+ */
+public class ScriptResultModel extends AbstractTableModel {
+    private static final String[] COLUMNS = {"#", "Line", "Statement", "Result", "Time (ms)"};
+    private static final int PREVIEW_CHARS = 200;
+
+    private final List<Entry> rows = new ArrayList<>();        // EDT only
+    private List<Entry> pending = new ArrayList<>();            // script thread only
+    private long lastPublish = System.nanoTime();               // script thread only
+    private final int statementCount;
+    private volatile int errorCount;
+    private volatile long updateCount;
+    private volatile Throwable failure;
+    private final CompletableFuture<Void> finished = new CompletableFuture<>();
+
+    ScriptResultModel(int statementCount) {
+        this.statementCount = statementCount;
+    }
+
+    @Override
+    public int getRowCount() {
+        return rows.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMNS[column];
+    }
+
+    @Override
+    public Object getValueAt(int rowIndex, int columnIndex) {
+        Entry e = rows.get(rowIndex);
+        switch (columnIndex) {
+            case 0: return e.index + 1;
+            case 1: return e.line;
+            case 2: return e.preview;
+            case 3: return e.result;
+            default: return String.format("%.2f", e.nanos / 1e6);
+        }
+    }
+
+    public int getStatementCount() {
+        return statementCount;
+    }
+
+    public int getErrorCount() {
+        return errorCount;
+    }
+
+    /** Sum of all reported update counts. */
+    public long getUpdateCount() {
+        return updateCount;
+    }
+
+    /** Completes, always normally, once the last statement ran or the script stopped. */
+    public CompletableFuture<Void> finished() {
+        return finished;
+    }
+
+    /** The error or cancellation that stopped the script, or null if it ran to the end. */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    void add(int index, SqlScript.Part part, String result, long nanos, long updates, boolean error) {
+        // only the preview is kept; a large file's statements would otherwise all stay in memory
+        pending.add(new Entry(index, part.line, preview(part.sql), result, nanos));
+        if (updates > 0) updateCount += updates;
+        if (error) errorCount++;
+        // chunked for fast scripts, but slow statements still show up promptly
+        if (pending.size() >= 500 || System.nanoTime() - lastPublish > 200_000_000L) publish();
+    }
+
+    void fail(Throwable t) {
+        failure = t;
+    }
+
+    /** Publishes the last rows, then completes finished() after them on the EDT. */
+    void finish() {
+        publish();
+        SwingUtilities.invokeLater(() -> finished.complete(null));
+    }
+
+    /** Hands the rows collected so far to the EDT. */
+    void publish() {
+        if (pending.isEmpty()) return;
+        List<Entry> chunk = pending;
+        pending = new ArrayList<>();
+        lastPublish = System.nanoTime();
+        SwingUtilities.invokeLater(() -> {
+            int first = rows.size();
+            rows.addAll(chunk);
+            fireTableRowsInserted(first, rows.size() - 1);
+        });
+    }
+
+    private static String preview(String sql) {
+        String flat = sql.length() > PREVIEW_CHARS ? sql.substring(0, PREVIEW_CHARS) + "..." : sql;
+        return flat.replaceAll("\\s+", " ");
+    }
+
+    private static final class Entry {
+        final int index;
+        final int line;
+        final String preview;
+        final String result;
+        final long nanos;
+
+        Entry(int index, int line, String preview, String result, long nanos) {
+            this.index = index;
+            this.line = line;
+            this.preview = preview;
+            this.result = result;
+            this.nanos = nanos;
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package db;
+
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Runs a split script on one connection, pooled or a tab's session. Consecutive INSERT / UPDATE /
+ * DELETE statements are sent with addBatch/executeBatch, script.batchSize at a
+ * time, so a seed script costs one round trip per batch instead of one per
+ * row. script.transaction picks the commit points:
+ * <ul>
+ *   <li>{@code autocommit} - every statement commits on its own</li>
+ *   <li>{@code batch} - commit after each batch and each other statement (default)</li>
+ *   <li>{@code script} - one transaction, rolled back if the script stops on an error</li>
+ * </ul>
+ * On an editor tab's session, a script that begins a transaction (BEGIN,
+ * START TRANSACTION, SET autocommit=0), or runs while one is open, manages it
+ * itself: nothing is committed or rolled back for it, and the transaction
+ * stays open across runs until COMMIT or ROLLBACK.
+ */
+public class ScriptRunner {
+    private static final Pattern AUTOCOMMIT_OFF = Pattern.compile("SET (SESSION |@@)?AUTOCOMMIT ?= ?(0|OFF|FALSE)");
+    private static final Pattern AUTOCOMMIT_ON = Pattern.compile("SET (SESSION |@@)?AUTOCOMMIT ?= ?(1|ON|TRUE)");
+
+    /**
+     * Starts the script on the query executor. The result future completes at
+     * once with the report, which fills while the script runs; its finished()
+     * future completes at the end, with errors and cancellation recorded in it.
+     */
+    public static QueryExecution<ScriptResultModel> submit(List<SqlScript.Part> parts) {
+        return submit(parts, Collections.emptyMap());
+    }
+
+    /** Statements with :name or ? placeholders run as prepared statements bound from values. */
+    public static QueryExecution<ScriptResultModel> submit(List<SqlScript.Part> parts, Map<String, Object> values) {
+        return submit(DBConnection.active(), parts, values);
+    }
+
+    /** Runs on a connection from source: a profile's pool or an editor tab's session. */
+    public static QueryExecution<ScriptResultModel> submit(ConnectionSource source, List<SqlScript.Part> parts,
+                                                           Map<String, Object> values) {
+        QueryExecution<ScriptResultModel> exec = new QueryExecution<>(parts.size() + " statements");
+        ScriptResultModel model = new ScriptResultModel(parts.size());
+        exec.result().complete(model);
+        QueryExecutor.EXECUTOR.execute(() -> {
+            try {
+                run(source, parts, values, exec, model);
+            } catch (SQLException ex) {
+                model.fail(exec.isCancelled() ? exec.cancelledException() : ex);
+            } catch (RuntimeException ex) {
+                model.fail(ex);
+            }
+            exec.finished();
+            model.finish();
+            QueryHistory.record("script", source, scriptText(parts), exec, model.getFailure());
+        });
+        return exec;
+    }
+
+    private static void run(ConnectionSource source, List<SqlScript.Part> parts, Map<String, Object> values,
+                            QueryExecution<ScriptResultModel> exec, ScriptResultModel model) throws SQLException {
+        int batchSize = Math.max(1, Settings.getInt("script.batchSize", 1000));
+        long batchMaxChars = Math.max(1, Settings.getInt("script.batchMaxMb", 16)) * 1024L * 1024L;
+        String mode = Settings.get("script.transaction", "batch").toLowerCase(Locale.ROOT);
+        boolean stopOnError = Settings.getBoolean("script.stopOnError", true);
+        ConnectionPool.Session session = source instanceof ConnectionPool.Session ? (ConnectionPool.Session) source : null;
+        boolean manual = session != null && (session.isTransactionOpen() || beginsTransaction(parts));
+        boolean autoCommit = manual || "autocommit".equals(mode);
+        boolean commitEach = !manual && "batch".equals(mode);
+
+        try (Connection conn = source.getConnection();
+             Statement stmt = conn.createStatement()) {
+            exec.connected();
+            exec.attach(stmt);
+            int timeout = Settings.getInt("query.timeoutSeconds", 0);
+            if (timeout > 0) {
+                stmt.setQueryTimeout(timeout);
+            }
+            if (!manual) conn.setAutoCommit(autoCommit);
+            Runner runner = new Runner(conn, stmt, values, exec, model, stopOnError, session);
+            try {
+                // the batch's parts are kept here so a lazily read script (a large file) reads each once
+                List<SqlScript.Part> batch = new ArrayList<>();
+                int batchStart = -1;
+                long batchChars = 0;
+                for (int i = 0; i < parts.size(); i++) {
+                    SqlScript.Part p = parts.get(i);
+                    if (batchSize > 1 && SqlScript.isBatchable(p.sql) && !SqlParameters.hasParameters(p.sql)) {
+                        if (batchStart < 0) batchStart = i;
+                        stmt.addBatch(p.sql);
+                        batch.add(p);
+                        batchChars += p.sql.length();
+                        // dumps have multi-megabyte extended INSERTs, so cap the batch's size too
+                        if (batch.size() >= batchSize || batchChars >= batchMaxChars) {
+                            runner.flush(batch, batchStart);
+                            batch.clear();
+                            batchStart = -1;
+                            batchChars = 0;
+                            if (commitEach) conn.commit();
+                        }
+                        continue;
+                    }
+                    if (batchStart >= 0) {
+                        runner.flush(batch, batchStart);
+                        batch.clear();
+                        batchStart = -1;
+                        batchChars = 0;
+                        if (commitEach) conn.commit();
+                    }
+                    runner.single(p, i);
+                    if (commitEach) conn.commit();
+                }
+                if (batchStart >= 0) {
+                    runner.flush(batch, batchStart);
+                }
+                if (!autoCommit) conn.commit();
+            } catch (SQLException ex) {
+                if (!autoCommit) {
+                    try {
+                        conn.rollback();
+                    } catch (SQLException rollbackError) {
+                        System.err.println("Rollback failed: " + rollbackError.getMessage());
+                    }
+                }
+                throw ex;
+            } finally {
+                // pooled connections are reset on release; a session idles in autocommit mode
+                if (session != null && !autoCommit && !conn.isClosed()) conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    /** The statements as they would be re-run from the history, only as much as the history keeps. */
+    private static String scriptText(List<SqlScript.Part> parts) {
+        if (parts.size() == 1) return parts.get(0).sql;
+        int maxChars = Math.max(1000, Settings.getInt("history.maxSqlChars", 20_000));
+        StringBuilder sb = new StringBuilder();
+        for (SqlScript.Part p : parts) {
+            sb.append(p.sql).append(";\n");
+            if (sb.length() > maxChars) break;
+        }
+        return sb.toString();
+    }
+
+    private static boolean beginsTransaction(List<SqlScript.Part> parts) {
+        for (SqlScript.Part p : parts) {
+            if (transactionEffect(p.sql) > 0) return true;
+        }
+        return false;
+    }
+
+    /** 1 if sql begins a transaction, -1 if it ends one, else 0. */
+    private static int transactionEffect(String sql) {
+        String first = SqlScript.firstWord(sql);
+        if (!first.equals("BEGIN") && !first.equals("START") && !first.equals("SET")
+                && !first.equals("COMMIT") && !first.equals("ROLLBACK")) {
+            return 0;
+        }
+        String s = SqlScript.normalize(sql).toUpperCase(Locale.ROOT);
+        if (s.equals("BEGIN") || s.startsWith("BEGIN WORK") || s.startsWith("BEGIN TRANSACTION")
+                || s.startsWith("START TRANSACTION") || AUTOCOMMIT_OFF.matcher(s).matches()) {
+            return 1;
+        }
+        if ((s.startsWith("COMMIT") || s.startsWith("ROLLBACK")) && !s.startsWith("ROLLBACK TO")
+                || AUTOCOMMIT_ON.matcher(s).matches()) {
+            return -1;
+        }
+        return 0;
+    }
+
+    /** Records what a statement run in a session did to its transaction and session state. */
+    private static void noteSessionEffect(ConnectionPool.Session session, String sql) {
+        int effect = transactionEffect(sql);
+        if (effect != 0) {
+            session.setTransactionOpen(effect > 0);
+        }
+        String first = SqlScript.firstWord(sql);
+        if (first.equals("USE") || first.equals("SET")
+                || (first.equals("CREATE") && SqlScript.normalize(sql).toUpperCase(Locale.ROOT).startsWith("CREATE TEMPORARY"))) {
+            session.markStateChanged();
+        }
+    }
+
+    /** Per-run state shared by batched and single statements. */
+    private static final class Runner {
+        private final Connection conn;
+        private final Statement stmt;
+        private final Map<String, Object> values;
+        private final QueryExecution<ScriptResultModel> exec;
+        private final ScriptResultModel model;
+        private final boolean stopOnError;
+        private final ConnectionPool.Session session;
+
+        Runner(Connection conn, Statement stmt, Map<String, Object> values,
+               QueryExecution<ScriptResultModel> exec, ScriptResultModel model, boolean stopOnError,
+               ConnectionPool.Session session) {
+            this.conn = conn;
+            this.stmt = stmt;
+            this.values = values;
+            this.exec = exec;
+            this.model = model;
+            this.stopOnError = stopOnError;
+            this.session = session;
+        }
+
+        /** Executes the batch already added to the statement; from is the index of its first part. */
+        void flush(List<SqlScript.Part> batch, int from) throws SQLException {
+            int size = batch.size();
+            long start = System.nanoTime();
+            int[] counts;
+            SQLException error = null;
+            try {
+                counts = stmt.executeBatch();
+            } catch (BatchUpdateException ex) {
+                if (exec.isCancelled()) throw exec.cancelledException();
+                counts = ex.getUpdateCounts() == null ? new int[0] : ex.getUpdateCounts();
+                error = ex;
+            } finally {
+                stmt.clearBatch();
+            }
+            for (SqlScript.Part p : batch) {
+                ResultCache.invalidate(p.sql);
+            }
+            long each = (System.nanoTime() - start) / size;
+            String suffix = size > 1 ? " (batch of " + size + ")" : "";
+            int firstSkipped = -1;
+            for (int k = 0; k < size; k++) {
+                SqlScript.Part p = batch.get(k);
+                if (k >= counts.length) {
+                    // the driver stopped at the failing statement
+                    if (firstSkipped < 0) {
+                        firstSkipped = k;
+                        model.add(from + k, p, "Error: " + error.getMessage(), each, 0, true);
+                    } else if (stopOnError) {
+                        model.add(from + k, p, "Not executed", 0, 0, false);
+                    }
+                    continue;
+                }
+                int c = counts[k];
+                if (c == Statement.EXECUTE_FAILED) {
+                    model.add(from + k, p, "Error: " + (error != null ? error.getMessage() : "failed"), each, 0, true);
+                } else if (c == Statement.SUCCESS_NO_INFO) {
+                    model.add(from + k, p, "OK" + suffix, each, 0, false);
+                } else {
+                    model.add(from + k, p, c + " rows affected" + suffix, each, c, false);
+                }
+                exec.rowFetched();
+            }
+            if (error != null && stopOnError) {
+                throw error;
+            }
+            // keep going after the statement the driver stopped at, one by one
+            if (firstSkipped >= 0) {
+                for (int k = firstSkipped + 1; k < size; k++) {
+                    single(batch.get(k), from + k);
+                }
+            }
+        }
+
+        void single(SqlScript.Part p, int index) throws SQLException {
+            if (exec.isCancelled()) throw exec.cancelledException();
+            long start = System.nanoTime();
+            SqlParameters params = SqlParameters.parse(p.sql);
+            PreparedStatement prepared = null;
+            try {
+                Statement target = stmt;
+                boolean isResultSet;
+                if (!params.isEmpty()) {
+                    prepared = conn.prepareStatement(params.jdbcSql);
+                    exec.attach(prepared);   // so Stop cancels it
+                    params.bind(prepared, values);
+                    target = prepared;
+                    isResultSet = prepared.execute();
+                } else {
+                    isResultSet = stmt.execute(p.sql);
+                }
+                boolean returnedRows = false;
+                long rows = 0;
+                long updates = -1;
+                while (true) {
+                    if (isResultSet) {
+                        returnedRows = true;
+                        try (ResultSet rs = target.getResultSet()) {
+                            while (rs.next()) rows++;
+                        }
+                    } else {
+                        int c = target.getUpdateCount();
+                        if (c == -1) break;
+                        updates = Math.max(updates, 0) + c;
+                    }
+                    isResultSet = target.getMoreResults();
+                }
+                if (!SqlScript.isQuery(p.sql)) {
+                    ResultCache.invalidate(p.sql);
+                }
+                if (session != null) {
+                    noteSessionEffect(session, p.sql);
+                }
+                String result;
+                if (returnedRows) {
+                    result = rows + " rows returned";
+                } else if (updates > 0 || (updates == 0 && SqlScript.isBatchable(p.sql))) {
+                    result = updates + " rows affected";
+                } else {
+                    result = "OK";   // DDL and session statements report 0
+                }
+                model.add(index, p, result, System.nanoTime() - start, Math.max(updates, 0), false);
+            } catch (SQLException ex) {
+                if (exec.isCancelled()) throw exec.cancelledException();
+                model.add(index, p, "Error: " + ex.getMessage(), System.nanoTime() - start, 0, true);
+                if (stopOnError) throw ex;
+            } finally {
+                if (prepared != null) {
+                    prepared.close();
+                    exec.attach(stmt);
+                }
+            }
+            exec.rowFetched();
+        }
+    }
+}
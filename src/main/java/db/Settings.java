@@ -0,0 +1,64 @@
+package db;
+
+import java.util.Properties;
+
+/**
+ * Typed access to the values loaded from config.properties.
+ * Unparseable values fall back to the default with a warning.
+ */
+public class Settings {
+    private static Properties props = new Properties();
+
+    public static void load(Properties p) {
+        props = (p != null) ? p : new Properties();
+    }
+
+    public static Properties all() {
+        return props;
+    }
+
+    public static String get(String key, String def) {
+        String v = props.getProperty(key);
+        return (v == null || v.trim().isEmpty()) ? def : v.trim();
+    }
+
+    public static int getInt(String key, int def) {
+        return getInt(props, key, def);
+    }
+
+    public static long getLong(String key, long def) {
+        return getLong(props, key, def);
+    }
+
+    public static boolean getBoolean(String key, boolean def) {
+        return getBoolean(props, key, def);
+    }
+
+    public static int getInt(Properties p, String key, int def) {
+        String v = p.getProperty(key);
+        if (v == null || v.trim().isEmpty()) return def;
+        try {
+            return Integer.parseInt(v.trim());
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid value for " + key + ": " + v + ", using " + def);
+            return def;
+        }
+    }
+
+    public static long getLong(Properties p, String key, long def) {
+        String v = p.getProperty(key);
+        if (v == null || v.trim().isEmpty()) return def;
+        try {
+            return Long.parseLong(v.trim());
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid value for " + key + ": " + v + ", using " + def);
+            return def;
+        }
+    }
+
+    public static boolean getBoolean(Properties p, String key, boolean def) {
+        String v = p.getProperty(key);
+        if (v == null || v.trim().isEmpty()) return def;
+        return Boolean.parseBoolean(v.trim());
+    }
+}
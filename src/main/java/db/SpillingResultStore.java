@@ -0,0 +1,397 @@
+package db;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Result store that keeps rows in a {@link ColumnarResultStore} until
+ * result.spillThresholdMb of heap is used, then writes further rows in a
+ * compact tagged binary format to a temp file. The file is mapped in fixed
+ * size segments and a row-offset index gives O(1) access to any row.
+ */
+public class SpillingResultStore implements ResultStore {
+    private static final int SEGMENT_SHIFT = 26;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+    private static final long SEGMENT_MASK = SEGMENT_SIZE - 1;
+    private static final int CHUNK_SHIFT = ColumnarResultStore.CHUNK_SHIFT;
+    private static final int CHUNK_MASK = ColumnarResultStore.CHUNK_MASK;
+
+    // value tags
+    private static final byte NULL = 0;
+    private static final byte INT = 1;
+    private static final byte LONG = 2;
+    private static final byte DOUBLE = 3;
+    private static final byte FLOAT = 4;
+    private static final byte STRING = 5;
+    private static final byte BYTES = 6;
+    private static final byte DECIMAL = 7;
+    private static final byte BIGINT = 8;
+    private static final byte BOOLEAN = 9;
+    private static final byte SQL_DATE = 10;
+    private static final byte SQL_TIME = 11;
+    private static final byte TIMESTAMP = 12;
+    private static final byte LOCAL_DATE = 13;
+    private static final byte LOCAL_TIME = 14;
+    private static final byte LOCAL_DATETIME = 15;
+
+    private final ColumnarResultStore heap;
+    private final long heapBudget;
+    private final int columnCount;
+    private volatile int rowCount;
+    private volatile int heapRows = Integer.MAX_VALUE;   // rows before the spill point
+
+    private Path file;
+    private FileChannel channel;
+    private long writePos;
+    private long[][] offsets = new long[8][];
+    private MappedByteBuffer[] segments = new MappedByteBuffer[4];
+    private ByteBuffer rowBuf = ByteBuffer.allocate(64 * 1024);
+    private final Map<Integer, Object[]> oversize = new ConcurrentHashMap<>();
+    private volatile DecodedRow lastRow;
+
+    public SpillingResultStore(ResultSetMetaData meta) throws SQLException {
+        heap = new ColumnarResultStore(meta);
+        columnCount = heap.getColumnCount();
+        heapBudget = Settings.getLong("result.spillThresholdMb", 64) * 1024 * 1024;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return columnCount;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return heap.getColumnName(column);
+    }
+
+    @Override
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public Object getValue(int row, int column) {
+        if (row < heapRows) {
+            return heap.getValue(row, column);
+        }
+        DecodedRow d = lastRow;
+        if (d == null || d.row != row) {
+            // cells are painted row by row, so decode the whole row once
+            d = new DecodedRow(row, readRow(row));
+            lastRow = d;
+        }
+        return d.values[column];
+    }
+
+    @Override
+    public Object[] getRow(int row) {
+        if (row < heapRows) {
+            return heap.getRow(row);
+        }
+        // no lastRow update: scans from other threads must not evict the painted row
+        DecodedRow d = lastRow;
+        return (d != null && d.row == row) ? d.values : readRow(row);
+    }
+
+    /** The in-memory part of the result: rows below {@link #heapRows()}. */
+    ColumnarResultStore heap() {
+        return heap;
+    }
+
+    int heapRows() {
+        return Math.min(heapRows, rowCount);
+    }
+
+    @Override
+    public String getCellText(int row, int column, int maxChars) {
+        if (row < heapRows) {
+            return heap.getCellText(row, column, maxChars);
+        }
+        DecodedRow d = lastRow;
+        long offset = offsets[row >>> CHUNK_SHIFT][row & CHUNK_MASK];
+        if ((d != null && d.row == row) || offset < 0) {
+            return CellFormat.text(getValue(row, column), maxChars);
+        }
+        ByteBuffer b = segments[(int) (offset >>> SEGMENT_SHIFT)].duplicate();
+        b.position((int) (offset & SEGMENT_MASK));
+        for (int i = 0; i < column; i++) {
+            skipValue(b);
+        }
+        byte tag = b.get(b.position());
+        if (tag != STRING && tag != BYTES) {
+            return CellFormat.text(decodeValue(b), maxChars);
+        }
+        // long text and binary: map in only the bytes that can be shown
+        b.get();
+        int length = b.getInt();
+        int take = Math.min(length, tag == STRING ? maxChars * 4 : maxChars);
+        byte[] prefix = new byte[take];
+        b.get(prefix);
+        if (tag == BYTES) {
+            return CellFormat.hex(prefix, length, maxChars);
+        }
+        String head = new String(prefix, StandardCharsets.UTF_8);
+        if (take == length) {
+            return CellFormat.text(head, maxChars);
+        }
+        return CellFormat.truncated(head.substring(0, Math.min(maxChars, head.length() - 1)),
+                String.format("%,d bytes", length));
+    }
+
+    @Override
+    public void appendRow(ResultSet rs) throws SQLException {
+        if (channel == null) {
+            int n = heap.getRowCount();
+            if ((n & 63) != 0 || heap.memoryBytes() < heapBudget) {
+                heap.appendRow(rs);
+                rowCount = n + 1;
+                return;
+            }
+            openFile();
+            heapRows = n;
+        }
+        int row = rowCount;
+        rowBuf.clear();
+        for (int i = 1; i <= columnCount; i++) {
+            encode(rs.getObject(i));
+        }
+        rowBuf.flip();
+        int len = rowBuf.remaining();
+        long offset;
+        if (len > SEGMENT_SIZE) {
+            offset = -1;
+            oversize.put(row, decode(rowBuf));
+        } else {
+            // rows never straddle a segment boundary
+            if ((writePos & SEGMENT_MASK) + len > SEGMENT_SIZE) {
+                writePos = ((writePos >>> SEGMENT_SHIFT) + 1) << SEGMENT_SHIFT;
+            }
+            ByteBuffer dst = segment((int) (writePos >>> SEGMENT_SHIFT)).duplicate();
+            dst.position((int) (writePos & SEGMENT_MASK));
+            dst.put(rowBuf);
+            offset = writePos;
+            writePos += len;
+        }
+        int chunk = row >>> CHUNK_SHIFT;
+        if (chunk >= offsets.length) offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        if (offsets[chunk] == null) offsets[chunk] = new long[CHUNK_MASK + 1];
+        offsets[chunk][row & CHUNK_MASK] = offset;
+        rowCount = row + 1;
+    }
+
+    private void openFile() throws SQLException {
+        try {
+            Path dir = Paths.get(Settings.get("result.spillDir", System.getProperty("java.io.tmpdir")));
+            file = Files.createTempFile(dir, "dbeditor-result-", ".bin");
+            file.toFile().deleteOnExit();
+            channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            throw new SQLException("Could not create spill file: " + e.getMessage(), e);
+        }
+    }
+
+    private MappedByteBuffer segment(int index) throws SQLException {
+        if (index >= segments.length) segments = Arrays.copyOf(segments, segments.length * 2);
+        if (segments[index] == null) {
+            try {
+                segments[index] = channel.map(FileChannel.MapMode.READ_WRITE, (long) index << SEGMENT_SHIFT, SEGMENT_SIZE);
+            } catch (IOException e) {
+                throw new SQLException("Could not map spill file: " + e.getMessage(), e);
+            }
+        }
+        return segments[index];
+    }
+
+    private Object[] readRow(int row) {
+        long offset = offsets[row >>> CHUNK_SHIFT][row & CHUNK_MASK];
+        if (offset < 0) {
+            return oversize.get(row);
+        }
+        ByteBuffer b = segments[(int) (offset >>> SEGMENT_SHIFT)].duplicate();
+        b.position((int) (offset & SEGMENT_MASK));
+        return decode(b);
+    }
+
+    private void ensure(int bytes) {
+        if (rowBuf.remaining() < bytes) {
+            int need = rowBuf.position() + bytes;
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(need, rowBuf.capacity() * 2));
+            rowBuf.flip();
+            bigger.put(rowBuf);
+            rowBuf = bigger;
+        }
+    }
+
+    private void encode(Object v) {
+        ensure(13);
+        if (v == null) {
+            rowBuf.put(NULL);
+        } else if (v instanceof Integer || v instanceof Short || v instanceof Byte) {
+            rowBuf.put(INT).putInt(((Number) v).intValue());
+        } else if (v instanceof Long) {
+            rowBuf.put(LONG).putLong((Long) v);
+        } else if (v instanceof Double) {
+            rowBuf.put(DOUBLE).putDouble((Double) v);
+        } else if (v instanceof Float) {
+            rowBuf.put(FLOAT).putFloat((Float) v);
+        } else if (v instanceof Boolean) {
+            rowBuf.put(BOOLEAN).put((byte) ((Boolean) v ? 1 : 0));
+        } else if (v instanceof byte[]) {
+            putBytes(BYTES, (byte[]) v);
+        } else if (v instanceof BigDecimal) {
+            putBytes(DECIMAL, v.toString().getBytes(StandardCharsets.US_ASCII));
+        } else if (v instanceof BigInteger) {
+            putBytes(BIGINT, v.toString().getBytes(StandardCharsets.US_ASCII));
+        } else if (v instanceof Timestamp) {
+            Timestamp t = (Timestamp) v;
+            rowBuf.put(TIMESTAMP).putLong(t.getTime()).putInt(t.getNanos());
+        } else if (v instanceof java.sql.Date) {
+            rowBuf.put(SQL_DATE).putLong(((java.sql.Date) v).getTime());
+        } else if (v instanceof Time) {
+            rowBuf.put(SQL_TIME).putLong(((Time) v).getTime());
+        } else if (v instanceof LocalDateTime) {
+            LocalDateTime t = (LocalDateTime) v;
+            rowBuf.put(LOCAL_DATETIME).putLong(t.toEpochSecond(ZoneOffset.UTC)).putInt(t.getNano());
+        } else if (v instanceof LocalDate) {
+            rowBuf.put(LOCAL_DATE).putLong(((LocalDate) v).toEpochDay());
+        } else if (v instanceof LocalTime) {
+            rowBuf.put(LOCAL_TIME).putLong(((LocalTime) v).toNanoOfDay());
+        } else {
+            // strings, and the display form of anything more exotic
+            putBytes(STRING, v.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private void putBytes(byte tag, byte[] bytes) {
+        ensure(5 + bytes.length);
+        rowBuf.put(tag).putInt(bytes.length).put(bytes);
+    }
+
+    private Object[] decode(ByteBuffer b) {
+        Object[] row = new Object[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            row[i] = decodeValue(b);
+        }
+        return row;
+    }
+
+    private static Object decodeValue(ByteBuffer b) {
+        byte tag = b.get();
+        switch (tag) {
+            case NULL: return null;
+            case INT: return b.getInt();
+            case LONG: return b.getLong();
+            case DOUBLE: return b.getDouble();
+            case FLOAT: return b.getFloat();
+            case BOOLEAN: return b.get() != 0;
+            case BYTES: return getBytes(b);
+            case DECIMAL: return new BigDecimal(new String(getBytes(b), StandardCharsets.US_ASCII));
+            case BIGINT: return new BigInteger(new String(getBytes(b), StandardCharsets.US_ASCII));
+            case TIMESTAMP: {
+                Timestamp t = new Timestamp(b.getLong());
+                t.setNanos(b.getInt());
+                return t;
+            }
+            case SQL_DATE: return new java.sql.Date(b.getLong());
+            case SQL_TIME: return new Time(b.getLong());
+            case LOCAL_DATETIME: return LocalDateTime.ofEpochSecond(b.getLong(), b.getInt(), ZoneOffset.UTC);
+            case LOCAL_DATE: return LocalDate.ofEpochDay(b.getLong());
+            case LOCAL_TIME: return LocalTime.ofNanoOfDay(b.getLong());
+            default: return new String(getBytes(b), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static void skipValue(ByteBuffer b) {
+        byte tag = b.get();
+        int skip;
+        switch (tag) {
+            case NULL: skip = 0; break;
+            case BOOLEAN: skip = 1; break;
+            case INT:
+            case FLOAT: skip = 4; break;
+            case TIMESTAMP:
+            case LOCAL_DATETIME: skip = 12; break;
+            case BYTES:
+            case DECIMAL:
+            case BIGINT:
+            case STRING: skip = b.getInt(); break;
+            default: skip = 8; break;   // LONG, DOUBLE, dates and times
+        }
+        b.position(b.position() + skip);
+    }
+
+    private static byte[] getBytes(ByteBuffer b) {
+        byte[] bytes = new byte[b.getInt()];
+        b.get(bytes);
+        return bytes;
+    }
+
+    @Override
+    public long memoryBytes() {
+        long index = 0;
+        for (long[] chunk : offsets) {
+            if (chunk != null) index += 16 + 8L * chunk.length;
+        }
+        return heap.memoryBytes() + index;
+    }
+
+    @Override
+    public long diskBytes() {
+        return writePos;
+    }
+
+    @Override
+    public String describeMemory() {
+        String s = heap.describeMemory();
+        if (channel == null) return s;
+        return s + "; " + (rowCount - heapRows) + " rows spilled to disk ("
+                + ColumnarResultStore.formatBytes(writePos) + ")";
+    }
+
+    @Override
+    public void close() {
+        if (channel == null) return;
+        // drop the mappings first; a mapped file can't be deleted on Windows
+        Arrays.fill(segments, null);
+        try {
+            channel.close();
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            // still mapped until the buffers are collected; removed on exit instead
+            file.toFile().deleteOnExit();
+            System.err.println("Could not remove spill file " + file + " yet: " + e.getMessage());
+        }
+    }
+
+    private static final class DecodedRow {
+        final int row;
+        final Object[] values;
+
+        DecodedRow(int row, Object[] values) {
+            this.row = row;
+            this.values = values;
+        }
+    }
+}
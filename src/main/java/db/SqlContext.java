@@ -0,0 +1,302 @@
+package db;
+
+import org.fife.ui.rsyntaxtextarea.RSyntaxTextArea;
+import org.fife.ui.rsyntaxtextarea.Token;
+import org.fife.ui.rsyntaxtextarea.TokenTypes;
+
+import javax.swing.text.BadLocationException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * What the caret is sitting on inside the current SQL statement: a table
+ * position (after FROM/JOIN/UPDATE/INTO), a column position (SELECT list,
+ * WHERE, ON, ...), or anything else. Works from the per-line token lists
+ * RSyntaxTextArea already maintains and only looks at the lines of the
+ * statement around the caret, so large scripts cost no more than small ones.
+ */
+public class SqlContext {
+    public enum Kind { TABLE, COLUMN, ANY }
+
+    private static final int MAX_STATEMENT_LINES = 400;
+
+    private static final Set<String> TABLE_KEYWORDS = new HashSet<>(Arrays.asList(
+            "FROM", "JOIN", "UPDATE", "INTO", "TABLE"));
+    private static final Set<String> COLUMN_KEYWORDS = new HashSet<>(Arrays.asList(
+            "SELECT", "WHERE", "ON", "HAVING", "SET", "BY", "AND", "OR", "NOT", "DISTINCT",
+            "CASE", "WHEN", "THEN", "ELSE"));
+    private static final Set<String> RESET_KEYWORDS = new HashSet<>(Arrays.asList(
+            "AS", "LIMIT", "OFFSET", "VALUES", "UNION", "ASC", "DESC"));
+    private static final Set<String> KEYWORDS = new HashSet<>(Arrays.asList(
+            "INNER", "LEFT", "RIGHT", "OUTER", "CROSS", "FULL", "NATURAL", "USING", "GROUP", "ORDER",
+            "INSERT", "DELETE", "CREATE", "DROP", "ALTER", "IN", "IS", "NULL", "LIKE", "BETWEEN",
+            "EXISTS", "END", "WITH", "STRAIGHT_JOIN"));
+
+    static {
+        KEYWORDS.addAll(TABLE_KEYWORDS);
+        KEYWORDS.addAll(COLUMN_KEYWORDS);
+        KEYWORDS.addAll(RESET_KEYWORDS);
+    }
+
+    public final Kind kind;
+    /** Identifier typed before a '.', e.g. "o" in "o.cr", or null. */
+    public final String qualifier;
+    /** Tables referenced anywhere in the statement, with their aliases. */
+    public final List<TableRef> tables;
+
+    private SqlContext(Kind kind, String qualifier, List<TableRef> tables) {
+        this.kind = kind;
+        this.qualifier = qualifier;
+        this.tables = tables;
+    }
+
+    /** Table whose name or alias matches name, case-insensitively, or null. */
+    public TableRef resolve(String name) {
+        for (TableRef t : tables) {
+            if (name.equalsIgnoreCase(t.alias)) return t;
+        }
+        for (TableRef t : tables) {
+            if (name.equalsIgnoreCase(t.table)) return t;
+        }
+        return null;
+    }
+
+    public static SqlContext at(RSyntaxTextArea textArea, int caret) {
+        try {
+            return parse(textArea, caret);
+        } catch (BadLocationException e) {
+            return new SqlContext(Kind.ANY, null, Collections.emptyList());
+        }
+    }
+
+    private static SqlContext parse(RSyntaxTextArea textArea, int caret) throws BadLocationException {
+        // the word being completed, and a qualifier in front of it
+        int wordStart = caret;
+        while (wordStart > 0 && isIdentifierChar(textArea.getText(wordStart - 1, 1).charAt(0))) {
+            wordStart--;
+        }
+        String qualifier = null;
+        int contextEnd = wordStart;
+        if (wordStart > 0 && textArea.getText(wordStart - 1, 1).charAt(0) == '.') {
+            int q = wordStart - 1;
+            boolean quoted = q > 0 && textArea.getText(q - 1, 1).charAt(0) == '`';
+            int end = quoted ? q - 1 : q;
+            int start = end;
+            while (start > 0) {
+                char c = textArea.getText(start - 1, 1).charAt(0);
+                if (quoted ? c == '`' : !isIdentifierChar(c)) break;
+                start--;
+            }
+            qualifier = textArea.getText(start, end - start);
+            contextEnd = quoted ? start - 1 : start;
+        }
+
+        List<Word> before = statementBefore(textArea, contextEnd);
+        List<Word> after = statementAfter(textArea, caret);
+        List<Word> all = new ArrayList<>(before);
+        all.addAll(after);
+        List<TableRef> tables = tableRefs(all);
+
+        Kind kind = (qualifier != null) ? Kind.COLUMN : clauseAt(before);
+        return new SqlContext(kind, qualifier, tables);
+    }
+
+    private static boolean isIdentifierChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+    }
+
+    /** Words from the start of the statement up to (not including) offset end. */
+    private static List<Word> statementBefore(RSyntaxTextArea textArea, int end) throws BadLocationException {
+        int endLine = textArea.getLineOfOffset(end);
+        List<List<Word>> lines = new ArrayList<>();
+        for (int line = endLine; line >= 0 && line > endLine - MAX_STATEMENT_LINES; line--) {
+            List<Word> words = words(textArea, line);
+            words.removeIf(w -> w.offset >= end);
+            int cut = -1;
+            for (int i = 0; i < words.size(); i++) {
+                if (words.get(i).is(";")) cut = i;
+            }
+            lines.add(cut < 0 ? words : words.subList(cut + 1, words.size()));
+            if (cut >= 0) break;
+        }
+        List<Word> result = new ArrayList<>();
+        for (int i = lines.size() - 1; i >= 0; i--) {
+            result.addAll(lines.get(i));
+        }
+        return result;
+    }
+
+    /** Words from offset start to the end of the statement. */
+    private static List<Word> statementAfter(RSyntaxTextArea textArea, int start) throws BadLocationException {
+        int startLine = textArea.getLineOfOffset(start);
+        int lastLine = Math.min(textArea.getLineCount() - 1, startLine + MAX_STATEMENT_LINES);
+        List<Word> result = new ArrayList<>();
+        for (int line = startLine; line <= lastLine; line++) {
+            for (Word w : words(textArea, line)) {
+                if (w.offset < start) continue;
+                if (w.is(";")) return result;
+                result.add(w);
+            }
+        }
+        return result;
+    }
+
+    /** Non-blank, non-comment tokens of one line; backtick-quoted names become one word. */
+    private static List<Word> words(RSyntaxTextArea textArea, int line) {
+        List<Word> words = new ArrayList<>();
+        StringBuilder quoted = null;
+        int quoteStart = 0;
+        for (Token t = textArea.getTokenListForLine(line); t != null && t.isPaintable(); t = t.getNextToken()) {
+            if (quoted != null) {
+                if (t.isSingleChar('`')) {
+                    words.add(new Word(quoted.toString(), quoteStart, true, false));
+                    quoted = null;
+                } else {
+                    quoted.append(t.getLexeme());
+                }
+                continue;
+            }
+            if (t.isWhitespace() || t.isComment()) continue;
+            if (t.isSingleChar('`')) {
+                quoted = new StringBuilder();
+                quoteStart = t.getOffset();
+                continue;
+            }
+            String lexeme = t.getLexeme();
+            switch (t.getType()) {
+                case TokenTypes.LITERAL_STRING_DOUBLE_QUOTE:
+                    // ANSI-quoted identifier
+                    words.add(new Word(lexeme.replace("\"", ""), t.getOffset(), true, false));
+                    break;
+                case TokenTypes.LITERAL_CHAR:
+                case TokenTypes.LITERAL_NUMBER_DECIMAL_INT:
+                case TokenTypes.LITERAL_NUMBER_HEXADECIMAL:
+                    words.add(new Word(lexeme, t.getOffset(), false, true));
+                    break;
+                default:
+                    words.add(new Word(lexeme, t.getOffset(), false, false));
+                    break;
+            }
+        }
+        return words;
+    }
+
+    private enum State { ANY, TABLE, AFTER_TABLE, COLUMN }
+
+    private static Kind clauseAt(List<Word> words) {
+        State state = State.ANY;
+        String lastTableKeyword = null;
+        for (Word w : words) {
+            String u = w.upper();
+            if (!w.quoted && TABLE_KEYWORDS.contains(u)) {
+                state = State.TABLE;
+                lastTableKeyword = u;
+            } else if (!w.quoted && COLUMN_KEYWORDS.contains(u)) {
+                state = State.COLUMN;
+            } else if (!w.quoted && RESET_KEYWORDS.contains(u)) {
+                state = State.ANY;
+            } else if (w.is(",")) {
+                if (state == State.AFTER_TABLE) state = State.TABLE;
+            } else if (w.is(".")) {
+                if (state == State.AFTER_TABLE) state = State.TABLE;   // catalog.table
+            } else if (w.is("(")) {
+                // INSERT INTO t (col, ...)
+                if (state == State.AFTER_TABLE && "INTO".equals(lastTableKeyword)) state = State.COLUMN;
+            } else if (w.isName()) {
+                if (state == State.TABLE) state = State.AFTER_TABLE;
+            }
+        }
+        switch (state) {
+            case TABLE: return Kind.TABLE;
+            case COLUMN: return Kind.COLUMN;
+            default: return Kind.ANY;
+        }
+    }
+
+    private static List<TableRef> tableRefs(List<Word> words) {
+        List<TableRef> refs = new ArrayList<>();
+        boolean expectTable = false;
+        boolean inTableList = false;
+        for (int i = 0; i < words.size(); i++) {
+            Word w = words.get(i);
+            String u = w.upper();
+            if (!w.quoted && TABLE_KEYWORDS.contains(u)) {
+                expectTable = true;
+                inTableList = true;
+            } else if (w.is(",") && inTableList) {
+                expectTable = true;
+            } else if (expectTable && w.isName()) {
+                String catalog = null;
+                String table = w.text;
+                if (i + 2 < words.size() && words.get(i + 1).is(".") && words.get(i + 2).isName()) {
+                    catalog = table;
+                    table = words.get(i + 2).text;
+                    i += 2;
+                }
+                String alias = null;
+                int j = i + 1;
+                if (j < words.size() && "AS".equals(words.get(j).upper())) j++;
+                if (j < words.size() && words.get(j).isName()) {
+                    alias = words.get(j).text;
+                    i = j;
+                }
+                refs.add(new TableRef(catalog, table, alias));
+                expectTable = false;
+            } else if (!w.quoted && KEYWORDS.contains(u) && !"AS".equals(u)) {
+                expectTable = false;
+                if (!u.equals("INNER") && !u.equals("LEFT") && !u.equals("RIGHT") && !u.equals("OUTER")
+                        && !u.equals("CROSS") && !u.equals("FULL") && !u.equals("NATURAL")) {
+                    inTableList = false;
+                }
+            } else if (w.is("(")) {
+                expectTable = false;
+            }
+        }
+        return refs;
+    }
+
+    public static final class TableRef {
+        public final String catalog;
+        public final String table;
+        public final String alias;
+
+        TableRef(String catalog, String table, String alias) {
+            this.catalog = catalog;
+            this.table = table;
+            this.alias = alias;
+        }
+    }
+
+    private static final class Word {
+        final String text;
+        final int offset;
+        final boolean quoted;
+        final boolean literal;
+
+        Word(String text, int offset, boolean quoted, boolean literal) {
+            this.text = text;
+            this.offset = offset;
+            this.quoted = quoted;
+            this.literal = literal;
+        }
+
+        boolean is(String s) {
+            return !quoted && !literal && text.equals(s);
+        }
+
+        String upper() {
+            return text.toUpperCase(Locale.ROOT);
+        }
+
+        boolean isName() {
+            if (quoted) return true;
+            if (literal || text.isEmpty() || !isIdentifierChar(text.charAt(0))) return false;
+            return !KEYWORDS.contains(upper());
+        }
+    }
+}
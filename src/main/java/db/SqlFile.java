@@ -0,0 +1,514 @@
+package db;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A SQL file too large for the editor, e.g. a mysqldump, read through
+ * memory-mapped I/O. A background pass indexes where every statement starts
+ * and ends, with the same rules as {@link SqlScript#split} (quotes, comments,
+ * DELIMITER lines), plus the offset of every 64th line. Text is decoded only
+ * for what is shown or run, so a window of the file can be edited and any
+ * range of statements run straight from disk.
+ */
+public class SqlFile implements Closeable {
+    private static final int SEGMENT_SHIFT = 30;   // 1 GB per mapping; a single mapping is limited to 2 GB
+    private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+    private static final int LINE_STEP = 64;
+    private static final byte[] DELIMITER_COMMAND = "DELIMITER".getBytes(StandardCharsets.US_ASCII);
+    private static final ExecutorService INDEXER = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "sql-file-index");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer[] segments;
+    private final long size;
+    private final CompletableFuture<Void> indexed = new CompletableFuture<>();
+    private volatile long scanned;
+    private volatile boolean closed;
+
+    // statement and line index; appended by the index thread, read under the lock
+    private long[] starts = new long[1024];
+    private int[] lengths = new int[1024];
+    private int[] lines = new int[1024];
+    private int count;
+    private long[] lineStarts = new long[1024];    // lines 1, 65, 129, ...
+    private int lineStartCount;
+    private int lineCount = 1;
+
+    // index thread only
+    private int scanLine = 1;
+
+    /** A slice of the file shown in the editor: whole lines, ending between statements where the index allows. */
+    public static final class Window {
+        public final long start;
+        public final long end;
+        /** 1-based line of the first character. */
+        public final int firstLine;
+        public final String text;
+        /** The window starts or ends inside a line longer than the window size; it must not be run or saved. */
+        public final boolean truncated;
+
+        Window(long start, long end, int firstLine, String text, boolean truncated) {
+            this.start = start;
+            this.end = end;
+            this.firstLine = firstLine;
+            this.text = text;
+            this.truncated = truncated;
+        }
+    }
+
+    private SqlFile(Path path, FileChannel channel) throws IOException {
+        this.path = path;
+        this.channel = channel;
+        this.size = channel.size();
+        segments = new MappedByteBuffer[(int) ((size + SEGMENT_MASK) >>> SEGMENT_SHIFT)];
+        for (int s = 0; s < segments.length; s++) {
+            long from = (long) s << SEGMENT_SHIFT;
+            segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, from, Math.min(1L << SEGMENT_SHIFT, size - from));
+        }
+        lineStarts[lineStartCount++] = 0;
+    }
+
+    /** Maps the file and starts indexing it in the background. */
+    public static SqlFile open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        SqlFile file;
+        try {
+            file = new SqlFile(path, channel);
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+        INDEXER.execute(() -> {
+            try {
+                file.index();
+                file.indexed.complete(null);
+            } catch (RuntimeException ex) {
+                if (!file.closed) System.err.println("Could not index " + path + ": " + ex);
+                file.indexed.completeExceptionally(ex);
+            }
+        });
+        return file;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /** Completes when the whole file is indexed. */
+    public CompletableFuture<Void> indexed() {
+        return indexed;
+    }
+
+    public boolean isIndexed() {
+        return indexed.isDone();
+    }
+
+    /** Bytes indexed so far. */
+    public long scanned() {
+        return scanned;
+    }
+
+    public synchronized int statementCount() {
+        return count;
+    }
+
+    /** Lines indexed so far; all of them once indexed. */
+    public synchronized int lineCount() {
+        return lineCount;
+    }
+
+    public synchronized long statementStart(int i) {
+        return starts[i];
+    }
+
+    /** Offset just past the statement, before its delimiter. */
+    public synchronized long statementEnd(int i) {
+        return starts[i] + lengths[i];
+    }
+
+    public synchronized int statementLine(int i) {
+        return lines[i];
+    }
+
+    /**
+     * Statement i for running. Its offsets can exceed an int in large files,
+     * so the part carries -1 and the line only.
+     */
+    public SqlScript.Part statement(int i) {
+        long start;
+        long end;
+        int line;
+        synchronized (this) {
+            start = starts[i];
+            end = start + lengths[i];
+            line = lines[i];
+        }
+        return new SqlScript.Part(text(start, end), -1, -1, line);
+    }
+
+    /** Statements [from, to), read from disk when the runner gets to them. */
+    public List<SqlScript.Part> statements(int from, int to) {
+        return new AbstractList<SqlScript.Part>() {
+            @Override
+            public SqlScript.Part get(int index) {
+                return statement(from + index);
+            }
+
+            @Override
+            public int size() {
+                return to - from;
+            }
+        };
+    }
+
+    /** The first maxChars of statement i on one line, for the statement list. */
+    public String preview(int i, int maxChars) {
+        long start;
+        long end;
+        synchronized (this) {
+            start = starts[i];
+            end = start + lengths[i];
+        }
+        String s = text(start, Math.min(end, start + maxChars * 4L)).replaceAll("\\s+", " ");
+        return s.length() > maxChars ? s.substring(0, maxChars) : s;
+    }
+
+    /** The statement at or after line, or the last one; -1 while none is indexed. */
+    public synchronized int statementAtLine(int line) {
+        int i = Arrays.binarySearch(lines, 0, count, line);
+        if (i >= 0) {
+            while (i > 0 && lines[i - 1] == line) i--;
+            return i;
+        }
+        // the one before may span the line
+        int next = -i - 1;
+        if (next > 0 && lineOf(starts[next - 1] + lengths[next - 1]) >= line) return next - 1;
+        return Math.min(next, count - 1);
+    }
+
+    /** Offset of the start of a 1-based line, or -1 if the index has not reached it yet. */
+    public long lineOffset(int line) {
+        long pos;
+        int at;
+        synchronized (this) {
+            if (line < 1 || line > lineCount) return -1;
+            int k = (line - 1) / LINE_STEP;
+            pos = lineStarts[k];
+            at = k * LINE_STEP + 1;
+        }
+        while (at < line && pos < size) {
+            if (byteAt(pos++) == '\n') at++;
+        }
+        return pos;
+    }
+
+    /** 1-based line of an offset. */
+    public int lineOf(long offset) {
+        long pos;
+        int line;
+        synchronized (this) {
+            int k = Arrays.binarySearch(lineStarts, 0, lineStartCount, offset);
+            if (k < 0) k = -k - 2;
+            pos = lineStarts[k];
+            line = k * LINE_STEP + 1;
+        }
+        for (; pos < offset && pos < size; pos++) {
+            if (byteAt(pos) == '\n') line++;
+        }
+        return line;
+    }
+
+    /**
+     * About maxBytes of the file from the line containing offset. The window
+     * ends at a line end, before a statement that would be cut where the
+     * index has got that far. A line longer than maxBytes is cut at a UTF-8
+     * character boundary and the window marked truncated.
+     */
+    public Window window(long offset, int maxBytes) {
+        long start = Math.max(0, Math.min(offset, size));
+        while (start > 0 && byteAt(start - 1) != '\n' && offset - start < maxBytes) start--;
+        boolean truncated = false;
+        if (start > 0 && byteAt(start - 1) != '\n') {
+            // starts inside a line longer than the window
+            while (start < size && (byteAt(start) & 0xC0) == 0x80) start++;
+            truncated = true;
+        }
+        long end = Math.min(size, start + maxBytes);
+        if (end < size) {
+            long cut = end;
+            while (cut > start && byteAt(cut - 1) != '\n') cut--;
+            if (cut > start) {
+                end = snapBeforeStatement(start, cut);
+            } else {
+                // one line longer than the window, e.g. an extended INSERT
+                while (end > start && (byteAt(end) & 0xC0) == 0x80) end--;
+                truncated = true;
+            }
+        }
+        return new Window(start, end, lineOf(start), text(start, end), truncated);
+    }
+
+    /** cut, or the start of the line of a statement that runs past it. */
+    private long snapBeforeStatement(long start, long cut) {
+        long stmtStart;
+        synchronized (this) {
+            int i = Arrays.binarySearch(starts, 0, count, cut);
+            if (i < 0) i = -i - 2;
+            if (i < 0 || starts[i] + lengths[i] < cut || starts[i] <= start) return cut;
+            stmtStart = starts[i];
+        }
+        long lineStart = stmtStart;
+        while (lineStart > start && byteAt(lineStart - 1) != '\n') lineStart--;
+        return lineStart > start ? lineStart : cut;
+    }
+
+    /** Decodes [from, to) as UTF-8. */
+    public String text(long from, long to) {
+        int length = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(0, to - from));
+        byte[] bytes = new byte[length];
+        int done = 0;
+        while (done < length) {
+            long pos = from + done;
+            ByteBuffer segment = segments[(int) (pos >>> SEGMENT_SHIFT)].duplicate();
+            int at = (int) (pos & SEGMENT_MASK);
+            int n = Math.min(length - done, segment.limit() - at);
+            segment.position(at);
+            segment.get(bytes, done, n);
+            done += n;
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Writes this file to target with [from, to) replaced by text, e.g. an edited window. */
+    public void saveWithReplacement(Path target, long from, long to, String text) throws IOException {
+        Path temp = Files.createTempFile(target.toAbsolutePath().getParent(), target.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                copy(0, from, out);
+                ByteBuffer middle = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+                while (middle.hasRemaining()) out.write(middle);
+                copy(to, size, out);
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private void copy(long from, long to, FileChannel out) throws IOException {
+        while (from < to) {
+            from += channel.transferTo(from, to - from, out);
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            channel.close();
+        } catch (IOException ex) {
+            System.err.println("Could not close " + path + ": " + ex.getMessage());
+        }
+        // the mappings are released when they are collected
+    }
+
+    private byte byteAt(long pos) {
+        return segments[(int) (pos >>> SEGMENT_SHIFT)].get((int) (pos & SEGMENT_MASK));
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\n' || b == '\t' || b == '\r' || b == '\f' || b == 0x0B;
+    }
+
+    // ---- indexing, on the index thread ----
+
+    private void index() {
+        byte[] delimiter = {';'};
+        long n = size;
+        long stmtStart = -1;
+        int stmtLine = 1;
+        boolean lineStart = true;
+        long nextReport = 0;
+        long i = 0;
+        while (i < n) {
+            if (i >= nextReport) {
+                if (closed) return;
+                scanned = i;
+                publishLineCount();
+                nextReport = i + (1 << 20);
+            }
+            byte c = byteAt(i);
+
+            // DELIMITER is a client command, only recognised at the start of a line between statements
+            if (lineStart && stmtStart < 0 && (c == 'D' || c == 'd') && startsWithIgnoreCase(i, DELIMITER_COMMAND)
+                    && i + 9 < n && isSpace(byteAt(i + 9))) {
+                long eol = indexOf((byte) '\n', i, n);
+                String d = text(i + 9, eol).trim();
+                if (!d.isEmpty()) delimiter = d.getBytes(StandardCharsets.UTF_8);
+                i = eol;
+                continue;
+            }
+            if (c == '\n') {
+                newLine(i + 1);
+                lineStart = true;
+                i++;
+                continue;
+            }
+            if (isSpace(c)) {
+                i++;
+                continue;
+            }
+            lineStart = false;
+
+            // other comments are kept inside a statement but never start one
+            if (c == '#' || (c == '-' && i + 1 < n && byteAt(i + 1) == '-' && (i + 2 >= n || isSpace(byteAt(i + 2))))) {
+                i = indexOf((byte) '\n', i, n);
+                continue;
+            }
+            if (c == '/' && i + 1 < n && byteAt(i + 1) == '*') {
+                // mysqldump's /*!40101 SET NAMES ... */ and /*!50003 CREATE TRIGGER ... */ are statements, hints are text
+                if (stmtStart < 0 && i + 2 < n && (byteAt(i + 2) == '!' || byteAt(i + 2) == '+')) {
+                    stmtStart = i;
+                    stmtLine = scanLine;
+                }
+                i = skipBlockComment(i + 2, n);
+                continue;
+            }
+
+            if (startsWith(i, delimiter)) {
+                if (stmtStart >= 0) {
+                    addStatement(stmtStart, trimEnd(stmtStart, i), stmtLine);
+                    stmtStart = -1;
+                }
+                i += delimiter.length;
+                continue;
+            }
+
+            if (stmtStart < 0) {
+                stmtStart = i;
+                stmtLine = scanLine;
+            }
+            if (c == '\'' || c == '"' || c == '`') {
+                i = skipQuoted(i, c, n);
+                continue;
+            }
+            i++;
+        }
+        if (stmtStart >= 0) {
+            addStatement(stmtStart, trimEnd(stmtStart, n), stmtLine);
+        }
+        scanned = n;
+        publishLineCount();
+    }
+
+    private void newLine(long next) {
+        scanLine++;
+        if ((scanLine - 1) % LINE_STEP == 0) {
+            synchronized (this) {
+                if (lineStartCount == lineStarts.length) lineStarts = Arrays.copyOf(lineStarts, lineStartCount * 2);
+                lineStarts[lineStartCount++] = next;
+            }
+        }
+    }
+
+    private synchronized void publishLineCount() {
+        lineCount = scanLine;
+    }
+
+    private synchronized void addStatement(long start, long end, int line) {
+        if (count == starts.length) {
+            starts = Arrays.copyOf(starts, count * 2);
+            lengths = Arrays.copyOf(lengths, count * 2);
+            lines = Arrays.copyOf(lines, count * 2);
+        }
+        starts[count] = start;
+        lengths[count] = (int) Math.min(Integer.MAX_VALUE, end - start);
+        lines[count] = line;
+        count++;
+    }
+
+    private long skipQuoted(long i, byte quote, long n) {
+        i++;
+        while (i < n) {
+            byte c = byteAt(i);
+            if (c == '\\' && quote != '`') {
+                if (i + 1 < n && byteAt(i + 1) == '\n') newLine(i + 2);
+                i += 2;
+            } else if (c == quote) {
+                // doubled quote is an escaped quote
+                if (i + 1 < n && byteAt(i + 1) == quote) {
+                    i += 2;
+                } else {
+                    return i + 1;
+                }
+            } else {
+                if (c == '\n') newLine(i + 1);
+                i++;
+            }
+        }
+        return n;
+    }
+
+    private long skipBlockComment(long i, long n) {
+        while (i < n) {
+            byte c = byteAt(i);
+            if (c == '*' && i + 1 < n && byteAt(i + 1) == '/') return i + 2;
+            if (c == '\n') newLine(i + 1);
+            i++;
+        }
+        return n;
+    }
+
+    private long indexOf(byte b, long from, long n) {
+        for (long i = from; i < n; i++) {
+            if (byteAt(i) == b) return i;
+        }
+        return n;
+    }
+
+    private boolean startsWith(long i, byte[] prefix) {
+        if (i + prefix.length > size) return false;
+        for (int k = 0; k < prefix.length; k++) {
+            if (byteAt(i + k) != prefix[k]) return false;
+        }
+        return true;
+    }
+
+    private boolean startsWithIgnoreCase(long i, byte[] upper) {
+        if (i + upper.length > size) return false;
+        for (int k = 0; k < upper.length; k++) {
+            byte b = byteAt(i + k);
+            if (b >= 'a' && b <= 'z') b -= 32;
+            if (b != upper[k]) return false;
+        }
+        return true;
+    }
+
+    private long trimEnd(long start, long end) {
+        while (end > start && isSpace(byteAt(end - 1))) end--;
+        return end;
+    }
+}
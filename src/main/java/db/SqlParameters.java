@@ -0,0 +1,159 @@
+package db;
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Placeholders of a statement: {@code :name} and plain {@code ?}. Named
+ * placeholders are rewritten to {@code ?} for JDBC; the same name may appear
+ * several times and is bound to every position. Placeholders inside quotes
+ * and comments are ignored, as are {@code ::type} casts and {@code :=}.
+ */
+public class SqlParameters {
+    private static final Pattern INTEGER = Pattern.compile("[-+]?\\d{1,18}");
+    private static final Pattern DECIMAL = Pattern.compile("[-+]?(\\d+\\.\\d*|\\.\\d+|\\d+)([eE][-+]?\\d+)?");
+
+    /** SQL with every placeholder as '?'. */
+    public final String jdbcSql;
+    /** Name for each '?' position: the name of ":name", or "1", "2", ... for plain '?'. */
+    public final List<String> positions;
+
+    private SqlParameters(String jdbcSql, List<String> positions) {
+        this.jdbcSql = jdbcSql;
+        this.positions = positions;
+    }
+
+    public boolean isEmpty() {
+        return positions.isEmpty();
+    }
+
+    /** Distinct names in order of first appearance, as the binding prompt lists them. */
+    public Set<String> names() {
+        return new LinkedHashSet<>(positions);
+    }
+
+    /**
+     * True if sql has a placeholder outside quotes and comments. Cheaper than
+     * parse, nothing is copied: a dump's INSERTs with times, URLs or JSON in
+     * their literals stay batchable.
+     */
+    public static boolean hasParameters(String sql) {
+        if (sql.indexOf('?') < 0 && sql.indexOf(':') < 0) {
+            return false;
+        }
+        int n = sql.length();
+        int i = 0;
+        while (i < n) {
+            char c = sql.charAt(i);
+            if (c == '\'' || c == '"' || c == '`') {
+                i = SqlScript.skipQuoted(sql, i, c);
+            } else if (SqlScript.isLineComment(sql, i)) {
+                int eol = sql.indexOf('\n', i);
+                i = (eol < 0) ? n : eol;
+            } else if (c == '/' && sql.startsWith("/*", i)) {
+                int close = sql.indexOf("*/", i + 2);
+                i = (close < 0) ? n : close + 2;
+            } else if (c == '?' || isNamed(sql, i)) {
+                return true;
+            } else {
+                i++;
+            }
+        }
+        return false;
+    }
+
+    public static SqlParameters parse(String sql) {
+        if (sql.indexOf('?') < 0 && sql.indexOf(':') < 0) {
+            return new SqlParameters(sql, Collections.emptyList());
+        }
+        StringBuilder out = new StringBuilder(sql.length());
+        List<String> positions = new ArrayList<>();
+        int positional = 0;
+        int n = sql.length();
+        int i = 0;
+        while (i < n) {
+            char c = sql.charAt(i);
+            if (c == '\'' || c == '"' || c == '`') {
+                int end = SqlScript.skipQuoted(sql, i, c);
+                out.append(sql, i, end);
+                i = end;
+            } else if (SqlScript.isLineComment(sql, i)) {
+                int eol = sql.indexOf('\n', i);
+                int end = (eol < 0) ? n : eol;
+                out.append(sql, i, end);
+                i = end;
+            } else if (c == '/' && sql.startsWith("/*", i)) {
+                int close = sql.indexOf("*/", i + 2);
+                int end = (close < 0) ? n : close + 2;
+                out.append(sql, i, end);
+                i = end;
+            } else if (c == '?') {
+                positions.add(String.valueOf(++positional));
+                out.append('?');
+                i++;
+            } else if (isNamed(sql, i)) {
+                int end = i + 1;
+                while (end < n && isNamePart(sql.charAt(end))) end++;
+                positions.add(sql.substring(i + 1, end));
+                out.append('?');
+                i = end;
+            } else {
+                out.append(c);
+                i++;
+            }
+        }
+        return new SqlParameters(out.toString(), positions);
+    }
+
+    /** Binds values by name to every position; a missing or null value binds SQL NULL. */
+    public void bind(PreparedStatement ps, Map<String, Object> values) throws SQLException {
+        for (int i = 0; i < positions.size(); i++) {
+            Object v = values.get(positions.get(i));
+            if (v == null) {
+                ps.setNull(i + 1, Types.NULL);
+            } else {
+                ps.setObject(i + 1, v);
+            }
+        }
+    }
+
+    /**
+     * Typed value for text from the binding prompt: NULL, whole numbers as
+     * Long, other numbers as BigDecimal, anything else as a string. Quotes
+     * around the text force a string.
+     */
+    public static Object parseValue(String text) {
+        if (text == null) return null;
+        String t = text.trim();
+        if (t.equalsIgnoreCase("NULL")) return null;
+        if (t.length() >= 2 && t.startsWith("'") && t.endsWith("'")) {
+            return t.substring(1, t.length() - 1).replace("''", "'");
+        }
+        if (INTEGER.matcher(t).matches()) return Long.parseLong(t);
+        if (DECIMAL.matcher(t).matches()) return new BigDecimal(t);
+        return text;
+    }
+
+    /** A :name placeholder at i; not a ::type cast or :=. */
+    private static boolean isNamed(String sql, int i) {
+        return sql.charAt(i) == ':' && i + 1 < sql.length() && isNameStart(sql.charAt(i + 1))
+                && (i == 0 || sql.charAt(i - 1) != ':');
+    }
+
+    private static boolean isNameStart(char c) {
+        return Character.isLetter(c) || c == '_';
+    }
+
+    private static boolean isNamePart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+}
@@ -0,0 +1,367 @@
+package db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Splits an editor buffer into statements. Delimiters inside quotes,
+ * backticks and comments are ignored, and MySQL client style
+ * {@code DELIMITER $$} lines switch the delimiter for procedure bodies.
+ * One pass over the text, no regular expressions.
+ */
+public class SqlScript {
+
+    /** One statement of the script with its offsets in the original text. */
+    public static final class Part {
+        public final String sql;
+        /** Offset of the first character of the statement. */
+        public final int start;
+        /** Offset just past the statement, before its delimiter. */
+        public final int end;
+        /** 1-based line of the first character. */
+        public final int line;
+
+        Part(String sql, int start, int end, int line) {
+            this.sql = sql;
+            this.start = start;
+            this.end = end;
+            this.line = line;
+        }
+
+        @Override
+        public String toString() {
+            return sql;
+        }
+    }
+
+    public static List<Part> split(String text) {
+        List<Part> parts = new ArrayList<>();
+        String delimiter = ";";
+        int n = text.length();
+        int stmtStart = -1;     // first non-blank, non-comment char of the current statement
+        int stmtLine = 1;
+        int line = 1;
+        boolean lineStart = true;
+        int i = 0;
+        while (i < n) {
+            char c = text.charAt(i);
+
+            // DELIMITER is a client command, only recognised at the start of a line between statements
+            if (lineStart && stmtStart < 0 && startsWithIgnoreCase(text, i, "DELIMITER")
+                    && i + 9 < n && Character.isWhitespace(text.charAt(i + 9))) {
+                int eol = text.indexOf('\n', i);
+                if (eol < 0) eol = n;
+                String d = text.substring(i + 9, eol).trim();
+                if (!d.isEmpty()) delimiter = d;
+                i = eol;
+                continue;
+            }
+            if (c == '\n') {
+                line++;
+                lineStart = true;
+                i++;
+                continue;
+            }
+            if (Character.isWhitespace(c)) {
+                i++;
+                continue;
+            }
+            lineStart = false;
+
+            // other comments are kept inside a statement but never start one
+            if (isLineComment(text, i)) {
+                int eol = text.indexOf('\n', i);
+                i = (eol < 0) ? n : eol;
+                continue;
+            }
+            if (c == '/' && i + 1 < n && text.charAt(i + 1) == '*') {
+                // MySQL conditional comments (/*!40101 SET ... */) and hints (/*+ ... */) are statement text
+                if (stmtStart < 0 && i + 2 < n && (text.charAt(i + 2) == '!' || text.charAt(i + 2) == '+')) {
+                    stmtStart = i;
+                    stmtLine = line;
+                }
+                int close = text.indexOf("*/", i + 2);
+                int end = (close < 0) ? n : close + 2;
+                line += countLines(text, i, end);
+                i = end;
+                continue;
+            }
+
+            if (text.startsWith(delimiter, i)) {
+                if (stmtStart >= 0) {
+                    parts.add(new Part(text.substring(stmtStart, trimEnd(text, stmtStart, i)), stmtStart, i, stmtLine));
+                    stmtStart = -1;
+                }
+                i += delimiter.length();
+                continue;
+            }
+
+            if (stmtStart < 0) {
+                stmtStart = i;
+                stmtLine = line;
+            }
+            if (c == '\'' || c == '"' || c == '`') {
+                int end = skipQuoted(text, i, c);
+                line += countLines(text, i, end);
+                i = end;
+                continue;
+            }
+            i++;
+        }
+        if (stmtStart >= 0) {
+            parts.add(new Part(text.substring(stmtStart, trimEnd(text, stmtStart, n)), stmtStart, n, stmtLine));
+        }
+        return parts;
+    }
+
+    /**
+     * The statement the caret is in. Between statements, the one ending on the
+     * caret's line wins, otherwise the next one; null for an empty buffer.
+     */
+    public static Part statementAt(String text, int caret) {
+        Part before = null;
+        for (Part p : split(text)) {
+            if (caret < p.start) {
+                int eol = (before == null) ? -1 : text.indexOf('\n', before.end);
+                return (before != null && (eol < 0 || eol >= caret)) ? before : p;
+            }
+            if (caret <= p.end) return p;
+            before = p;
+        }
+        return before;
+    }
+
+    /**
+     * Cache key form of a statement: comments dropped (optimizer hints and
+     * MySQL version comments kept), whitespace runs outside quotes collapsed
+     * to one space, trailing delimiter removed. Literals are left alone.
+     */
+    public static String normalize(String sql) {
+        StringBuilder sb = new StringBuilder(sql.length());
+        int n = sql.length();
+        int i = 0;
+        boolean space = false;
+        while (i < n) {
+            char c = sql.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = true;
+                i++;
+                continue;
+            }
+            if (isLineComment(sql, i)) {
+                int eol = sql.indexOf('\n', i);
+                i = (eol < 0) ? n : eol;
+                space = true;
+                continue;
+            }
+            if (sql.startsWith("/*", i) && !sql.startsWith("/*+", i) && !sql.startsWith("/*!", i)) {
+                int close = sql.indexOf("*/", i + 2);
+                i = (close < 0) ? n : close + 2;
+                space = true;
+                continue;
+            }
+            if (space && sb.length() > 0) sb.append(' ');
+            space = false;
+            if (c == '\'' || c == '"' || c == '`') {
+                int end = skipQuoted(sql, i, c);
+                sb.append(sql, i, end);
+                i = end;
+                continue;
+            }
+            sb.append(c);
+            i++;
+        }
+        int len = sb.length();
+        while (len > 0 && sb.charAt(len - 1) == ';') len--;
+        sb.setLength(len);
+        return sb.toString();
+    }
+
+    /**
+     * Lower-cased names of the tables a statement reads or writes: whatever
+     * follows FROM, JOIN, INTO, UPDATE, TABLE or TO, plus comma-separated FROM
+     * lists. Qualified names keep only the table part. Good enough for
+     * cache invalidation, not a full parser.
+     */
+    public static Set<String> tableNames(String sql) {
+        Set<String> tables = new LinkedHashSet<>();
+        int n = sql.length();
+        int i = 0;
+        boolean expect = false;
+        boolean inList = false;
+        while (i < n) {
+            char c = sql.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (isLineComment(sql, i)) {
+                int eol = sql.indexOf('\n', i);
+                i = (eol < 0) ? n : eol;
+            } else if (sql.startsWith("/*", i)) {
+                int close = sql.indexOf("*/", i + 2);
+                i = (close < 0) ? n : close + 2;
+            } else if (c == '\'') {
+                i = skipQuoted(sql, i, c);
+                expect = false;
+            } else if (c == ',') {
+                expect = inList;
+                i++;
+            } else if (Character.isLetter(c) || c == '_' || c == '`' || c == '"') {
+                // a possibly quoted, possibly dotted name
+                String name = null;
+                int end = i;
+                while (true) {
+                    int start = end;
+                    char q = sql.charAt(start);
+                    if (q == '`' || q == '"') {
+                        end = skipQuoted(sql, start, q);
+                        name = sql.substring(start + 1, Math.max(start + 1, end - 1));
+                    } else {
+                        while (end < n && (Character.isLetterOrDigit(sql.charAt(end)) || sql.charAt(end) == '_'
+                                || sql.charAt(end) == '$')) end++;
+                        name = sql.substring(start, end);
+                    }
+                    if (end + 1 < n && sql.charAt(end) == '.') {
+                        char next = sql.charAt(end + 1);
+                        if (Character.isLetter(next) || next == '_' || next == '`' || next == '"') {
+                            end++;
+                            continue;
+                        }
+                    }
+                    break;
+                }
+                boolean quoted = c == '`' || c == '"';
+                String upper = quoted ? "" : name.toUpperCase(Locale.ROOT);
+                if (TABLE_KEYWORDS.contains(upper)) {
+                    expect = true;
+                    inList = upper.equals("FROM") || upper.equals("TABLE") || upper.equals("TO");
+                } else if (expect) {
+                    if (!SKIP_KEYWORDS.contains(upper)) {
+                        tables.add(name.toLowerCase(Locale.ROOT));
+                        expect = false;
+                    }
+                } else if (LIST_END_KEYWORDS.contains(upper)) {
+                    inList = false;
+                }
+                i = Math.max(end, i + 1);
+            } else {
+                if (c == '(') expect = false;
+                i++;
+            }
+        }
+        return tables;
+    }
+
+    private static final Set<String> TABLE_KEYWORDS = new HashSet<>(Arrays.asList(
+            "FROM", "JOIN", "INTO", "UPDATE", "TABLE", "TO"));
+    // may sit between a table keyword and the name
+    private static final Set<String> SKIP_KEYWORDS = new HashSet<>(Arrays.asList(
+            "IGNORE", "LOW_PRIORITY", "DELAYED", "HIGH_PRIORITY", "QUICK", "ONLY", "LATERAL",
+            "IF", "NOT", "EXISTS", "TEMPORARY"));
+    private static final Set<String> LIST_END_KEYWORDS = new HashSet<>(Arrays.asList(
+            "WHERE", "GROUP", "ORDER", "HAVING", "LIMIT", "ON", "USING", "SET", "VALUES", "UNION",
+            "SELECT", "WINDOW", "FOR", "LOCK", "INNER", "LEFT", "RIGHT", "CROSS", "NATURAL", "STRAIGHT_JOIN"));
+
+    /** True for statements that return rows and can be streamed into the result grid. */
+    public static boolean isQuery(String sql) {
+        String first = firstWord(sql);
+        switch (first) {
+            case "SELECT":
+            case "WITH":
+            case "SHOW":
+            case "DESCRIBE":
+            case "DESC":
+            case "EXPLAIN":
+            case "VALUES":
+            case "TABLE":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /** DML that may be sent in a JDBC batch. */
+    static boolean isBatchable(String sql) {
+        String first = firstWord(sql);
+        switch (first) {
+            case "INSERT":
+            case "UPDATE":
+            case "DELETE":
+            case "REPLACE":
+            case "MERGE":
+                // INSERT ... SELECT and friends return update counts too, so they batch fine
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    static String firstWord(String sql) {
+        int i = 0, n = sql.length();
+        while (i < n && !Character.isLetter(sql.charAt(i))) {
+            // skip leading comments and parentheses, e.g. "(SELECT ...)" or "/* x */ INSERT"
+            if (sql.startsWith("/*", i)) {
+                int close = sql.indexOf("*/", i + 2);
+                i = (close < 0) ? n : close + 2;
+            } else if (sql.startsWith("--", i) || sql.charAt(i) == '#') {
+                int eol = sql.indexOf('\n', i);
+                i = (eol < 0) ? n : eol;
+            } else {
+                i++;
+            }
+        }
+        int start = i;
+        while (i < n && Character.isLetter(sql.charAt(i))) i++;
+        return sql.substring(start, i).toUpperCase(Locale.ROOT);
+    }
+
+    static int skipQuoted(String text, int i, char quote) {
+        int n = text.length();
+        i++;
+        while (i < n) {
+            char c = text.charAt(i);
+            if (c == '\\' && quote != '`') {
+                i += 2;
+            } else if (c == quote) {
+                // doubled quote is an escaped quote
+                if (i + 1 < n && text.charAt(i + 1) == quote) {
+                    i += 2;
+                } else {
+                    return i + 1;
+                }
+            } else {
+                i++;
+            }
+        }
+        return n;
+    }
+
+    /** '#' or MySQL's "-- " (a space is required after the dashes). */
+    static boolean isLineComment(String text, int i) {
+        char c = text.charAt(i);
+        if (c == '#') return true;
+        return c == '-' && text.startsWith("--", i)
+                && (i + 2 >= text.length() || Character.isWhitespace(text.charAt(i + 2)));
+    }
+
+    private static boolean startsWithIgnoreCase(String text, int i, String word) {
+        return text.regionMatches(true, i, word, 0, word.length());
+    }
+
+    private static int trimEnd(String text, int start, int end) {
+        while (end > start && Character.isWhitespace(text.charAt(end - 1))) end--;
+        return end;
+    }
+
+    private static int countLines(String text, int from, int to) {
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            if (text.charAt(i) == '\n') count++;
+        }
+        return count;
+    }
+}
@@ -1,20 +1,38 @@
 package ui;
 
-import db.QueryExecutor;
-import org.fife.ui.rsyntaxtextarea.RSyntaxTextArea;
+import db.CompletionIndex;
+import db.ConnectionPool;
+import db.ConnectionProfile;
+import db.DBConnection;
+import db.QueryHistory;
+import db.ResultCache;
+import db.ResultSorter;
 
 import javax.swing.*;
-import javax.swing.table.DefaultTableCellRenderer;
-import javax.swing.table.DefaultTableModel;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import java.awt.*;
 import java.awt.event.ActionEvent;
-import java.sql.SQLException;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.function.IntConsumer;
 
 public class DBEditorUI extends JFrame {
-    private SQLEditorPanel editorPanel;
-    private JTable resultTable;
+    private JTabbedPane tabs;
+    private DBExplorerPanel explorer;
+    private JComboBox<ConnectionProfile> profileBox;
     private JButton runButton;
-    private JLabel statusLabel;
+    private JButton runScriptButton;
+    private JButton exportButton;
+    private JButton explainButton;
+    private JButton compareButton;
+    private JButton stopButton;
+    private JPanel status;
+    private JLabel poolLabel;
+    private JTextField filterField;
+    private JTextField findField;
+    private SessionTab shownTab;
+    private JFileChooser openChooser;
 
     public DBEditorUI() {
         setTitle("DB Editor");
@@ -25,62 +43,178 @@ public class DBEditorUI extends JFrame {
         // Top toolbar
         JToolBar toolBar = new JToolBar();
         toolBar.setFloatable(false);
+        profileBox = new JComboBox<>(DBConnection.profiles().toArray(new ConnectionProfile[0]));
+        profileBox.setSelectedItem(DBConnection.active());
+        profileBox.setToolTipText("Connection profile for new tabs");
+        profileBox.setMaximumSize(profileBox.getPreferredSize());
+        toolBar.add(profileBox);
+        JButton newTabButton = new JButton("New Tab (Ctrl+T)");
+        newTabButton.setToolTipText("Open an editor tab with its own session on the chosen profile");
+        newTabButton.addActionListener(e -> openTab((ConnectionProfile) profileBox.getSelectedItem()));
+        toolBar.add(newTabButton);
+        JButton openButton = new JButton("Open... (Ctrl+O)");
+        openButton.setToolTipText("Open a SQL file; large dumps open in large-file mode");
+        openButton.addActionListener(e -> openFile());
+        toolBar.add(openButton);
+        toolBar.addSeparator();
         runButton = new JButton("Run (Ctrl+Enter)");
-        runButton.addActionListener(this::onRun);
+        runButton.setToolTipText("Run the selection, or the statement at the caret");
+        runButton.addActionListener(e -> currentTab().onRun());
         toolBar.add(runButton);
+        runScriptButton = new JButton("Run Script (Ctrl+Shift+Enter)");
+        runScriptButton.addActionListener(e -> currentTab().onRunScript());
+        toolBar.add(runScriptButton);
+        exportButton = new JButton("Export...");
+        exportButton.setToolTipText("Stream the query at the caret to a CSV, JSON Lines or columnar file");
+        exportButton.addActionListener(e -> currentTab().onExport());
+        toolBar.add(exportButton);
+        explainButton = new JButton("Explain (Ctrl+E)");
+        explainButton.setToolTipText("Show the execution plan of the statement at the caret");
+        explainButton.addActionListener(e -> currentTab().onExplain());
+        toolBar.add(explainButton);
+        compareButton = new JButton("Compare...");
+        compareButton.setToolTipText("Diff two tables or queries, on this profile or another");
+        compareButton.addActionListener(e -> currentTab().onCompare());
+        toolBar.add(compareButton);
+        stopButton = new JButton("Stop (Esc)");
+        stopButton.setEnabled(false);
+        stopButton.addActionListener(e -> currentTab().onStop());
+        toolBar.add(stopButton);
+        JButton historyButton = new JButton("History (Ctrl+H)");
+        historyButton.setToolTipText("Past runs with timings, and p50 / p95 per query");
+        historyButton.addActionListener(e -> HistoryDialog.show(this, this::openFromHistory));
+        toolBar.add(historyButton);
         JButton clearBtn = new JButton("Clear");
-        clearBtn.addActionListener(e -> editorPanel.getTextArea().setText(""));
+        clearBtn.addActionListener(e -> currentTab().getEditorPanel().getTextArea().setText(""));
         toolBar.add(clearBtn);
+        toolBar.addSeparator();
+        toolBar.add(new JLabel("Filter "));
+        filterField = new JTextField(14);
+        filterField.setToolTipText("Show result rows containing all of these words, in any column");
+        filterField.setMaximumSize(filterField.getPreferredSize());
+        toolBar.add(filterField);
+        toolBar.addSeparator();
+        toolBar.add(new JLabel("Find "));
+        findField = new JTextField(12);
+        findField.setToolTipText("Find in results (Ctrl+F); Enter for the next match");
+        findField.setMaximumSize(findField.getPreferredSize());
+        toolBar.add(findField);
         add(toolBar, BorderLayout.NORTH);
 
-        // Left DB explorer
-        DBExplorerPanel explorer = new DBExplorerPanel();
+        // Left DB explorer, following the selected tab's profile
+        explorer = new DBExplorerPanel();
+        explorer.setImportHandler((catalog, table) -> currentTab().onImport(catalog, table));
 
-        // Right side: editor and results in vertical split
-        editorPanel = new SQLEditorPanel();
-        resultTable = new JTable();
-        JScrollPane resultScroll = new JScrollPane(resultTable);
-        JSplitPane rightSplit = new JSplitPane(JSplitPane.VERTICAL_SPLIT, editorPanel, resultScroll);
-        rightSplit.setResizeWeight(0.6);
-        rightSplit.setDividerLocation(420);
+        // Right side: one editor tab per session
+        tabs = new JTabbedPane();
+        tabs.putClientProperty("JTabbedPane.tabClosable", true);
+        tabs.putClientProperty("JTabbedPane.tabCloseCallback", (IntConsumer) this::closeTab);
+        tabs.addChangeListener(e -> onTabSelected());
 
-        // Main split: explorer on left, right side on right
-        JSplitPane mainSplit = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, explorer, rightSplit);
+        // Main split: explorer on left, tabs on right
+        JSplitPane mainSplit = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, explorer, tabs);
         mainSplit.setResizeWeight(0.22);
         mainSplit.setDividerLocation(250);
         add(mainSplit, BorderLayout.CENTER);
 
         // Apply unified colors
-        applyUnifiedColors(toolBar, resultScroll);
+        applyUnifiedColors(toolBar);
 
-        // Status bar
-        JPanel status = new JPanel(new BorderLayout());
-        statusLabel = new JLabel("Ready");
+        // Status bar; the selected tab's status label sits on the left
+        status = new JPanel(new BorderLayout());
         status.setBorder(BorderFactory.createEmptyBorder(4, 8, 4, 8));
-        status.add(statusLabel, BorderLayout.WEST);
+        poolLabel = new JLabel();
+        poolLabel.setForeground(new Color(107, 114, 128));
+        status.add(poolLabel, BorderLayout.EAST);
         add(status, BorderLayout.SOUTH);
 
-        // Key binding for Ctrl+Enter to run SQL
-        RSyntaxTextArea ta = editorPanel.getTextArea();
-        ta.getInputMap().put(KeyStroke.getKeyStroke("control ENTER"), "runQuery");
-        ta.getActionMap().put("runQuery", new AbstractAction() {
+        openTab(DBConnection.active());
+
+        // Refresh completion load progress and latency, pool wait time / hit rate and session state once a second
+        Timer poolTimer = new Timer(1000, e -> {
+            SessionTab tab = currentTab();
+            poolLabel.setText(tab.getEditorPanel().getCompletionStatus() + " | " + tab.getProfile().getName()
+                    + ": " + tab.getProfile().statusText() + " | " + tab.sessionStatus()
+                    + (ResultCache.isEnabled() ? " | " + ResultCache.statusText() : ""));
+            poolLabel.setToolTipText("Completion: " + CompletionIndex.latencyReport());
+        });
+        poolTimer.setInitialDelay(0);
+        poolTimer.start();
+
+        // Window-wide keys: Esc cancels the selected tab's query, Ctrl+T / Ctrl+W open and close tabs
+        bindKey("ESCAPE", "stopQuery", () -> currentTab().onStop());
+        bindKey("control T", "newTab", () -> openTab((ConnectionProfile) profileBox.getSelectedItem()));
+        bindKey("control W", "closeTab", () -> closeTab(tabs.getSelectedIndex()));
+        bindKey("control H", "history", () -> HistoryDialog.show(this, this::openFromHistory));
+        bindKey("control E", "explain", () -> currentTab().onExplain());
+        bindKey("control O", "openFile", this::openFile);
+
+        // Quick filter and find run in the background; typing again replaces the running search
+        Timer filterTimer = new Timer(200, e -> {
+            ResultSorter sorter = currentTab().getResultGrid().getResultSorter();
+            if (sorter != null) sorter.setFilter(filterField.getText());
+        });
+        filterTimer.setRepeats(false);
+        filterField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                filterTimer.restart();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                filterTimer.restart();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                filterTimer.restart();
+            }
+        });
+        Timer findTimer = new Timer(250, e -> find(currentTab().getResultGrid().getSelectedRow() - 1));
+        findTimer.setRepeats(false);
+        findField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                findTimer.restart();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                findTimer.restart();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                findTimer.restart();
+            }
+        });
+        findField.addActionListener(e -> {
+            findTimer.stop();
+            find(currentTab().getResultGrid().getSelectedRow());
+        });
+        bindKey("control F", "findInResults", () -> {
+            findField.requestFocusInWindow();
+            findField.selectAll();
+        });
+    }
+
+    private void bindKey(String key, String name, Runnable action) {
+        getRootPane().getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(key), name);
+        getRootPane().getActionMap().put(name, new AbstractAction() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                runButton.doClick();
+                action.run();
             }
         });
     }
 
-    private void applyUnifiedColors(JToolBar toolBar, JScrollPane resultScroll) {
+    private void applyUnifiedColors(JToolBar toolBar) {
         // Unified medium theme with subtle contrast
         Color windowBg = new Color(242, 245, 249);   // app background
         Color panelBg  = new Color(247, 249, 252);   // panels
         Color textFg   = new Color(31, 41, 55);      // primary text
         Color headerBg = new Color(234, 238, 243);   // table header / toolbar
-        Color gridCol  = new Color(213, 221, 229);   // grid lines/borders
-        Color rowEven  = new Color(250, 252, 255);   // zebra even
-        Color rowOdd   = new Color(242, 247, 252);   // zebra odd
-        Color selBg    = new Color(205, 227, 255);   // selection
 
         getContentPane().setBackground(windowBg);
 
@@ -88,40 +222,6 @@ public class DBEditorUI extends JFrame {
         toolBar.setBackground(headerBg);
         toolBar.setForeground(textFg);
 
-        // Table styling
-        resultTable.setBackground(panelBg);
-        resultTable.setForeground(textFg);
-        resultTable.setGridColor(gridCol);
-        resultTable.setSelectionBackground(selBg);
-        resultTable.setSelectionForeground(textFg);
-        resultTable.setRowHeight(24);
-        resultTable.setShowHorizontalLines(true);
-        resultTable.setShowVerticalLines(false);
-        resultTable.setIntercellSpacing(new Dimension(0, 0));
-
-        // Zebra striping renderer
-        DefaultTableCellRenderer zebra = new DefaultTableCellRenderer() {
-            @Override
-            public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected, boolean hasFocus, int row, int column) {
-                Component c = super.getTableCellRendererComponent(table, value, isSelected, hasFocus, row, column);
-                if (!isSelected) {
-                    c.setBackground((row % 2 == 0) ? rowEven : rowOdd);
-                    c.setForeground(textFg);
-                }
-                return c;
-            }
-        };
-        resultTable.setDefaultRenderer(Object.class, zebra);
-
-        // Header styling
-        var header = resultTable.getTableHeader();
-        header.setBackground(headerBg);
-        header.setForeground(textFg);
-        header.setFont(header.getFont().deriveFont(Font.BOLD));
-
-        // Scroll styling
-        resultScroll.getViewport().setBackground(panelBg);
-
         // UI defaults for consistency
         UIManager.put("Panel.background", windowBg);
         UIManager.put("ScrollPane.background", panelBg);
@@ -129,22 +229,124 @@ public class DBEditorUI extends JFrame {
         UIManager.put("SplitPane.dividerSize", 6);
     }
 
-    private void onRun(ActionEvent ev) {
-        String sql = editorPanel.getTextArea().getText();
-        if (sql == null || sql.trim().isEmpty()) {
-            JOptionPane.showMessageDialog(this, "Please enter SQL to execute.");
+    private SessionTab currentTab() {
+        return (SessionTab) tabs.getSelectedComponent();
+    }
+
+    private void openTab(ConnectionProfile profile) {
+        SessionTab tab = new SessionTab(profile);
+        tab.setStateListener(() -> {
+            if (tab == currentTab()) syncToolbar();
+        });
+        tabs.addTab(profile.getName(), tab);
+        tabs.setToolTipTextAt(tabs.getTabCount() - 1, profile.getUrl());
+        tabs.setSelectedComponent(tab);
+        tab.getEditorPanel().getTextArea().requestFocusInWindow();
+    }
+
+    /** Closes a tab and its session; the last tab is replaced by a fresh one. */
+    private void closeTab(int index) {
+        if (index < 0) return;
+        SessionTab tab = (SessionTab) tabs.getComponentAt(index);
+        ConnectionPool.Session session = tab.getSession();
+        if (session != null && session.isTransactionOpen() && JOptionPane.showConfirmDialog(this,
+                "The tab has an open transaction. Close it and roll the transaction back?", "Close Tab",
+                JOptionPane.YES_NO_OPTION) != JOptionPane.YES_OPTION) {
             return;
         }
-        long start = System.currentTimeMillis();
+        if (!tab.confirmDiscardWindow()) {
+            return;
+        }
+        tab.close();
+        tabs.removeTabAt(index);
+        if (tabs.getTabCount() == 0) {
+            openTab(tab.getProfile());
+        }
+    }
+
+    /**
+     * Puts a run from the history into the selected tab if it is empty and on
+     * the run's profile, otherwise into a new tab on that profile.
+     */
+    private void openFromHistory(QueryHistory.Entry entry, boolean run) {
+        ConnectionProfile profile = currentTab().getProfile();
+        for (ConnectionProfile p : DBConnection.profiles()) {
+            if (p.getName().equals(entry.profile)) profile = p;
+        }
+        SessionTab tab = currentTab();
+        if (tab.getProfile() != profile || tab.isBusy()
+                || !tab.getEditorPanel().getTextArea().getText().trim().isEmpty()) {
+            openTab(profile);
+            tab = currentTab();
+        }
+        tab.getEditorPanel().getTextArea().setText(entry.sql);
+        tab.getEditorPanel().getTextArea().setCaretPosition(0);
+        toFront();
+        if (run) tab.onRunScript();
+    }
+
+    /** Opens a SQL file into the selected tab if it is empty and idle, otherwise into a new tab. */
+    private void openFile() {
+        if (openChooser == null) {
+            openChooser = new JFileChooser();
+            openChooser.setDialogTitle("Open SQL file");
+            openChooser.setFileFilter(new javax.swing.filechooser.FileNameExtensionFilter("SQL files (.sql)", "sql"));
+        }
+        if (openChooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        Path path = openChooser.getSelectedFile().toPath();
+        SessionTab tab = currentTab();
+        if (tab.isBusy() || tab.getLargeFile() != null
+                || !tab.getEditorPanel().getTextArea().getText().trim().isEmpty()) {
+            openTab(tab.getProfile());
+            tab = currentTab();
+        }
         try {
-            var model = QueryExecutor.executeQuery(sql);
-            resultTable.setModel(model);
-            long took = System.currentTimeMillis() - start;
-            int rows = model.getRowCount();
-            statusLabel.setText("Executed successfully: " + rows + " rows in " + took + " ms");
-        } catch (SQLException ex) {
-            statusLabel.setText("Error: " + ex.getMessage());
-            JOptionPane.showMessageDialog(this, "SQL Error: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            if (!tab.openFile(path)) return;
+        } catch (IOException ex) {
+            JOptionPane.showMessageDialog(this, "Cannot open " + path.getFileName() + ": " + ex.getMessage(),
+                    "Open", JOptionPane.ERROR_MESSAGE);
+            return;
         }
+        tabs.setTitleAt(tabs.indexOfComponent(tab), path.getFileName().toString());
+        tabs.setToolTipTextAt(tabs.indexOfComponent(tab), path + " - " + tab.getProfile().getUrl());
+    }
+
+    /** Points the explorer, status bar and toolbar at the newly selected tab. */
+    private void onTabSelected() {
+        SessionTab tab = currentTab();
+        if (tab == null || tab == shownTab) return;
+        if (shownTab != null) status.remove(shownTab.getStatusLabel());
+        shownTab = tab;
+        status.add(tab.getStatusLabel(), BorderLayout.WEST);
+        status.revalidate();
+        status.repaint();
+        if (DBConnection.active() != tab.getProfile()) {
+            DBConnection.setActive(tab.getProfile());
+            explorer.setProfile(tab.getProfile());
+        }
+        profileBox.setSelectedItem(tab.getProfile());
+        syncToolbar();
+    }
+
+    private void syncToolbar() {
+        SessionTab tab = currentTab();
+        boolean busy = tab.isBusy();
+        // a result waiting for scroll is stopped by the next run
+        boolean idle = !busy || tab.isPaused();
+        runButton.setEnabled(idle);
+        runScriptButton.setEnabled(idle);
+        exportButton.setEnabled(idle);
+        explainButton.setEnabled(idle);
+        compareButton.setEnabled(idle);
+        stopButton.setEnabled(busy);
+        ResultSorter sorter = tab.getResultGrid().getResultSorter();
+        String filter = sorter == null ? "" : sorter.getFilter();
+        if (!filterField.getText().trim().equals(filter)) filterField.setText(filter);
+    }
+
+    private void find(int from) {
+        currentTab().find(findField.getText().trim(), from);
     }
 }
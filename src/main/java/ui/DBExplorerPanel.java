@@ -1,89 +1,304 @@
 package ui;
 
+import db.ConnectionProfile;
 import db.DBConnection;
+import db.SchemaCatalog;
 
 import javax.swing.*;
+import javax.swing.event.TreeExpansionEvent;
+import javax.swing.event.TreeWillExpandListener;
 import javax.swing.tree.DefaultMutableTreeNode;
+import javax.swing.tree.DefaultTreeCellRenderer;
 import javax.swing.tree.DefaultTreeModel;
+import javax.swing.tree.TreePath;
 import java.awt.*;
-import java.sql.Connection;
-import java.sql.DatabaseMetaData;
-import java.sql.ResultSet;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
+/**
+ * Schema tree that loads children only when a node is first expanded. Loading
+ * runs on a background thread behind a spinner node, and any node can be
+ * refreshed from its context menu.
+ */
 public class DBExplorerPanel extends JPanel {
+    private static final ExecutorService LOADER = Executors.newFixedThreadPool(2, r -> {
+        Thread t = new Thread(r, "explorer-loader");
+        t.setDaemon(true);
+        return t;
+    });
+    private static final String[] SPINNER = {"|", "/", "-", "\\"};
+
     private final JTree tree;
     private final DefaultMutableTreeNode rootNode;
+    private final DefaultTreeModel treeModel;
+    private final Timer spinnerTimer;
+    private int spinnerFrame;
+    private int loadingCount;
+    private BiConsumer<String, String> importHandler;   // catalog, table
+    private final Consumer<String> catalogListener =
+            catalog -> SwingUtilities.invokeLater(() -> onCatalogChanged(catalog));
+    private volatile SchemaCatalog catalog;
 
     public DBExplorerPanel() {
         setLayout(new BorderLayout());
-        rootNode = new DefaultMutableTreeNode("Database");
-        tree = new JTree(rootNode);
+        rootNode = new DefaultMutableTreeNode(new SchemaNode(SchemaNode.Kind.ROOT, null, null, "Database"));
+        treeModel = new DefaultTreeModel(rootNode);
+        tree = new JTree(treeModel);
         tree.setRootVisible(true);
         add(new JScrollPane(tree), BorderLayout.CENTER);
+
+        tree.addTreeWillExpandListener(new TreeWillExpandListener() {
+            @Override
+            public void treeWillExpand(TreeExpansionEvent event) {
+                DefaultMutableTreeNode node = (DefaultMutableTreeNode) event.getPath().getLastPathComponent();
+                if (needsLoad(node)) {
+                    load(node, false);
+                }
+            }
+
+            @Override
+            public void treeWillCollapse(TreeExpansionEvent event) {
+            }
+        });
+
+        // Per-node refresh
+        JPopupMenu menu = new JPopupMenu();
+        JMenuItem refreshItem = new JMenuItem("Refresh");
+        refreshItem.addActionListener(e -> {
+            TreePath path = tree.getSelectionPath();
+            refresh(path == null ? rootNode : (DefaultMutableTreeNode) path.getLastPathComponent());
+        });
+        menu.add(refreshItem);
+        JMenuItem importItem = new JMenuItem("Import Data...");
+        importItem.addActionListener(e -> {
+            SchemaNode item = selectedItem();
+            if (item != null && item.kind == SchemaNode.Kind.TABLE && importHandler != null) {
+                importHandler.accept(item.catalog, item.table);
+            }
+        });
+        menu.add(importItem);
+        tree.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                maybeShowMenu(e);
+            }
+
+            @Override
+            public void mouseReleased(MouseEvent e) {
+                maybeShowMenu(e);
+            }
+
+            private void maybeShowMenu(MouseEvent e) {
+                if (!e.isPopupTrigger()) return;
+                TreePath path = tree.getPathForLocation(e.getX(), e.getY());
+                if (path != null) tree.setSelectionPath(path);
+                SchemaNode item = selectedItem();
+                importItem.setEnabled(importHandler != null && item != null && item.kind == SchemaNode.Kind.TABLE);
+                menu.show(tree, e.getX(), e.getY());
+            }
+        });
+
+        // Animate loading nodes
+        tree.setCellRenderer(new DefaultTreeCellRenderer() {
+            @Override
+            public Component getTreeCellRendererComponent(JTree tree, Object value, boolean sel, boolean expanded,
+                                                          boolean leaf, int row, boolean hasFocus) {
+                super.getTreeCellRendererComponent(tree, value, sel, expanded, leaf, row, hasFocus);
+                Object item = ((DefaultMutableTreeNode) value).getUserObject();
+                if (item instanceof SchemaNode && ((SchemaNode) item).kind == SchemaNode.Kind.LOADING) {
+                    setText("Loading " + SPINNER[spinnerFrame]);
+                }
+                return this;
+            }
+        });
+        spinnerTimer = new Timer(120, e -> {
+            spinnerFrame = (spinnerFrame + 1) % SPINNER.length;
+            tree.repaint();
+        });
+
+        // Background schema refreshes re-render only the affected, already loaded nodes
+        catalog = SchemaCatalog.forProfile(DBConnection.active());
+        catalog.addListener(catalogListener);
+
         reload();
     }
 
-    public void reload() {
-        rootNode.removeAllChildren();
-        try (Connection conn = DBConnection.getConnection()) {
-            DatabaseMetaData meta = conn.getMetaData();
-
-            // Database/product info at top
-            String product = Objects.toString(meta.getDatabaseProductName(), "Database");
-            String url = Objects.toString(meta.getURL(), "");
-            rootNode.setUserObject(product + " (" + url + ")");
-
-            // Catalogs or current
-            ResultSet catalogs = meta.getCatalogs();
-            boolean hasCatalogs = false;
-            while (catalogs.next()) {
-                hasCatalogs = true;
-                String catalog = catalogs.getString(1);
-                DefaultMutableTreeNode catNode = new DefaultMutableTreeNode(catalog);
-                rootNode.add(catNode);
-                addTables(meta, catNode, catalog, null);
-            }
-            catalogs.close();
+    /** Shows the schema of another connection profile. */
+    public void setProfile(ConnectionProfile profile) {
+        SchemaCatalog next = SchemaCatalog.forProfile(profile);
+        if (next == catalog) return;
+        catalog.removeListener(catalogListener);
+        catalog = next;
+        catalog.addListener(catalogListener);
+        reload();
+    }
 
-            if (!hasCatalogs) {
-                // Use schemas/tables without catalog
-                DefaultMutableTreeNode defaultNode = new DefaultMutableTreeNode("Tables");
-                rootNode.add(defaultNode);
-                addTables(meta, defaultNode, null, null);
+    private void onCatalogChanged(String catalog) {
+        if (catalog == null) {
+            refresh(rootNode, false);
+            return;
+        }
+        for (int i = 0; i < rootNode.getChildCount(); i++) {
+            DefaultMutableTreeNode child = (DefaultMutableTreeNode) rootNode.getChildAt(i);
+            SchemaNode item = (SchemaNode) child.getUserObject();
+            if (catalog.equals(item.catalog) && !needsLoad(child)
+                    && tree.isExpanded(new TreePath(child.getPath()))) {
+                refresh(child, false);
             }
-        } catch (Exception ex) {
-            DefaultMutableTreeNode err = new DefaultMutableTreeNode("Error: " + ex.getMessage());
-            rootNode.add(err);
         }
-        ((DefaultTreeModel) tree.getModel()).reload();
-        expandOneLevel();
     }
 
-    private void addTables(DatabaseMetaData meta, DefaultMutableTreeNode parent, String catalog, String schemaPattern) throws Exception {
-        ResultSet tables = meta.getTables(catalog, schemaPattern, "%", new String[]{"TABLE","VIEW"});
-        while (tables.next()) {
-            String table = tables.getString("TABLE_NAME");
-            DefaultMutableTreeNode tableNode = new DefaultMutableTreeNode(table);
-            parent.add(tableNode);
-
-            // columns
-            ResultSet cols = meta.getColumns(catalog, schemaPattern, table, "%");
-            while (cols.next()) {
-                String col = cols.getString("COLUMN_NAME");
-                String type = cols.getString("TYPE_NAME");
-                tableNode.add(new DefaultMutableTreeNode(col + " : " + type));
-            }
-            cols.close();
+    public void reload() {
+        refresh(rootNode, false);
+    }
+
+    private void refresh(DefaultMutableTreeNode node) {
+        refresh(node, true);
+    }
+
+    private void refresh(DefaultMutableTreeNode node, boolean force) {
+        SchemaNode item = (SchemaNode) node.getUserObject();
+        if (item.kind == SchemaNode.Kind.COLUMN || item.kind == SchemaNode.Kind.LOADING) {
+            DefaultMutableTreeNode parent = (DefaultMutableTreeNode) node.getParent();
+            if (parent != null) refresh(parent, force);
+            return;
         }
-        tables.close();
+        node.removeAllChildren();
+        node.add(new DefaultMutableTreeNode(new SchemaNode(SchemaNode.Kind.LOADING, null, null, "Loading")));
+        treeModel.nodeStructureChanged(node);
+        load(node, force);
+        tree.expandPath(new TreePath(node.getPath()));
+    }
+
+    private boolean needsLoad(DefaultMutableTreeNode node) {
+        if (node.getChildCount() != 1) return false;
+        SchemaNode child = (SchemaNode) ((DefaultMutableTreeNode) node.getFirstChild()).getUserObject();
+        return child.kind == SchemaNode.Kind.LOADING && !child.loading;
+    }
+
+    private void load(DefaultMutableTreeNode node, boolean force) {
+        SchemaNode item = (SchemaNode) node.getUserObject();
+        SchemaNode placeholder = (SchemaNode) ((DefaultMutableTreeNode) node.getFirstChild()).getUserObject();
+        placeholder.loading = true;
+        int token = ++item.loadToken;
+        if (loadingCount++ == 0) spinnerTimer.start();
+
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                return fetchChildren(item, force);
+            } catch (SQLException ex) {
+                throw new CompletionException(ex);
+            }
+        }, LOADER).whenComplete((children, err) -> SwingUtilities.invokeLater(() -> {
+            if (--loadingCount == 0) spinnerTimer.stop();
+            if (token != item.loadToken) return;   // superseded by a newer refresh
+            node.removeAllChildren();
+            if (err != null) {
+                Throwable cause = (err.getCause() != null) ? err.getCause() : err;
+                node.add(new DefaultMutableTreeNode(new SchemaNode(SchemaNode.Kind.MESSAGE, null, null, "Error: " + cause.getMessage())));
+            } else {
+                for (SchemaNode child : children) {
+                    DefaultMutableTreeNode childNode = new DefaultMutableTreeNode(child);
+                    if (child.kind != SchemaNode.Kind.COLUMN && child.kind != SchemaNode.Kind.MESSAGE) {
+                        childNode.add(new DefaultMutableTreeNode(new SchemaNode(SchemaNode.Kind.LOADING, null, null, "Loading")));
+                    }
+                    node.add(childNode);
+                }
+            }
+            treeModel.nodeChanged(node);
+            treeModel.nodeStructureChanged(node);
+            if (node == rootNode) tree.expandPath(new TreePath(rootNode.getPath()));
+        }));
     }
 
-    private void expandOneLevel() {
-        for (int i = 0; i < tree.getRowCount(); i++) {
-            tree.expandRow(i);
+    /**
+     * Runs on the loader thread. Expanding reads the shared schema catalog
+     * (snapshot-backed, at most one metadata call per node); refresh forces a
+     * re-read from the database.
+     */
+    private List<SchemaNode> fetchChildren(SchemaNode item, boolean force) throws SQLException {
+        SchemaCatalog catalog = this.catalog;
+        List<SchemaNode> children = new ArrayList<>();
+        switch (item.kind) {
+            case ROOT: {
+                // Catalogs or current
+                List<String> catalogs = force ? catalog.refreshCatalogs() : catalog.catalogs();
+                item.label = Objects.toString(catalog.getProductLabel(), "Database");
+                for (String c : catalogs) {
+                    children.add(new SchemaNode(SchemaNode.Kind.CATALOG, c, null, c));
+                }
+                if (children.isEmpty()) {
+                    // Use schemas/tables without catalog
+                    children.add(new SchemaNode(SchemaNode.Kind.CATALOG, null, null, "Tables"));
+                }
+                catalog.refreshInBackground();
+                break;
+            }
+            case CATALOG: {
+                if (force) catalog.refresh(item.catalog);
+                for (SchemaCatalog.TableInfo t : catalog.tables(item.catalog)) {
+                    children.add(new SchemaNode(SchemaNode.Kind.TABLE, item.catalog, t.name, t.name));
+                }
+                break;
+            }
+            case TABLE: {
+                List<SchemaCatalog.ColumnInfo> cols = force
+                        ? catalog.refreshTable(item.catalog, item.table)
+                        : catalog.columns(item.catalog, item.table);
+                for (SchemaCatalog.ColumnInfo col : cols) {
+                    children.add(new SchemaNode(SchemaNode.Kind.COLUMN, item.catalog, item.table, col.name + " : " + col.typeName));
+                }
+                break;
+            }
+            default:
+                break;
         }
+        return children;
     }
 
     public JTree getTree() { return tree; }
+
+    /** Called with (catalog, table) when Import Data is chosen on a table node. */
+    public void setImportHandler(BiConsumer<String, String> handler) {
+        this.importHandler = handler;
+    }
+
+    private SchemaNode selectedItem() {
+        TreePath path = tree.getSelectionPath();
+        return path == null ? null : (SchemaNode) ((DefaultMutableTreeNode) path.getLastPathComponent()).getUserObject();
+    }
+
+    /** User object of every node in the explorer tree. */
+    public static class SchemaNode {
+        public enum Kind { ROOT, CATALOG, TABLE, COLUMN, LOADING, MESSAGE }
+
+        public final Kind kind;
+        public final String catalog;
+        public final String table;
+        private volatile String label;
+        private int loadToken;          // EDT only
+        private boolean loading;        // EDT only, for placeholders
+
+        SchemaNode(Kind kind, String catalog, String table, String label) {
+            this.kind = kind;
+            this.catalog = catalog;
+            this.table = table;
+            this.label = label;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
 }
@@ -0,0 +1,130 @@
+package ui;
+
+import db.ConnectionProfile;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Asks what to compare: two tables or two queries, each on a connection
+ * profile, the key columns (empty for the primary key) and whether to use
+ * chunked checksums.
+ */
+public class DiffDialog {
+
+    /** What the user chose. */
+    public static final class Choice {
+        public final ConnectionProfile leftProfile;
+        public final ConnectionProfile rightProfile;
+        public final boolean tables;
+        /** Table names or queries, per side. */
+        public final String left;
+        public final String right;
+        public final List<String> keys;
+        public final boolean chunked;
+
+        Choice(ConnectionProfile leftProfile, ConnectionProfile rightProfile, boolean tables, String left,
+               String right, List<String> keys, boolean chunked) {
+            this.leftProfile = leftProfile;
+            this.rightProfile = rightProfile;
+            this.tables = tables;
+            this.left = left;
+            this.right = right;
+            this.keys = keys;
+            this.chunked = chunked;
+        }
+    }
+
+    /** The comparison to run, or null if the user cancelled. sql prefills both query fields. */
+    public static Choice prompt(Component parent, List<ConnectionProfile> profiles, ConnectionProfile current, String sql) {
+        ConnectionProfile[] choices = profiles.toArray(new ConnectionProfile[0]);
+        JComboBox<ConnectionProfile> leftBox = new JComboBox<>(choices);
+        JComboBox<ConnectionProfile> rightBox = new JComboBox<>(choices);
+        leftBox.setSelectedItem(current);
+        rightBox.setSelectedItem(profiles.size() > 1 && profiles.get(0) == current ? profiles.get(1) : profiles.get(0));
+
+        JRadioButton tableMode = new JRadioButton("Tables", sql.isEmpty());
+        JRadioButton queryMode = new JRadioButton("Queries", !sql.isEmpty());
+        ButtonGroup modes = new ButtonGroup();
+        modes.add(tableMode);
+        modes.add(queryMode);
+        JTextField leftTable = new JTextField(24);
+        JTextField rightTable = new JTextField(24);
+        JTextArea leftSql = new JTextArea(sql, 5, 40);
+        JTextArea rightSql = new JTextArea(sql, 5, 40);
+        JTextField keys = new JTextField(24);
+        keys.setToolTipText("Comma-separated; leave empty to use the primary key");
+        JCheckBox chunked = new JCheckBox("Chunked checksums (large tables with a single-column key)");
+
+        JPanel form = new JPanel(new GridBagLayout());
+        GridBagConstraints c = new GridBagConstraints();
+        c.insets = new Insets(3, 4, 3, 4);
+        c.anchor = GridBagConstraints.WEST;
+        c.fill = GridBagConstraints.HORIZONTAL;
+        c.gridy = 0;
+        form.add(new JLabel(""), c);
+        form.add(bold("Left"), c);
+        form.add(bold("Right"), c);
+        c.gridy = 1;
+        form.add(new JLabel("Profile"), c);
+        form.add(leftBox, c);
+        form.add(rightBox, c);
+        c.gridy = 2;
+        form.add(tableMode, c);
+        form.add(leftTable, c);
+        form.add(rightTable, c);
+        c.gridy = 3;
+        form.add(queryMode, c);
+        form.add(new JScrollPane(leftSql), c);
+        form.add(new JScrollPane(rightSql), c);
+        c.gridy = 4;
+        form.add(new JLabel("Key columns"), c);
+        form.add(keys, c);
+        c.gridy = 5;
+        c.gridx = 1;
+        c.gridwidth = 2;
+        form.add(chunked, c);
+        c.gridy = 6;
+        JLabel hint = new JLabel("Rows only on the right are added, rows only on the left removed");
+        hint.setForeground(new Color(107, 114, 128));
+        form.add(hint, c);
+
+        // a typed right table defaults to the left one
+        leftTable.addActionListener(e -> {
+            if (rightTable.getText().trim().isEmpty()) rightTable.setText(leftTable.getText());
+        });
+
+        while (true) {
+            int answer = JOptionPane.showConfirmDialog(parent, form, "Compare Data",
+                    JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+            if (answer != JOptionPane.OK_OPTION) {
+                return null;
+            }
+            boolean tables = tableMode.isSelected();
+            String left = (tables ? leftTable.getText() : leftSql.getText()).trim();
+            String right = (tables ? rightTable.getText() : rightSql.getText()).trim();
+            if (tables && right.isEmpty()) right = left;
+            List<String> keyList = new ArrayList<>();
+            for (String k : Arrays.asList(keys.getText().split(","))) {
+                if (!k.trim().isEmpty()) keyList.add(k.trim());
+            }
+            String problem = left.isEmpty() ? (tables ? "Enter the table to compare." : "Enter the queries to compare.")
+                    : chunked.isSelected() && !tables ? "Chunked checksums compare tables, not queries."
+                    : null;
+            if (problem == null) {
+                return new Choice((ConnectionProfile) leftBox.getSelectedItem(), (ConnectionProfile) rightBox.getSelectedItem(),
+                        tables, left, right, keyList, chunked.isSelected());
+            }
+            JOptionPane.showMessageDialog(parent, problem, "Compare Data", JOptionPane.WARNING_MESSAGE);
+        }
+    }
+
+    private static JLabel bold(String text) {
+        JLabel label = new JLabel(text);
+        label.setFont(label.getFont().deriveFont(Font.BOLD));
+        return label;
+    }
+}
@@ -0,0 +1,262 @@
+package ui;
+
+import db.ColumnarResultStore;
+import db.QueryHistory;
+
+import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.table.AbstractTableModel;
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * Searchable query history: every run with its latency breakdown, and p50 /
+ * p95 per normalized query with regressions flagged. Open puts a run's SQL
+ * in an editor tab, Run also runs it.
+ */
+public class HistoryDialog extends JDialog {
+    private static HistoryDialog shown;
+
+    private final BiConsumer<QueryHistory.Entry, Boolean> opener;   // entry, run it
+    private final RunsModel runsModel = new RunsModel();
+    private final StatsModel statsModel = new StatsModel();
+    private final JTable runsTable = new JTable(runsModel);
+    private final JTable statsTable = new JTable(statsModel);
+    private final JTabbedPane views = new JTabbedPane();
+    private final JTextField searchField = new JTextField(30);
+    private final JLabel countLabel = new JLabel();
+    private List<QueryHistory.Entry> all = Collections.emptyList();
+
+    /** Shows the history window, reloading it if it is already open. */
+    public static void show(Frame owner, BiConsumer<QueryHistory.Entry, Boolean> opener) {
+        if (shown == null) {
+            shown = new HistoryDialog(owner, opener);
+            shown.setLocationRelativeTo(owner);
+        }
+        shown.reload();
+        shown.setVisible(true);
+        shown.searchField.requestFocusInWindow();
+    }
+
+    private HistoryDialog(Frame owner, BiConsumer<QueryHistory.Entry, Boolean> opener) {
+        super(owner, "Query History", false);
+        this.opener = opener;
+        setSize(1000, 520);
+
+        JPanel top = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        top.add(new JLabel("Search "));
+        searchField.setToolTipText("Words from the SQL, profile, kind (query, script, export, cache, diff) or status");
+        top.add(searchField);
+        top.add(countLabel);
+        add(top, BorderLayout.NORTH);
+
+        runsTable.setAutoCreateRowSorter(true);
+        statsTable.setAutoCreateRowSorter(true);
+        runsTable.setAutoResizeMode(JTable.AUTO_RESIZE_LAST_COLUMN);
+        statsTable.setAutoResizeMode(JTable.AUTO_RESIZE_LAST_COLUMN);
+        for (int c = 0; c < runsModel.getColumnCount() - 1; c++) {
+            runsTable.getColumnModel().getColumn(c).setPreferredWidth(c == 0 ? 130 : 70);
+        }
+        for (int c = 0; c < statsModel.getColumnCount() - 1; c++) {
+            statsTable.getColumnModel().getColumn(c).setPreferredWidth(70);
+        }
+        views.addTab("Runs", new JScrollPane(runsTable));
+        views.addTab("Per query (p50 / p95)", new JScrollPane(statsTable));
+        add(views, BorderLayout.CENTER);
+
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        JButton openButton = new JButton("Open in Editor");
+        openButton.addActionListener(e -> openSelected(false));
+        JButton runButton = new JButton("Run");
+        runButton.addActionListener(e -> openSelected(true));
+        JButton closeButton = new JButton("Close");
+        closeButton.addActionListener(e -> setVisible(false));
+        buttons.add(openButton);
+        buttons.add(runButton);
+        buttons.add(closeButton);
+        add(buttons, BorderLayout.SOUTH);
+
+        MouseAdapter doubleClick = new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2) openSelected(false);
+            }
+        };
+        runsTable.addMouseListener(doubleClick);
+        statsTable.addMouseListener(doubleClick);
+
+        Timer searchTimer = new Timer(200, e -> applySearch());
+        searchTimer.setRepeats(false);
+        searchField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                searchTimer.restart();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                searchTimer.restart();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                searchTimer.restart();
+            }
+        });
+    }
+
+    private void reload() {
+        countLabel.setText("Loading...");
+        QueryHistory.entries().whenComplete((entries, err) -> SwingUtilities.invokeLater(() -> {
+            if (err != null) {
+                countLabel.setText("Could not load the history: " + err.getMessage());
+                return;
+            }
+            all = entries;
+            applySearch();
+        }));
+    }
+
+    private void applySearch() {
+        List<QueryHistory.Entry> hits = QueryHistory.search(all, searchField.getText());
+        runsModel.set(hits);
+        List<QueryHistory.Entry> oldestFirst = new ArrayList<>(hits);
+        Collections.reverse(oldestFirst);
+        statsModel.set(QueryHistory.stats(oldestFirst));
+        countLabel.setText(String.format("%,d of %,d runs, %,d distinct queries", hits.size(), all.size(),
+                statsModel.stats.size()));
+    }
+
+    private void openSelected(boolean run) {
+        QueryHistory.Entry entry = null;
+        if (views.getSelectedIndex() == 0) {
+            int row = runsTable.getSelectedRow();
+            if (row >= 0) entry = runsModel.entries.get(runsTable.convertRowIndexToModel(row));
+        } else {
+            int row = statsTable.getSelectedRow();
+            if (row >= 0) entry = statsModel.stats.get(statsTable.convertRowIndexToModel(row)).latest;
+        }
+        if (entry == null) {
+            return;
+        }
+        if (run && entry.truncated) {
+            JOptionPane.showMessageDialog(this, "Only the start of this script was kept in the history; open it instead.");
+            return;
+        }
+        opener.accept(entry, run);
+    }
+
+    private static String firstLine(String sql) {
+        String s = sql.trim().replaceAll("\\s+", " ");
+        return s.length() > 300 ? s.substring(0, 300) + "\u2026" : s;
+    }
+
+    private static Long ms(long value) {
+        return value < 0 ? null : value;
+    }
+
+    private static final class RunsModel extends AbstractTableModel {
+        private static final String[] COLUMNS = {"When", "Profile", "Kind", "Status", "Time ms", "Connect ms",
+                "First row ms", "Fetch ms", "Build ms", "Rows", "Size", "SQL"};
+        private final SimpleDateFormat when = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        List<QueryHistory.Entry> entries = Collections.emptyList();
+
+        void set(List<QueryHistory.Entry> entries) {
+            this.entries = entries;
+            fireTableDataChanged();
+        }
+
+        @Override
+        public int getRowCount() {
+            return entries.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return COLUMNS.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return COLUMNS[column];
+        }
+
+        @Override
+        public Class<?> getColumnClass(int column) {
+            return column >= 4 && column <= 9 ? Long.class : String.class;
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            QueryHistory.Entry e = entries.get(row);
+            switch (column) {
+                case 0: return when.format(new Date(e.time));
+                case 1: return e.profile;
+                case 2: return e.kind;
+                case 3: return e.error == null ? e.status : e.status + ": " + e.error;
+                case 4: return e.activeMs();
+                case 5: return ms(e.connectMs);
+                case 6: return ms(e.firstRowMs);
+                case 7: return ms(e.fetchMs);
+                case 8: return ms(e.buildMs);
+                case 9: return e.rows;
+                case 10: return e.bytes > 0 ? ColumnarResultStore.formatBytes(e.bytes) : "";
+                default: return firstLine(e.sql);
+            }
+        }
+    }
+
+    private static final class StatsModel extends AbstractTableModel {
+        private static final String[] COLUMNS = {"Profile", "Runs", "p50 ms", "p95 ms", "Max ms", "Last ms",
+                "Trend", "Query"};
+        List<QueryHistory.Stats> stats = Collections.emptyList();
+
+        void set(List<QueryHistory.Stats> stats) {
+            this.stats = stats;
+            fireTableDataChanged();
+        }
+
+        @Override
+        public int getRowCount() {
+            return stats.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return COLUMNS.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return COLUMNS[column];
+        }
+
+        @Override
+        public Class<?> getColumnClass(int column) {
+            return column >= 1 && column <= 5 ? Long.class : String.class;
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            QueryHistory.Stats s = stats.get(row);
+            switch (column) {
+                case 0: return s.latest.profile;
+                case 1: return (long) s.runs;
+                case 2: return s.p50;
+                case 3: return s.p95;
+                case 4: return s.max;
+                case 5: return s.latest.activeMs();
+                case 6: return s.regressed ? "\u25B2 slower" : "";
+                default: return firstLine(s.fingerprint);
+            }
+        }
+    }
+}
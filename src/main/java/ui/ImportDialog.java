@@ -0,0 +1,68 @@
+package ui;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.List;
+
+/**
+ * Maps the columns of an import file onto the columns of the target table.
+ * Each file column gets a drop-down of table columns, preselected from the
+ * default mapping, with "(skip)" to leave it out.
+ */
+public class ImportDialog {
+    private static final String SKIP = "(skip)";
+
+    /** Table column per file column (null = skip), or null if the user cancelled. */
+    public static String[] prompt(Component parent, String file, String table, String[] header,
+                                  List<String> columns, String[] defaults) {
+        JPanel form = new JPanel(new GridBagLayout());
+        GridBagConstraints c = new GridBagConstraints();
+        c.insets = new Insets(3, 4, 3, 4);
+        c.anchor = GridBagConstraints.WEST;
+        String[] choices = new String[columns.size() + 1];
+        choices[0] = SKIP;
+        for (int i = 0; i < columns.size(); i++) choices[i + 1] = columns.get(i);
+
+        JLabel title = new JLabel(file + " -> " + table);
+        title.setFont(title.getFont().deriveFont(Font.BOLD));
+        c.gridwidth = 2;
+        form.add(title, c);
+        c.gridwidth = 1;
+        JComboBox<?>[] boxes = new JComboBox<?>[header.length];
+        for (int i = 0; i < header.length; i++) {
+            c.gridx = 0;
+            c.gridy = i + 1;
+            c.weightx = 0;
+            c.fill = GridBagConstraints.NONE;
+            form.add(new JLabel(header[i]), c);
+            JComboBox<String> box = new JComboBox<>(choices);
+            box.setSelectedItem(defaults[i] == null ? SKIP : defaults[i]);
+            c.gridx = 1;
+            c.weightx = 1;
+            c.fill = GridBagConstraints.HORIZONTAL;
+            form.add(box, c);
+            boxes[i] = box;
+        }
+        c.gridx = 0;
+        c.gridy = header.length + 1;
+        c.gridwidth = 2;
+        JLabel hint = new JLabel("Empty CSV fields and JSON null are inserted as NULL");
+        hint.setForeground(new Color(107, 114, 128));
+        form.add(hint, c);
+
+        JScrollPane scroll = new JScrollPane(form);
+        scroll.setBorder(null);
+        scroll.setPreferredSize(new Dimension(460, Math.min(420, 70 + header.length * 32)));
+        int answer = JOptionPane.showConfirmDialog(parent, scroll, "Import into " + table,
+                JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+        if (answer != JOptionPane.OK_OPTION) {
+            return null;
+        }
+        String[] targets = new String[header.length];
+        for (int i = 0; i < header.length; i++) {
+            Object chosen = boxes[i].getSelectedItem();
+            targets[i] = SKIP.equals(chosen) ? null : (String) chosen;
+        }
+        return targets;
+    }
+}
@@ -0,0 +1,230 @@
+package ui;
+
+import db.ColumnarResultStore;
+import db.SqlFile;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+
+/**
+ * Side panel of a tab in large-file mode: indexing progress, the statement
+ * index as a virtual list, go-to fields and running a range of statements
+ * straight from the file.
+ */
+class LargeFilePanel extends JPanel {
+    private static final int PREVIEW_CHARS = 80;
+
+    /** What the panel asks its tab to do. */
+    interface Actions {
+        /** Shows the part of the file around offset in the editor. */
+        void show(long offset);
+
+        /** Runs statements [from, to) from the file. */
+        void run(int from, int to);
+
+        void saveAs();
+    }
+
+    private final SqlFile file;
+    private final Actions actions;
+    private final JLabel infoLabel = new JLabel();
+    private final JLabel windowLabel = new JLabel(" ");
+    private final StatementListModel listModel = new StatementListModel();
+    private final JList<Integer> list = new JList<>(listModel);
+    private final JTextField statementField = new JTextField(6);
+    private final JTextField lineField = new JTextField(6);
+    private final JTextField fromField = new JTextField(6);
+    private final JTextField toField = new JTextField(6);
+    private final JButton runButton = new JButton("Run Range");
+    private final Timer progressTimer;
+
+    LargeFilePanel(SqlFile file, Actions actions) {
+        super(new BorderLayout(0, 4));
+        this.file = file;
+        this.actions = actions;
+        setBorder(BorderFactory.createEmptyBorder(4, 4, 4, 4));
+
+        JPanel top = new JPanel(new GridLayout(2, 1));
+        top.add(infoLabel);
+        top.add(windowLabel);
+        add(top, BorderLayout.NORTH);
+
+        // fixed cell sizes so the list never measures all its rows
+        list.setFixedCellHeight(18);
+        list.setFixedCellWidth(360);
+        list.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        list.setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> l, Object value, int index, boolean selected, boolean focus) {
+                int i = (Integer) value;
+                String text = String.format("#%,d  L%,d  %s", i + 1, file.statementLine(i), file.preview(i, PREVIEW_CHARS));
+                return super.getListCellRendererComponent(l, text, index, selected, focus);
+            }
+        });
+        list.addListSelectionListener(e -> {
+            if (e.getValueIsAdjusting() || list.isSelectionEmpty()) return;
+            fromField.setText(String.valueOf(list.getMinSelectionIndex() + 1));
+            toField.setText(String.valueOf(list.getMaxSelectionIndex() + 1));
+        });
+        list.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2 && !list.isSelectionEmpty()) {
+                    actions.show(file.statementStart(list.getSelectedIndex()));
+                }
+            }
+        });
+        list.getInputMap().put(KeyStroke.getKeyStroke(KeyEvent.VK_ENTER, 0), "showStatement");
+        list.getActionMap().put("showStatement", new AbstractAction() {
+            @Override
+            public void actionPerformed(java.awt.event.ActionEvent e) {
+                if (!list.isSelectionEmpty()) actions.show(file.statementStart(list.getSelectedIndex()));
+            }
+        });
+        add(new JScrollPane(list), BorderLayout.CENTER);
+
+        JPanel controls = new JPanel(new GridBagLayout());
+        GridBagConstraints c = new GridBagConstraints();
+        c.insets = new Insets(2, 2, 2, 2);
+        c.anchor = GridBagConstraints.WEST;
+        c.gridy = 0;
+        controls.add(new JLabel("Statement"), c);
+        controls.add(statementField, c);
+        controls.add(new JLabel("Line"), c);
+        controls.add(lineField, c);
+        c.gridy = 1;
+        controls.add(new JLabel("Run from"), c);
+        controls.add(fromField, c);
+        controls.add(new JLabel("to"), c);
+        controls.add(toField, c);
+        c.gridy = 2;
+        c.gridwidth = 2;
+        runButton.setToolTipText("Run the statements from the file, without loading it");
+        controls.add(runButton, c);
+        JButton saveButton = new JButton("Save As...");
+        saveButton.setToolTipText("Write the file with the edited window to a new file");
+        controls.add(saveButton, c);
+        add(controls, BorderLayout.SOUTH);
+
+        statementField.addActionListener(e -> goToStatement());
+        lineField.addActionListener(e -> goToLine());
+        runButton.addActionListener(e -> runRange());
+        saveButton.addActionListener(e -> actions.saveAs());
+
+        // the index grows in the background; the list follows it
+        progressTimer = new Timer(500, e -> refresh());
+        progressTimer.setInitialDelay(0);
+        progressTimer.start();
+    }
+
+    private void refresh() {
+        listModel.update(file.statementCount());
+        String size = ColumnarResultStore.formatBytes(file.size());
+        if (file.isIndexed()) {
+            progressTimer.stop();
+            String failed = file.indexed().isCompletedExceptionally() ? " (indexing failed)" : "";
+            infoLabel.setText(String.format("%s: %s, %,d statements, %,d lines%s", file.getPath().getFileName(), size,
+                    file.statementCount(), file.lineCount(), failed));
+        } else {
+            infoLabel.setText(String.format("%s: %s, indexing %d%%... %,d statements", file.getPath().getFileName(),
+                    size, file.size() == 0 ? 100 : (int) (file.scanned() * 100 / file.size()), file.statementCount()));
+        }
+    }
+
+    /** Describes what the editor shows, e.g. "Lines 1-20,000". */
+    void setWindowText(String text) {
+        windowLabel.setText(text);
+    }
+
+    void setRunning(boolean running) {
+        runButton.setEnabled(!running);
+    }
+
+    void stop() {
+        progressTimer.stop();
+    }
+
+    private void goToStatement() {
+        Integer n = parse(statementField, "statement");
+        if (n == null) return;
+        if (n < 1 || n > file.statementCount()) {
+            complain("There is no statement " + n + (file.isIndexed() ? "." : " yet; the file is still being indexed."));
+            return;
+        }
+        list.setSelectedIndex(n - 1);
+        list.ensureIndexIsVisible(n - 1);
+        actions.show(file.statementStart(n - 1));
+    }
+
+    private void goToLine() {
+        Integer n = parse(lineField, "line");
+        if (n == null) return;
+        long offset = file.lineOffset(n);
+        if (offset < 0) {
+            complain("There is no line " + n + (file.isIndexed() ? "." : " yet; the file is still being indexed."));
+            return;
+        }
+        int i = file.statementAtLine(n);
+        if (i >= 0) {
+            list.setSelectedIndex(i);
+            list.ensureIndexIsVisible(i);
+        }
+        actions.show(offset);
+    }
+
+    private void runRange() {
+        Integer from = parse(fromField, "first statement");
+        Integer to = parse(toField, "last statement");
+        if (from == null || to == null) return;
+        int count = file.statementCount();
+        if (from < 1 || to < from || to > count) {
+            complain(String.format("Pick statements between 1 and %,d, first before last.", count));
+            return;
+        }
+        if (to - from >= 1000 && JOptionPane.showConfirmDialog(this,
+                String.format("Run %,d statements from %s?", to - from + 1, file.getPath().getFileName()),
+                "Run Range", JOptionPane.YES_NO_OPTION) != JOptionPane.YES_OPTION) {
+            return;
+        }
+        actions.run(from - 1, to);
+    }
+
+    private Integer parse(JTextField field, String what) {
+        try {
+            return Integer.parseInt(field.getText().trim().replace(",", ""));
+        } catch (NumberFormatException ex) {
+            complain("Enter a " + what + " number.");
+            return null;
+        }
+    }
+
+    private void complain(String message) {
+        JOptionPane.showMessageDialog(this, message, "Large File", JOptionPane.INFORMATION_MESSAGE);
+    }
+
+    /** Statement indexes 0..count-1; nothing is stored per row. */
+    private static final class StatementListModel extends AbstractListModel<Integer> {
+        private int size;
+
+        void update(int count) {
+            if (count > size) {
+                int first = size;
+                size = count;
+                fireIntervalAdded(this, first, count - 1);
+            }
+        }
+
+        @Override
+        public int getSize() {
+            return size;
+        }
+
+        @Override
+        public Integer getElementAt(int index) {
+            return index;
+        }
+    }
+}
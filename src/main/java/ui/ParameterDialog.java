@@ -0,0 +1,64 @@
+package ui;
+
+import db.SqlParameters;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Asks for values of :name and ? placeholders before a run. Values typed for
+ * a name are remembered for the session and offered again next time.
+ */
+public class ParameterDialog {
+    private static final Map<String, String> lastValues = new HashMap<>();   // EDT only
+
+    /** Values by name, or null if the user cancelled. */
+    public static Map<String, Object> prompt(Component parent, Set<String> names) {
+        JPanel form = new JPanel(new GridBagLayout());
+        GridBagConstraints c = new GridBagConstraints();
+        c.insets = new Insets(3, 4, 3, 4);
+        c.anchor = GridBagConstraints.WEST;
+        Map<String, JTextField> fields = new LinkedHashMap<>();
+        int row = 0;
+        for (String name : names) {
+            boolean positional = Character.isDigit(name.charAt(0));
+            c.gridx = 0;
+            c.gridy = row;
+            c.weightx = 0;
+            c.fill = GridBagConstraints.NONE;
+            form.add(new JLabel(positional ? "? #" + name : ":" + name), c);
+            JTextField field = new JTextField(lastValues.getOrDefault(name, ""), 24);
+            c.gridx = 1;
+            c.weightx = 1;
+            c.fill = GridBagConstraints.HORIZONTAL;
+            form.add(field, c);
+            fields.put(name, field);
+            row++;
+        }
+        c.gridx = 0;
+        c.gridy = row;
+        c.gridwidth = 2;
+        JLabel hint = new JLabel("NULL for null, numbers are bound as numbers, 'quotes' force text");
+        hint.setForeground(new Color(107, 114, 128));
+        form.add(hint, c);
+
+        JComponent first = fields.values().iterator().next();
+        SwingUtilities.invokeLater(first::requestFocusInWindow);
+        int answer = JOptionPane.showConfirmDialog(parent, form, "Query parameters",
+                JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+        if (answer != JOptionPane.OK_OPTION) {
+            return null;
+        }
+        Map<String, Object> values = new HashMap<>();
+        for (Map.Entry<String, JTextField> e : fields.entrySet()) {
+            String text = e.getValue().getText();
+            lastValues.put(e.getKey(), text);
+            values.put(e.getKey(), SqlParameters.parseValue(text));
+        }
+        return values;
+    }
+}
@@ -0,0 +1,202 @@
+package ui;
+
+import db.ExplainPlan;
+
+import javax.swing.*;
+import javax.swing.tree.DefaultMutableTreeNode;
+import javax.swing.tree.DefaultTreeCellRenderer;
+import java.awt.*;
+import java.awt.datatransfer.StringSelection;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Execution plan of one statement as a tree with estimated rows, cost and
+ * index per step; full scans are shown in red. Another cached plan of the
+ * same connection, e.g. an earlier version of the query, can be shown next
+ * to it. Refresh explains the statement again.
+ */
+public class PlanDialog extends JDialog {
+    private static final Color WARNING = new Color(185, 28, 28);
+    private static PlanDialog shown;
+
+    private final JPanel planPanel = new JPanel(new BorderLayout());
+    private final JPanel comparePanel = new JPanel(new BorderLayout());
+    private final JSplitPane split;
+    private final JComboBox<Object> compareBox = new JComboBox<>();
+    private Consumer<String> refresher;   // explains sql again on the tab that asked
+    private ExplainPlan plan;
+    private boolean updating;
+
+    /** Shows plan, replacing the one on display; refresher re-explains a statement. */
+    public static void show(Frame owner, ExplainPlan plan, Consumer<String> refresher) {
+        if (shown == null) {
+            shown = new PlanDialog(owner);
+            shown.setLocationRelativeTo(owner);
+        }
+        shown.refresher = refresher;
+        shown.setPlan(plan);
+        shown.setVisible(true);
+    }
+
+    private PlanDialog(Frame owner) {
+        super(owner, "Execution Plan", false);
+        setSize(1000, 560);
+
+        split = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, planPanel, comparePanel);
+        split.setResizeWeight(0.5);
+        add(planPanel, BorderLayout.CENTER);
+
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        buttons.add(new JLabel("Compare with "));
+        compareBox.setRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                                                          boolean isSelected, boolean cellHasFocus) {
+                Object text = value instanceof ExplainPlan ? label((ExplainPlan) value) : value;
+                return super.getListCellRendererComponent(list, text, index, isSelected, cellHasFocus);
+            }
+        });
+        compareBox.setPrototypeDisplayValue("none".repeat(12));
+        compareBox.addActionListener(e -> {
+            if (!updating) showComparison();
+        });
+        buttons.add(compareBox);
+        JButton refreshButton = new JButton("Refresh");
+        refreshButton.setToolTipText("Explain the statement again, e.g. after adding an index");
+        refreshButton.addActionListener(e -> {
+            if (plan != null && refresher != null) refresher.accept(plan.sql);
+        });
+        JButton copyButton = new JButton("Copy");
+        copyButton.setToolTipText("Copy the plan as indented text");
+        copyButton.addActionListener(e -> {
+            if (plan != null) {
+                Toolkit.getDefaultToolkit().getSystemClipboard().setContents(
+                        new StringSelection(ExplainPlan.describe(plan.root)), null);
+            }
+        });
+        JButton closeButton = new JButton("Close");
+        closeButton.addActionListener(e -> setVisible(false));
+        buttons.add(refreshButton);
+        buttons.add(copyButton);
+        buttons.add(closeButton);
+        add(buttons, BorderLayout.SOUTH);
+    }
+
+    private void setPlan(ExplainPlan plan) {
+        this.plan = plan;
+        setTitle("Execution Plan - " + plan.profile);
+        planPanel.removeAll();
+        planPanel.add(planView(plan), BorderLayout.CENTER);
+
+        // the other cached plans of this connection, newest first
+        updating = true;
+        Object selected = compareBox.getSelectedItem();
+        compareBox.removeAllItems();
+        compareBox.addItem("none");
+        for (ExplainPlan other : ExplainPlan.cachedPlans(plan.url)) {
+            if (other != plan && !other.sql.equals(plan.sql)) compareBox.addItem(other);
+        }
+        if (selected instanceof ExplainPlan) {
+            for (int i = 0; i < compareBox.getItemCount(); i++) {
+                if (compareBox.getItemAt(i) == selected) compareBox.setSelectedIndex(i);
+            }
+        }
+        updating = false;
+        showComparison();
+    }
+
+    private void showComparison() {
+        Object other = compareBox.getSelectedItem();
+        getContentPane().remove(split);
+        getContentPane().remove(planPanel);
+        if (other instanceof ExplainPlan) {
+            comparePanel.removeAll();
+            comparePanel.add(planView((ExplainPlan) other), BorderLayout.CENTER);
+            split.setLeftComponent(planPanel);
+            split.setRightComponent(comparePanel);
+            add(split, BorderLayout.CENTER);
+            split.setDividerLocation(0.5);
+        } else {
+            add(planPanel, BorderLayout.CENTER);
+        }
+        getContentPane().revalidate();
+        getContentPane().repaint();
+    }
+
+    /** Summary line, the plan tree and the raw plan and SQL of one plan. */
+    private static JComponent planView(ExplainPlan plan) {
+        JPanel panel = new JPanel(new BorderLayout());
+        List<ExplainPlan.Node> scans = plan.fullScans();
+        StringBuilder head = new StringBuilder(String.format("%s  explained %s in %d ms",
+                plan.profile, new SimpleDateFormat("HH:mm:ss").format(new Date(plan.createdAt)), plan.tookMs));
+        if (!scans.isEmpty()) {
+            head.append("  |  full scan: ");
+            for (int i = 0; i < scans.size(); i++) {
+                ExplainPlan.Node n = scans.get(i);
+                if (i > 0) head.append(", ");
+                head.append(n.table != null ? n.table : n.label);
+            }
+        }
+        JLabel headLabel = new JLabel(head.toString());
+        headLabel.setBorder(BorderFactory.createEmptyBorder(4, 6, 4, 6));
+        if (!scans.isEmpty()) headLabel.setForeground(WARNING);
+        panel.add(headLabel, BorderLayout.NORTH);
+
+        JTree tree = new JTree(treeNode(plan.root));
+        tree.setCellRenderer(new NodeRenderer());
+        ToolTipManager.sharedInstance().registerComponent(tree);
+        for (int row = 0; row < tree.getRowCount(); row++) {
+            tree.expandRow(row);
+        }
+
+        JTextArea raw = new JTextArea(plan.raw + "\n\n-- " + plan.dialect + " plan of:\n" + plan.sql);
+        raw.setEditable(false);
+        raw.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        raw.setCaretPosition(0);
+
+        JTabbedPane views = new JTabbedPane();
+        views.addTab("Plan", new JScrollPane(tree));
+        views.addTab("Raw", new JScrollPane(raw));
+        panel.add(views, BorderLayout.CENTER);
+        return panel;
+    }
+
+    private static DefaultMutableTreeNode treeNode(ExplainPlan.Node n) {
+        DefaultMutableTreeNode node = new DefaultMutableTreeNode(n);
+        for (ExplainPlan.Node c : n.children) {
+            node.add(treeNode(c));
+        }
+        return node;
+    }
+
+    private static String label(ExplainPlan p) {
+        String sql = p.sql.trim().replaceAll("\\s+", " ");
+        return new SimpleDateFormat("HH:mm:ss").format(new Date(p.createdAt)) + "  "
+                + (sql.length() > 60 ? sql.substring(0, 60) + "\u2026" : sql);
+    }
+
+    private static final class NodeRenderer extends DefaultTreeCellRenderer {
+        @Override
+        public Component getTreeCellRendererComponent(JTree tree, Object value, boolean sel, boolean expanded,
+                                                      boolean leaf, int row, boolean hasFocus) {
+            super.getTreeCellRendererComponent(tree, value, sel, expanded, leaf, row, hasFocus);
+            Object user = ((DefaultMutableTreeNode) value).getUserObject();
+            if (user instanceof ExplainPlan.Node) {
+                ExplainPlan.Node n = (ExplainPlan.Node) user;
+                setText(n.summary());
+                setToolTipText(n.details.isEmpty() ? null : "<html>" + String.join("<br>",
+                        n.details.stream().map(PlanDialog::escape).toArray(String[]::new)) + "</html>");
+                if (n.fullScan && !sel) setForeground(WARNING);
+            }
+            return this;
+        }
+    }
+
+    private static String escape(String s) {
+        String t = s.length() > 200 ? s.substring(0, 200) + "\u2026" : s;
+        return t.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+}
@@ -0,0 +1,243 @@
+package ui;
+
+import db.CellFormat;
+import db.ResultSorter;
+import db.ResultTableModel;
+import db.Settings;
+
+import javax.swing.*;
+import javax.swing.event.TableModelEvent;
+import javax.swing.table.DefaultTableCellRenderer;
+import javax.swing.table.TableCellRenderer;
+import javax.swing.table.TableColumn;
+import javax.swing.table.TableModel;
+import java.awt.*;
+import java.awt.event.MouseEvent;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * Result table built for models with millions of rows. Only visible cells
+ * are painted (JTable clips to the viewport); each cell's display text is
+ * formatted once and kept in a small direct-mapped cache, and a single
+ * renderer only touches the properties that change between cells. Columns
+ * are sized once from a sample of grid.sampleRows rows instead of every row,
+ * auto-resize is off, and long text and binary values are cut to
+ * grid.maxCellChars, with the full value in the tooltip.
+ *
+ * <p>Query results get a {@link ResultSorter}, so header clicks sort and
+ * the quick filter runs in the background instead of on the EDT.
+ */
+public class ResultGrid extends JTable {
+    private static final int CACHE_SIZE = 1 << 13;
+    private static final String NULL_TEXT = new String("NULL");   // distinct from a "NULL" string value
+    private static final Pattern NUMBER = Pattern.compile("[-+]?(\\d[\\d,]*)?\\.?\\d*([eE][-+]?\\d+)?");
+
+    private final int maxChars = Math.max(16, Settings.getInt("grid.maxCellChars", 200));
+    private final int sampleRows = Math.max(1, Settings.getInt("grid.sampleRows", 200));
+    private final int maxColumnWidth = Math.max(40, Settings.getInt("grid.maxColumnWidthPx", 400));
+
+    private long[] cacheKeys;
+    private String[] cacheTexts;
+    private CellRenderer cellRenderer;
+    private boolean[] rightAligned = new boolean[0];
+    private boolean sized;
+    private Consumer<String> sortStatusListener = s -> { };
+
+    public ResultGrid() {
+        cacheKeys = new long[CACHE_SIZE];
+        cacheTexts = new String[CACHE_SIZE];
+        cellRenderer = new CellRenderer();
+        clearCache();
+        setAutoResizeMode(AUTO_RESIZE_OFF);
+        setFillsViewportHeight(true);
+        ToolTipManager.sharedInstance().registerComponent(this);
+    }
+
+    /** Zebra stripes for unselected rows. */
+    public void setStripeColors(Color even, Color odd) {
+        cellRenderer.even = even;
+        cellRenderer.odd = odd;
+        repaint();
+    }
+
+    /** Receives the sorter's progress and outcome messages. */
+    public void setSortStatusListener(Consumer<String> listener) {
+        sortStatusListener = listener;
+        if (getRowSorter() instanceof ResultSorter) ((ResultSorter) getRowSorter()).setStatusListener(listener);
+    }
+
+    /** The sorter of the current query result, or null for other models. */
+    public ResultSorter getResultSorter() {
+        return getRowSorter() instanceof ResultSorter ? (ResultSorter) getRowSorter() : null;
+    }
+
+    @Override
+    public void setModel(TableModel model) {
+        // drop the old sorter first, so it never sees the new model
+        if (getRowSorter() instanceof ResultSorter) {
+            ((ResultSorter) getRowSorter()).dispose();
+            setRowSorter(null);
+        }
+        super.setModel(model);
+        if (model instanceof ResultTableModel && cacheKeys != null) {
+            ResultSorter sorter = new ResultSorter((ResultTableModel) model);
+            sorter.setStatusListener(sortStatusListener);
+            setRowSorter(sorter);
+        }
+    }
+
+    @Override
+    public void tableChanged(TableModelEvent e) {
+        super.tableChanged(e);
+        if (cacheKeys == null) return;   // called from the JTable constructor
+        if (e.getType() == TableModelEvent.INSERT) {
+            // appended rows leave the cells already formatted unchanged
+            if (!sized && getModel().getRowCount() > 0) SwingUtilities.invokeLater(this::sizeColumns);
+            return;
+        }
+        clearCache();
+        if (e.getFirstRow() == TableModelEvent.HEADER_ROW) {
+            sized = false;
+            rightAligned = new boolean[getModel().getColumnCount()];
+            if (getModel().getRowCount() > 0) SwingUtilities.invokeLater(this::sizeColumns);
+        }
+    }
+
+    @Override
+    public TableCellRenderer getCellRenderer(int row, int column) {
+        return cellRenderer;
+    }
+
+    @Override
+    public Component prepareRenderer(TableCellRenderer renderer, int row, int column) {
+        if (renderer != cellRenderer) {
+            return super.prepareRenderer(renderer, row, column);
+        }
+        int modelColumn = convertColumnIndexToModel(column);
+        String text = cellText(convertRowIndexToModel(row), modelColumn);
+        boolean right = modelColumn < rightAligned.length && rightAligned[modelColumn];
+        return cellRenderer.configure(this, text, isCellSelected(row, column), row, right);
+    }
+
+    /** Full value of a cut-off cell, read only when the user hovers it. */
+    @Override
+    public String getToolTipText(MouseEvent e) {
+        int row = rowAtPoint(e.getPoint());
+        int column = columnAtPoint(e.getPoint());
+        if (row < 0 || column < 0) return null;
+        int modelRow = convertRowIndexToModel(row);
+        int modelColumn = convertColumnIndexToModel(column);
+        String text = cellText(modelRow, modelColumn);
+        if (text == NULL_TEXT || text.indexOf('\u2026') < 0) return null;
+        return CellFormat.text(getModel().getValueAt(modelRow, modelColumn), 2000);
+    }
+
+    private String cellText(int modelRow, int modelColumn) {
+        long key = ((long) modelRow << 20) | modelColumn;
+        int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> 51);   // 13 bits
+        if (cacheKeys[slot] == key) {
+            return cacheTexts[slot];
+        }
+        TableModel model = getModel();
+        String text = (model instanceof ResultTableModel)
+                ? ((ResultTableModel) model).getCellText(modelRow, modelColumn, maxChars)
+                : CellFormat.text(model.getValueAt(modelRow, modelColumn), maxChars);
+        if (text == null) text = NULL_TEXT;
+        cacheKeys[slot] = key;
+        cacheTexts[slot] = text;
+        return text;
+    }
+
+    private void clearCache() {
+        Arrays.fill(cacheKeys, -1);
+        Arrays.fill(cacheTexts, null);
+    }
+
+    /**
+     * Sizes columns from the header and a sample of rows: the first half of
+     * the sample from the top, the rest spread over the loaded rows. Numeric
+     * columns are right-aligned.
+     */
+    private void sizeColumns() {
+        TableModel model = getModel();
+        int rows = model.getRowCount();
+        int columns = Math.min(model.getColumnCount(), getColumnModel().getColumnCount());
+        if (sized || rows == 0 || columns == 0) return;
+        sized = true;
+        FontMetrics cellMetrics = getFontMetrics(getFont());
+        FontMetrics headerMetrics = getFontMetrics(getTableHeader().getFont());
+        int head = Math.min(rows, sampleRows / 2);
+        int spread = Math.min(rows - head, sampleRows - head);
+        if (rightAligned.length != model.getColumnCount()) rightAligned = new boolean[model.getColumnCount()];
+        for (int c = 0; c < columns; c++) {
+            TableColumn column = getColumnModel().getColumn(c);
+            int modelColumn = column.getModelIndex();
+            int width = headerMetrics.stringWidth(model.getColumnName(modelColumn));
+            boolean numeric = true;
+            boolean any = false;
+            for (int i = 0; i < head + spread; i++) {
+                int r = i < head ? i : head + (int) ((long) (i - head) * (rows - head) / spread);
+                String text = cellText(r, modelColumn);
+                if (text == NULL_TEXT) continue;
+                any = true;
+                width = Math.max(width, cellMetrics.stringWidth(text));
+                if (numeric && !NUMBER.matcher(text).matches()) numeric = false;
+            }
+            rightAligned[modelColumn] = any && numeric;
+            column.setPreferredWidth(Math.min(maxColumnWidth, Math.max(40, width + 18)));
+        }
+    }
+
+    /**
+     * One label reused for every cell. Unlike DefaultTableCellRenderer's
+     * getTableCellRendererComponent it does no UIManager lookups and skips
+     * setters whose value did not change.
+     */
+    private static final class CellRenderer extends DefaultTableCellRenderer {
+        Color even = Color.WHITE;
+        Color odd = Color.WHITE;
+        private final Color nullForeground = new Color(156, 163, 175);
+        private Color background;
+        private Color foreground;
+        private Font font;
+        private Font nullFont;
+        private int alignment = LEADING;
+
+        CellRenderer() {
+            setBorder(BorderFactory.createEmptyBorder(0, 6, 0, 6));
+            setOpaque(true);
+        }
+
+        Component configure(JTable table, String text, boolean selected, int row, boolean right) {
+            Color bg = selected ? table.getSelectionBackground() : (row % 2 == 0 ? even : odd);
+            if (bg != background) {
+                background = bg;
+                setBackground(bg);
+            }
+            boolean isNull = text == NULL_TEXT;
+            Color fg = isNull ? nullForeground : selected ? table.getSelectionForeground() : table.getForeground();
+            if (fg != foreground) {
+                foreground = fg;
+                setForeground(fg);
+            }
+            Font base = table.getFont();
+            if (nullFont == null || font == null || (font != base && font != nullFont)) {
+                nullFont = base.deriveFont(Font.ITALIC);
+            }
+            Font f = isNull ? nullFont : base;
+            if (f != font) {
+                font = f;
+                setFont(f);
+            }
+            int align = right ? TRAILING : LEADING;
+            if (align != alignment) {
+                alignment = align;
+                setHorizontalAlignment(align);
+            }
+            setText(text);
+            return this;
+        }
+    }
+}
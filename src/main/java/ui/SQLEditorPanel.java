@@ -4,10 +4,15 @@ import org.fife.ui.rsyntaxtextarea.RSyntaxTextArea;
 import org.fife.ui.rsyntaxtextarea.SyntaxConstants;
 import org.fife.ui.rsyntaxtextarea.Theme;
 import org.fife.ui.rtextarea.RTextScrollPane;
+import db.ConnectionProfile;
+import db.DBConnection;
 import db.DynamicSuggestions;
+import db.Settings;
 import org.fife.ui.autocomplete.AutoCompletion;
 
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import java.awt.*;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
@@ -15,8 +20,16 @@ import java.awt.event.KeyEvent;
 public class SQLEditorPanel extends JPanel {
     private RSyntaxTextArea textArea;
     private AutoCompletion ac;
+    private RTextScrollPane scrollPane;
+    private final int highlightMaxChars = Math.max(1, Settings.getInt("editor.highlightMaxKb", 2048)) * 1024;
+    private boolean plain;
 
     public SQLEditorPanel() {
+        this(DBConnection.active());
+    }
+
+    /** An editor whose completions come from profile's schema. */
+    public SQLEditorPanel(ConnectionProfile profile) {
         setLayout(new BorderLayout());
         textArea = new RSyntaxTextArea(20, 80);
         textArea.setSyntaxEditingStyle(SyntaxConstants.SYNTAX_STYLE_SQL);
@@ -40,10 +53,28 @@ public class SQLEditorPanel extends JPanel {
         RTextScrollPane sp = new RTextScrollPane(textArea);
         sp.setLineNumbersEnabled(true);
         add(sp, BorderLayout.CENTER);
+        scrollPane = sp;
+
+        // Highlighting and folding re-scan the whole document and make typing lag in big buffers
+        textArea.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                checkSize();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                checkSize();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+            }
+        });
 
-        // Install auto-completion (dynamic)
+        // Install auto-completion; schema completions load in the background
         try {
-            ac = DynamicSuggestions.install(textArea);
+            ac = DynamicSuggestions.install(textArea, profile);
         } catch (Exception e) {
             System.err.println("AutoComplete install failed: " + e.getMessage());
         }
@@ -97,7 +128,36 @@ public class SQLEditorPanel extends JPanel {
         return scheme;
     }
 
+    private void checkSize() {
+        boolean large = textArea.getDocument().getLength() > highlightMaxChars;
+        if (large == plain) return;
+        plain = large;
+        // the style can't change inside a document notification
+        SwingUtilities.invokeLater(() -> {
+            textArea.setSyntaxEditingStyle(plain ? SyntaxConstants.SYNTAX_STYLE_NONE : SyntaxConstants.SYNTAX_STYLE_SQL);
+            textArea.setCodeFoldingEnabled(!plain);
+        });
+    }
+
+    /** True while the buffer is too large for highlighting and folding. */
+    public boolean isPlain() {
+        return plain;
+    }
+
+    /** Numbers the gutter from line, for a window into a larger file. */
+    public void setFirstLineNumber(int line) {
+        scrollPane.getGutter().setLineNumberingStartIndex(line);
+    }
+
     public RSyntaxTextArea getTextArea() {
         return textArea;
     }
+
+    /** Progress of the background schema completion load, for the status bar. */
+    public String getCompletionStatus() {
+        if (ac != null && ac.getCompletionProvider() instanceof DynamicSuggestions.CaseInsensitiveCompletionProvider) {
+            return ((DynamicSuggestions.CaseInsensitiveCompletionProvider) ac.getCompletionProvider()).getLoadStatus();
+        }
+        return "Completions unavailable";
+    }
 }
@@ -0,0 +1,917 @@
+package ui;
+
+import db.BulkImport;
+import db.ColumnarResultStore;
+import db.ConnectionPool;
+import db.ConnectionProfile;
+import db.ConnectionSource;
+import db.DBConnection;
+import db.DataDiff;
+import db.ExplainPlan;
+import db.QueryExecution;
+import db.QueryExecutor;
+import db.ResultExport;
+import db.ResultSorter;
+import db.ResultTableModel;
+import db.SchemaCatalog;
+import db.ScriptResultModel;
+import db.ScriptRunner;
+import db.Settings;
+import db.SqlFile;
+import db.SqlParameters;
+import db.SqlScript;
+import org.fife.ui.rsyntaxtextarea.RSyntaxTextArea;
+
+import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.table.TableModel;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * One editor tab: a SQL editor and result grid bound to a connection
+ * profile. Queries, scripts and exports run on the tab's own session, so
+ * USE, SET, temporary tables and open transactions carry over between runs
+ * and tabs never wait on each other; imports use the profile's pool.
+ * A SQL file above editor.largeFileMb opens in large-file mode: the editor
+ * shows a window of it and statements run straight from the file.
+ */
+public class SessionTab extends JPanel {
+    private static JFileChooser exportChooser;
+    private static JFileChooser importChooser;
+    private static JFileChooser saveChooser;
+
+    private final ConnectionProfile profile;
+    private final SQLEditorPanel editorPanel;
+    private final ResultGrid resultTable;
+    private final JLabel statusLabel = new JLabel("Ready");
+    private final Timer runTimer;
+    private final JSplitPane split;
+    private ConnectionPool.Session session;
+    private QueryExecution<?> running;
+    private int scriptStatements;   // > 0 while a script runs
+    private ResultTableModel streaming;
+    private ResultExport exporting;
+    private BulkImport importing;
+    private DataDiff diffing;
+    private Runnable afterStop;     // started once a paused result has been stopped
+    private boolean paused;         // last waiting-for-scroll state the toolbar was told about
+    private Runnable stateListener = () -> { };
+    private SqlFile largeFile;
+    private LargeFilePanel largePanel;
+    private SqlFile.Window window;
+    private boolean windowEdited;
+    private boolean loadingWindow;
+
+    public SessionTab(ConnectionProfile profile) {
+        super(new BorderLayout());
+        this.profile = profile;
+        editorPanel = new SQLEditorPanel(profile);
+        resultTable = new ResultGrid();
+        resultTable.setSortStatusListener(text -> {
+            if (running == null) statusLabel.setText(text);
+        });
+        JScrollPane resultScroll = new JScrollPane(resultTable);
+        styleGrid(resultTable, resultScroll);
+        split = new JSplitPane(JSplitPane.VERTICAL_SPLIT, editorPanel, resultScroll);
+        split.setResizeWeight(0.6);
+        split.setDividerLocation(420);
+        add(split, BorderLayout.CENTER);
+
+        // Ctrl+Enter runs the statement, Ctrl+Shift+Enter the script
+        RSyntaxTextArea ta = editorPanel.getTextArea();
+        ta.getInputMap().put(KeyStroke.getKeyStroke("control ENTER"), "runQuery");
+        ta.getActionMap().put("runQuery", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                onRun();
+            }
+        });
+        ta.getInputMap().put(KeyStroke.getKeyStroke("control shift ENTER"), "runScript");
+        ta.getActionMap().put("runScript", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                onRunScript();
+            }
+        });
+        ta.getInputMap().put(KeyStroke.getKeyStroke("control E"), "explain");
+        ta.getActionMap().put("explain", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                onExplain();
+            }
+        });
+
+        // a window of a large file has to be saved or discarded before showing another
+        ta.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                if (!loadingWindow) windowEdited = true;
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                if (!loadingWindow) windowEdited = true;
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+            }
+        });
+
+        // Live timer and rows-fetched counter while a query runs
+        runTimer = new Timer(100, e -> {
+            QueryExecution<?> exec = running;
+            if (exec == null) {
+                return;
+            }
+            if (importing != null) {
+                statusLabel.setText("Importing... " + importing.progressText());
+                return;
+            }
+            if (exporting != null) {
+                statusLabel.setText("Exporting... " + exporting.progressText());
+                return;
+            }
+            if (diffing != null) {
+                statusLabel.setText("Comparing... " + diffing.progressText());
+                return;
+            }
+            if (scriptStatements > 0) {
+                statusLabel.setText(String.format("Running script... %.1f s, %,d of %,d statements",
+                        exec.elapsedMillis() / 1000.0, exec.rowsFetched(), scriptStatements));
+                return;
+            }
+            ResultTableModel model = streaming;
+            if (isPaused() != paused) {
+                paused = !paused;
+                if (largePanel != null) largePanel.setRunning(!paused);
+                stateListener.run();
+            }
+            if (model != null && model.isWaitingForScroll()) {
+                statusLabel.setText(String.format("%,d rows loaded - scroll to fetch more, Esc to stop",
+                        exec.rowsFetched()));
+            } else {
+                statusLabel.setText(String.format("Running... %.1f s, %,d rows fetched%s",
+                        exec.elapsedMillis() / 1000.0, exec.rowsFetched(),
+                        model == null ? "" : ", " + ColumnarResultStore.formatBytes(model.getMemoryBytes())));
+            }
+        });
+    }
+
+    /** Table colours shared by every tab. */
+    static void styleGrid(ResultGrid resultTable, JScrollPane resultScroll) {
+        Color panelBg  = new Color(247, 249, 252);   // panels
+        Color textFg   = new Color(31, 41, 55);      // primary text
+        Color headerBg = new Color(234, 238, 243);   // table header / toolbar
+        Color gridCol  = new Color(213, 221, 229);   // grid lines/borders
+        Color rowEven  = new Color(250, 252, 255);   // zebra even
+        Color rowOdd   = new Color(242, 247, 252);   // zebra odd
+        Color selBg    = new Color(205, 227, 255);   // selection
+
+        resultTable.setBackground(panelBg);
+        resultTable.setForeground(textFg);
+        resultTable.setGridColor(gridCol);
+        resultTable.setSelectionBackground(selBg);
+        resultTable.setSelectionForeground(textFg);
+        resultTable.setRowHeight(24);
+        resultTable.setShowHorizontalLines(true);
+        resultTable.setShowVerticalLines(false);
+        resultTable.setIntercellSpacing(new Dimension(0, 0));
+
+        // Zebra striping
+        resultTable.setStripeColors(rowEven, rowOdd);
+
+        // Header styling
+        var header = resultTable.getTableHeader();
+        header.setBackground(headerBg);
+        header.setForeground(textFg);
+        header.setFont(header.getFont().deriveFont(Font.BOLD));
+
+        resultScroll.getViewport().setBackground(panelBg);
+    }
+
+    public ConnectionProfile getProfile() {
+        return profile;
+    }
+
+    /** The tab's session, or null before its first statement. */
+    public ConnectionPool.Session getSession() {
+        return session;
+    }
+
+    public SQLEditorPanel getEditorPanel() {
+        return editorPanel;
+    }
+
+    public ResultGrid getResultGrid() {
+        return resultTable;
+    }
+
+    /** This tab's status text; the frame shows the selected tab's label in its status bar. */
+    public JLabel getStatusLabel() {
+        return statusLabel;
+    }
+
+    public boolean isBusy() {
+        return running != null;
+    }
+
+    /** True while a result waits for the grid to be scrolled; a new run stops it first. */
+    public boolean isPaused() {
+        ResultTableModel model = streaming;
+        return running != null && model != null && model.isWaitingForScroll();
+    }
+
+    /**
+     * True if nothing runs. A result waiting for scroll is stopped, keeping
+     * the rows loaded so far, and then starts; anything else gets a message.
+     */
+    private boolean ready(Runnable then) {
+        if (running == null) {
+            return true;
+        }
+        if (afterStop != null || isPaused()) {
+            afterStop = then;
+            onStop();
+            return false;
+        }
+        JOptionPane.showMessageDialog(this, "Wait for the running statement to finish, or stop it.");
+        return false;
+    }
+
+    /** Called on the EDT when a run starts or ends, or a new result is shown. */
+    public void setStateListener(Runnable listener) {
+        stateListener = listener;
+    }
+
+    /** Short session state for the status bar. */
+    public String sessionStatus() {
+        ConnectionPool.Session s = session;
+        if (s == null || !s.isOpen()) {
+            return s != null && s.getLastClose() != null ? "session " + s.getLastClose() : "no session";
+        }
+        return s.isTransactionOpen() ? "session in transaction" : "session open";
+    }
+
+    private ConnectionPool.Session session() throws SQLException {
+        if (session == null) {
+            session = profile.openSession();
+        }
+        return session;
+    }
+
+    /** Runs the selection if there is one, otherwise the statement at the caret. */
+    public void onRun() {
+        if (!ready(this::onRun) || cutWindow()) {
+            return;
+        }
+        run(selectedParts());
+    }
+
+    public void onRunScript() {
+        if (!ready(this::onRunScript) || cutWindow()) {
+            return;
+        }
+        run(SqlScript.split(editorPanel.getTextArea().getText()));
+    }
+
+    /** True, after telling the user, if the editor shows part of a line too long for the window. */
+    private boolean cutWindow() {
+        if (window == null || !window.truncated) {
+            return false;
+        }
+        JOptionPane.showMessageDialog(this, "The shown part of the file cuts a line; use Run Range to run its statements.");
+        return true;
+    }
+
+    private List<SqlScript.Part> selectedParts() {
+        RSyntaxTextArea ta = editorPanel.getTextArea();
+        String selected = ta.getSelectedText();
+        if (selected != null && !selected.trim().isEmpty()) {
+            return SqlScript.split(selected);
+        }
+        SqlScript.Part current = SqlScript.statementAt(ta.getText(), ta.getCaretPosition());
+        return current == null ? List.of() : List.of(current);
+    }
+
+    /** Streams the selected query, or the one at the caret, to a file without loading it into the grid. */
+    public void onExport() {
+        if (!ready(this::onExport)) {
+            return;
+        }
+        List<SqlScript.Part> parts = selectedParts();
+        if (parts.size() != 1 || !SqlScript.isQuery(parts.get(0).sql)) {
+            JOptionPane.showMessageDialog(this, "Put the caret in a single query (or select it) to export.");
+            return;
+        }
+        String sql = parts.get(0).sql;
+
+        if (exportChooser == null) {
+            exportChooser = new JFileChooser();
+            exportChooser.setDialogTitle("Export query results");
+            exportChooser.setSelectedFile(new File("export.csv"));
+            exportChooser.setAcceptAllFileFilterUsed(false);
+            exportChooser.addChoosableFileFilter(new javax.swing.filechooser.FileNameExtensionFilter(
+                    "CSV, JSON Lines or columnar (.csv, .jsonl, .dbcol, optionally .gz)", "csv", "jsonl", "dbcol", "gz"));
+        }
+        if (exportChooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File file = exportChooser.getSelectedFile();
+        if (ResultExport.Format.forFile(file.getName()) == null) {
+            file = new File(file.getPath() + ResultExport.Format.CSV.extension);
+        }
+        if (file.exists() && JOptionPane.showConfirmDialog(this, file.getName() + " exists. Overwrite it?",
+                "Export", JOptionPane.YES_NO_OPTION) != JOptionPane.YES_OPTION) {
+            return;
+        }
+
+        Map<String, Object> values = Collections.emptyMap();
+        Set<String> names = SqlParameters.parse(sql).names();
+        if (!names.isEmpty()) {
+            values = ParameterDialog.prompt(this, names);
+            if (values == null) {
+                return;
+            }
+        }
+        ResultExport export;
+        try {
+            export = ResultExport.start(session(), sql, values, file.toPath());
+        } catch (SQLException ex) {
+            statusLabel.setText("Error: " + ex.getMessage());
+            return;
+        }
+        exporting = export;
+        running = export.execution();
+        setBusy(true);
+        export.execution().result().whenComplete((done, err) -> SwingUtilities.invokeLater(() -> onExportFinished(export, err)));
+    }
+
+    private void onExportFinished(ResultExport export, Throwable err) {
+        QueryExecution<ResultExport> exec = export.execution();
+        running = null;
+        exporting = null;
+        setBusy(false);
+        if (err == null) {
+            statusLabel.setText(String.format("Exported to %s in %.1f s: %s, %s on disk",
+                    export.getTarget().getFileName(), exec.elapsedMillis() / 1000.0, export.progressText(),
+                    ColumnarResultStore.formatBytes(export.getFileBytes())));
+            return;
+        }
+        Throwable cause = (err instanceof CompletionException && err.getCause() != null) ? err.getCause() : err;
+        if (exec.isCancelled()) {
+            statusLabel.setText("Export cancelled after " + exec.rowsFetched() + " rows; partial file removed");
+        } else {
+            statusLabel.setText("Export failed: " + cause.getMessage());
+            JOptionPane.showMessageDialog(this, "Export failed: " + cause.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    /** Shows the plan of the selected statement, or the one at the caret; a cached plan is shown until refreshed. */
+    public void onExplain() {
+        if (!ready(this::onExplain)) {
+            return;
+        }
+        List<SqlScript.Part> parts = selectedParts();
+        if (parts.size() != 1 || !ExplainPlan.isExplainable(parts.get(0).sql)) {
+            JOptionPane.showMessageDialog(this, "Put the caret in a single SELECT, INSERT, UPDATE or DELETE (or select it) to explain.");
+            return;
+        }
+        String sql = parts.get(0).sql;
+        ExplainPlan cached = ExplainPlan.cached(profile.getUrl(), sql);
+        if (cached != null) {
+            PlanDialog.show(JOptionPane.getFrameForComponent(this), cached, this::explain);
+            return;
+        }
+        explain(sql);
+    }
+
+    /** Runs EXPLAIN for sql on this tab's session; EXPLAIN does not execute the statement. */
+    private void explain(String sql) {
+        if (!ready(() -> explain(sql))) {
+            return;
+        }
+        Map<String, Object> values = Collections.emptyMap();
+        Set<String> names = SqlParameters.parse(sql).names();
+        if (!names.isEmpty()) {
+            values = ParameterDialog.prompt(this, names);
+            if (values == null) {
+                return;
+            }
+        }
+        ConnectionPool.Session s;
+        try {
+            s = session();
+        } catch (SQLException ex) {
+            statusLabel.setText("Error: " + ex.getMessage());
+            return;
+        }
+        QueryExecution<ExplainPlan> exec = ExplainPlan.explain(s, sql, values);
+        running = exec;
+        statusLabel.setText("Explaining...");
+        setBusy(true);
+        exec.result().whenComplete((plan, err) -> SwingUtilities.invokeLater(() -> {
+            running = null;
+            setBusy(false);
+            if (err != null) {
+                Throwable cause = (err instanceof CompletionException && err.getCause() != null) ? err.getCause() : err;
+                statusLabel.setText(exec.isCancelled() ? "Explain cancelled" : "Explain failed: " + cause.getMessage());
+                if (!exec.isCancelled()) {
+                    JOptionPane.showMessageDialog(this, "Explain failed: " + cause.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                }
+                return;
+            }
+            int scans = plan.fullScans().size();
+            statusLabel.setText(String.format("Plan in %d ms%s", plan.tookMs,
+                    scans == 0 ? "" : ", " + scans + (scans == 1 ? " full scan" : " full scans")));
+            PlanDialog.show(JOptionPane.getFrameForComponent(this), plan, this::explain);
+        }));
+    }
+
+    /**
+     * Compares two tables or two queries, on this tab's profile or another;
+     * the query at the caret prefills both sides. Runs on the profiles' pools
+     * and lists the differences in the grid.
+     */
+    public void onCompare() {
+        if (!ready(this::onCompare)) {
+            return;
+        }
+        List<SqlScript.Part> parts = selectedParts();
+        String sql = parts.size() == 1 && SqlScript.isQuery(parts.get(0).sql) ? parts.get(0).sql : "";
+        DiffDialog.Choice choice = DiffDialog.prompt(this, DBConnection.profiles(), profile, sql);
+        if (choice == null) {
+            return;
+        }
+        DataDiff.Side left = choice.tables ? DataDiff.Side.table(choice.leftProfile, choice.left)
+                : DataDiff.Side.query(choice.leftProfile, choice.left);
+        DataDiff.Side right = choice.tables ? DataDiff.Side.table(choice.rightProfile, choice.right)
+                : DataDiff.Side.query(choice.rightProfile, choice.right);
+        DataDiff diff = DataDiff.start(left, right, choice.keys, choice.chunked);
+        diffing = diff;
+        running = diff.execution();
+        setBusy(true);
+        showModel(diff.getModel());
+        diff.execution().result().whenComplete((done, err) -> SwingUtilities.invokeLater(() -> onCompareFinished(diff, err)));
+    }
+
+    private void onCompareFinished(DataDiff diff, Throwable err) {
+        QueryExecution<DataDiff> exec = diff.execution();
+        running = null;
+        diffing = null;
+        setBusy(false);
+        if (err == null) {
+            long differences = diff.getAdded() + diff.getRemoved() + diff.getChanged();
+            statusLabel.setText(String.format("%s in %.1f s: %s", differences == 0 ? "No differences" : "Compared",
+                    exec.elapsedMillis() / 1000.0, diff.progressText()));
+            return;
+        }
+        Throwable cause = (err instanceof CompletionException && err.getCause() != null) ? err.getCause() : err;
+        if (exec.isCancelled()) {
+            statusLabel.setText("Compare stopped: " + diff.progressText());
+        } else {
+            statusLabel.setText("Compare failed: " + cause.getMessage());
+            JOptionPane.showMessageDialog(this, "Compare failed: " + cause.getMessage(), "Compare Data", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    /** The open large file, or null when the editor holds the whole buffer. */
+    public SqlFile getLargeFile() {
+        return largeFile;
+    }
+
+    /**
+     * Opens a SQL file into the editor. Files above editor.largeFileMb are
+     * indexed in the background instead, and the editor shows editor.windowKb
+     * of them at a time. False if the user kept unsaved changes to the shown
+     * part of a large file instead.
+     */
+    public boolean openFile(Path path) throws IOException {
+        if (!confirmDiscardWindow()) {
+            return false;
+        }
+        closeLargeFile();
+        long limit = Math.max(1, Settings.getInt("editor.largeFileMb", 20)) * 1024L * 1024L;
+        if (Files.size(path) <= limit) {
+            RSyntaxTextArea ta = editorPanel.getTextArea();
+            ta.setText(new String(Files.readAllBytes(path), StandardCharsets.UTF_8));
+            ta.setCaretPosition(0);
+            editorPanel.setFirstLineNumber(1);
+            windowEdited = false;
+            return true;
+        }
+        SqlFile file = SqlFile.open(path);
+        largeFile = file;
+        largePanel = new LargeFilePanel(file, new LargeFilePanel.Actions() {
+            @Override
+            public void show(long offset) {
+                showWindow(offset);
+            }
+
+            @Override
+            public void run(int from, int to) {
+                runFileRange(from, to);
+            }
+
+            @Override
+            public void saveAs() {
+                saveLargeFile();
+            }
+        });
+        JSplitPane fileSplit = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, largePanel, editorPanel);
+        fileSplit.setResizeWeight(0.3);
+        fileSplit.setDividerLocation(380);
+        split.setTopComponent(fileSplit);
+        windowEdited = false;
+        showWindow(0);
+        statusLabel.setText("Opened " + path.getFileName() + " in large-file mode; the editor shows part of it");
+        return true;
+    }
+
+    /** True unless the shown part of a large file was edited and the user wants to keep the changes. */
+    public boolean confirmDiscardWindow() {
+        return !windowEdited || window == null || JOptionPane.showConfirmDialog(this,
+                "Discard the changes to the shown part of " + largeFile.getPath().getFileName() + "?", "Large File",
+                JOptionPane.YES_NO_OPTION) == JOptionPane.YES_OPTION;
+    }
+
+    /** Shows the part of the large file around offset, keeping the current window if offset is in it. */
+    private void showWindow(long offset) {
+        RSyntaxTextArea ta = editorPanel.getTextArea();
+        if (window != null && offset >= window.start && offset < window.end) {
+            if (!windowEdited) {
+                ta.setCaretPosition(largeFile.text(window.start, offset).length());
+                ta.requestFocusInWindow();
+                return;
+            }
+        }
+        if (!confirmDiscardWindow()) {
+            return;
+        }
+        int maxBytes = Math.max(64, Settings.getInt("editor.windowKb", 1024)) * 1024;
+        SqlFile.Window w = largeFile.window(offset, maxBytes);
+        loadingWindow = true;
+        try {
+            ta.setText(w.text);
+        } finally {
+            loadingWindow = false;
+        }
+        window = w;
+        windowEdited = false;
+        // a cut line can't be run or written back
+        ta.setEditable(!w.truncated);
+        editorPanel.setFirstLineNumber(w.firstLine);
+        ta.setCaretPosition(Math.min(ta.getDocument().getLength(), largeFile.text(w.start, Math.max(w.start, offset)).length()));
+        ta.requestFocusInWindow();
+        int lastLine = w.firstLine + ta.getLineCount() - 1;
+        largePanel.setWindowText(String.format("Editor: lines %,d-%,d%s", w.firstLine, lastLine,
+                w.truncated ? " (line cut, read-only)" : ""));
+    }
+
+    /** Runs statements [from, to) of the large file, reading them from disk as the script gets to them. */
+    private void runFileRange(int from, int to) {
+        if (!ready(() -> runFileRange(from, to))) {
+            return;
+        }
+        // on a pooled connection like imports, so the session's transaction tracking never reads ahead through the file
+        runScript(profile, largeFile.statements(from, to), Collections.emptyMap());
+    }
+
+    /** Writes the large file with the edited window to a file chosen by the user, then opens that. */
+    private void saveLargeFile() {
+        if (window == null || window.truncated) {
+            JOptionPane.showMessageDialog(this, "The shown part of the file cuts a line and can't be saved.");
+            return;
+        }
+        if (saveChooser == null) {
+            saveChooser = new JFileChooser();
+            saveChooser.setDialogTitle("Save SQL file as");
+        }
+        saveChooser.setSelectedFile(largeFile.getPath().toFile());
+        if (saveChooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        Path target = saveChooser.getSelectedFile().toPath();
+        if (Files.exists(target) && JOptionPane.showConfirmDialog(this, target.getFileName() + " exists. Overwrite it?",
+                "Save As", JOptionPane.YES_NO_OPTION) != JOptionPane.YES_OPTION) {
+            return;
+        }
+        SqlFile file = largeFile;
+        SqlFile.Window w = window;
+        String text = editorPanel.getTextArea().getText();
+        statusLabel.setText("Saving " + target.getFileName() + "...");
+        CompletableFuture.runAsync(() -> {
+            try {
+                file.saveWithReplacement(target, w.start, w.end, text);
+            } catch (IOException ex) {
+                throw new CompletionException(ex);
+            }
+        }).whenComplete((v, err) -> SwingUtilities.invokeLater(() -> {
+            if (err != null) {
+                Throwable cause = err.getCause() != null ? err.getCause() : err;
+                statusLabel.setText("Save failed: " + cause.getMessage());
+                JOptionPane.showMessageDialog(this, "Save failed: " + cause.getMessage(), "Save As", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            try {
+                windowEdited = false;
+                openFile(target);
+                statusLabel.setText("Saved " + target.getFileName());
+            } catch (IOException ex) {
+                statusLabel.setText("Saved " + target.getFileName() + " but could not reopen it: " + ex.getMessage());
+            }
+        }));
+    }
+
+    private void closeLargeFile() {
+        if (largeFile == null) return;
+        largePanel.stop();
+        split.setTopComponent(editorPanel);
+        editorPanel.getTextArea().setEditable(true);
+        largeFile.close();
+        largeFile = null;
+        largePanel = null;
+        window = null;
+    }
+
+    /** Loads a CSV / JSON Lines file into a table of this tab's profile. */
+    public void onImport(String catalog, String table) {
+        if (!ready(() -> onImport(catalog, table))) {
+            return;
+        }
+        if (importChooser == null) {
+            importChooser = new JFileChooser();
+            importChooser.setDialogTitle("Import data");
+            importChooser.setFileFilter(new javax.swing.filechooser.FileNameExtensionFilter(
+                    "CSV or JSON Lines (.csv, .jsonl, optionally .gz)", "csv", "jsonl", "ndjson", "json", "gz"));
+        }
+        if (importChooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        Path file = importChooser.getSelectedFile().toPath();
+        statusLabel.setText("Reading " + file.getFileName() + "...");
+        // header and table columns are read off the EDT; the columns usually come from the schema cache
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                String[] header = BulkImport.readHeader(file);
+                List<SchemaCatalog.ColumnInfo> columns = SchemaCatalog.forProfile(profile).columns(catalog, table);
+                return new Object[]{header, columns};
+            } catch (Exception ex) {
+                throw new CompletionException(ex);
+            }
+        }).whenComplete((loaded, err) -> SwingUtilities.invokeLater(() -> {
+            statusLabel.setText("Ready");
+            if (err != null) {
+                Throwable cause = err.getCause() != null ? err.getCause() : err;
+                JOptionPane.showMessageDialog(this, "Cannot import " + file.getFileName() + ": " + cause.getMessage(),
+                        "Import", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            String[] header = (String[]) loaded[0];
+            @SuppressWarnings("unchecked")
+            List<SchemaCatalog.ColumnInfo> columns = (List<SchemaCatalog.ColumnInfo>) loaded[1];
+            List<String> names = new ArrayList<>();
+            for (SchemaCatalog.ColumnInfo col : columns) names.add(col.name);
+            String[] targets = ImportDialog.prompt(this, file.getFileName().toString(), table, header, names,
+                    BulkImport.defaultMapping(header, columns));
+            if (targets == null) {
+                return;
+            }
+            if (running != null) {
+                JOptionPane.showMessageDialog(this, "Wait for the running statement to finish, or stop it.");
+                return;
+            }
+            BulkImport imp;
+            try {
+                imp = BulkImport.start(profile, file, catalog, table, targets);
+            } catch (IOException | IllegalArgumentException ex) {
+                JOptionPane.showMessageDialog(this, ex.getMessage(), "Import", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            importing = imp;
+            running = imp.execution();
+            setBusy(true);
+            imp.execution().result().whenComplete((done, importErr) -> SwingUtilities.invokeLater(() -> onImportFinished(imp, importErr)));
+        }));
+    }
+
+    private void onImportFinished(BulkImport imp, Throwable err) {
+        QueryExecution<BulkImport> exec = imp.execution();
+        running = null;
+        importing = null;
+        setBusy(false);
+        String rejects = imp.getRejected() == 0 ? "" : " - rejected rows are listed in " + imp.getRejectsFile();
+        if (err == null) {
+            statusLabel.setText(String.format("Imported in %.1f s with %s: %s%s", exec.elapsedMillis() / 1000.0,
+                    imp.getMethod(), imp.progressText(), rejects));
+            return;
+        }
+        Throwable cause = (err instanceof CompletionException && err.getCause() != null) ? err.getCause() : err;
+        if (exec.isCancelled()) {
+            statusLabel.setText("Import stopped: " + imp.progressText() + " committed" + rejects);
+        } else {
+            statusLabel.setText("Import failed after " + imp.progressText() + ": " + cause.getMessage());
+            JOptionPane.showMessageDialog(this, "Import failed: " + cause.getMessage() + "\n" + exec.rowsFetched()
+                    + " rows were committed before the error." + rejects, "Import", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    private void run(List<SqlScript.Part> parts) {
+        if (parts.isEmpty()) {
+            JOptionPane.showMessageDialog(this, "Please enter SQL to execute.");
+            return;
+        }
+        // :name / ? placeholders are bound from a prompt
+        Set<String> names = new LinkedHashSet<>();
+        for (SqlScript.Part p : parts) {
+            names.addAll(SqlParameters.parse(p.sql).names());
+        }
+        Map<String, Object> values = Collections.emptyMap();
+        if (!names.isEmpty()) {
+            values = ParameterDialog.prompt(this, names);
+            if (values == null) {
+                return;
+            }
+        }
+        ConnectionPool.Session s;
+        try {
+            s = session();
+        } catch (SQLException ex) {
+            statusLabel.setText("Error: " + ex.getMessage());
+            return;
+        }
+        if (parts.size() == 1 && SqlScript.isQuery(parts.get(0).sql)) {
+            // a single query streams into the grid
+            setBusy(true);
+            QueryExecution<ResultTableModel> exec = QueryExecutor.submit(s, parts.get(0).sql, values);
+            running = exec;
+            exec.result().whenComplete((model, err) -> SwingUtilities.invokeLater(() -> onFirstPage(exec, model, err)));
+        } else {
+            runScript(s, parts, values);
+        }
+    }
+
+    private void runScript(ConnectionSource source, List<SqlScript.Part> parts, Map<String, Object> values) {
+        QueryExecution<ScriptResultModel> exec = ScriptRunner.submit(source, parts, values);
+        running = exec;
+        scriptStatements = parts.size();
+        setBusy(true);
+        ScriptResultModel model = exec.result().join();   // completes on submit
+        showModel(model);
+        model.finished().thenRun(() -> SwingUtilities.invokeLater(() -> onScriptFinished(exec, model)));
+    }
+
+    private void setBusy(boolean busy) {
+        if (largePanel != null) largePanel.setRunning(busy);
+        if (busy) {
+            runTimer.start();
+        } else {
+            runTimer.stop();
+            paused = false;
+        }
+        stateListener.run();
+    }
+
+    /** Puts a new model in the grid, releasing spill files of the previous result. */
+    private void showModel(TableModel model) {
+        TableModel previous = resultTable.getModel();
+        resultTable.setModel(model);   // also stops the old result's sorting
+        if (previous instanceof ResultTableModel) {
+            ((ResultTableModel) previous).getStore().close();
+        }
+        stateListener.run();
+    }
+
+    /** Selects the first cell after view row from that contains text. */
+    public void find(String text, int from) {
+        ResultSorter sorter = resultTable.getResultSorter();
+        if (sorter == null || text.isEmpty()) {
+            return;
+        }
+        sorter.find(text, from, hit -> {
+            if (hit == null) {
+                statusLabel.setText("\"" + text + "\" not found");
+                return;
+            }
+            int column = resultTable.convertColumnIndexToView(hit[1]);
+            resultTable.changeSelection(hit[0], Math.max(0, column), false, false);
+            statusLabel.setText(String.format("\"%s\" found in row %,d", text, hit[0] + 1));
+        });
+    }
+
+    private void onFirstPage(QueryExecution<ResultTableModel> exec, ResultTableModel model, Throwable err) {
+        if (err != null) {
+            onFinished(exec, null, err);
+            return;
+        }
+        // show the first page now; the model keeps growing while the query streams
+        streaming = model;
+        showModel(model);
+        model.loaded().whenComplete((v, loadErr) -> SwingUtilities.invokeLater(() -> onFinished(exec, model, loadErr)));
+    }
+
+    public void onStop() {
+        QueryExecution<?> exec = running;
+        if (exec != null) {
+            statusLabel.setText("Cancelling...");
+            exec.cancel();
+        }
+    }
+
+    private void onFinished(QueryExecution<ResultTableModel> exec, ResultTableModel model, Throwable err) {
+        running = null;
+        statusLabel.setToolTipText(null);
+        streaming = null;
+        setBusy(false);
+        if (afterStop != null) {
+            // after this status is shown
+            SwingUtilities.invokeLater(afterStop);
+            afterStop = null;
+        }
+        long took = exec.elapsedMillis();
+        if (err == null && model.isFromCache()) {
+            long age = (System.currentTimeMillis() - model.getCachedAt()) / 1000;
+            statusLabel.setText("FROM CACHE: " + exec.rowsFetched() + " rows, cached " + age
+                    + " s ago (add /* nocache */ to run against the database)");
+            return;
+        }
+        if (err == null) {
+            long rows = exec.rowsFetched();
+            String text = "Executed successfully: " + rows + " rows in " + exec.activeMillis() + " ms ("
+                    + exec.timingText() + "), " + ColumnarResultStore.formatBytes(model.getMemoryBytes()) + " in memory";
+            if (model.getStopReason() != null) {
+                text += " (fetching stopped: " + model.getStopReason() + ")";
+            }
+            statusLabel.setText(text);
+            statusLabel.setToolTipText(model.getStore().describeMemory());
+            return;
+        }
+        Throwable cause = (err instanceof CompletionException && err.getCause() != null) ? err.getCause() : err;
+        if (exec.isCancelled()) {
+            statusLabel.setText(model == null
+                    ? "Query cancelled after " + took + " ms"
+                    : "Stopped after " + exec.rowsFetched() + " rows in " + took + " ms");
+        } else if (cause instanceof SQLTimeoutException) {
+            statusLabel.setText("Query timed out after " + took + " ms");
+        } else {
+            statusLabel.setText("Error: " + cause.getMessage());
+            JOptionPane.showMessageDialog(this, "SQL Error: " + cause.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    private void onScriptFinished(QueryExecution<ScriptResultModel> exec, ScriptResultModel model) {
+        running = null;
+        scriptStatements = 0;
+        setBusy(false);
+        long took = exec.elapsedMillis();
+        String summary = String.format("%,d of %,d statements in %,d ms, %,d rows affected",
+                exec.rowsFetched(), model.getStatementCount(), took, model.getUpdateCount());
+        if (model.getErrorCount() > 0) {
+            summary += ", " + model.getErrorCount() + " errors";
+        }
+        if (session != null && session.isTransactionOpen()) {
+            summary += " - transaction open, COMMIT or ROLLBACK to end it";
+        }
+        Throwable failure = model.getFailure();
+        if (failure == null) {
+            statusLabel.setText("Script finished: " + summary);
+        } else if (exec.isCancelled()) {
+            statusLabel.setText("Script stopped: " + summary);
+        } else {
+            statusLabel.setText("Script failed: " + summary + " - " + failure.getMessage());
+        }
+    }
+
+    /** Stops any running statement and closes the session, rolling back an open transaction. */
+    public void close() {
+        afterStop = null;
+        onStop();
+        TableModel model = resultTable.getModel();
+        resultTable.setModel(new javax.swing.table.DefaultTableModel());
+        if (model instanceof ResultTableModel) {
+            ((ResultTableModel) model).getStore().close();
+        }
+        if (session != null) {
+            session.close();
+            session = null;
+        }
+        closeLargeFile();
+    }
+}
@@ -0,0 +1,50 @@
+package db;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ResultCacheTest {
+    private static final String URL = "jdbc:postgresql://localhost/db";
+
+    @BeforeEach
+    void enable() {
+        Properties p = new Properties();
+        p.setProperty("cache.enabled", "true");
+        Settings.load(p);
+    }
+
+    @AfterEach
+    void reset() {
+        Settings.load(new Properties());
+    }
+
+    @Test
+    void queriesDifferingAfterHashGetDifferentKeys() {
+        // '#' is XOR on PostgreSQL, not a comment
+        String a = ResultCache.keyFor(URL, "SELECT a # b FROM t", Map.of());
+        String b = ResultCache.keyFor(URL, "SELECT a # c FROM t", Map.of());
+        assertNotEquals(a, b);
+    }
+
+    @Test
+    void boundValuesArePartOfTheKey() {
+        String sql = "SELECT * FROM t WHERE id = :id";
+        assertEquals(ResultCache.keyFor(URL, sql, Map.of("id", 1)), ResultCache.keyFor(URL, sql, Map.of("id", 1)));
+        assertNotEquals(ResultCache.keyFor(URL, sql, Map.of("id", 1)), ResultCache.keyFor(URL, sql, Map.of("id", "1")));
+    }
+
+    @Test
+    void uncacheableQueriesHaveNoKey() {
+        assertNull(ResultCache.keyFor(URL, "SELECT * FROM t FOR UPDATE", Map.of()));
+        assertNull(ResultCache.keyFor(URL, "SELECT /* nocache */ * FROM t", Map.of()));
+        assertNull(ResultCache.keyFor(URL, "UPDATE t SET a = 1", Map.of()));
+    }
+}
@@ -0,0 +1,105 @@
+package db;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SchemaCatalogTest {
+    @TempDir
+    static Path cacheDir;
+
+    private static SchemaCatalog catalog;
+    private static String name;
+
+    @BeforeAll
+    static void connect() throws SQLException {
+        Properties p = new Properties();
+        p.setProperty("jdbc.url", "jdbc:h2:mem:schema_catalog_test;DB_CLOSE_DELAY=-1");
+        p.setProperty("jdbc.driver", "org.h2.Driver");
+        p.setProperty("history.enabled", "false");
+        p.setProperty("schema.cacheDir", cacheDir.toString());
+        DBConnection.configure(p);
+        execute("CREATE TABLE keep (id INT, name VARCHAR(10))");
+        catalog = SchemaCatalog.forProfile(DBConnection.active());
+        name = catalog.currentCatalog();
+    }
+
+    @AfterAll
+    static void close() {
+        DBConnection.shutdown();
+    }
+
+    private static void execute(String sql) throws SQLException {
+        try (Connection conn = DBConnection.getConnection(); Statement stmt = conn.createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+
+    private static List<String> tableNames() throws SQLException {
+        List<String> names = new ArrayList<>();
+        for (SchemaCatalog.TableInfo t : catalog.tables(name)) names.add(t.name);
+        return names;
+    }
+
+    @Test
+    void droppedTableGetsNoPhantomEntry() throws SQLException {
+        execute("CREATE TABLE gone (id INT)");
+        catalog.refresh(name);
+        assertEquals(1, catalog.columns(name, "GONE").size());
+        execute("DROP TABLE gone");
+        catalog.refresh(name);
+        assertTrue(catalog.refreshTable(name, "GONE").isEmpty());
+        assertFalse(tableNames().contains("GONE"));
+    }
+
+    @Test
+    void dropRacingColumnLoadStaysDropped() throws Exception {
+        assertEquals(2, catalog.columns(name, "KEEP").size());
+        for (int i = 0; i < 50; i++) {
+            String table = "RACE" + i;
+            execute("CREATE TABLE " + table + " (id INT)");
+            catalog.refresh(name);
+            assertEquals(1, catalog.columns(name, table).size());
+            execute("DROP TABLE " + table);
+
+            CountDownLatch start = new CountDownLatch(1);
+            CompletableFuture<Void> refresh = CompletableFuture.runAsync(() -> run(start, () -> catalog.refresh(name)));
+            CompletableFuture<Void> load = CompletableFuture.runAsync(() -> run(start, () -> catalog.refreshTable(name, table)));
+            start.countDown();
+            CompletableFuture.allOf(refresh, load).join();
+
+            assertFalse(tableNames().contains(table), table + " came back");
+            assertNotNull(catalog.columns(name, "KEEP"));
+            assertEquals(2, catalog.columns(name, "KEEP").size());
+        }
+    }
+
+    private interface Load {
+        void run() throws SQLException;
+    }
+
+    private static void run(CountDownLatch start, Load load) {
+        try {
+            start.await();
+            load.run();
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+}
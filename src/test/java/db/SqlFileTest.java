@@ -0,0 +1,48 @@
+package db;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SqlFileTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void windowInsideLongLineStartsAtCharacterAndIsTruncated() throws Exception {
+        // one line of two-byte characters, longer than the window
+        String longLine = "INSERT INTO t VALUES ('" + "\u00e9".repeat(3000) + "');";
+        Path path = dir.resolve("long.sql");
+        Files.write(path, ("SELECT 1;\n" + longLine + "\nSELECT 2;\n").getBytes(StandardCharsets.UTF_8));
+        try (SqlFile file = SqlFile.open(path)) {
+            file.indexed().get();
+            SqlFile.Window w = file.window(5002, 1024);
+            assertTrue(w.truncated);
+            assertEquals(0, (w.start - 10 - 23) % 2, "starts inside a character");
+            assertFalse(w.text.contains("\uFFFD"));
+
+            SqlFile.Window first = file.window(0, 1024);
+            assertEquals(0, first.start);
+        }
+    }
+
+    @Test
+    void windowOfShortLinesIsNotTruncated() throws Exception {
+        Path path = dir.resolve("short.sql");
+        Files.write(path, "SELECT 1;\nSELECT 2;\nSELECT 3;\n".getBytes(StandardCharsets.UTF_8));
+        try (SqlFile file = SqlFile.open(path)) {
+            file.indexed().get();
+            SqlFile.Window w = file.window(12, 1024);
+            assertFalse(w.truncated);
+            assertEquals(10, w.start);
+            assertEquals(2, w.firstLine);
+        }
+    }
+}